@@ -1,5 +1,5 @@
 ------------------------------------------------------------
--- SCHEMA: POSTS, COMMENTS, TAGS, POST_TAGS
+-- SCHEMA: POSTS, COMMENTS, TAGS, POST_TAGS, IMAGES
 ------------------------------------------------------------
 
 -- POSTS
@@ -38,6 +38,33 @@ CREATE TABLE IF NOT EXISTS post_tags (
     PRIMARY KEY (post_id, tag_id)
 );
 
+-- IMAGES (post -> image file; path is relative to uploads.root)
+CREATE TABLE IF NOT EXISTS images (
+    post_id      BIGINT PRIMARY KEY REFERENCES posts(id) ON DELETE CASCADE,
+    path         VARCHAR(1024) NOT NULL,
+    hash         CHAR(64)     NOT NULL,
+    content_type VARCHAR(100) NOT NULL,
+    size         BIGINT       NOT NULL,
+    width        INTEGER,
+    height       INTEGER,
+    blur_hash    VARCHAR(128),
+    updated_at   TIMESTAMPTZ  NOT NULL DEFAULT NOW()
+);
+
+-- CHANGE_LOG (append-only feed of post and comment writes, read by GET /api/changes)
+-- Feed order is (txid, seq); see ChangeLogRepositoryImpl
+CREATE SEQUENCE IF NOT EXISTS change_log_seq;
+
+CREATE TABLE IF NOT EXISTS change_log (
+    seq        BIGINT       PRIMARY KEY DEFAULT nextval('change_log_seq'),
+    txid       BIGINT       NOT NULL DEFAULT pg_current_xact_id()::text::bigint,
+    entity     VARCHAR(16)  NOT NULL,
+    entity_id  BIGINT       NOT NULL,
+    post_id    BIGINT       NOT NULL,
+    operation  VARCHAR(16)  NOT NULL,
+    created_at TIMESTAMPTZ  NOT NULL DEFAULT NOW()
+);
+
 ------------------------------------------------------------
 -- INDEXES
 ------------------------------------------------------------
@@ -51,5 +78,16 @@ CREATE INDEX IF NOT EXISTS idx_post_tags_tag_id_post_id
 CREATE INDEX IF NOT EXISTS idx_post_tags_post_id_tag_id
     ON post_tags(post_id, tag_id);
 
-CREATE INDEX IF NOT EXISTS idx_posts_created_at_desc
-    ON posts (created_at DESC);
+-- Matches the listing order, so a page is read straight off the index
+DROP INDEX IF EXISTS idx_posts_created_at_desc;
+CREATE INDEX IF NOT EXISTS idx_posts_created_at_id_desc
+    ON posts (created_at DESC, id DESC);
+
+CREATE INDEX IF NOT EXISTS idx_images_hash
+    ON images (hash);
+
+CREATE INDEX IF NOT EXISTS idx_change_log_created_at
+    ON change_log (created_at);
+
+CREATE INDEX IF NOT EXISTS idx_change_log_txid_seq
+    ON change_log (txid, seq);
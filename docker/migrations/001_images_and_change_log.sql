@@ -0,0 +1,42 @@
+-- Brings a database created from the original schema (posts, comments, tags, post_tags) up to
+-- 001_schema.sql. Every statement is a no-op where its object already exists, so it is safe to re-run.
+BEGIN;
+
+CREATE TABLE IF NOT EXISTS images (
+    post_id      BIGINT PRIMARY KEY REFERENCES posts(id) ON DELETE CASCADE,
+    path         VARCHAR(1024) NOT NULL,
+    hash         CHAR(64)     NOT NULL,
+    content_type VARCHAR(100) NOT NULL,
+    size         BIGINT       NOT NULL,
+    width        INTEGER,
+    height       INTEGER,
+    blur_hash    VARCHAR(128),
+    updated_at   TIMESTAMPTZ  NOT NULL DEFAULT NOW()
+);
+
+CREATE SEQUENCE IF NOT EXISTS change_log_seq;
+
+CREATE TABLE IF NOT EXISTS change_log (
+    seq        BIGINT       PRIMARY KEY DEFAULT nextval('change_log_seq'),
+    txid       BIGINT       NOT NULL DEFAULT pg_current_xact_id()::text::bigint,
+    entity     VARCHAR(16)  NOT NULL,
+    entity_id  BIGINT       NOT NULL,
+    post_id    BIGINT       NOT NULL,
+    operation  VARCHAR(16)  NOT NULL,
+    created_at TIMESTAMPTZ  NOT NULL DEFAULT NOW()
+);
+
+DROP INDEX IF EXISTS idx_posts_created_at_desc;
+CREATE INDEX IF NOT EXISTS idx_posts_created_at_id_desc
+    ON posts (created_at DESC, id DESC);
+
+CREATE INDEX IF NOT EXISTS idx_images_hash
+    ON images (hash);
+
+CREATE INDEX IF NOT EXISTS idx_change_log_created_at
+    ON change_log (created_at);
+
+CREATE INDEX IF NOT EXISTS idx_change_log_txid_seq
+    ON change_log (txid, seq);
+
+COMMIT;
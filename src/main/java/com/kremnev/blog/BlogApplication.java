@@ -2,8 +2,10 @@ package com.kremnev.blog;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class BlogApplication {
     public static void main(String[] args) { SpringApplication.run(BlogApplication.class, args); }
 }
@@ -0,0 +1,58 @@
+package com.kremnev.blog.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size Bloom filter over long keys. Adds are thread-safe and lock-free.
+ */
+final class BloomFilter {
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashCount;
+
+    BloomFilter(long expectedInsertions, double falsePositiveRate) {
+        long n = Math.max(expectedInsertions, 1);
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (m + 63) >>> 6));
+        this.bits = new AtomicLongArray(words);
+        this.bitCount = (long) words << 6;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / n * Math.log(2)));
+    }
+
+    void add(long key) {
+        long hash = mix(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long bit = Integer.toUnsignedLong(h1 + i * h2) % bitCount;
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current;
+            while (((current = bits.get(word)) & mask) == 0 && !bits.compareAndSet(word, current, current | mask)) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    boolean mightContain(long key) {
+        long hash = mix(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long bit = Integer.toUnsignedLong(h1 + i * h2) % bitCount;
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    long sizeInBytes() {
+        return bitCount >>> 3;
+    }
+
+    // Stafford variant 13 of the MurmurHash3 finalizer
+    private static long mix(long key) {
+        key = (key ^ (key >>> 30)) * 0xbf58476d1ce4e5b9L;
+        key = (key ^ (key >>> 27)) * 0x94d049bb133111ebL;
+        return key ^ (key >>> 31);
+    }
+}
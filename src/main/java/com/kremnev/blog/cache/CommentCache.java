@@ -0,0 +1,160 @@
+package com.kremnev.blog.cache;
+
+import com.kremnev.blog.model.Comment;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Per-post cache of comment lists, bounded by an estimate of the bytes it retains
+ * rather than by entry count. Entries are immutable arrays; writers replace them.
+ */
+@Component
+public class CommentCache {
+    // Rough retained size of one Comment: the object itself, two boxed Longs,
+    // the String header and two OffsetDateTime graphs.
+    static final long COMMENT_OVERHEAD_BYTES = 240;
+    // Map node, boxed key, Entry and array header.
+    static final long ENTRY_OVERHEAD_BYTES = 112;
+
+    private final long maxBytes;
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    private long totalBytes;
+    private long version;
+
+    private record Entry(Comment[] comments, long bytes) {}
+
+    public CommentCache(@Value("${cache.comments.max-size:16MB}") DataSize maxSize, MeterRegistry registry) {
+        this.maxBytes = maxSize.toBytes();
+        this.hits = registry.counter("blog.cache.comments.requests", "result", "hit");
+        this.misses = registry.counter("blog.cache.comments.requests", "result", "miss");
+        this.evictions = registry.counter("blog.cache.comments.evictions");
+        Gauge.builder("blog.cache.comments.size", this, CommentCache::footprintBytes)
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("blog.cache.comments.entries", this, CommentCache::size)
+                .register(registry);
+    }
+
+    public synchronized Optional<List<Comment>> get(Long postId) {
+        Entry entry = entries.get(postId);
+        if (entry == null) {
+            misses.increment();
+            return Optional.empty();
+        }
+        hits.increment();
+        return Optional.of(view(entry.comments));
+    }
+
+    /**
+     * Returns a token to pass to {@link #put} so that a list loaded from the database
+     * is dropped if any write went through the cache while it was being loaded.
+     */
+    public synchronized long version() {
+        return version;
+    }
+
+    public synchronized void put(Long postId, List<Comment> comments, long loadedAtVersion) {
+        if (loadedAtVersion != version) return;
+        store(postId, comments.toArray(Comment[]::new));
+    }
+
+    public synchronized void added(Comment comment) {
+        version++;
+        Entry entry = entries.get(comment.getPostId());
+        if (entry == null) return;
+
+        Comment[] updated = Arrays.copyOf(entry.comments, entry.comments.length + 1);
+        updated[updated.length - 1] = comment;
+        store(comment.getPostId(), updated);
+    }
+
+    public synchronized void updated(Comment comment) {
+        version++;
+        Entry entry = entries.get(comment.getPostId());
+        if (entry == null) return;
+
+        Comment[] updated = entry.comments.clone();
+        for (int i = 0; i < updated.length; i++) {
+            if (updated[i].getId().equals(comment.getId())) {
+                updated[i] = comment;
+                store(comment.getPostId(), updated);
+                return;
+            }
+        }
+        evict(comment.getPostId());
+    }
+
+    public synchronized void removed(Long postId, Long commentId) {
+        version++;
+        Entry entry = entries.get(postId);
+        if (entry == null) return;
+
+        Comment[] updated = Arrays.stream(entry.comments)
+                .filter(c -> !c.getId().equals(commentId))
+                .toArray(Comment[]::new);
+        store(postId, updated);
+    }
+
+    public synchronized void evict(Long postId) {
+        version++;
+        Entry removed = entries.remove(postId);
+        if (removed != null) totalBytes -= removed.bytes;
+    }
+
+    public synchronized long footprintBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void store(Long postId, Comment[] comments) {
+        Entry previous = entries.remove(postId);
+        if (previous != null) totalBytes -= previous.bytes;
+
+        long bytes = estimateBytes(comments);
+        if (bytes > maxBytes) return;
+
+        entries.put(postId, new Entry(comments, bytes));
+        totalBytes += bytes;
+
+        Iterator<Map.Entry<Long, Entry>> eldest = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<Long, Entry> victim = eldest.next();
+            if (victim.getKey().equals(postId)) continue;
+            totalBytes -= victim.getValue().bytes;
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    static long estimateBytes(Comment[] comments) {
+        long bytes = ENTRY_OVERHEAD_BYTES + 4L * comments.length;
+        for (Comment comment : comments) {
+            String text = comment.getText();
+            bytes += COMMENT_OVERHEAD_BYTES + (text == null ? 0 : 2L * text.length());
+        }
+        return bytes;
+    }
+
+    private static List<Comment> view(Comment[] comments) {
+        return Collections.unmodifiableList(Arrays.asList(comments));
+    }
+}
@@ -0,0 +1,67 @@
+package com.kremnev.blog.cache;
+
+/**
+ * Approximate, aging access counts for string keys (a count-min sketch with 4-bit-style
+ * saturating counters). After every {@code sampleSize} increments all counts are halved,
+ * so keys that were popular long ago lose to keys that are popular now.
+ */
+final class FrequencySketch {
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+
+    private final int[] counters;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int expectedKeys) {
+        int width = Integer.highestOneBit(Math.max(64, expectedKeys * 4) - 1) << 1;
+        this.counters = new int[width];
+        this.mask = width - 1;
+        this.sampleSize = Math.max(640, expectedKeys * 10);
+    }
+
+    synchronized void increment(String key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = indexOf(hash, i);
+            if (counters[index] < MAX_COUNT) {
+                counters[index]++;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) reset();
+    }
+
+    synchronized int frequency(String key) {
+        int hash = spread(key.hashCode());
+        int min = MAX_COUNT;
+        for (int i = 0; i < DEPTH; i++) {
+            min = Math.min(min, counters[indexOf(hash, i)]);
+        }
+        return min;
+    }
+
+    long sizeInBytes() {
+        return 4L * counters.length;
+    }
+
+    private void reset() {
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] >>>= 1;
+        }
+        additions /= 2;
+    }
+
+    private int indexOf(int hash, int row) {
+        int h = (hash + row * 0x9E3779B9) * 0x85EBCA6B;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x45D9F3B;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,166 @@
+package com.kremnev.blog.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the payloads of small, frequently requested images in direct buffers, keyed by
+ * content hash, so hot images are served without a filesystem read. The payloads live off the
+ * heap; writing one still copies it into the container's output buffer.
+ * <p>
+ * The cache is bounded by total bytes. A newcomer only displaces a resident entry if its
+ * recent request frequency is higher (TinyLFU admission), so a burst of one-off images
+ * cannot flush the hot set. Native memory of evicted buffers is released when they are
+ * collected; size {@code -XX:MaxDirectMemorySize} with some headroom over the budget.
+ */
+@Component
+public class ImageBytesCache {
+    // Resident entries compared against a newcomer when the cache is full
+    private static final int EVICTION_SAMPLE = 8;
+    private static final long TYPICAL_ENTRY_BYTES = 16 * 1024;
+
+    private record Entry(ByteBuffer bytes) {}
+
+    private final boolean enabled;
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final FrequencySketch sketch;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    private long residentBytes;
+
+    public ImageBytesCache(@Value("${cache.images.enabled:false}") boolean enabled,
+                           @Value("${cache.images.max-size:64MB}") DataSize maxSize,
+                           @Value("${cache.images.max-entry-size:256KB}") DataSize maxEntrySize,
+                           MeterRegistry registry) {
+        this.enabled = enabled;
+        this.maxBytes = maxSize.toBytes();
+        this.maxEntryBytes = Math.min(maxEntrySize.toBytes(), maxBytes);
+        this.sketch = new FrequencySketch((int) Math.min(1 << 20, Math.max(1, maxBytes / TYPICAL_ENTRY_BYTES)));
+        this.hits = registry.counter("blog.cache.images.requests", "result", "hit");
+        this.misses = registry.counter("blog.cache.images.requests", "result", "miss");
+        this.evictions = registry.counter("blog.cache.images.evictions");
+        Gauge.builder("blog.cache.images.size", this, ImageBytesCache::residentBytes)
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("blog.cache.images.hit.ratio", this, ImageBytesCache::hitRatio)
+                .register(registry);
+    }
+
+    /**
+     * Returns a read-only view of the cached payload, loading {@code file} into the cache
+     * when it is small enough and frequent enough to be worth a slot.
+     */
+    public Optional<ByteBuffer> get(String hash, Path file, long size) throws IOException {
+        if (!enabled) return Optional.empty();
+
+        sketch.increment(hash);
+        Entry entry = entries.get(hash);
+        if (entry != null) {
+            hits.increment();
+            return Optional.of(entry.bytes.duplicate());
+        }
+
+        misses.increment();
+        if (size > maxEntryBytes || !hasRoomFor(hash, size)) return Optional.empty();
+
+        ByteBuffer bytes = load(file, size);
+        return admit(hash, bytes) ? Optional.of(bytes.duplicate()) : Optional.empty();
+    }
+
+    /**
+     * Drops the payload and every derived payload (keys {@code <hash>-...}) of a content hash.
+     */
+    public synchronized void invalidate(String hash) {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Entry> e = it.next();
+            if (e.getKey().equals(hash) || e.getKey().startsWith(hash + "-")) {
+                residentBytes -= e.getValue().bytes.capacity();
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized long residentBytes() {
+        return residentBytes;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private double hitRatio() {
+        double total = hits.count() + misses.count();
+        return total == 0 ? 0 : hits.count() / total;
+    }
+
+    // Cheap pre-check so files that would be rejected anyway are not read
+    private synchronized boolean hasRoomFor(String hash, long size) {
+        return residentBytes + size <= maxBytes || sketch.frequency(hash) > lowestSampledFrequency();
+    }
+
+    private synchronized boolean admit(String hash, ByteBuffer bytes) {
+        if (entries.containsKey(hash)) return true;
+
+        int frequency = sketch.frequency(hash);
+        while (residentBytes + bytes.capacity() > maxBytes) {
+            String victim = null;
+            int victimFrequency = Integer.MAX_VALUE;
+            int sampled = 0;
+            for (String key : entries.keySet()) {
+                int f = sketch.frequency(key);
+                if (f < victimFrequency) {
+                    victim = key;
+                    victimFrequency = f;
+                }
+                if (++sampled == EVICTION_SAMPLE) break;
+            }
+            if (victim == null || victimFrequency >= frequency) return false;
+
+            residentBytes -= entries.remove(victim).bytes.capacity();
+            evictions.increment();
+        }
+
+        entries.put(hash, new Entry(bytes));
+        residentBytes += bytes.capacity();
+        return true;
+    }
+
+    private int lowestSampledFrequency() {
+        int lowest = Integer.MAX_VALUE;
+        int sampled = 0;
+        for (String key : entries.keySet()) {
+            lowest = Math.min(lowest, sketch.frequency(key));
+            if (++sampled == EVICTION_SAMPLE) break;
+        }
+        return lowest;
+    }
+
+    private static ByteBuffer load(Path file, long size) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocateDirect((int) size);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (bytes.hasRemaining()) {
+                if (channel.read(bytes) == -1) throw new IOException("File " + file + " is shorter than " + size + " bytes");
+            }
+        }
+        return bytes.flip().asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,78 @@
+package com.kremnev.blog.cache;
+
+import com.kremnev.blog.model.ImageRef;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Short-lived cache of each post's image row, so serving an image that was read recently needs
+ * no database connection and keeps working while slow queries hold every JDBC permit.
+ * Writes in this instance, including deleting the post, evict it; writes by other instances
+ * show up within the TTL.
+ */
+@Component
+public class ImageRefCache {
+
+    private record Entry(ImageRef image, long expiresAt) {}
+
+    private final long ttlNanos;
+    private final Map<Long, Entry> entries;
+    private final Counter hits;
+    private final Counter misses;
+
+    private long version;
+
+    public ImageRefCache(@Value("${cache.image-refs.ttl:10s}") Duration ttl,
+                         @Value("${cache.image-refs.max-entries:10000}") int maxEntries,
+                         MeterRegistry registry) {
+        this.ttlNanos = ttl.toNanos();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.hits = registry.counter("blog.cache.image-refs.requests", "result", "hit");
+        this.misses = registry.counter("blog.cache.image-refs.requests", "result", "miss");
+    }
+
+    public synchronized Optional<ImageRef> get(long postId) {
+        Entry entry = entries.get(postId);
+        if (entry == null || entry.expiresAt - System.nanoTime() <= 0) {
+            if (entry != null) entries.remove(postId);
+            misses.increment();
+            return Optional.empty();
+        }
+        hits.increment();
+        return Optional.of(entry.image);
+    }
+
+    /**
+     * Returns a token to pass to {@link #put} so that a row read from the database is dropped
+     * if the post's image was evicted while it was being read.
+     */
+    public synchronized long version() {
+        return version;
+    }
+
+    public synchronized void put(ImageRef image, long loadedAtVersion) {
+        if (loadedAtVersion != version) return;
+        entries.put(image.getPostId(), new Entry(image, System.nanoTime() + ttlNanos));
+    }
+
+    public synchronized void evict(long postId) {
+        version++;
+        entries.remove(postId);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
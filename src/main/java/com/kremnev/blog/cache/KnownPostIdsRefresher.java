@@ -0,0 +1,37 @@
+package com.kremnev.blog.cache;
+
+import com.kremnev.blog.repository.PostRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+public class KnownPostIdsRefresher {
+    private static final Logger log = LoggerFactory.getLogger(KnownPostIdsRefresher.class);
+
+    private final PostRepository postRepository;
+    private final NegativeLookupCache negativeLookupCache;
+
+    public KnownPostIdsRefresher(PostRepository postRepository, NegativeLookupCache negativeLookupCache) {
+        this.postRepository = postRepository;
+        this.negativeLookupCache = negativeLookupCache;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        refresh();
+    }
+
+    @Scheduled(fixedDelayString = "${cache.negative.rebuild-interval:10m}",
+            initialDelayString = "${cache.negative.rebuild-interval:10m}")
+    public void refresh() {
+        try {
+            negativeLookupCache.rebuild(postRepository.countAll(), postRepository::forEachId);
+        } catch (RuntimeException e) {
+            log.warn("Could not rebuild known post ids, keeping the previous filter", e);
+        }
+    }
+}
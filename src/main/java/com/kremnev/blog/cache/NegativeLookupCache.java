@@ -0,0 +1,152 @@
+package com.kremnev.blog.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Answers "definitely missing" for post and image lookups without touching the database
+ * or the filesystem.
+ * <p>
+ * Posts: a Bloom filter holds every id that existed when it was last rebuilt. An id at or
+ * below the filter's watermark that the filter rejects cannot exist. Ids above the watermark
+ * (created since, possibly by another instance) are never answered from the filter.
+ * Confirmed misses of any kind, including deleted posts, go into a short-lived miss set.
+ * <p>
+ * Images: a short-lived set of post ids confirmed to have no image, cleared on upload.
+ * <p>
+ * A miss is recorded with the {@link #generation()} read before the query that found it, and
+ * dropped if a post was created or an image uploaded since: that query may have started before
+ * the write committed.
+ */
+@Component
+public class NegativeLookupCache {
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private record KnownIds(BloomFilter filter, long watermark) {}
+
+    private final long ttlNanos;
+    private final int maxMisses;
+    private final long watermarkGuard;
+    private final ConcurrentHashMap<Long, Long> missingPosts = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Long> missingImages = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private final Counter postHits;
+    private final Counter imageHits;
+
+    private volatile KnownIds knownIds;
+
+    public NegativeLookupCache(@Value("${cache.negative.ttl:30s}") Duration ttl,
+                               @Value("${cache.negative.max-entries:100000}") int maxMisses,
+                               @Value("${cache.negative.watermark-guard:1000}") long watermarkGuard,
+                               MeterRegistry registry) {
+        this.ttlNanos = ttl.toNanos();
+        this.maxMisses = maxMisses;
+        this.watermarkGuard = watermarkGuard;
+        this.postHits = registry.counter("blog.cache.negative.hits", "kind", "post");
+        this.imageHits = registry.counter("blog.cache.negative.hits", "kind", "image");
+        Gauge.builder("blog.cache.negative.size", this, NegativeLookupCache::footprintBytes)
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    /**
+     * Replaces the known-id filter. {@code scan} must feed every existing post id to the
+     * consumer it is given; ids created while the scan runs are covered by the watermark guard.
+     */
+    public void rebuild(long expectedIds, Consumer<LongConsumer> scan) {
+        var filter = new BloomFilter(Math.max(1024, expectedIds + expectedIds / 2), FALSE_POSITIVE_RATE);
+        long[] max = {0};
+        scan.accept(id -> {
+            filter.add(id);
+            if (id > max[0]) max[0] = id;
+        });
+        knownIds = new KnownIds(filter, max[0] - watermarkGuard);
+    }
+
+    public boolean isKnownMissingPost(long postId) {
+        var known = knownIds;
+        boolean missing = (known != null && postId <= known.watermark && !known.filter.mightContain(postId))
+                || isPresent(missingPosts, postId);
+        if (missing) postHits.increment();
+        return missing;
+    }
+
+    /**
+     * Returns a token to read before looking a post or image up and to pass to
+     * {@link #recordMissingPost} or {@link #recordMissingImage} if it was not found.
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    public void recordMissingPost(long postId, long readAtGeneration) {
+        record(missingPosts, postId, readAtGeneration);
+    }
+
+    public void postCreated(long postId) {
+        // Before the removal, so a miss recorded after it sees the new generation and takes itself back
+        generation.incrementAndGet();
+        var known = knownIds;
+        if (known != null) known.filter.add(postId);
+        missingPosts.remove(postId);
+        missingImages.remove(postId);
+    }
+
+    public void postDeleted(long postId) {
+        record(missingPosts, postId, generation.get());
+        missingImages.remove(postId);
+    }
+
+    public boolean isKnownMissingImage(long postId) {
+        if (isPresent(missingImages, postId)) {
+            imageHits.increment();
+            return true;
+        }
+        return isKnownMissingPost(postId);
+    }
+
+    public void recordMissingImage(long postId, long readAtGeneration) {
+        record(missingImages, postId, readAtGeneration);
+    }
+
+    public void imageUploaded(long postId) {
+        generation.incrementAndGet();
+        missingImages.remove(postId);
+    }
+
+    public long footprintBytes() {
+        var known = knownIds;
+        // A ConcurrentHashMap node with boxed key and value is roughly 80 bytes
+        return (known == null ? 0 : known.filter.sizeInBytes()) + 80L * (missingPosts.size() + missingImages.size());
+    }
+
+    private boolean isPresent(ConcurrentHashMap<Long, Long> misses, long id) {
+        Long expiresAt = misses.get(id);
+        if (expiresAt == null) return false;
+        if (expiresAt - System.nanoTime() > 0) return true;
+        misses.remove(id, expiresAt);
+        return false;
+    }
+
+    private void record(ConcurrentHashMap<Long, Long> misses, long id, long readAtGeneration) {
+        if (generation.get() != readAtGeneration) return;
+        long now = System.nanoTime();
+        if (misses.size() >= maxMisses) {
+            misses.values().removeIf(expiresAt -> expiresAt - now <= 0);
+            if (misses.size() >= maxMisses) return;
+        }
+        long expiresAt = now + ttlNanos;
+        misses.put(id, expiresAt);
+        // A creation or upload that ran between the check and the put may have missed this entry
+        if (generation.get() != readAtGeneration) misses.remove(id, expiresAt);
+    }
+}
@@ -0,0 +1,90 @@
+package com.kremnev.blog.concurrency;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrency limit that follows the latency it observes, in the style of the gradient
+ * algorithm: while requests take about as long as they usually do the limit grows by roughly
+ * its square root, and once they slow down (a queue is forming somewhere downstream) it shrinks
+ * in proportion. Callers that cannot get in are meant to be turned away, not queued.
+ * <p>
+ * {@link Priority#LOW} callers only get {@code lowPriorityShare} of the limit, so under pressure
+ * they are shed first and the rest stays free for cheap reads.
+ */
+public class AdaptiveLimit {
+
+    public enum Priority { HIGH, LOW }
+
+    // Latency may grow this much over the long-term average before the limit starts to shrink
+    private static final double TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+    private static final double LONG_RTT_WINDOW = 100;
+    // Applied when a request was dropped further down (a full bulkhead), whatever its latency
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double lowPriorityShare;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // Guarded by this
+    private double estimatedLimit;
+    private double longRttNanos;
+
+    private volatile int limit;
+
+    public AdaptiveLimit(int initialLimit, int minLimit, int maxLimit, double lowPriorityShare) {
+        if (minLimit <= 0 || minLimit > maxLimit) throw new IllegalArgumentException("Invalid limit bounds");
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.lowPriorityShare = lowPriorityShare;
+        this.estimatedLimit = Math.clamp(initialLimit, minLimit, maxLimit);
+        this.limit = (int) estimatedLimit;
+    }
+
+    public boolean tryAcquire(Priority priority) {
+        int cap = priority == Priority.HIGH ? limit : Math.max(1, (int) (limit * lowPriorityShare));
+        while (true) {
+            int current = inFlight.get();
+            if (current >= cap) return false;
+            if (inFlight.compareAndSet(current, current + 1)) return true;
+        }
+    }
+
+    /**
+     * Returns a permit taken by {@link #tryAcquire} and feeds the request's latency into the limit.
+     */
+    public void release(long rttNanos, boolean dropped) {
+        int inFlightBefore = inFlight.getAndDecrement();
+        update(rttNanos, inFlightBefore, dropped);
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    private synchronized void update(long rttNanos, int inFlightBefore, boolean dropped) {
+        if (dropped) {
+            estimatedLimit = Math.max(minLimit, estimatedLimit * BACKOFF_RATIO);
+            limit = (int) estimatedLimit;
+            return;
+        }
+        if (rttNanos <= 0) return;
+
+        longRttNanos = longRttNanos == 0 ? rttNanos : longRttNanos + (rttNanos - longRttNanos) / LONG_RTT_WINDOW;
+        // After a sustained slowdown the average lags far behind; pull it down so the limit can recover
+        if (longRttNanos / rttNanos > 2) longRttNanos *= 0.95;
+
+        // Mostly idle: the sample says nothing about whether the limit is too low
+        if (inFlightBefore < estimatedLimit / 2) return;
+
+        double gradient = Math.clamp(TOLERANCE * longRttNanos / rttNanos, 0.5, 1.0);
+        double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        estimatedLimit = Math.clamp((1 - SMOOTHING) * estimatedLimit + SMOOTHING * newLimit, minLimit, maxLimit);
+        limit = (int) estimatedLimit;
+    }
+}
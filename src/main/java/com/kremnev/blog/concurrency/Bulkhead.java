@@ -0,0 +1,65 @@
+package com.kremnev.blog.concurrency;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caps how many callers use a resource at once, so one slow dependency cannot absorb every
+ * request thread (with virtual threads, an unbounded number of them). Callers past the limit
+ * wait up to the acquire timeout, then fail fast with {@link BulkheadFullException}.
+ */
+public class Bulkhead {
+
+    @FunctionalInterface
+    public interface Task<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    private final String name;
+    private final Semaphore permits;
+    private final long acquireTimeoutNanos;
+    private final Counter rejected;
+
+    public Bulkhead(String name, int maxConcurrent, Duration acquireTimeout, MeterRegistry registry) {
+        if (maxConcurrent <= 0) throw new IllegalArgumentException("Bulkhead " + name + " needs at least one permit");
+        this.name = name;
+        // Fair, so a burst of new callers cannot keep overtaking the ones already waiting
+        this.permits = new Semaphore(maxConcurrent, true);
+        this.acquireTimeoutNanos = acquireTimeout.toNanos();
+        this.rejected = registry.counter("blog.bulkhead.rejected", "name", name);
+        Gauge.builder("blog.bulkhead.active", permits, p -> maxConcurrent - p.availablePermits())
+                .tag("name", name)
+                .register(registry);
+        Gauge.builder("blog.bulkhead.waiting", permits, Semaphore::getQueueLength)
+                .tag("name", name)
+                .register(registry);
+    }
+
+    public <T, E extends Exception> T execute(Task<T, E> task) throws E {
+        acquire();
+        try {
+            return task.run();
+        } finally {
+            release();
+        }
+    }
+
+    public void acquire() {
+        try {
+            if (permits.tryAcquire(acquireTimeoutNanos, TimeUnit.NANOSECONDS)) return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        rejected.increment();
+        throw new BulkheadFullException(name);
+    }
+
+    public void release() {
+        permits.release();
+    }
+}
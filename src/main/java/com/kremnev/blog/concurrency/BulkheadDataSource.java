@@ -0,0 +1,73 @@
+package com.kremnev.blog.concurrency;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Holds a bulkhead permit for as long as a connection is checked out. Sized to the pool, it
+ * turns "every request thread is parked inside the pool" into a bounded wait followed by a
+ * fast failure, which Spring reports as {@code CannotGetJdbcConnectionException}.
+ */
+public class BulkheadDataSource extends DelegatingDataSource {
+
+    private final Bulkhead bulkhead;
+
+    public BulkheadDataSource(DataSource target, Bulkhead bulkhead) {
+        super(target);
+        this.bulkhead = bulkhead;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return guard(() -> obtainTargetDataSource().getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return guard(() -> obtainTargetDataSource().getConnection(username, password));
+    }
+
+    private Connection guard(Bulkhead.Task<Connection, SQLException> open) throws SQLException {
+        try {
+            bulkhead.acquire();
+        } catch (BulkheadFullException e) {
+            throw new SQLTransientConnectionException(e.getMessage(), e);
+        }
+
+        Connection connection;
+        try {
+            connection = open.run();
+        } catch (SQLException | RuntimeException e) {
+            bulkhead.release();
+            throw e;
+        }
+        return releasingOnClose(connection);
+    }
+
+    private Connection releasingOnClose(Connection connection) {
+        AtomicBoolean released = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("close") && released.compareAndSet(false, true)) {
+                        try {
+                            connection.close();
+                        } finally {
+                            bulkhead.release();
+                        }
+                        return null;
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+}
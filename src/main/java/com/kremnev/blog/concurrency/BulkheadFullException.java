@@ -0,0 +1,7 @@
+package com.kremnev.blog.concurrency;
+
+public class BulkheadFullException extends RuntimeException {
+    public BulkheadFullException(String name) {
+        super("Too many concurrent " + name + " operations");
+    }
+}
@@ -0,0 +1,55 @@
+package com.kremnev.blog.concurrency;
+
+import java.time.Duration;
+
+/**
+ * The deadline by which the current request's statements must be done. Bound to the request
+ * thread while it is open; {@link QueryBudgetDataSource} turns what is left into statement timeouts.
+ * A budget opened inside another one ends no later than the outer one. Queries handed to
+ * another thread run under that thread's budget, if any; the post loader opens one that lasts
+ * as long as the longest-waiting caller of a batch.
+ */
+public final class QueryBudget implements AutoCloseable {
+    private static final ThreadLocal<QueryBudget> CURRENT = new ThreadLocal<>();
+
+    private final String route;
+    private final long deadlineNanos;
+    private final QueryBudget outer;
+
+    private QueryBudget(String route, long deadlineNanos, QueryBudget outer) {
+        this.route = route;
+        this.deadlineNanos = deadlineNanos;
+        this.outer = outer;
+    }
+
+    /**
+     * Opens a budget for the calling thread; {@code route} tags its metrics.
+     */
+    public static QueryBudget open(String route, Duration budget) {
+        QueryBudget outer = CURRENT.get();
+        long deadline = System.nanoTime() + budget.toNanos();
+        if (outer != null && outer.deadlineNanos - deadline < 0) deadline = outer.deadlineNanos;
+        QueryBudget opened = new QueryBudget(route, deadline, outer);
+        CURRENT.set(opened);
+        return opened;
+    }
+
+    public static QueryBudget current() {
+        return CURRENT.get();
+    }
+
+    public String getRoute() {
+        return route;
+    }
+
+    public long remainingNanos() {
+        return deadlineNanos - System.nanoTime();
+    }
+
+    @Override
+    public void close() {
+        if (CURRENT.get() != this) return;
+        if (outer == null) CURRENT.remove();
+        else CURRENT.set(outer);
+    }
+}
@@ -0,0 +1,101 @@
+package com.kremnev.blog.concurrency;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs each statement under the calling thread's {@link QueryBudget}: what is left of the
+ * budget becomes the statement's query timeout, rounded up to whole seconds since that is all
+ * JDBC offers, and a statement whose request has nothing left fails without reaching the database.
+ * Those failures surface as
+ * {@link SQLTimeoutException}, which Spring reports as {@code QueryTimeoutException}, and are
+ * counted per route. Statements outside a budget are left alone.
+ */
+public class QueryBudgetDataSource extends DelegatingDataSource {
+    // query_canceled, which PostgreSQL and H2 both use for timeouts
+    private static final String QUERY_CANCELED = "57014";
+    private static final Set<String> EXECUTE = Set.of("execute", "executeQuery", "executeUpdate",
+            "executeLargeUpdate", "executeBatch", "executeLargeBatch");
+
+    private final MeterRegistry registry;
+
+    public QueryBudgetDataSource(DataSource target, MeterRegistry registry) {
+        super(target);
+        this.registry = registry;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return budgeted(obtainTargetDataSource().getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return budgeted(obtainTargetDataSource().getConnection(username, password));
+    }
+
+    private Connection budgeted(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    Object result = invoke(connection, method, args);
+                    // createStatement, prepareStatement and prepareCall
+                    if (result instanceof Statement statement && Statement.class.isAssignableFrom(method.getReturnType()))
+                        return budgeted(statement, method.getReturnType());
+                    return result;
+                });
+    }
+
+    private Statement budgeted(Statement statement, Class<?> type) {
+        return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    QueryBudget budget = QueryBudget.current();
+                    if (budget == null || !EXECUTE.contains(method.getName())) return invoke(statement, method, args);
+                    return execute(budget, statement, method, args);
+                });
+    }
+
+    private Object execute(QueryBudget budget, Statement statement, Method method, Object[] args) throws Throwable {
+        long remaining = budget.remainingNanos();
+        if (remaining <= 0) throw exceeded(budget, null);
+
+        int previousTimeout = statement.getQueryTimeout();
+        int timeout = (int) Math.min(TimeUnit.NANOSECONDS.toSeconds(remaining + TimeUnit.SECONDS.toNanos(1) - 1),
+                Integer.MAX_VALUE);
+        boolean tightened = previousTimeout == 0 || timeout < previousTimeout;
+        if (tightened) statement.setQueryTimeout(timeout);
+
+        try {
+            return invoke(statement, method, args);
+        } catch (SQLException e) {
+            if (!(e instanceof SQLTimeoutException) && !QUERY_CANCELED.equals(e.getSQLState())) throw e;
+            throw exceeded(budget, e);
+        } finally {
+            // Some drivers (H2) keep the timeout on the session, where it would outlive the request
+            if (tightened) statement.setQueryTimeout(previousTimeout);
+        }
+    }
+
+    private SQLTimeoutException exceeded(QueryBudget budget, SQLException cause) {
+        registry.counter("blog.queries.budget.exceeded", "route", budget.getRoute()).increment();
+        return new SQLTimeoutException("Query budget of " + budget.getRoute() + " exceeded", cause);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.kremnev.blog.concurrency;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Collapses concurrent identical reads: the first caller for a key runs the load, callers
+ * arriving while it is in flight wait for and share its result instead of querying again.
+ * Keys should be records private to the calling service so namespaces never collide.
+ * A waiting caller gives up when its own {@link QueryBudget} runs out, and loads for itself when
+ * the leader ran out of budget, since that says nothing about the caller's own budget.
+ */
+@Component
+public class SingleFlight {
+
+    private final ConcurrentHashMap<Object, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final long timeoutNanos;
+    private final Counter leaders;
+    private final Counter followers;
+    private final Counter timeouts;
+    private final Counter leaderTimeouts;
+
+    public SingleFlight(@Value("${reads.single-flight.timeout:5s}") Duration timeout, MeterRegistry registry) {
+        this.timeoutNanos = timeout.toNanos();
+        this.leaders = registry.counter("blog.reads.single-flight.calls", "role", "leader");
+        this.followers = registry.counter("blog.reads.single-flight.calls", "role", "follower");
+        this.timeouts = registry.counter("blog.reads.single-flight.timeouts");
+        this.leaderTimeouts = registry.counter("blog.reads.single-flight.leader-timeouts");
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T execute(Object key, Supplier<T> loader) {
+        // A transaction may see uncommitted rows, so its reads must not be shared
+        if (TransactionSynchronizationManager.isActualTransactionActive())
+            return loader.get();
+
+        var future = new CompletableFuture<Object>();
+        var existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            followers.increment();
+            return (T) await(key, existing, loader);
+        }
+
+        leaders.increment();
+        try {
+            T result = loader.get();
+            future.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private Object await(Object key, CompletableFuture<Object> future, Supplier<?> loader) {
+        QueryBudget budget = QueryBudget.current();
+        long waitNanos = budget == null ? timeoutNanos : Math.min(timeoutNanos, budget.remainingNanos());
+        try {
+            return future.get(waitNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            timeouts.increment();
+            throw new QueryTimeoutException("Timed out waiting for in-flight read " + key, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QueryTimeoutException("Interrupted waiting for in-flight read " + key, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof QueryTimeoutException) {
+                leaderTimeouts.increment();
+                return loader.get();
+            }
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            if (e.getCause() instanceof Error cause) throw cause;
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
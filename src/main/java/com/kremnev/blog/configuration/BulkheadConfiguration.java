@@ -0,0 +1,47 @@
+package com.kremnev.blog.configuration;
+
+import com.kremnev.blog.concurrency.Bulkhead;
+import com.kremnev.blog.concurrency.BulkheadDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+/**
+ * Separate concurrency limits for the database and for image file I/O, so image file work
+ * cannot starve the database, and the reverse. Image requests only need the database to look up
+ * an image row that is not in {@link com.kremnev.blog.cache.ImageRefCache}.
+ */
+@Configuration
+public class BulkheadConfiguration {
+
+    @Bean
+    public Bulkhead imageIoBulkhead(@Value("${images.io.max-concurrent:64}") int maxConcurrent,
+                                    @Value("${images.io.acquire-timeout:5s}") Duration acquireTimeout,
+                                    MeterRegistry registry) {
+        return new Bulkhead("image-io", maxConcurrent, acquireTimeout, registry);
+    }
+
+    // Static so the post-processor does not pull this configuration in early
+    @Bean
+    public static BeanPostProcessor dataSourceBulkheadPostProcessor(
+            @Value("${db.bulkhead.max-concurrent:${spring.datasource.hikari.maximum-pool-size:10}}") int maxConcurrent,
+            @Value("${db.bulkhead.acquire-timeout:2s}") Duration acquireTimeout,
+            ObjectProvider<MeterRegistry> registry) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (!(bean instanceof DataSource dataSource) || bean instanceof BulkheadDataSource) return bean;
+                // One bulkhead per pool, each under its own metric tag; the usual single pool is "jdbc"
+                String name = "dataSource".equals(beanName) ? "jdbc" : "jdbc-" + beanName;
+                return new BulkheadDataSource(dataSource,
+                        new Bulkhead(name, maxConcurrent, acquireTimeout, registry.getObject()));
+            }
+        };
+    }
+}
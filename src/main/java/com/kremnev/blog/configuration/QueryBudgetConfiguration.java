@@ -0,0 +1,45 @@
+package com.kremnev.blog.configuration;
+
+import com.kremnev.blog.concurrency.QueryBudgetDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+import javax.sql.DataSource;
+
+/**
+ * Puts every statement under the query budget of the request running it; the budgets are
+ * opened by {@link com.kremnev.blog.web.QueryBudgetInterceptor}.
+ */
+@Configuration
+public class QueryBudgetConfiguration {
+
+    // Static so the post-processor does not pull this configuration in early
+    @Bean
+    public static QueryBudgetPostProcessor dataSourceQueryBudgetPostProcessor(ObjectProvider<MeterRegistry> registry) {
+        return new QueryBudgetPostProcessor(registry);
+    }
+
+    // Ordered, so it runs before the unordered bulkhead post-processor and the bulkhead stays the outer wrapper
+    public static final class QueryBudgetPostProcessor implements BeanPostProcessor, Ordered {
+        private final ObjectProvider<MeterRegistry> registry;
+
+        QueryBudgetPostProcessor(ObjectProvider<MeterRegistry> registry) {
+            this.registry = registry;
+        }
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) {
+            if (!(bean instanceof DataSource dataSource) || bean instanceof QueryBudgetDataSource) return bean;
+            return new QueryBudgetDataSource(dataSource, registry.getObject());
+        }
+
+        @Override
+        public int getOrder() {
+            return Ordered.LOWEST_PRECEDENCE;
+        }
+    }
+}
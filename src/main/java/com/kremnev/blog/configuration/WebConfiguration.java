@@ -1,19 +1,60 @@
 package com.kremnev.blog.configuration;
 
+import com.kremnev.blog.model.CommentField;
+import com.kremnev.blog.model.PostField;
+import com.kremnev.blog.web.AdmissionControlInterceptor;
+import com.kremnev.blog.web.QueryBudgetInterceptor;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.format.FormatterRegistry;
+import org.springframework.http.converter.HttpMessageConverters;
+import org.springframework.http.converter.cbor.JacksonCborHttpMessageConverter;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import tools.jackson.dataformat.cbor.CBORMapper;
 
 @Configuration
 public class WebConfiguration implements WebMvcConfigurer {
 
+    private final AdmissionControlInterceptor admissionControlInterceptor;
+    private final QueryBudgetInterceptor queryBudgetInterceptor;
+    private final CBORMapper cborMapper;
+
+    public WebConfiguration(AdmissionControlInterceptor admissionControlInterceptor,
+                            QueryBudgetInterceptor queryBudgetInterceptor, CBORMapper cborMapper) {
+        this.admissionControlInterceptor = admissionControlInterceptor;
+        this.queryBudgetInterceptor = queryBudgetInterceptor;
+        this.cborMapper = cborMapper;
+    }
+
     @Override
     public void addCorsMappings(CorsRegistry registry) {
         registry.addMapping("/api/**")
                 .allowedOrigins("http://localhost", "http://localhost:80", "http://localhost:3000")
-                .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS")
+                .allowedMethods("GET", "HEAD", "POST", "PUT", "PATCH", "DELETE", "OPTIONS")
                 .allowedHeaders("*")
+                .exposedHeaders("Location", "Upload-Offset", "Upload-Length")
                 .allowCredentials(true)
                 .maxAge(1800);
     }
+
+    // ?fields= takes JSON property names; an unknown one fails conversion and the request gets a 400
+    @Override
+    public void addFormatters(FormatterRegistry registry) {
+        registry.addConverter(String.class, PostField.class, PostField::fromJsonName);
+        registry.addConverter(String.class, CommentField.class, CommentField::fromJsonName);
+    }
+
+    // Accept: application/cbor gets the same DTOs in CBOR, written by the Boot-configured mapper; JSON stays the default
+    @Override
+    public void configureMessageConverters(HttpMessageConverters.ServerBuilder builder) {
+        builder.withCborConverter(new JacksonCborHttpMessageConverter(cborMapper));
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(admissionControlInterceptor)
+                .addPathPatterns("/api/posts/**", "/api/posts/*/image/uploads/**");
+        registry.addInterceptor(queryBudgetInterceptor).addPathPatterns("/api/posts/**");
+    }
 }
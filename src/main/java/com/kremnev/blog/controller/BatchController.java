@@ -0,0 +1,43 @@
+package com.kremnev.blog.controller;
+
+import com.kremnev.blog.dto.BatchResponseDto;
+import com.kremnev.blog.dto.Request.BatchRequest;
+import com.kremnev.blog.web.BatchExecutor;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("api/batch")
+public class BatchController {
+
+    private final BatchExecutor batchExecutor;
+    private final int maxRequests;
+
+    public BatchController(BatchExecutor batchExecutor, @Value("${batch.max-requests:20}") int maxRequests) {
+        this.batchExecutor = batchExecutor;
+        this.maxRequests = maxRequests;
+    }
+
+    // Several post and comment calls in one round trip; see BatchExecutor
+    @PostMapping
+    public ResponseEntity<?> execute(@RequestBody BatchRequest batch, HttpServletRequest request,
+                                     HttpServletResponse response) {
+        if (batch.requests() == null || batch.requests().isEmpty())
+            return ResponseEntity.badRequest().body(Map.of("message", "No requests in the batch"));
+        if (batch.requests().size() > maxRequests)
+            return ResponseEntity.badRequest()
+                    .body(Map.of("message", "At most " + maxRequests + " requests per batch"));
+
+        var results = batchExecutor.execute(request, response, batch.requests(),
+                Boolean.TRUE.equals(batch.transactional()));
+        return ResponseEntity.ok(new BatchResponseDto(results));
+    }
+}
@@ -0,0 +1,38 @@
+package com.kremnev.blog.controller;
+
+import com.kremnev.blog.dto.ChangeDto;
+import com.kremnev.blog.dto.ChangesResponseDto;
+import com.kremnev.blog.service.ChangeFeedService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("api/changes")
+public class ChangesController {
+
+    private static final int MAX_LIMIT = 500;
+
+    private final ChangeFeedService changeFeedService;
+
+    public ChangesController(ChangeFeedService changeFeedService) {
+        this.changeFeedService = changeFeedService;
+    }
+
+    // Long poll: answers as soon as there is something after since, or empty after changes.poll-timeout
+    @GetMapping
+    public ResponseEntity<?> poll(@RequestParam(defaultValue = "0") long since,
+                                  @RequestParam(defaultValue = "100") int limit) {
+        if (since < 0 || limit < 1 || limit > MAX_LIMIT)
+            return ResponseEntity.badRequest()
+                    .body(Map.of("message", "since must be >= 0 and limit between 1 and " + MAX_LIMIT));
+
+        var changes = changeFeedService.poll(since, limit).stream().map(ChangeDto::from).toList();
+        long next = changes.isEmpty() ? since : changes.getLast().seq();
+        return ResponseEntity.ok(new ChangesResponseDto(changes, next));
+    }
+}
@@ -3,12 +3,14 @@ package com.kremnev.blog.controller;
 import com.kremnev.blog.dto.CommentDto;
 import com.kremnev.blog.dto.Request.CreateCommentRequest;
 import com.kremnev.blog.dto.Request.UpdateCommentRequest;
+import com.kremnev.blog.model.CommentField;
 import com.kremnev.blog.service.CommentService;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.net.URI;
 import java.util.List;
+import java.util.Set;
 
 @RestController
 @RequestMapping("api/posts/{postId}/comments")
@@ -20,15 +22,19 @@ public class CommentsController {
     }
 
     @GetMapping
-    public ResponseEntity<List<CommentDto>> getAllByPostId(@PathVariable long postId) {
-        var comments = commentService.getAllByPostId(postId);
-        return ResponseEntity.ok(comments.stream().map(CommentDto::from).toList());
+    public ResponseEntity<List<CommentDto>> getAllByPostId(@PathVariable long postId,
+                                                           @RequestParam(required = false) Set<CommentField> fields) {
+        var selected = CommentField.select(fields);
+        var comments = commentService.getAllByPostId(postId, selected);
+        return ResponseEntity.ok(comments.stream().map(comment -> CommentDto.from(comment, selected)).toList());
     }
 
     @GetMapping("{commentId}")
-    public ResponseEntity<CommentDto> getById(@PathVariable long postId, @PathVariable long commentId) {
-        var commentOpt = commentService.getById(commentId);
-        return ResponseEntity.of(commentOpt.map(CommentDto::from));
+    public ResponseEntity<CommentDto> getById(@PathVariable long postId, @PathVariable long commentId,
+                                              @RequestParam(required = false) Set<CommentField> fields) {
+        var selected = CommentField.select(fields);
+        var commentOpt = commentService.getById(commentId, selected);
+        return ResponseEntity.of(commentOpt.map(comment -> CommentDto.from(comment, selected)));
     }
 
     @PostMapping
@@ -1,7 +1,12 @@
 package com.kremnev.blog.controller;
 
+import com.kremnev.blog.model.StoredImage;
 import com.kremnev.blog.service.BlobService;
-import org.springframework.core.io.Resource;
+import com.kremnev.blog.service.ImageTooLargeException;
+import com.kremnev.blog.web.FileResponseWriter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -10,27 +15,36 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
-
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.time.Duration;
 import java.util.Map;
 import java.util.Optional;
 
 @RestController
 @RequestMapping("api/posts/{postId}/image")
 public class ImageController {
+    private static final CacheControl VERSIONED_CACHE = CacheControl.maxAge(Duration.ofDays(365)).cachePublic().immutable();
+    private static final CacheControl UNVERSIONED_CACHE = CacheControl.noCache();
+
     private final BlobService blobService;
+    private final FileResponseWriter fileResponseWriter;
 
-    public ImageController(BlobService blobService) {
+    public ImageController(BlobService blobService, FileResponseWriter fileResponseWriter) {
         this.blobService = blobService;
+        this.fileResponseWriter = fileResponseWriter;
     }
 
-    @PutMapping
+    @PutMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public ResponseEntity<?> updatePostImage(@PathVariable long postId, @RequestParam("image") MultipartFile image) {
         if (image == null)
             return ResponseEntity.badRequest()
                     .body(Map.of("message", "File is empty"));
 
         try {
-            blobService.upsert(postId, image);
+            if (!blobService.upsert(postId, image))
+                return ResponseEntity.notFound().build();
             return ResponseEntity.noContent().build();
         } catch (IOException ex) {
             return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE)
@@ -38,17 +52,60 @@ public class ImageController {
         }
     }
 
+    // The body is streamed into the blob store as it arrives; nothing is spooled by the container
+    @PutMapping(consumes = "image/*")
+    public ResponseEntity<?> uploadPostImage(@PathVariable long postId, HttpServletRequest request) {
+        try (ReadableByteChannel body = Channels.newChannel(request.getInputStream())) {
+            if (!blobService.upsert(postId, body, request.getContentLengthLong()))
+                return ResponseEntity.notFound().build();
+            return ResponseEntity.noContent().build();
+        } catch (ImageTooLargeException ex) {
+            return ResponseEntity.status(HttpStatus.CONTENT_TOO_LARGE)
+                    .body(Map.of("message", ex.getMessage()));
+        } catch (IOException ex) {
+            return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE)
+                    .body(Map.of("message", ex.getMessage()));
+        }
+    }
+
+    // The URL is only immutable when the client pins the content version (v=<hash>); otherwise
+    // the response must be revalidated, which the content-hash ETag makes a cheap 304.
+    // With w=<pixels> the smallest stored variant at least that wide is served instead.
     @GetMapping
-    public ResponseEntity<Resource> downloadPostImage(@PathVariable long postId) {
-        try {
-            Optional<Resource> file = blobService.get(postId);
-            return file.map(resource -> ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType("application/octet-stream"))
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + resource.getFilename() + "\"")
-                    .body(resource)).orElseGet(() -> ResponseEntity.notFound().build());
+    public void downloadPostImage(@PathVariable long postId,
+                                  @RequestParam(name = "v", required = false) String version,
+                                  @RequestParam(name = "w", required = false) Integer width,
+                                  HttpServletRequest request,
+                                  HttpServletResponse response) throws IOException {
+        if (width != null && width <= 0) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
 
+        Optional<StoredImage> imageOpt;
+        StoredImage image;
+        Optional<ByteBuffer> cached;
+        try {
+            imageOpt = blobService.getImage(postId);
+            if (imageOpt.isEmpty()) {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            image = width == null ? imageOpt.get() : blobService.getVariant(imageOpt.get(), width);
+            cached = blobService.getCachedBytes(image);
         } catch (IOException ex) {
-            return ResponseEntity.internalServerError().build();
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            return;
+        }
+
+        CacheControl cacheControl = imageOpt.get().getHash().equals(version) ? VERSIONED_CACHE : UNVERSIONED_CACHE;
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + image.getPath().getFileName() + "\"");
+        String etag = "\"" + image.getHash() + "\"";
+        if (cached.isPresent()) {
+            fileResponseWriter.write(request, response, cached.get(), image.getContentType(), etag, cacheControl);
+        } else {
+            fileResponseWriter.write(request, response, image.getPath(), image.getSize(), image.getContentType(),
+                    etag, cacheControl);
         }
     }
 }
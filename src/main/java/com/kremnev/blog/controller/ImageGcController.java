@@ -0,0 +1,38 @@
+package com.kremnev.blog.controller;
+
+import com.kremnev.blog.dto.ImageGcReportDto;
+import com.kremnev.blog.service.ImageGarbageCollector;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("api/admin/image-gc")
+public class ImageGcController {
+
+    private final ImageGarbageCollector garbageCollector;
+
+    public ImageGcController(ImageGarbageCollector garbageCollector) {
+        this.garbageCollector = garbageCollector;
+    }
+
+    // The last finished sweep, scheduled or dry run; a sweep takes far too long to run per request
+    @GetMapping("report")
+    public ResponseEntity<ImageGcReportDto> report() {
+        return ResponseEntity.of(garbageCollector.getLastReport().map(ImageGcReportDto::from));
+    }
+
+    // Dry run: finds what a sweep would delete without touching anything, in the background
+    @PostMapping("dry-run")
+    public ResponseEntity<?> dryRun() {
+        if (!garbageCollector.startDryRun())
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Map.of("message", "A sweep is already running"));
+        return ResponseEntity.accepted().build();
+    }
+}
@@ -0,0 +1,46 @@
+package com.kremnev.blog.controller;
+
+import com.kremnev.blog.dto.ImageDto;
+import com.kremnev.blog.model.ImageMetadata;
+import com.kremnev.blog.service.BlobService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Lets listing pages learn which posts have an image, and its size and placeholder,
+// without requesting every image URL
+@RestController
+@RequestMapping("api/images")
+public class ImageManifestController {
+    private static final int MAX_POST_IDS = 100;
+
+    private final BlobService blobService;
+
+    public ImageManifestController(BlobService blobService) {
+        this.blobService = blobService;
+    }
+
+    @GetMapping
+    public ResponseEntity<?> getImages(@RequestParam List<Long> postIds) {
+        Set<Long> ids = new LinkedHashSet<>(postIds);
+        if (ids.size() > MAX_POST_IDS)
+            return ResponseEntity.badRequest()
+                    .body(Map.of("message", "At most " + MAX_POST_IDS + " post ids per request"));
+
+        Map<Long, ImageMetadata> found = blobService.getMetadata(ids);
+        Map<Long, ImageDto> images = new LinkedHashMap<>();
+        for (Long id : ids) {
+            ImageMetadata metadata = found.get(id);
+            images.put(id, metadata == null ? ImageDto.absent() : ImageDto.from(metadata));
+        }
+        return ResponseEntity.ok(images);
+    }
+}
@@ -0,0 +1,125 @@
+package com.kremnev.blog.controller;
+
+import com.kremnev.blog.dto.UploadSessionDto;
+import com.kremnev.blog.service.ImageChecksumException;
+import com.kremnev.blog.service.ImageTooLargeException;
+import com.kremnev.blog.service.UnsupportedImageTypeException;
+import com.kremnev.blog.service.UploadOffsetConflictException;
+import com.kremnev.blog.service.UploadSessionService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Map;
+
+/**
+ * Resumable image uploads: {@code POST} opens a session for {@code Upload-Length} bytes,
+ * {@code PATCH} sends the next chunk from {@code Upload-Offset}, {@code HEAD} tells a client
+ * that lost its connection where to resume, and {@code POST .../complete?sha256=} publishes
+ * the image once every byte is in.
+ */
+@RestController
+@RequestMapping("api/posts/{postId}/image/uploads")
+public class ImageUploadController {
+    static final String UPLOAD_LENGTH = "Upload-Length";
+    static final String UPLOAD_OFFSET = "Upload-Offset";
+
+    private final UploadSessionService uploadSessionService;
+
+    public ImageUploadController(UploadSessionService uploadSessionService) {
+        this.uploadSessionService = uploadSessionService;
+    }
+
+    @PostMapping
+    public ResponseEntity<?> createUpload(@PathVariable long postId, @RequestHeader(UPLOAD_LENGTH) long length) {
+        try {
+            var session = uploadSessionService.create(postId, length);
+            if (session.isEmpty())
+                return ResponseEntity.notFound().build();
+            return ResponseEntity.created(URI.create("/api/posts/" + postId + "/image/uploads/" + session.get().getId()))
+                    .header(UPLOAD_OFFSET, "0")
+                    .body(UploadSessionDto.from(session.get()));
+        } catch (IllegalArgumentException ex) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("message", ex.getMessage()));
+        } catch (ImageTooLargeException ex) {
+            return ResponseEntity.status(HttpStatus.CONTENT_TOO_LARGE)
+                    .body(Map.of("message", ex.getMessage()));
+        } catch (IOException ex) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    @RequestMapping(path = "{uploadId}", method = RequestMethod.HEAD)
+    public ResponseEntity<Void> getUploadOffset(@PathVariable long postId, @PathVariable String uploadId) {
+        return uploadSessionService.get(postId, uploadId)
+                .map(session -> ResponseEntity.ok()
+                        .cacheControl(CacheControl.noStore())
+                        .header(UPLOAD_OFFSET, String.valueOf(session.getOffset()))
+                        .header(UPLOAD_LENGTH, String.valueOf(session.getLength()))
+                        .<Void>build())
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    // The body goes straight to disk at the offset; nothing is buffered by the container
+    @PatchMapping("{uploadId}")
+    public ResponseEntity<?> appendChunk(@PathVariable long postId, @PathVariable String uploadId,
+                                         @RequestHeader(UPLOAD_OFFSET) long offset,
+                                         HttpServletRequest request) {
+        try (ReadableByteChannel body = Channels.newChannel(request.getInputStream())) {
+            var session = uploadSessionService.append(postId, uploadId, offset, body);
+            if (session.isEmpty())
+                return ResponseEntity.notFound().build();
+            return ResponseEntity.noContent()
+                    .header(UPLOAD_OFFSET, String.valueOf(session.get().getOffset()))
+                    .build();
+        } catch (UploadOffsetConflictException ex) {
+            return conflict(ex);
+        } catch (ImageTooLargeException ex) {
+            return ResponseEntity.status(HttpStatus.CONTENT_TOO_LARGE)
+                    .body(Map.of("message", ex.getMessage()));
+        } catch (IOException ex) {
+            // Usually the client went away mid-chunk; what arrived is kept for the resume
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    @PostMapping("{uploadId}/complete")
+    public ResponseEntity<?> completeUpload(@PathVariable long postId, @PathVariable String uploadId,
+                                            @RequestParam String sha256) {
+        try {
+            if (!uploadSessionService.complete(postId, uploadId, sha256))
+                return ResponseEntity.notFound().build();
+            return ResponseEntity.noContent().build();
+        } catch (UploadOffsetConflictException ex) {
+            return conflict(ex);
+        } catch (ImageChecksumException ex) {
+            return ResponseEntity.status(HttpStatus.UNPROCESSABLE_CONTENT)
+                    .body(Map.of("message", ex.getMessage()));
+        } catch (UnsupportedImageTypeException ex) {
+            return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE)
+                    .body(Map.of("message", ex.getMessage()));
+        } catch (IOException ex) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    @DeleteMapping("{uploadId}")
+    public ResponseEntity<Void> cancelUpload(@PathVariable long postId, @PathVariable String uploadId) throws IOException {
+        if (!uploadSessionService.cancel(postId, uploadId))
+            return ResponseEntity.notFound().build();
+        return ResponseEntity.noContent().build();
+    }
+
+    private static ResponseEntity<?> conflict(UploadOffsetConflictException ex) {
+        return ResponseEntity.status(HttpStatus.CONFLICT)
+                .header(UPLOAD_OFFSET, String.valueOf(ex.getCurrentOffset()))
+                .body(Map.of("message", ex.getMessage()));
+    }
+}
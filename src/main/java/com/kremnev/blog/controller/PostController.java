@@ -3,39 +3,106 @@ package com.kremnev.blog.controller;
 import com.kremnev.blog.dto.*;
 import com.kremnev.blog.dto.Request.CreatePostRequest;
 import com.kremnev.blog.dto.Request.UpdatePostRequest;
-import com.kremnev.blog.model.PostsResponse;
+import com.kremnev.blog.model.Post;
+import com.kremnev.blog.model.PostField;
+import com.kremnev.blog.service.BlobService;
+import com.kremnev.blog.service.CommentService;
 import com.kremnev.blog.service.PostService;
+import com.kremnev.blog.web.PostListingWriter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.HttpMediaTypeNotAcceptableException;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @RestController
 @RequestMapping("api/posts")
 public class PostController {
 
+    private static final String INCLUDE_COMMENTS = "comments";
+    private static final String INCLUDE_IMAGE = "image";
+    private static final int MAX_POST_IDS = 100;
+    private static final int MAX_COMMENTS_PAGE_SIZE = 100;
+
     private final PostService postService;
+    private final CommentService commentService;
+    private final BlobService blobService;
+    private final PostListingWriter postListingWriter;
 
-    public PostController(PostService postService) {
+    public PostController(PostService postService, CommentService commentService, BlobService blobService,
+                          PostListingWriter postListingWriter) {
         this.postService = postService;
+        this.commentService = commentService;
+        this.blobService = blobService;
+        this.postListingWriter = postListingWriter;
     }
 
+    // The page is loaded before anything is written, so slow clients do not hold a connection;
+    // it is then written without DTOs, see PostListingWriter
     @GetMapping
-    public PostsResponseDto getAllPosts(@RequestParam(required = false) String search,
-                                     @RequestParam(defaultValue = "1") int pageNumber,
-                                     @RequestParam(defaultValue = "5") int pageSize)
+    public void getAllPosts(@RequestParam(required = false) String search,
+                            @RequestParam(defaultValue = "1") int pageNumber,
+                            @RequestParam(defaultValue = "5") int pageSize,
+                            @RequestParam(required = false) Set<PostField> fields,
+                            HttpServletRequest request,
+                            HttpServletResponse response) throws IOException, HttpMediaTypeNotAcceptableException
     {
-        PostsResponse result = postService.getAll(search, pageNumber, pageSize);
-        List<PostDto> dtoList = result.getPosts().stream().map(PostDto::from).toList();
-        return new PostsResponseDto(dtoList, result.getHasPrev(), result.getHasNext(), result.getLastPage());
+        if (pageSize < 1) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+
+        var selected = PostField.select(fields);
+        var page = postService.getAll(search, pageNumber, pageSize, selected);
+        postListingWriter.write(request, response, selected, page);
+    }
+
+    // For clients that already know which posts they want: one query instead of one request per post
+    @GetMapping(params = "ids")
+    public ResponseEntity<?> getPostsByIds(@RequestParam List<Long> ids,
+                                           @RequestParam(required = false) Set<PostField> fields) {
+        // An empty item such as ids=1,,2 binds to null
+        if (ids.contains(null))
+            return ResponseEntity.badRequest()
+                    .body(Map.of("message", "ids must not contain empty values"));
+        Set<Long> postIds = new LinkedHashSet<>(ids);
+        if (postIds.size() > MAX_POST_IDS)
+            return ResponseEntity.badRequest()
+                    .body(Map.of("message", "At most " + MAX_POST_IDS + " post ids per request"));
+
+        var selected = PostField.select(fields);
+        Map<Long, Post> found = postService.getByIds(postIds, selected);
+        List<PostLookupDto> posts = new ArrayList<>(postIds.size());
+        for (Long id : postIds) {
+            Post post = found.get(id);
+            posts.add(post == null ? PostLookupDto.missing(id) : PostLookupDto.found(PostDto.from(post, selected)));
+        }
+        return ResponseEntity.ok(posts);
     }
 
     @GetMapping("{postId}")
-    public ResponseEntity<PostDto> getPostById(@PathVariable long postId) {
-        var postOpt = postService.getById(postId);
-        return ResponseEntity.of(postOpt.map(PostDto::from));
+    public ResponseEntity<?> getPostById(@PathVariable long postId,
+                                         @RequestParam(required = false) Set<String> include,
+                                         @RequestParam(defaultValue = "20") int commentsPageSize,
+                                         @RequestParam(required = false) Set<PostField> fields) {
+        if (commentsPageSize < 1 || commentsPageSize > MAX_COMMENTS_PAGE_SIZE)
+            return ResponseEntity.badRequest()
+                    .body(Map.of("message", "commentsPageSize must be between 1 and " + MAX_COMMENTS_PAGE_SIZE));
+
+        var selected = PostField.select(fields);
+        var postOpt = postService.getById(postId, selected);
+        return ResponseEntity.of(postOpt.map(post ->
+                toDetails(post, selected, include == null ? Set.of() : include, commentsPageSize)));
     }
 
     @PostMapping
@@ -70,4 +137,24 @@ public class PostController {
             return ResponseEntity.ok().body(PostDto.from(post));
         }).orElseGet(() -> ResponseEntity.notFound().build());
     }
+
+    private PostDetailsDto toDetails(Post post, Set<PostField> fields, Set<String> include, int commentsPageSize) {
+        List<CommentDto> comments = null;
+        if (include.contains(INCLUDE_COMMENTS)) {
+            comments = commentService.getFirstPageByPostId(post.getId(), commentsPageSize).stream()
+                    .map(CommentDto::from)
+                    .toList();
+        }
+
+        ImageDto image = null;
+        if (include.contains(INCLUDE_IMAGE)) {
+            try {
+                image = blobService.getMetadata(post.getId()).map(ImageDto::from).orElseGet(ImageDto::absent);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        return new PostDetailsDto(PostDto.from(post, fields), comments, image);
+    }
 }
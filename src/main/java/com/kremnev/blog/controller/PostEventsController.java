@@ -0,0 +1,28 @@
+package com.kremnev.blog.controller;
+
+import com.kremnev.blog.web.PostEventHub;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+// Kept out of PostController: a stream lasts minutes and must not hold an admission permit
+@RestController
+@RequestMapping("api/posts/{postId}/events")
+public class PostEventsController {
+
+    private final PostEventHub postEventHub;
+
+    public PostEventsController(PostEventHub postEventHub) {
+        this.postEventHub = postEventHub;
+    }
+
+    // Pushes likesCount and commentsCount as they change, instead of clients polling the post
+    @GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> subscribe(@PathVariable long postId) {
+        return ResponseEntity.of(postEventHub.subscribe(postId));
+    }
+}
@@ -0,0 +1,7 @@
+package com.kremnev.blog.dto;
+
+import java.util.List;
+
+public record BatchResponseDto(
+    List<BatchResultDto> responses
+) {}
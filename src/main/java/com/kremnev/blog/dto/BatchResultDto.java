@@ -0,0 +1,14 @@
+package com.kremnev.blog.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import tools.jackson.databind.JsonNode;
+
+import java.util.Map;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record BatchResultDto(
+    String id,
+    int status,
+    @JsonInclude(JsonInclude.Include.NON_EMPTY) Map<String, String> headers,
+    JsonNode body
+) {}
@@ -0,0 +1,26 @@
+package com.kremnev.blog.dto;
+
+import com.kremnev.blog.model.Change;
+
+import java.time.OffsetDateTime;
+import java.util.Locale;
+
+public record ChangeDto(
+    long seq,
+    String entity,
+    long entityId,
+    long postId,
+    String operation,
+    OffsetDateTime createdAt
+) {
+    public static ChangeDto from(Change change) {
+        return new ChangeDto(
+                change.getSeq(),
+                change.getEntity().name().toLowerCase(Locale.ROOT),
+                change.getEntityId(),
+                change.getPostId(),
+                change.getOperation().name().toLowerCase(Locale.ROOT),
+                change.getCreatedAt()
+        );
+    }
+}
@@ -0,0 +1,9 @@
+package com.kremnev.blog.dto;
+
+import java.util.List;
+
+// next is the since to pass on the following poll
+public record ChangesResponseDto(
+    List<ChangeDto> changes,
+    long next
+) {}
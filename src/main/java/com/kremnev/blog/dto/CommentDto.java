@@ -1,7 +1,13 @@
 package com.kremnev.blog.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.kremnev.blog.model.Comment;
+import com.kremnev.blog.model.CommentField;
 
+import java.util.Set;
+
+// Fields left out by ?fields= are null and not written
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public record CommentDto(
     Long id,
     String text,
@@ -14,4 +20,12 @@ public record CommentDto(
                 comment.getPostId()
         );
     }
+
+    public static CommentDto from(Comment comment, Set<CommentField> fields) {
+        return new CommentDto(
+                comment.getId(),
+                fields.contains(CommentField.TEXT) ? comment.getText() : null,
+                fields.contains(CommentField.POST_ID) ? comment.getPostId() : null
+        );
+    }
 }
@@ -0,0 +1,31 @@
+package com.kremnev.blog.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.kremnev.blog.model.ImageMetadata;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record ImageDto(
+    boolean present,
+    String contentType,
+    Long size,
+    Integer width,
+    Integer height,
+    String version,
+    String blurHash
+) {
+    public static ImageDto from(ImageMetadata metadata) {
+        return new ImageDto(
+                true,
+                metadata.getContentType(),
+                metadata.getSize(),
+                metadata.getWidth(),
+                metadata.getHeight(),
+                metadata.getHash(),
+                metadata.getBlurHash()
+        );
+    }
+
+    public static ImageDto absent() {
+        return new ImageDto(false, null, null, null, null, null, null);
+    }
+}
@@ -0,0 +1,29 @@
+package com.kremnev.blog.dto;
+
+import com.kremnev.blog.model.ImageGcReport;
+
+import java.time.Instant;
+
+public record ImageGcReportDto(
+    boolean dryRun,
+    long scannedFiles,
+    long orphanBlobs,
+    long orphanVariants,
+    long orphanLegacyFiles,
+    long staleTempFiles,
+    long reclaimableBytes,
+    Instant finishedAt
+) {
+    public static ImageGcReportDto from(ImageGcReport report) {
+        return new ImageGcReportDto(
+                report.isDryRun(),
+                report.getScannedFiles(),
+                report.getOrphanBlobs(),
+                report.getOrphanVariants(),
+                report.getOrphanLegacyFiles(),
+                report.getStaleTempFiles(),
+                report.getReclaimableBytes(),
+                report.getFinishedAt()
+        );
+    }
+}
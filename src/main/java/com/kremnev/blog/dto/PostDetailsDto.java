@@ -0,0 +1,13 @@
+package com.kremnev.blog.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+
+import java.util.List;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record PostDetailsDto(
+    @JsonUnwrapped PostDto post,
+    List<CommentDto> comments,
+    ImageDto image
+) {}
@@ -1,16 +1,21 @@
 package com.kremnev.blog.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.kremnev.blog.model.Post;
+import com.kremnev.blog.model.PostField;
 
 import java.util.List;
+import java.util.Set;
 
+// Fields left out by ?fields= are null and not written
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public record PostDto(
     Long id,
     String title,
     String text,
     List<String> tags,
-    int likesCount,
-    int commentsCount
+    Integer likesCount,
+    Integer commentsCount
 ) {
     public static PostDto from(Post post) {
         return new PostDto(
@@ -22,4 +27,15 @@ public record PostDto(
                 post.getCommentsCount()
         );
     }
+
+    public static PostDto from(Post post, Set<PostField> fields) {
+        return new PostDto(
+                post.getId(),
+                fields.contains(PostField.TITLE) ? post.getTitle() : null,
+                fields.contains(PostField.TEXT) ? post.getText() : null,
+                fields.contains(PostField.TAGS) ? post.getTags() : null,
+                fields.contains(PostField.LIKES_COUNT) ? post.getLikesCount() : null,
+                fields.contains(PostField.COMMENTS_COUNT) ? post.getCommentsCount() : null
+        );
+    }
 }
@@ -0,0 +1,19 @@
+package com.kremnev.blog.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+// One entry of a multi-get: the post, or a marker that there is no post with that id
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record PostLookupDto(
+    Long id,
+    boolean found,
+    PostDto post
+) {
+    public static PostLookupDto found(PostDto post) {
+        return new PostLookupDto(post.id(), true, post);
+    }
+
+    public static PostLookupDto missing(Long id) {
+        return new PostLookupDto(id, false, null);
+    }
+}
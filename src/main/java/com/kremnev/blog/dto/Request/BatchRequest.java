@@ -0,0 +1,17 @@
+package com.kremnev.blog.dto.Request;
+
+import tools.jackson.databind.JsonNode;
+
+import java.util.List;
+
+public record BatchRequest(
+    List<Operation> requests,
+    Boolean transactional
+) {
+    public record Operation(
+        String id,
+        String method,
+        String path,
+        JsonNode body
+    ) {}
+}
@@ -0,0 +1,21 @@
+package com.kremnev.blog.dto;
+
+import com.kremnev.blog.model.UploadSession;
+
+import java.time.Instant;
+
+public record UploadSessionDto(
+    String id,
+    long offset,
+    long length,
+    Instant expiresAt
+) {
+    public static UploadSessionDto from(UploadSession session) {
+        return new UploadSessionDto(
+                session.getId(),
+                session.getOffset(),
+                session.getLength(),
+                session.getExpiresAt()
+        );
+    }
+}
@@ -0,0 +1,52 @@
+package com.kremnev.blog.model;
+
+import java.time.OffsetDateTime;
+
+/**
+ * One row of the change log: which post or comment was written, and how. Deleting a post
+ * logs each of its comments as deleted, then the post.
+ */
+public final class Change {
+    public enum Entity { POST, COMMENT }
+    public enum Operation { CREATED, UPDATED, LIKED, DELETED }
+
+    private final long seq;
+    private final Entity entity;
+    private final long entityId;
+    private final long postId;
+    private final Operation operation;
+    private final OffsetDateTime createdAt;
+
+    public Change(long seq, Entity entity, long entityId, long postId, Operation operation, OffsetDateTime createdAt) {
+        this.seq = seq;
+        this.entity = entity;
+        this.entityId = entityId;
+        this.postId = postId;
+        this.operation = operation;
+        this.createdAt = createdAt;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public Entity getEntity() {
+        return entity;
+    }
+
+    public long getEntityId() {
+        return entityId;
+    }
+
+    public long getPostId() {
+        return postId;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public OffsetDateTime getCreatedAt() {
+        return createdAt;
+    }
+}
@@ -0,0 +1,42 @@
+package com.kremnev.blog.model;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Comment fields a client can ask for with {@code ?fields=}, by their JSON names. The id is
+ * always returned.
+ */
+public enum CommentField {
+    ID("id"),
+    TEXT("text"),
+    POST_ID("postId");
+
+    private final String jsonName;
+
+    CommentField(String jsonName) {
+        this.jsonName = jsonName;
+    }
+
+    public String jsonName() {
+        return jsonName;
+    }
+
+    public static CommentField fromJsonName(String name) {
+        for (CommentField field : values()) {
+            if (field.jsonName.equals(name.trim())) return field;
+        }
+        throw new IllegalArgumentException("Unknown comment field: " + name);
+    }
+
+    /**
+     * The fields to load for a request; no selection means all of them.
+     */
+    public static Set<CommentField> select(Collection<CommentField> requested) {
+        if (requested == null || requested.isEmpty()) return EnumSet.allOf(CommentField.class);
+        EnumSet<CommentField> fields = EnumSet.copyOf(requested);
+        fields.add(ID);
+        return fields;
+    }
+}
@@ -0,0 +1,58 @@
+package com.kremnev.blog.model;
+
+import java.time.Instant;
+
+public final class ImageGcReport {
+    private final boolean dryRun;
+    private final long scannedFiles;
+    private final long orphanBlobs;
+    private final long orphanVariants;
+    private final long orphanLegacyFiles;
+    private final long staleTempFiles;
+    private final long reclaimableBytes;
+    private final Instant finishedAt;
+
+    public ImageGcReport(boolean dryRun, long scannedFiles, long orphanBlobs, long orphanVariants,
+                         long orphanLegacyFiles, long staleTempFiles, long reclaimableBytes, Instant finishedAt) {
+        this.dryRun = dryRun;
+        this.scannedFiles = scannedFiles;
+        this.orphanBlobs = orphanBlobs;
+        this.orphanVariants = orphanVariants;
+        this.orphanLegacyFiles = orphanLegacyFiles;
+        this.staleTempFiles = staleTempFiles;
+        this.reclaimableBytes = reclaimableBytes;
+        this.finishedAt = finishedAt;
+    }
+
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    public long getScannedFiles() {
+        return scannedFiles;
+    }
+
+    public long getOrphanBlobs() {
+        return orphanBlobs;
+    }
+
+    public long getOrphanVariants() {
+        return orphanVariants;
+    }
+
+    public long getOrphanLegacyFiles() {
+        return orphanLegacyFiles;
+    }
+
+    public long getStaleTempFiles() {
+        return staleTempFiles;
+    }
+
+    public long getReclaimableBytes() {
+        return reclaimableBytes;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+}
@@ -0,0 +1,43 @@
+package com.kremnev.blog.model;
+
+public final class ImageMetadata {
+    private final String contentType;
+    private final long size;
+    private final Integer width;
+    private final Integer height;
+    private final String hash;
+    private final String blurHash;
+
+    public ImageMetadata(String contentType, long size, Integer width, Integer height, String hash, String blurHash) {
+        this.contentType = contentType;
+        this.size = size;
+        this.width = width;
+        this.height = height;
+        this.hash = hash;
+        this.blurHash = blurHash;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public Integer getWidth() {
+        return width;
+    }
+
+    public Integer getHeight() {
+        return height;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public String getBlurHash() {
+        return blurHash;
+    }
+}
@@ -0,0 +1,65 @@
+package com.kremnev.blog.model;
+
+import java.time.OffsetDateTime;
+
+public final class ImageRef {
+    private final Long postId;
+    private final String path;
+    private final String hash;
+    private final String contentType;
+    private final long size;
+    private final Integer width;
+    private final Integer height;
+    private final String blurHash;
+    private final OffsetDateTime updatedAt;
+
+    public ImageRef(Long postId, String path, String hash, String contentType, long size,
+                    Integer width, Integer height, String blurHash, OffsetDateTime updatedAt) {
+        this.postId = postId;
+        this.path = path;
+        this.hash = hash;
+        this.contentType = contentType;
+        this.size = size;
+        this.width = width;
+        this.height = height;
+        this.blurHash = blurHash;
+        this.updatedAt = updatedAt;
+    }
+
+    public Long getPostId() {
+        return postId;
+    }
+
+    /** Location of the file relative to {@code uploads.root}. */
+    public String getPath() {
+        return path;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public Integer getWidth() {
+        return width;
+    }
+
+    public Integer getHeight() {
+        return height;
+    }
+
+    public String getBlurHash() {
+        return blurHash;
+    }
+
+    public OffsetDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+}
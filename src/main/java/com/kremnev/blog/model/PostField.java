@@ -0,0 +1,45 @@
+package com.kremnev.blog.model;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Post fields a client can ask for with {@code ?fields=}, by their JSON names. The id is
+ * always returned.
+ */
+public enum PostField {
+    ID("id"),
+    TITLE("title"),
+    TEXT("text"),
+    TAGS("tags"),
+    LIKES_COUNT("likesCount"),
+    COMMENTS_COUNT("commentsCount");
+
+    private final String jsonName;
+
+    PostField(String jsonName) {
+        this.jsonName = jsonName;
+    }
+
+    public String jsonName() {
+        return jsonName;
+    }
+
+    public static PostField fromJsonName(String name) {
+        for (PostField field : values()) {
+            if (field.jsonName.equals(name.trim())) return field;
+        }
+        throw new IllegalArgumentException("Unknown post field: " + name);
+    }
+
+    /**
+     * The fields to load for a request; no selection means all of them.
+     */
+    public static Set<PostField> select(Collection<PostField> requested) {
+        if (requested == null || requested.isEmpty()) return EnumSet.allOf(PostField.class);
+        EnumSet<PostField> fields = EnumSet.copyOf(requested);
+        fields.add(ID);
+        return fields;
+    }
+}
@@ -0,0 +1,33 @@
+package com.kremnev.blog.model;
+
+import java.nio.file.Path;
+
+public final class StoredImage {
+    private final Path path;
+    private final String contentType;
+    private final long size;
+    private final String hash;
+
+    public StoredImage(Path path, String contentType, long size, String hash) {
+        this.path = path;
+        this.contentType = contentType;
+        this.size = size;
+        this.hash = hash;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+}
@@ -0,0 +1,41 @@
+package com.kremnev.blog.model;
+
+import java.time.Instant;
+
+public final class UploadSession {
+    private final String id;
+    private final long postId;
+    private final long length;
+    private final long offset;
+    private final Instant expiresAt;
+
+    public UploadSession(String id, long postId, long length, long offset, Instant expiresAt) {
+        this.id = id;
+        this.postId = postId;
+        this.length = length;
+        this.offset = offset;
+        this.expiresAt = expiresAt;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public long getPostId() {
+        return postId;
+    }
+
+    /** Total size of the image, declared when the session was created. */
+    public long getLength() {
+        return length;
+    }
+
+    /** Number of bytes received so far; the next chunk must start here. */
+    public long getOffset() {
+        return offset;
+    }
+
+    public Instant getExpiresAt() {
+        return expiresAt;
+    }
+}
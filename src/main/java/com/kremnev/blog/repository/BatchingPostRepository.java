@@ -0,0 +1,225 @@
+package com.kremnev.blog.repository;
+
+import com.kremnev.blog.concurrency.QueryBudget;
+import com.kremnev.blog.model.Post;
+import com.kremnev.blog.model.PostField;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.util.Pair;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.stream.Collectors;
+
+/**
+ * Coalesces concurrent {@link #findById} calls: lookups arriving within the batch window
+ * (or until the batch is full) are answered by a single {@link PostRepository#findAllByIds}.
+ * Callers inside a transaction bypass batching so they keep seeing their own writes.
+ * Each caller waits no longer than its {@link QueryBudget} (or the loader timeout without one).
+ * A batch runs until the last of its callers stops waiting, so a caller with little budget left
+ * times out alone instead of failing the query for the others.
+ */
+@Primary
+@Repository
+public class BatchingPostRepository implements PostRepository, DisposableBean {
+    // Tags the batch queries' budget metrics; a batch serves callers from several routes
+    private static final String ROUTE = "post-loader";
+
+    private final PostRepository delegate;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final long timeoutNanos;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService executor;
+    private final DistributionSummary batchSizes;
+    private final Counter bypassed;
+    private final Counter timeouts;
+
+    private final Object lock = new Object();
+    private Batch pending = new Batch();
+    private ScheduledFuture<?> scheduledFlush;
+
+    public BatchingPostRepository(PostRepositoryImpl delegate,
+                                  @Value("${posts.loader.window:2ms}") Duration window,
+                                  @Value("${posts.loader.max-batch-size:64}") int maxBatchSize,
+                                  @Value("${posts.loader.timeout:5s}") Duration timeout,
+                                  MeterRegistry registry) {
+        this.delegate = delegate;
+        this.windowNanos = window.toNanos();
+        this.maxBatchSize = maxBatchSize;
+        this.timeoutNanos = timeout.toNanos();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+                .name("post-loader")
+                .daemon(true)
+                .factory());
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("post-loader-batch-", 0).factory());
+        this.batchSizes = DistributionSummary.builder("blog.posts.loader.batch.size")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.bypassed = registry.counter("blog.posts.loader.bypassed");
+        this.timeouts = registry.counter("blog.posts.loader.timeouts");
+    }
+
+    @Override
+    public Optional<Post> findById(long postId) {
+        if (windowNanos <= 0 || TransactionSynchronizationManager.isActualTransactionActive()) {
+            bypassed.increment();
+            return delegate.findById(postId);
+        }
+
+        QueryBudget budget = QueryBudget.current();
+        long waitNanos = budget != null ? budget.remainingNanos() : timeoutNanos;
+        var future = enqueue(postId, System.nanoTime() + waitNanos);
+        try {
+            return future.get(waitNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            timeouts.increment();
+            throw new QueryTimeoutException("Timed out waiting for post " + postId + " from the loader", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QueryTimeoutException("Interrupted waiting for post " + postId + " from the loader", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            if (e.getCause() instanceof Error cause) throw cause;
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private CompletableFuture<Optional<Post>> enqueue(long postId, long deadlineNanos) {
+        synchronized (lock) {
+            pending.extend(deadlineNanos);
+            var existing = pending.futures.get(postId);
+            if (existing != null) return existing;
+
+            var future = new CompletableFuture<Optional<Post>>();
+            pending.futures.put(postId, future);
+
+            if (pending.futures.size() >= maxBatchSize) {
+                dispatch();
+            } else if (pending.futures.size() == 1) {
+                scheduledFlush = scheduler.schedule(this::flush, windowNanos, TimeUnit.NANOSECONDS);
+            }
+            return future;
+        }
+    }
+
+    private void flush() {
+        synchronized (lock) {
+            if (!pending.futures.isEmpty()) dispatch();
+        }
+    }
+
+    // Must be called while holding the lock
+    private void dispatch() {
+        var batch = pending;
+        pending = new Batch();
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        executor.execute(() -> load(batch));
+    }
+
+    private void load(Batch batch) {
+        batchSizes.record(batch.futures.size());
+        var budget = QueryBudget.open(ROUTE, Duration.ofNanos(Math.max(batch.deadlineNanos - System.nanoTime(), 0)));
+        try (budget) {
+            Map<Long, Post> found = delegate.findAllByIds(batch.futures.keySet()).stream()
+                    .collect(Collectors.toMap(Post::getId, Function.identity()));
+            batch.futures.forEach((id, future) -> future.complete(Optional.ofNullable(found.get(id))));
+        } catch (Throwable t) {
+            batch.futures.values().forEach(future -> future.completeExceptionally(t));
+        }
+    }
+
+    /**
+     * The lookups collected for one query, and the latest deadline of the callers waiting on them.
+     */
+    private static final class Batch {
+        private final Map<Long, CompletableFuture<Optional<Post>>> futures = new HashMap<>();
+        private long deadlineNanos;
+
+        void extend(long callerDeadlineNanos) {
+            if (futures.isEmpty() || callerDeadlineNanos - deadlineNanos > 0) deadlineNanos = callerDeadlineNanos;
+        }
+    }
+
+    @Override
+    public List<Post> findAllByIds(Collection<Long> postIds) {
+        return delegate.findAllByIds(postIds);
+    }
+
+    @Override
+    public List<Post> findAllByIds(Collection<Long> postIds, Set<PostField> fields) {
+        return delegate.findAllByIds(postIds, fields);
+    }
+
+    @Override
+    public Pair<List<Post>, Integer> findAll(String search, int pageNumber, int pageSize, Set<PostField> fields) {
+        return delegate.findAll(search, pageNumber, pageSize, fields);
+    }
+
+    // Projections are not batched: the loader only deals in whole posts
+    @Override
+    public Optional<Post> findById(long postId, Set<PostField> fields) {
+        return delegate.findById(postId, fields);
+    }
+
+    @Override
+    public Post create(String title, String text, List<String> tags) {
+        return delegate.create(title, text, tags);
+    }
+
+    @Override
+    public Optional<Post> update(Long postId, String title, String text, List<String> tags) {
+        return delegate.update(postId, title, text, tags);
+    }
+
+    @Override
+    public boolean delete(Long postId) {
+        return delegate.delete(postId);
+    }
+
+    @Override
+    public Optional<Post> addLike(Long postId) {
+        return delegate.addLike(postId);
+    }
+
+    @Override
+    public long countAll() {
+        return delegate.countAll();
+    }
+
+    @Override
+    public void forEachId(LongConsumer action) {
+        delegate.forEachId(action);
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+        executor.shutdown();
+    }
+}
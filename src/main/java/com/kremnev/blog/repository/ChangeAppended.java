@@ -0,0 +1,7 @@
+package com.kremnev.blog.repository;
+
+/**
+ * Published for every change log row; listeners that need the row to be readable should run
+ * after commit.
+ */
+public record ChangeAppended(long seq) {}
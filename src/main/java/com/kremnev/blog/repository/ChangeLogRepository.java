@@ -0,0 +1,13 @@
+package com.kremnev.blog.repository;
+
+import com.kremnev.blog.model.Change;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+
+public interface ChangeLogRepository {
+    void append(Change.Entity entity, long entityId, long postId, Change.Operation operation);
+    List<Change> findSince(long seq, int limit);
+    long latestSeq();
+    int deleteOlderThan(OffsetDateTime cutoff);
+}
@@ -0,0 +1,102 @@
+package com.kremnev.blog.repository;
+
+import com.kremnev.blog.model.Change;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sequence numbers come from a database sequence, so writers never wait on each other, and
+ * transactions may commit out of {@code seq} order. Each row also records the id of the
+ * transaction that wrote it, and the feed is read in (transaction, seq) order, only up to a
+ * safe horizon: on PostgreSQL every transaction below {@code pg_snapshot_xmin} has ended, so
+ * no row can later turn up before one a reader was already given. H2, which the tests run
+ * on, has no transaction ids; its rows all record 0 and the feed is plain {@code seq} order.
+ */
+@Repository
+public class ChangeLogRepositoryImpl implements ChangeLogRepository {
+
+    private static final String POSTGRES_HORIZON = "pg_snapshot_xmin(pg_current_snapshot())::text::bigint";
+
+    private final JdbcTemplate jdbc;
+    private final ApplicationEventPublisher eventPublisher;
+    private final SimpleJdbcInsert changeInsert;
+    private final String findSinceSql;
+    private final String latestSeqSql;
+
+    public ChangeLogRepositoryImpl(JdbcTemplate jdbc, ApplicationEventPublisher eventPublisher)
+            throws MetaDataAccessException {
+        this.jdbc = jdbc;
+        this.eventPublisher = eventPublisher;
+        this.changeInsert = new SimpleJdbcInsert(jdbc)
+                .withTableName("change_log")
+                .usingGeneratedKeyColumns("seq")
+                .usingColumns("entity", "entity_id", "post_id", "operation");
+
+        String product = JdbcUtils.extractDatabaseMetaData(jdbc.getDataSource(), DatabaseMetaData::getDatabaseProductName);
+        String horizon = "PostgreSQL".equals(product) ? POSTGRES_HORIZON : String.valueOf(Long.MAX_VALUE);
+        // A since that is no longer in the log (pruned) starts over from the oldest change kept
+        this.findSinceSql = "SELECT * FROM change_log WHERE txid < " + horizon + " " +
+                "AND (txid, seq) > (COALESCE((SELECT txid FROM change_log WHERE seq = ?), 0), ?) " +
+                "ORDER BY txid, seq LIMIT ?";
+        this.latestSeqSql = "SELECT seq FROM change_log WHERE txid < " + horizon + " " +
+                "ORDER BY txid DESC, seq DESC LIMIT 1";
+    }
+
+    private static class ChangeRowMapper implements RowMapper<Change> {
+        @Override
+        public Change mapRow(ResultSet rs, int rowNum) throws SQLException {
+            return new Change(
+                rs.getLong("seq"),
+                Change.Entity.valueOf(rs.getString("entity")),
+                rs.getLong("entity_id"),
+                rs.getLong("post_id"),
+                Change.Operation.valueOf(rs.getString("operation")),
+                rs.getObject("created_at", OffsetDateTime.class)
+            );
+        }
+    }
+
+    // Only meaningful as part of the write it records
+    @Override
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void append(Change.Entity entity, long entityId, long postId, Change.Operation operation) {
+        Number seq = changeInsert.executeAndReturnKey(Map.of(
+                "entity", entity.name(),
+                "entity_id", entityId,
+                "post_id", postId,
+                "operation", operation.name()
+        ));
+        eventPublisher.publishEvent(new ChangeAppended(seq.longValue()));
+    }
+
+    @Override
+    public List<Change> findSince(long seq, int limit) {
+        return jdbc.query(findSinceSql, new ChangeRowMapper(), seq, seq, limit);
+    }
+
+    // The seq of the last change readers can see; it moves whenever the feed grows
+    @Override
+    public long latestSeq() {
+        List<Long> seq = jdbc.queryForList(latestSeqSql, Long.class);
+        return seq.isEmpty() ? 0 : seq.getFirst();
+    }
+
+    @Override
+    public int deleteOlderThan(OffsetDateTime cutoff) {
+        return jdbc.update("DELETE FROM change_log WHERE created_at < ?", cutoff);
+    }
+}
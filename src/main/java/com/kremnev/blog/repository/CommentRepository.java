@@ -1,13 +1,18 @@
 package com.kremnev.blog.repository;
 
 import com.kremnev.blog.model.Comment;
+import com.kremnev.blog.model.CommentField;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 public interface CommentRepository {
     List<Comment> findAllByPostId(Long postId);
+    List<Comment> findAllByPostId(Long postId, Set<CommentField> fields);
+    List<Comment> findFirstPageByPostId(Long postId, int pageSize);
     Optional<Comment> findById(Long commentId);
+    Optional<Comment> findById(Long commentId, Set<CommentField> fields);
     Comment create(Long postId, String text);
     Optional<Comment> update(Long commentId, Long postId, String text);
     boolean delete(Long commentId, Long postId);
@@ -1,12 +1,15 @@
 package com.kremnev.blog.repository;
 
+import com.kremnev.blog.model.Change;
 import com.kremnev.blog.model.Comment;
+import com.kremnev.blog.model.CommentField;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -14,14 +17,23 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 @Repository
 public class CommentRepositoryImpl implements CommentRepository {
 
     private final JdbcTemplate jdbc;
+    private final ChangeLogRepository changeLog;
 
-    public CommentRepositoryImpl(JdbcTemplate jdbc) {
+    public CommentRepositoryImpl(JdbcTemplate jdbc, ChangeLogRepository changeLog) {
         this.jdbc = jdbc;
+        this.changeLog = changeLog;
+    }
+
+    // The text is only read when asked for; the row mapper sees NULL otherwise
+    private static String selectComments(Set<CommentField> fields) {
+        return "SELECT id, post_id, " + (fields.contains(CommentField.TEXT) ? "text" : "NULL AS text") +
+                ", created_at, updated_at FROM comments ";
     }
 
     private static class CommentRowMapper implements RowMapper<Comment> {
@@ -39,7 +51,18 @@ public class CommentRepositoryImpl implements CommentRepository {
 
     @Override
     public List<Comment> findAllByPostId(Long postId) {
-        return jdbc.query("SELECT * FROM comments WHERE post_id = ?", new CommentRowMapper(), postId);
+        return jdbc.query("SELECT * FROM comments WHERE post_id = ? ORDER BY id", new CommentRowMapper(), postId);
+    }
+
+    @Override
+    public List<Comment> findAllByPostId(Long postId, Set<CommentField> fields) {
+        return jdbc.query(selectComments(fields) + "WHERE post_id = ? ORDER BY id", new CommentRowMapper(), postId);
+    }
+
+    @Override
+    public List<Comment> findFirstPageByPostId(Long postId, int pageSize) {
+        return jdbc.query("SELECT * FROM comments WHERE post_id = ? ORDER BY id LIMIT ?",
+                new CommentRowMapper(), postId, pageSize);
     }
 
     @Override
@@ -59,6 +82,13 @@ public class CommentRepositoryImpl implements CommentRepository {
     }
 
     @Override
+    public Optional<Comment> findById(Long commentId, Set<CommentField> fields) {
+        List<Comment> comments = jdbc.query(selectComments(fields) + "WHERE id = ?", new CommentRowMapper(), commentId);
+        return comments.stream().findFirst();
+    }
+
+    @Override
+    @Transactional
     public Comment create(Long postId, String text) {
         KeyHolder keyHolder = new GeneratedKeyHolder();
 
@@ -73,6 +103,7 @@ public class CommentRepositoryImpl implements CommentRepository {
         }, keyHolder);
 
         Long commentId = ((Number) keyHolder.getKeys().get("id")).longValue();
+        changeLog.append(Change.Entity.COMMENT, commentId, postId, Change.Operation.CREATED);
 
         return jdbc.queryForObject(
                 "SELECT * FROM comments WHERE id = ?",
@@ -82,6 +113,7 @@ public class CommentRepositoryImpl implements CommentRepository {
     }
 
     @Override
+    @Transactional
     public Optional<Comment> update(Long commentId, Long postId, String text) {
         int rows = jdbc.update(
             "UPDATE comments SET text = ?, updated_at = NOW() WHERE id = ? AND post_id = ?",
@@ -92,12 +124,17 @@ public class CommentRepositoryImpl implements CommentRepository {
 
         if (rows == 0) return Optional.empty();
 
+        changeLog.append(Change.Entity.COMMENT, commentId, postId, Change.Operation.UPDATED);
         return findById(commentId);
     }
 
     @Override
+    @Transactional
     public boolean delete(Long commentId, Long postId) {
         int rows = jdbc.update("DELETE FROM comments WHERE id = ? AND post_id = ?", commentId, postId);
-        return rows > 0;
+        if (rows == 0) return false;
+
+        changeLog.append(Change.Entity.COMMENT, commentId, postId, Change.Operation.DELETED);
+        return true;
     }
 }
\ No newline at end of file
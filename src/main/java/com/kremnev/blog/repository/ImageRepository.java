@@ -0,0 +1,19 @@
+package com.kremnev.blog.repository;
+
+import com.kremnev.blog.model.ImageRef;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+public interface ImageRepository {
+    Optional<ImageRef> findByPostId(long postId);
+    List<ImageRef> findByPostIds(Collection<Long> postIds);
+    boolean upsert(ImageRef image);
+    boolean insertIfAbsent(ImageRef image);
+    List<ImageRef> findOutside(String pathPrefix, long afterPostId, int limit);
+    boolean relocate(long postId, String expectedPath, String newPath, String hash);
+    Set<String> findReferencedHashes(Collection<String> hashes);
+    Set<String> findPathsByPostIds(Collection<Long> postIds);
+}
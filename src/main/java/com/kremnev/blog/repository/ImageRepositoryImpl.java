@@ -0,0 +1,138 @@
+package com.kremnev.blog.repository;
+
+import com.kremnev.blog.model.ImageRef;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+@Repository
+public class ImageRepositoryImpl implements ImageRepository {
+
+    private final JdbcTemplate jdbc;
+    private final NamedParameterJdbcTemplate namedJdbc;
+
+    public ImageRepositoryImpl(JdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+        this.namedJdbc = new NamedParameterJdbcTemplate(jdbc);
+    }
+
+    private static class ImageRefRowMapper implements RowMapper<ImageRef> {
+        @Override
+        public ImageRef mapRow(ResultSet rs, int rowNum) throws SQLException {
+            return new ImageRef(
+                    rs.getLong("post_id"),
+                    rs.getString("path"),
+                    rs.getString("hash"),
+                    rs.getString("content_type"),
+                    rs.getLong("size"),
+                    rs.getObject("width", Integer.class),
+                    rs.getObject("height", Integer.class),
+                    rs.getString("blur_hash"),
+                    rs.getObject("updated_at", java.time.OffsetDateTime.class)
+            );
+        }
+    }
+
+    @Override
+    public Optional<ImageRef> findByPostId(long postId) {
+        return jdbc.query("SELECT * FROM images WHERE post_id = ?", new ImageRefRowMapper(), postId)
+                .stream()
+                .findFirst();
+    }
+
+    @Override
+    public List<ImageRef> findByPostIds(Collection<Long> postIds) {
+        if (postIds.isEmpty()) return List.of();
+
+        return namedJdbc.query("SELECT * FROM images WHERE post_id IN (:postIds)",
+                new MapSqlParameterSource("postIds", postIds), new ImageRefRowMapper());
+    }
+
+    /**
+     * Points the post at an image file. Returns false when the post does not exist.
+     */
+    @Override
+    public boolean upsert(ImageRef image) {
+        if (update(image)) return true;
+
+        try {
+            return insertIfAbsent(image);
+        } catch (DuplicateKeyException e) {
+            // A concurrent upload inserted the row first; the later write wins
+            return update(image);
+        }
+    }
+
+    /**
+     * Records the image unless the post already has one. Returns false when nothing was inserted.
+     */
+    @Override
+    public boolean insertIfAbsent(ImageRef image) {
+        int rows = jdbc.update(
+                "INSERT INTO images (post_id, path, hash, content_type, size, width, height, blur_hash) " +
+                "SELECT p.id, ?, ?, ?, ?, ?, ?, ? FROM posts p " +
+                "WHERE p.id = ? AND NOT EXISTS (SELECT 1 FROM images i WHERE i.post_id = p.id)",
+                image.getPath(), image.getHash(), image.getContentType(), image.getSize(),
+                image.getWidth(), image.getHeight(), image.getBlurHash(), image.getPostId());
+        return rows > 0;
+    }
+
+    /**
+     * Returns up to {@code limit} images whose path does not start with {@code pathPrefix},
+     * in post id order after {@code afterPostId}.
+     */
+    @Override
+    public List<ImageRef> findOutside(String pathPrefix, long afterPostId, int limit) {
+        return jdbc.query("SELECT * FROM images WHERE post_id > ? AND path NOT LIKE ? ORDER BY post_id LIMIT ?",
+                new ImageRefRowMapper(), afterPostId, pathPrefix + "%", limit);
+    }
+
+    /**
+     * Moves the post's image to {@code newPath}, unless it was replaced since it was read.
+     */
+    @Override
+    public boolean relocate(long postId, String expectedPath, String newPath, String hash) {
+        int rows = jdbc.update("UPDATE images SET path = ?, hash = ? WHERE post_id = ? AND path = ?",
+                newPath, hash, postId, expectedPath);
+        return rows > 0;
+    }
+
+    /**
+     * Returns the subset of {@code hashes} that at least one post still points at.
+     */
+    @Override
+    public Set<String> findReferencedHashes(Collection<String> hashes) {
+        if (hashes.isEmpty()) return Set.of();
+
+        return new HashSet<>(namedJdbc.queryForList("SELECT DISTINCT hash FROM images WHERE hash IN (:hashes)",
+                new MapSqlParameterSource("hashes", hashes), String.class));
+    }
+
+    @Override
+    public Set<String> findPathsByPostIds(Collection<Long> postIds) {
+        if (postIds.isEmpty()) return Set.of();
+
+        return new HashSet<>(namedJdbc.queryForList("SELECT path FROM images WHERE post_id IN (:postIds)",
+                new MapSqlParameterSource("postIds", postIds), String.class));
+    }
+
+    private boolean update(ImageRef image) {
+        int rows = jdbc.update(
+                "UPDATE images SET path = ?, hash = ?, content_type = ?, size = ?, width = ?, height = ?, " +
+                "blur_hash = ?, updated_at = NOW() WHERE post_id = ?",
+                image.getPath(), image.getHash(), image.getContentType(), image.getSize(),
+                image.getWidth(), image.getHeight(), image.getBlurHash(), image.getPostId());
+        return rows > 0;
+    }
+}
@@ -1,16 +1,25 @@
 package com.kremnev.blog.repository;
 
 import com.kremnev.blog.model.Post;
+import com.kremnev.blog.model.PostField;
 import org.springframework.data.util.Pair;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.LongConsumer;
 
 public interface PostRepository {
-    Pair<List<Post>, Integer> findAll(String search, int pageNumber, int pageSize);
+    Pair<List<Post>, Integer> findAll(String search, int pageNumber, int pageSize, Set<PostField> fields);
     Optional<Post> findById(long postId);
+    Optional<Post> findById(long postId, Set<PostField> fields);
+    List<Post> findAllByIds(Collection<Long> postIds);
+    List<Post> findAllByIds(Collection<Long> postIds, Set<PostField> fields);
     Post create(String title, String text, List<String> tags);
     Optional<Post> update(Long postId, String title, String text, List<String> tags);
     boolean delete(Long postId);
     Optional<Post> addLike(Long postId);
+    long countAll();
+    void forEachId(LongConsumer action);
 }
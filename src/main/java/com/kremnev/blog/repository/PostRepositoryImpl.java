@@ -1,31 +1,48 @@
 package com.kremnev.blog.repository;
 
+import com.kremnev.blog.model.Change;
 import com.kremnev.blog.model.Post;
-import org.springframework.dao.EmptyResultDataAccessException;
+import com.kremnev.blog.model.PostField;
 import org.springframework.data.util.Pair;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.sql.DataSource;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.function.LongConsumer;
 import java.util.stream.Collectors;
 
 @Repository
 public class PostRepositoryImpl implements PostRepository {
 
+    private static final int ID_SCAN_FETCH_SIZE = 10_000;
+    private static final int PAGE_FETCH_SIZE = 100;
+
     private final NamedParameterJdbcTemplate namedJdbc;
+    private final JdbcTemplate idScanJdbc;
+    private final NamedParameterJdbcTemplate pageJdbc;
     private final SimpleJdbcInsert postInsert;
     private final SimpleJdbcInsert tagInsert;
     private final SimpleJdbcInsert postTagInsert;
+    private final ChangeLogRepository changeLog;
 
-    public PostRepositoryImpl(DataSource dataSource) {
+    public PostRepositoryImpl(DataSource dataSource, ChangeLogRepository changeLog) {
+        this.changeLog = changeLog;
         this.namedJdbc = new NamedParameterJdbcTemplate(dataSource);
+        this.idScanJdbc = new JdbcTemplate(dataSource);
+        this.idScanJdbc.setFetchSize(ID_SCAN_FETCH_SIZE);
+        JdbcTemplate page = new JdbcTemplate(dataSource);
+        page.setFetchSize(PAGE_FETCH_SIZE);
+        this.pageJdbc = new NamedParameterJdbcTemplate(page);
         this.postInsert = new SimpleJdbcInsert(dataSource)
                 .withTableName("posts")
                 .usingGeneratedKeyColumns("id")
@@ -63,89 +80,111 @@ public class PostRepositoryImpl implements PostRepository {
         }
     }
 
-    @Override
-    public Pair<List<Post>, Integer> findAll(String search, int pageNumber, int pageSize) {
-        SearchCriteria sc = parseSearch(search);
-
-        boolean filterByTags = !sc.tags.isEmpty();
-        boolean filterByTitle = sc.titleQuery != null && !sc.titleQuery.isBlank();
-
-        StringBuilder sql = new StringBuilder(
-            "SELECT p.id, p.title, p.text, p.likes_count, COUNT(c.id) as comments_count," +
-                    "p.created_at, p.updated_at, count(*) over() as total_count FROM posts p " +
-                    "LEFT JOIN comments c ON c.post_id = p.id "
-        );
-
-        MapSqlParameterSource params = new MapSqlParameterSource();
-
-        if (filterByTags) {
-            sql.append("JOIN post_tags pt ON pt.post_id = p.id ")
-                    .append("JOIN tags t ON t.id = pt.tag_id ");
-        }
-
-        List<String> whereParts = new ArrayList<>();
+    // Walks the tag cursor, if there is one, alongside the post cursor; both are sorted by the
+    // page order. Columns are read by position, in the order selectPosts and the tag query use.
+    private static class PageReader {
+        private final ResultSet posts;
+        private final ResultSet tags;
+        private boolean tagsExhausted;
+        private boolean tagPending;
 
-        if (filterByTitle) {
-            whereParts.add("LOWER(p.title) LIKE LOWER(:titleQuery)");
-            params.addValue("titleQuery", "%" + sc.titleQuery + "%");
+        PageReader(ResultSet posts, ResultSet tags) {
+            this.posts = posts;
+            this.tags = tags;
         }
 
-        if (filterByTags) {
-            whereParts.add("LOWER(t.name) IN (:tags)");
-            params.addValue("tags", sc.tags);
+        void readInto(List<Post> page) throws SQLException {
+            while (posts.next()) {
+                long postId = posts.getLong(1);
+                List<String> postTags = new ArrayList<>();
+                while (pendingTag() && tags.getLong(1) == postId) {
+                    postTags.add(tags.getString(2));
+                    tagPending = false;
+                }
+                page.add(new Post(postId, posts.getString(2), posts.getString(3), postTags,
+                        posts.getInt(4), posts.getInt(5)));
+            }
         }
 
-        if (!whereParts.isEmpty()) {
-            sql.append("WHERE ")
-                    .append(String.join(" AND ", whereParts))
-                    .append(" ");
+        private boolean pendingTag() throws SQLException {
+            if (tags == null) return false;
+            if (!tagPending && !tagsExhausted) {
+                tagPending = tags.next();
+                tagsExhausted = !tagPending;
+            }
+            return tagPending;
         }
+    }
 
-        sql.append("GROUP BY p.id ");
+    /**
+     * Reads one page with only the requested fields, each post's tags merged in from a second
+     * cursor sorted the same way; without {@link PostField#TAGS} the tag query is not run at all.
+     * The page is collected here, so the connection is back in the pool before any of it is
+     * written to a client. The count and both queries run in one repeatable-read transaction, so
+     * the two cursors see the same rows.
+     */
+    @Override
+    @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+    public Pair<List<Post>, Integer> findAll(String search, int pageNumber, int pageSize, Set<PostField> fields) {
+        SearchCriteria sc = parseSearch(search);
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        String sql = pageQuery(sc, pageNumber, pageSize, params, fields);
 
-        if (filterByTags) {
-            sql.append("HAVING COUNT(DISTINCT LOWER(t.name)) = :tagCount ");
-            params.addValue("tagCount", sc.tags.size());
+        int totalCount = getTotalCount(sc);
+        List<Post> posts = new ArrayList<>(pageSize);
+        if (!fields.contains(PostField.TAGS)) {
+            pageJdbc.query(sql, params, (ResultSetExtractor<Void>) rs -> {
+                new PageReader(rs, null).readInto(posts);
+                return null;
+            });
+            return Pair.of(posts, totalCount);
         }
 
-        sql.append("ORDER BY p.created_at DESC ");
-
-        int totalCount = getTotalCount(sc);
-        int offset = Math.max(pageNumber - 1, 0) * pageSize;
-        sql.append("LIMIT :pageSize OFFSET :offset");
-        params.addValue("pageSize", pageSize);
-        params.addValue("offset", offset);
+        String tagSql = "WITH page AS (" + pageQuery(sc, pageNumber, pageSize, params, EnumSet.of(PostField.ID)) + ") " +
+                "SELECT page.id AS post_id, tg.name FROM page " +
+                "JOIN post_tags pt ON pt.post_id = page.id " +
+                "JOIN tags tg ON tg.id = pt.tag_id " +
+                "ORDER BY page.created_at DESC, page.id DESC";
+        pageJdbc.query(sql, params, (ResultSetExtractor<Void>) rs ->
+                pageJdbc.query(tagSql, params, (ResultSetExtractor<Void>) tags -> {
+                    new PageReader(rs, tags).readInto(posts);
+                    return null;
+                }));
+        return Pair.of(posts, totalCount);
+    }
 
-        List<Post> posts = namedJdbc.query(sql.toString(), params, new PostRowMapper());
-        attachTags(posts);
+    @Override
+    public Optional<Post> findById(long postId, Set<PostField> fields) {
+        String sql = selectPosts(fields) + "WHERE p.id = :postId GROUP BY p.id";
+        List<Post> posts = namedJdbc.query(sql, new MapSqlParameterSource("postId", postId), new PostRowMapper());
+        if (posts.isEmpty())
+            return Optional.empty();
 
-        return Pair.of(posts, totalCount);
+        if (fields.contains(PostField.TAGS))
+            attachTags(posts);
+        return Optional.of(posts.get(0));
     }
 
     @Override
     public Optional<Post> findById(long postId) {
-        try {
-            String sql = """
-                SELECT p.id, p.title, p.text, p.likes_count, COUNT(c.id) as comments_count,
-                       p.created_at, p.updated_at
-                FROM posts p
-                LEFT JOIN comments c ON c.post_id = p.id
-                WHERE p.id = :postId
-                GROUP BY p.id
-                """;
-
-            MapSqlParameterSource params = new MapSqlParameterSource("postId", postId);
-            var post = namedJdbc.queryForObject(sql, params, new PostRowMapper());
-
-            if (post == null)
-                return Optional.empty();
-
-            attachTags(post);
-            return Optional.of(post);
-
-        } catch (EmptyResultDataAccessException e) {
-            return Optional.empty();
-        }
+        return findById(postId, EnumSet.allOf(PostField.class));
+    }
+
+    @Override
+    public List<Post> findAllByIds(Collection<Long> postIds) {
+        return findAllByIds(postIds, EnumSet.allOf(PostField.class));
+    }
+
+    @Override
+    public List<Post> findAllByIds(Collection<Long> postIds, Set<PostField> fields) {
+        if (postIds.isEmpty())
+            return List.of();
+
+        String sql = selectPosts(fields) + "WHERE p.id IN (:postIds) GROUP BY p.id";
+        List<Post> posts = namedJdbc.query(sql, new MapSqlParameterSource("postIds", postIds), new PostRowMapper());
+        if (fields.contains(PostField.TAGS))
+            attachTags(posts);
+        return posts;
     }
 
     @Override
@@ -159,10 +198,12 @@ public class PostRepositoryImpl implements PostRepository {
 
         Number postId = postInsert.executeAndReturnKey(params);
         saveTags(postId.longValue(), tags);
+        changeLog.append(Change.Entity.POST, postId.longValue(), postId.longValue(), Change.Operation.CREATED);
         return findById(postId.longValue()).orElseThrow();
     }
 
     @Override
+    @Transactional
     public Optional<Post> update(Long postId, String title, String text, List<String> tags) {
         String sql = "UPDATE posts SET title = :title, text = :text, updated_at = NOW() WHERE id = :postId";
         MapSqlParameterSource params = new MapSqlParameterSource()
@@ -177,18 +218,32 @@ public class PostRepositoryImpl implements PostRepository {
         namedJdbc.update("DELETE FROM post_tags WHERE post_id = :postId",
                 new MapSqlParameterSource("postId", postId));
         saveTags(postId, tags);
+        changeLog.append(Change.Entity.POST, postId, postId, Change.Operation.UPDATED);
 
         return findById(postId);
     }
 
     @Override
+    @Transactional
     public boolean delete(Long postId) {
-        String sql = "DELETE FROM posts WHERE id = :postId";
-        int rows = namedJdbc.update(sql, new MapSqlParameterSource("postId", postId));
-        return rows > 0;
+        MapSqlParameterSource params = new MapSqlParameterSource("postId", postId);
+        // The lock keeps comments from being added between reading their ids and the delete
+        List<Long> locked = namedJdbc.queryForList("SELECT id FROM posts WHERE id = :postId FOR UPDATE", params, Long.class);
+        if (locked.isEmpty()) return false;
+
+        // The comments go with the post through the foreign key; they are logged as deleted too
+        List<Long> commentIds = namedJdbc.queryForList(
+                "SELECT id FROM comments WHERE post_id = :postId ORDER BY id", params, Long.class);
+        namedJdbc.update("DELETE FROM posts WHERE id = :postId", params);
+
+        for (Long commentId : commentIds)
+            changeLog.append(Change.Entity.COMMENT, commentId, postId, Change.Operation.DELETED);
+        changeLog.append(Change.Entity.POST, postId, postId, Change.Operation.DELETED);
+        return true;
     }
 
     @Override
+    @Transactional
     public Optional<Post> addLike(Long postId) {
         String sql = "UPDATE posts SET likes_count = likes_count + 1, updated_at = NOW() WHERE id = :postId";
         int rows = namedJdbc.update(sql, new MapSqlParameterSource("postId", postId));
@@ -197,9 +252,25 @@ public class PostRepositoryImpl implements PostRepository {
             return Optional.empty();
         }
 
+        changeLog.append(Change.Entity.POST, postId, postId, Change.Operation.LIKED);
         return findById(postId);
     }
 
+    @Override
+    public long countAll() {
+        Long count = idScanJdbc.queryForObject("SELECT COUNT(*) FROM posts", Long.class);
+        return count == null ? 0 : count;
+    }
+
+    // Runs in a read-only transaction so the driver can stream rows with the fetch size
+    @Override
+    @Transactional(readOnly = true)
+    public void forEachId(LongConsumer action) {
+        idScanJdbc.query("SELECT id FROM posts", rs -> {
+            action.accept(rs.getLong(1));
+        });
+    }
+
     private Long getOrCreateTagId(String tagName) {
         String normalized = tagName.trim().toLowerCase();
         if (normalized.isBlank()) return null;
@@ -240,13 +311,6 @@ public class PostRepositoryImpl implements PostRepository {
         }
     }
 
-    private void attachTags(Post... posts) {
-        if (posts == null || posts.length == 0) return;
-
-        List<Post> list = Arrays.asList(posts);
-        attachTags(list);
-    }
-
     private void attachTags(List<Post> posts) {
         if (posts.isEmpty())
             return;
@@ -277,6 +341,66 @@ public class PostRepositoryImpl implements PostRepository {
         });
     }
 
+    // Columns a caller did not ask for are replaced by literals, so they are never read, and the
+    // comments join is only made for the comment count
+    private static String selectPosts(Set<PostField> fields) {
+        boolean commentsCount = fields.contains(PostField.COMMENTS_COUNT);
+        return "SELECT p.id, " +
+                (fields.contains(PostField.TITLE) ? "p.title" : "NULL") + " AS title, " +
+                (fields.contains(PostField.TEXT) ? "p.text" : "NULL") + " AS text, " +
+                (fields.contains(PostField.LIKES_COUNT) ? "p.likes_count" : "0") + " AS likes_count, " +
+                (commentsCount ? "COUNT(c.id)" : "0") + " AS comments_count, " +
+                "p.created_at, p.updated_at FROM posts p " +
+                (commentsCount ? "LEFT JOIN comments c ON c.post_id = p.id " : "");
+    }
+
+    private String pageQuery(SearchCriteria sc, int pageNumber, int pageSize, MapSqlParameterSource params,
+                             Set<PostField> fields) {
+        boolean filterByTags = !sc.tags.isEmpty();
+        boolean filterByTitle = sc.titleQuery != null && !sc.titleQuery.isBlank();
+
+        StringBuilder sql = new StringBuilder(selectPosts(fields));
+
+        if (filterByTags) {
+            sql.append("JOIN post_tags pt ON pt.post_id = p.id ")
+                    .append("JOIN tags t ON t.id = pt.tag_id ");
+        }
+
+        List<String> whereParts = new ArrayList<>();
+
+        if (filterByTitle) {
+            whereParts.add("LOWER(p.title) LIKE LOWER(:titleQuery)");
+            params.addValue("titleQuery", "%" + sc.titleQuery + "%");
+        }
+
+        if (filterByTags) {
+            whereParts.add("LOWER(t.name) IN (:tags)");
+            params.addValue("tags", sc.tags);
+        }
+
+        if (!whereParts.isEmpty()) {
+            sql.append("WHERE ")
+                    .append(String.join(" AND ", whereParts))
+                    .append(" ");
+        }
+
+        sql.append("GROUP BY p.id ");
+
+        if (filterByTags) {
+            sql.append("HAVING COUNT(DISTINCT LOWER(t.name)) = :tagCount ");
+            params.addValue("tagCount", sc.tags.size());
+        }
+
+        // The id breaks ties, so pages do not overlap and the tag cursor can follow the same order
+        sql.append("ORDER BY p.created_at DESC, p.id DESC ");
+
+        int offset = Math.max(pageNumber - 1, 0) * pageSize;
+        sql.append("LIMIT :pageSize OFFSET :offset");
+        params.addValue("pageSize", pageSize);
+        params.addValue("offset", offset);
+        return sql.toString();
+    }
+
     private Integer getTotalCount(SearchCriteria sc) {
         boolean filterByTags = !sc.tags.isEmpty();
         boolean filterByTitle = sc.titleQuery != null && !sc.titleQuery.isBlank();
@@ -0,0 +1,82 @@
+package com.kremnev.blog.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+
+/**
+ * Where files live under {@code uploads.root}. Content-addressed files are spread over
+ * {@code uploads.shard-depth} levels of 256 directories named by successive hash bytes
+ * ({@code blobs/ab/cd/<hash>} at depth 2), so no directory grows beyond a few thousand
+ * entries even with millions of images. Paths stored in the database are relative to the
+ * root, so changing the depth only affects files written afterwards.
+ */
+@Component
+public class BlobLayout {
+    static final String BLOBS_DIR = "blobs";
+    private static final String VARIANTS_DIR = "variants";
+    private static final String TMP_DIR = "tmp";
+    private static final int MAX_DEPTH = 8;
+
+    private final Path root;
+    private final Path blobs;
+    private final Path variants;
+    private final Path tmp;
+    private final int depth;
+
+    public BlobLayout(@Value("${uploads.root}") String rootDir, @Value("${uploads.shard-depth:2}") int depth) {
+        if (depth < 0 || depth > MAX_DEPTH)
+            throw new IllegalArgumentException("uploads.shard-depth must be between 0 and " + MAX_DEPTH);
+        this.root = Path.of(rootDir).toAbsolutePath().normalize();
+        this.blobs = root.resolve(BLOBS_DIR);
+        this.variants = root.resolve(VARIANTS_DIR);
+        this.tmp = root.resolve(TMP_DIR);
+        this.depth = depth;
+    }
+
+    public Path root() {
+        return root;
+    }
+
+    /** Scratch directory on the same filesystem, so finished files can be renamed into place atomically. */
+    public Path tmp() {
+        return tmp;
+    }
+
+    Path blobs() {
+        return blobs;
+    }
+
+    Path variants() {
+        return variants;
+    }
+
+    public Path blobPath(String hash) {
+        return shard(blobs, hash).resolve(hash);
+    }
+
+    public Path variantPath(String hash, String fileName) {
+        return shard(variants, hash).resolve(fileName);
+    }
+
+    public boolean isBlob(Path path) {
+        return path.startsWith(blobs);
+    }
+
+    public Path resolve(String relativePath) {
+        return root.resolve(relativePath);
+    }
+
+    public String relativize(Path path) {
+        return root.relativize(path).toString();
+    }
+
+    private Path shard(Path base, String hash) {
+        Path dir = base;
+        for (int i = 0; i < depth; i++) {
+            dir = dir.resolve(hash.substring(2 * i, 2 * i + 2));
+        }
+        return dir;
+    }
+}
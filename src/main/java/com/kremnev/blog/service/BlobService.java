@@ -1,12 +1,26 @@
 package com.kremnev.blog.service;
 
+import com.kremnev.blog.model.ImageMetadata;
+import com.kremnev.blog.model.StoredImage;
 import org.springframework.core.io.Resource;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Map;
 import java.util.Optional;
 
 public interface BlobService {
-    void upsert(long postId, MultipartFile file) throws IOException;
+    boolean upsert(long postId, MultipartFile file) throws IOException;
+    boolean upsert(long postId, ReadableByteChannel body, long contentLength) throws IOException;
+    boolean upsert(long postId, Path file, String expectedHash) throws IOException;
     Optional<Resource> get(long postId) throws IOException;
+    Optional<StoredImage> getImage(long postId) throws IOException;
+    StoredImage getVariant(StoredImage original, int width) throws IOException;
+    Optional<ByteBuffer> getCachedBytes(StoredImage image) throws IOException;
+    Optional<ImageMetadata> getMetadata(long postId) throws IOException;
+    Map<Long, ImageMetadata> getMetadata(Collection<Long> postIds);
 }
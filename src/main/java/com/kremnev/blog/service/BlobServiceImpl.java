@@ -1,54 +1,306 @@
 package com.kremnev.blog.service;
 
+import com.kremnev.blog.cache.ImageBytesCache;
+import com.kremnev.blog.cache.ImageRefCache;
+import com.kremnev.blog.cache.NegativeLookupCache;
+import com.kremnev.blog.concurrency.Bulkhead;
+import com.kremnev.blog.model.ImageMetadata;
+import com.kremnev.blog.model.ImageRef;
+import com.kremnev.blog.model.StoredImage;
+import com.kremnev.blog.repository.ImageRepository;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
 import java.util.Optional;
 
+/**
+ * Stores images content-addressed: each distinct payload is written once to its
+ * {@link BlobLayout#blobPath} by a temp file and an atomic rename, and the
+ * {@code images} table points posts at blobs. Replacing an image only swaps that pointer;
+ * unreferenced blobs are left for garbage collection.
+ * <p>
+ * Reads resolve the file with one primary key lookup, answered from {@link ImageRefCache} when
+ * the post's image was read recently, and never touch directories. Images
+ * from before the blob store are registered at their old location by {@link LegacyImageImporter}.
+ */
 @Service
 public class BlobServiceImpl implements BlobService {
 
-    private final Path root;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Enough for the longest signature below (RIFF....WEBP)
+    private static final int SNIFF_LENGTH = 12;
 
-    public BlobServiceImpl(@Value("${uploads.root}") String rootDir) {
-        this.root = Path.of(rootDir).toAbsolutePath().normalize();
+    private final BlobLayout layout;
+    private final long maxImageBytes;
+    private final ImageRepository imageRepository;
+    private final ImageVariantGenerator variantGenerator;
+    private final ImageBytesCache imageBytesCache;
+    private final ImageRefCache imageRefCache;
+    private final NegativeLookupCache negativeLookupCache;
+    private final Bulkhead imageIoBulkhead;
+
+    public BlobServiceImpl(BlobLayout layout,
+                           @Value("${uploads.max-image-size:10MB}") DataSize maxImageSize,
+                           ImageRepository imageRepository,
+                           ImageVariantGenerator variantGenerator,
+                           ImageBytesCache imageBytesCache,
+                           ImageRefCache imageRefCache,
+                           NegativeLookupCache negativeLookupCache,
+                           Bulkhead imageIoBulkhead) {
+        this.layout = layout;
+        this.maxImageBytes = maxImageSize.toBytes();
+        this.imageRepository = imageRepository;
+        this.variantGenerator = variantGenerator;
+        this.imageBytesCache = imageBytesCache;
+        this.imageRefCache = imageRefCache;
+        this.negativeLookupCache = negativeLookupCache;
+        this.imageIoBulkhead = imageIoBulkhead;
     }
 
     @Override
-    public void upsert(long postId, MultipartFile file) throws IOException {
-        Path dir = root.resolve(Long.toString(postId));
-        Files.createDirectories(dir);
-
+    public boolean upsert(long postId, MultipartFile file) throws IOException {
         String ct = String.valueOf(file.getContentType()).toLowerCase();
-        if (!ct.startsWith("image/")) throw new IOException("Only image/* allowed");
+        if (!ct.startsWith("image/")) throw new UnsupportedImageTypeException();
+        String contentType = normalizeContentType(ct);
+
+        Files.createDirectories(layout.tmp());
+        Path upload = Files.createTempFile(layout.tmp(), "upload-", ".tmp");
+        try {
+            // Hash while copying so the payload is read only once
+            MessageDigest digest = ImageFiles.newSha256();
+            long size;
+            try (InputStream in = new DigestInputStream(file.getInputStream(), digest)) {
+                size = Files.copy(in, upload, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return store(postId, upload, HexFormat.of().formatHex(digest.digest()), contentType, size);
+        } finally {
+            Files.deleteIfExists(upload);
+        }
+    }
+
+    /**
+     * Streams a raw request body into the blob store. The content type is taken from the
+     * leading magic bytes, the hash is computed on the same pass that writes the file, and
+     * the body is rejected as soon as it grows past {@code uploads.max-image-size}.
+     */
+    @Override
+    public boolean upsert(long postId, ReadableByteChannel body, long contentLength) throws IOException {
+        if (contentLength > maxImageBytes) throw new ImageTooLargeException(maxImageBytes);
+
+        Files.createDirectories(layout.tmp());
+        Path upload = Files.createTempFile(layout.tmp(), "upload-", ".tmp");
+        try {
+            MessageDigest digest = ImageFiles.newSha256();
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            String contentType = null;
+            long size = 0;
 
-        String ext = Optional.ofNullable(file.getOriginalFilename())
-                .map(p -> Path.of(p).getFileName().toString())
-                .filter(n -> n.contains("."))
-                .map(n -> n.substring(n.lastIndexOf('.')))
-                .orElse("");
+            try (FileChannel out = FileChannel.open(upload, StandardOpenOption.WRITE)) {
+                boolean eof = false;
+                while (!eof) {
+                    eof = body.read(buffer) == -1;
+                    if (contentType == null) {
+                        if (!eof && buffer.position() < SNIFF_LENGTH) continue;
+                        contentType = sniffContentType(buffer);
+                    }
 
-        Path dest = dir.resolve("image" + ext);
-        file.transferTo(dest);
+                    size += buffer.position();
+                    if (size > maxImageBytes) throw new ImageTooLargeException(maxImageBytes);
+
+                    buffer.flip();
+                    digest.update(buffer.duplicate());
+                    while (buffer.hasRemaining()) out.write(buffer);
+                    buffer.clear();
+                }
+            }
+            return store(postId, upload, HexFormat.of().formatHex(digest.digest()), contentType, size);
+        } finally {
+            Files.deleteIfExists(upload);
+        }
+    }
+
+    /**
+     * Publishes a file assembled elsewhere under {@code uploads.root} (a resumable upload) after
+     * checking it against the SHA-256 the client computed. The file is moved, not copied, so it
+     * is gone afterwards unless the checks fail.
+     */
+    @Override
+    public boolean upsert(long postId, Path file, String expectedHash) throws IOException {
+        long size = Files.size(file);
+        if (size > maxImageBytes) throw new ImageTooLargeException(maxImageBytes);
+
+        ByteBuffer head = ByteBuffer.allocate(SNIFF_LENGTH);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            int read = 0;
+            while (head.hasRemaining() && read != -1) read = channel.read(head);
+        }
+        String contentType = sniffContentType(head);
+
+        String hash = ImageFiles.sha256(file);
+        if (!hash.equalsIgnoreCase(expectedHash)) throw new ImageChecksumException(expectedHash, hash);
+        return store(postId, file, hash, contentType, size);
     }
 
     @Override
     public Optional<Resource> get(long postId) throws IOException {
-        Path dir = root.resolve(Long.toString(postId));
-        if (!Files.isDirectory(dir)) return Optional.empty();
-        try (var s = Files.list(dir)) {
-            var pathOpt =  s.filter(Files::isRegularFile).findFirst();
-            if (pathOpt.isEmpty()) return Optional.empty();
-
-            Path path = pathOpt.get();
-            Resource file = new FileSystemResource(path);
-            return Optional.of(file);
+        return getImage(postId).map(image -> new FileSystemResource(image.getPath()));
+    }
+
+    @Override
+    public Optional<StoredImage> getImage(long postId) throws IOException {
+        return findImage(postId).map(this::toStoredImage);
+    }
+
+    @Override
+    public StoredImage getVariant(StoredImage original, int width) throws IOException {
+        try {
+            // May decode and resize inline when the variant is missing
+            return imageIoBulkhead.execute(() -> variantGenerator.nearest(original, width));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public Optional<ByteBuffer> getCachedBytes(StoredImage image) throws IOException {
+        return imageIoBulkhead.execute(() -> imageBytesCache.get(image.getHash(), image.getPath(), image.getSize()));
+    }
+
+    @Override
+    public Optional<ImageMetadata> getMetadata(long postId) throws IOException {
+        return findImage(postId).map(BlobServiceImpl::toMetadata);
+    }
+
+    /**
+     * Metadata of the posts that have an image, in one query. Posts without one are left out.
+     */
+    @Override
+    public Map<Long, ImageMetadata> getMetadata(Collection<Long> postIds) {
+        Map<Long, ImageMetadata> metadata = new HashMap<>();
+        for (ImageRef image : imageRepository.findByPostIds(postIds)) {
+            metadata.put(image.getPostId(), toMetadata(image));
+        }
+        return metadata;
+    }
+
+    private boolean store(long postId, Path upload, String hash, String contentType, long size) throws IOException {
+        Optional<ImageRef> previous = imageRepository.findByPostId(postId);
+
+        // Only the file work holds an image I/O permit, never a database call
+        ImageRef image = imageIoBulkhead.execute(() -> {
+            Path blob = publish(upload, hash);
+            var dimensions = ImageFiles.readDimensions(blob);
+            return new ImageRef(postId, layout.relativize(blob), hash, contentType, size,
+                    dimensions.map(ImageFiles.Dimensions::width).orElse(null),
+                    dimensions.map(ImageFiles.Dimensions::height).orElse(null),
+                    ImageFiles.blurHash(blob).orElse(null),
+                    null);
+        });
+        if (!imageRepository.upsert(image)) return false;
+        imageRefCache.evict(postId);
+
+        // Cached bytes are keyed by content hash, so the new image never hits the old one's entry
+        if (previous.isPresent()) deleteLegacyImage(previous.get());
+        negativeLookupCache.imageUploaded(postId);
+        variantGenerator.generateAll(toStoredImage(image));
+        return true;
+    }
+
+    private Optional<ImageRef> findImage(long postId) {
+        if (negativeLookupCache.isKnownMissingImage(postId)) return Optional.empty();
+
+        var cached = imageRefCache.get(postId);
+        if (cached.isPresent()) return cached;
+
+        long version = imageRefCache.version();
+        long generation = negativeLookupCache.generation();
+        var image = imageRepository.findByPostId(postId);
+        if (image.isEmpty()) negativeLookupCache.recordMissingImage(postId, generation);
+        else imageRefCache.put(image.get(), version);
+        return image;
+    }
+
+    private static ImageMetadata toMetadata(ImageRef image) {
+        return new ImageMetadata(image.getContentType(), image.getSize(), image.getWidth(), image.getHeight(),
+                image.getHash(), image.getBlurHash());
+    }
+
+    private StoredImage toStoredImage(ImageRef image) {
+        return new StoredImage(layout.resolve(image.getPath()), image.getContentType(), image.getSize(), image.getHash());
+    }
+
+    // Identical content is already published under the same name, so the upload is dropped
+    private Path publish(Path upload, String hash) throws IOException {
+        Path target = layout.blobPath(hash);
+        // Refresh the mtime so the garbage collector treats the blob as new again
+        try {
+            Files.setLastModifiedTime(target, FileTime.from(Instant.now()));
+            return target;
+        } catch (NoSuchFileException e) {
+            // Not published yet, or collected a moment ago
+        }
+
+        Files.createDirectories(target.getParent());
+        Files.move(upload, target, StandardCopyOption.ATOMIC_MOVE);
+        return target;
+    }
+
+    // Legacy files belong to a single post, so they can go as soon as it points elsewhere
+    private void deleteLegacyImage(ImageRef previous) throws IOException {
+        Path file = layout.resolve(previous.getPath());
+        if (!layout.isBlob(file)) ImageFiles.deleteLegacy(file);
+    }
+
+    // Reads the bytes in [0, position) of the buffer without consuming them
+    private static String sniffContentType(ByteBuffer head) throws IOException {
+        if (startsWith(head, 0, 0xFF, 0xD8, 0xFF)) return "image/jpeg";
+        if (startsWith(head, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) return "image/png";
+        if (startsWith(head, 0, 'G', 'I', 'F', '8') && (startsWith(head, 4, '7', 'a') || startsWith(head, 4, '9', 'a')))
+            return "image/gif";
+        if (startsWith(head, 0, 'R', 'I', 'F', 'F') && startsWith(head, 8, 'W', 'E', 'B', 'P')) return "image/webp";
+        if (startsWith(head, 0, 'B', 'M')) return "image/bmp";
+        throw new UnsupportedImageTypeException();
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, int offset, int... signature) {
+        if (buffer.position() < offset + signature.length) return false;
+        for (int i = 0; i < signature.length; i++) {
+            if ((buffer.get(offset + i) & 0xFF) != signature[i]) return false;
+        }
+        return true;
+    }
+
+    private static String normalizeContentType(String contentType) throws IOException {
+        try {
+            MediaType type = MediaType.parseMediaType(contentType);
+            return type.getType() + "/" + type.getSubtype();
+        } catch (InvalidMediaTypeException e) {
+            throw new UnsupportedImageTypeException(e);
         }
     }
 }
@@ -0,0 +1,94 @@
+package com.kremnev.blog.service;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * BlurHash encoder (https://blurha.sh): a short base83 string of DCT components that
+ * clients decode into a blurred placeholder while the real image loads.
+ */
+final class BlurHash {
+    private static final String BASE83 =
+            "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz#$%*+,-.:;=?@[]^_{|}~";
+
+    private BlurHash() {
+    }
+
+    static String encode(BufferedImage image, int componentsX, int componentsY) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+
+        double[][] factors = new double[componentsX * componentsY][];
+        for (int j = 0; j < componentsY; j++) {
+            for (int i = 0; i < componentsX; i++) {
+                factors[j * componentsX + i] = component(pixels, width, height, i, j);
+            }
+        }
+
+        StringBuilder hash = new StringBuilder();
+        encode83(hash, (componentsX - 1) + (componentsY - 1) * 9, 1);
+
+        double maximumValue = 1;
+        if (factors.length > 1) {
+            double actualMax = 0;
+            for (int k = 1; k < factors.length; k++) {
+                for (double v : factors[k]) actualMax = Math.max(actualMax, Math.abs(v));
+            }
+            int quantisedMax = (int) Math.max(0, Math.min(82, Math.floor(actualMax * 166 - 0.5)));
+            maximumValue = (quantisedMax + 1) / 166.0;
+            encode83(hash, quantisedMax, 1);
+        } else {
+            encode83(hash, 0, 1);
+        }
+
+        double[] dc = factors[0];
+        encode83(hash, (linearToSrgb(dc[0]) << 16) + (linearToSrgb(dc[1]) << 8) + linearToSrgb(dc[2]), 4);
+        for (int k = 1; k < factors.length; k++) {
+            double[] ac = factors[k];
+            encode83(hash, quantiseAc(ac[0], maximumValue) * 19 * 19
+                    + quantiseAc(ac[1], maximumValue) * 19
+                    + quantiseAc(ac[2], maximumValue), 2);
+        }
+        return hash.toString();
+    }
+
+    private static double[] component(int[] pixels, int width, int height, int i, int j) {
+        double r = 0, g = 0, b = 0;
+        for (int y = 0; y < height; y++) {
+            double basisY = Math.cos(Math.PI * j * y / height);
+            for (int x = 0; x < width; x++) {
+                double basis = Math.cos(Math.PI * i * x / width) * basisY;
+                int rgb = pixels[y * width + x];
+                r += basis * srgbToLinear((rgb >> 16) & 0xFF);
+                g += basis * srgbToLinear((rgb >> 8) & 0xFF);
+                b += basis * srgbToLinear(rgb & 0xFF);
+            }
+        }
+        double scale = (i == 0 && j == 0 ? 1.0 : 2.0) / (width * height);
+        return new double[]{r * scale, g * scale, b * scale};
+    }
+
+    private static int quantiseAc(double value, double maximumValue) {
+        double v = Math.copySign(Math.sqrt(Math.abs(value / maximumValue)), value);
+        return (int) Math.max(0, Math.min(18, Math.floor(v * 9 + 9.5)));
+    }
+
+    private static double srgbToLinear(int value) {
+        double v = value / 255.0;
+        return v <= 0.04045 ? v / 12.92 : Math.pow((v + 0.055) / 1.055, 2.4);
+    }
+
+    private static int linearToSrgb(double value) {
+        double v = Math.max(0, Math.min(1, value));
+        return v <= 0.0031308
+                ? (int) (v * 12.92 * 255 + 0.5)
+                : (int) ((1.055 * Math.pow(v, 1 / 2.4) - 0.055) * 255 + 0.5);
+    }
+
+    private static void encode83(StringBuilder out, int value, int length) {
+        for (int i = 1; i <= length; i++) {
+            int digit = (int) (value / Math.pow(83, length - i)) % 83;
+            out.append(BASE83.charAt(digit));
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.kremnev.blog.service;
+
+import com.kremnev.blog.model.Change;
+
+import java.util.List;
+
+public interface ChangeFeedService {
+    List<Change> poll(long since, int limit);
+}
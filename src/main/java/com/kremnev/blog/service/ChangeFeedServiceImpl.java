@@ -0,0 +1,119 @@
+package com.kremnev.blog.service;
+
+import com.kremnev.blog.model.Change;
+import com.kremnev.blog.repository.ChangeAppended;
+import com.kremnev.blog.repository.ChangeLogRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Long-polls the change log. A poll that finds nothing parks until the feed may have grown, so
+ * waiting consumers cost no queries: this instance's writes are signalled after commit, and
+ * while anyone waits the end of the feed is re-read every {@code changes.refresh-interval} to
+ * pick up other instances' writes and changes that were held back behind the read horizon.
+ */
+@Service
+public class ChangeFeedServiceImpl implements ChangeFeedService {
+    private static final Logger log = LoggerFactory.getLogger(ChangeFeedServiceImpl.class);
+
+    private final ChangeLogRepository changeLog;
+    private final long pollTimeoutNanos;
+    private final Duration retention;
+
+    // A ReentrantLock rather than a monitor, so parked virtual threads release their carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition advanced = lock.newCondition();
+    private final AtomicInteger waiting = new AtomicInteger();
+    // Bumped whenever the feed may have grown; seqs commit out of order, so they cannot tell
+    private volatile long generation;
+    // The end of the feed as refresh last read it
+    private volatile long latestSeq;
+
+    public ChangeFeedServiceImpl(ChangeLogRepository changeLog,
+                                 @Value("${changes.poll-timeout:25s}") Duration pollTimeout,
+                                 @Value("${changes.retention:7d}") Duration retention) {
+        this.changeLog = changeLog;
+        this.pollTimeoutNanos = pollTimeout.toNanos();
+        this.retention = retention;
+    }
+
+    /**
+     * Returns up to {@code limit} changes after {@code since}, waiting up to
+     * {@code changes.poll-timeout} for the first one; empty if none came.
+     */
+    @Override
+    public List<Change> poll(long since, int limit) {
+        long deadline = System.nanoTime() + pollTimeoutNanos;
+        while (true) {
+            // Read before the query: a commit landing after it then always wakes the wait below
+            long observed = generation;
+            List<Change> changes = changeLog.findSince(since, limit);
+            if (!changes.isEmpty()) return changes;
+            if (!awaitAdvance(observed, deadline)) return List.of();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onChangeAppended(ChangeAppended event) {
+        advance();
+    }
+
+    @Scheduled(fixedDelayString = "${changes.refresh-interval:1s}")
+    public void refresh() {
+        if (waiting.get() == 0) return;
+        long seq = changeLog.latestSeq();
+        if (seq == latestSeq) return;
+        latestSeq = seq;
+        advance();
+    }
+
+    @Scheduled(fixedDelayString = "${changes.prune-interval:1h}", initialDelayString = "${changes.prune-interval:1h}")
+    public void prune() {
+        try {
+            int deleted = changeLog.deleteOlderThan(OffsetDateTime.now().minus(retention));
+            if (deleted > 0) log.info("Pruned {} change log entries older than {}", deleted, retention);
+        } catch (RuntimeException e) {
+            log.warn("Could not prune the change log", e);
+        }
+    }
+
+    private void advance() {
+        lock.lock();
+        try {
+            generation++;
+            advanced.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean awaitAdvance(long observed, long deadline) {
+        waiting.incrementAndGet();
+        lock.lock();
+        try {
+            long remaining = deadline - System.nanoTime();
+            while (generation == observed) {
+                if (remaining <= 0) return false;
+                remaining = advanced.awaitNanos(remaining);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+            waiting.decrementAndGet();
+        }
+    }
+}
@@ -1,13 +1,18 @@
 package com.kremnev.blog.service;
 
 import com.kremnev.blog.model.Comment;
+import com.kremnev.blog.model.CommentField;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 public interface CommentService {
     List<Comment> getAllByPostId(Long postId);
+    List<Comment> getAllByPostId(Long postId, Set<CommentField> fields);
+    List<Comment> getFirstPageByPostId(Long postId, int pageSize);
     Optional<Comment> getById(Long commentId);
+    Optional<Comment> getById(Long commentId, Set<CommentField> fields);
     Comment create(Long postId, String text);
     Optional<Comment> update(Long commentId, Long postId, String text);
     boolean delete(Long commentId, Long postId);
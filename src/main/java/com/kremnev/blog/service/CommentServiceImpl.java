@@ -1,42 +1,111 @@
 package com.kremnev.blog.service;
 
+import com.kremnev.blog.cache.CommentCache;
+import com.kremnev.blog.concurrency.SingleFlight;
 import com.kremnev.blog.model.Comment;
+import com.kremnev.blog.model.CommentField;
 import com.kremnev.blog.repository.CommentRepository;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 @Service
 public class CommentServiceImpl implements CommentService {
     private final CommentRepository commentRepository;
+    private final CommentCache commentCache;
+    private final SingleFlight singleFlight;
+    private final ApplicationEventPublisher eventPublisher;
 
-    public CommentServiceImpl(CommentRepository commentRepository) {
+    private record PostCommentsKey(Long postId) {}
+    private record CommentKey(Long commentId) {}
+    private record PostCommentsFieldsKey(Long postId, Set<CommentField> fields) {}
+    private record CommentFieldsKey(Long commentId, Set<CommentField> fields) {}
+
+    public CommentServiceImpl(CommentRepository commentRepository, CommentCache commentCache, SingleFlight singleFlight,
+                              ApplicationEventPublisher eventPublisher) {
         this.commentRepository = commentRepository;
+        this.commentCache = commentCache;
+        this.singleFlight = singleFlight;
+        this.eventPublisher = eventPublisher;
     }
 
     @Override
     public List<Comment> getAllByPostId(Long postId) {
-        return commentRepository.findAllByPostId(postId);
+        var cached = commentCache.get(postId);
+        if (cached.isPresent()) return cached.get();
+
+        return singleFlight.execute(new PostCommentsKey(postId), () -> {
+            long version = commentCache.version();
+            var comments = commentRepository.findAllByPostId(postId);
+            commentCache.put(postId, comments, version);
+            return comments;
+        });
+    }
+
+    /**
+     * Without the text, comments come from the cache when it has them and from a query that
+     * skips the text column when it does not; that result is not cached.
+     */
+    @Override
+    public List<Comment> getAllByPostId(Long postId, Set<CommentField> fields) {
+        if (fields.contains(CommentField.TEXT)) return getAllByPostId(postId);
+
+        var cached = commentCache.get(postId);
+        if (cached.isPresent()) return cached.get();
+        return singleFlight.execute(new PostCommentsFieldsKey(postId, fields),
+                () -> commentRepository.findAllByPostId(postId, fields));
+    }
+
+    @Override
+    public List<Comment> getFirstPageByPostId(Long postId, int pageSize) {
+        var cached = commentCache.get(postId);
+        if (cached.isPresent()) {
+            var comments = cached.get();
+            return comments.subList(0, Math.min(pageSize, comments.size()));
+        }
+        return commentRepository.findFirstPageByPostId(postId, pageSize);
     }
 
     @Override
     public Optional<Comment> getById(Long commentId) {
-        return commentRepository.findById(commentId);
+        return singleFlight.execute(new CommentKey(commentId), () -> commentRepository.findById(commentId));
+    }
+
+    @Override
+    public Optional<Comment> getById(Long commentId, Set<CommentField> fields) {
+        if (fields.contains(CommentField.TEXT)) return getById(commentId);
+        return singleFlight.execute(new CommentFieldsKey(commentId, fields),
+                () -> commentRepository.findById(commentId, fields));
     }
 
     @Override
     public Comment create(Long postId, String text) {
-        return commentRepository.create(postId, text);
+        var created = commentRepository.create(postId, text);
+        commentCache.added(created);
+        Transactions.onRollback(() -> commentCache.evict(postId));
+        eventPublisher.publishEvent(new PostCountsChanged(created.getPostId()));
+        return created;
     }
 
     @Override
     public Optional<Comment> update(Long commentId, Long postId, String text) {
-        return commentRepository.update(commentId, postId, text);
+        var updated = commentRepository.update(commentId, postId, text);
+        updated.ifPresent(commentCache::updated);
+        if (updated.isPresent()) Transactions.onRollback(() -> commentCache.evict(postId));
+        return updated;
     }
 
     @Override
     public boolean delete(Long commentId, Long postId) {
-        return commentRepository.delete(commentId, postId);
+        var isDeleted = commentRepository.delete(commentId, postId);
+        if (isDeleted) {
+            commentCache.removed(postId, commentId);
+            Transactions.onRollback(() -> commentCache.evict(postId));
+            eventPublisher.publishEvent(new PostCountsChanged(postId));
+        }
+        return isDeleted;
     }
 }
\ No newline at end of file
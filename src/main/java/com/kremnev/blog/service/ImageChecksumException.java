@@ -0,0 +1,9 @@
+package com.kremnev.blog.service;
+
+import java.io.IOException;
+
+public class ImageChecksumException extends IOException {
+    public ImageChecksumException(String expected, String actual) {
+        super("Image checksum " + actual + " does not match the expected " + expected);
+    }
+}
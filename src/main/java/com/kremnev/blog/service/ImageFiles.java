@@ -0,0 +1,100 @@
+package com.kremnev.blog.service;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Optional;
+
+final class ImageFiles {
+
+    record Dimensions(int width, int height) {}
+
+    private ImageFiles() {
+    }
+
+    // Placeholders are computed from a subsampled decode no larger than this on either side
+    private static final int PREVIEW_SIZE = 64;
+    private static final int BLUR_HASH_COMPONENTS_X = 4;
+    private static final int BLUR_HASH_COMPONENTS_Y = 3;
+
+    @FunctionalInterface
+    private interface ReaderFunction<T> {
+        T apply(ImageReader reader) throws IOException;
+    }
+
+    // Only the header is decoded, the pixel data is never read
+    static Optional<Dimensions> readDimensions(Path path) throws IOException {
+        return withReader(path, reader -> new Dimensions(reader.getWidth(0), reader.getHeight(0)));
+    }
+
+    static Optional<String> blurHash(Path path) throws IOException {
+        return withReader(path, reader -> {
+            int step = Math.max(1, Math.max(reader.getWidth(0), reader.getHeight(0)) / PREVIEW_SIZE);
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(step, step, 0, 0);
+            return BlurHash.encode(reader.read(0, param), BLUR_HASH_COMPONENTS_X, BLUR_HASH_COMPONENTS_Y);
+        });
+    }
+
+    private static <T> Optional<T> withReader(Path path, ReaderFunction<T> function) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(path.toFile())) {
+            var readers = in == null ? null : ImageIO.getImageReaders(in);
+            if (readers == null || !readers.hasNext()) return Optional.empty();
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                return Optional.of(function.apply(reader));
+            } catch (IOException | RuntimeException e) {
+                // Corrupt or truncated image (some readers throw unchecked): report it without the value
+                return Optional.empty();
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    static String sha256(Path path) throws IOException {
+        MessageDigest digest = newSha256();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    // Removes a pre-blob image with its sidecar and, when nothing else is left, its post directory
+    static void deleteLegacy(Path file) throws IOException {
+        Path dir = file.getParent();
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(dir.resolve(LegacyImageImporter.METADATA_FILE));
+        try {
+            Files.deleteIfExists(dir);
+        } catch (DirectoryNotEmptyException e) {
+            // Stray files stay for garbage collection
+        }
+    }
+
+    static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
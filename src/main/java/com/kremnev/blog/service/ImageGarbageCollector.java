@@ -0,0 +1,381 @@
+package com.kremnev.blog.service;
+
+import com.kremnev.blog.model.ImageGcReport;
+import com.kremnev.blog.repository.ImageRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Deletes image files nothing points at any more: blobs and variants whose hash no post
+ * references, legacy {@code <postId>/} files of deleted posts or replaced images, and temp
+ * files of interrupted uploads. Rows in {@code images} go with their post, so a hash without
+ * a row has no live post.
+ * <p>
+ * Files are checked against the database a batch at a time, and file operations are paced
+ * to {@code images.gc.max-files-per-second} so a sweep never competes with serving images.
+ * Anything modified within {@code images.gc.min-age} is left alone: an upload publishes its
+ * blob (or touches an existing one) before it writes the row. Since deletes are paced, each
+ * file is first moved out of place and only then checked again for age and references: an
+ * upload touching it after the move finds no blob and publishes its own copy, and one that
+ * touched it before shows in the age, so the file is put back.
+ * <p>
+ * Legacy files the migrator has moved away are left to it until its grace period ends.
+ */
+@Component
+public class ImageGarbageCollector {
+    private static final Logger log = LoggerFactory.getLogger(ImageGarbageCollector.class);
+    // Files moved out of place right before deletion; stale leftovers go with the temp files
+    private static final String TRASH_PREFIX = "gc-";
+
+    private final BlobLayout layout;
+    private final ImageRepository imageRepository;
+    private final LegacyImageMigrator migrator;
+    private final boolean enabled;
+    private final int batchSize;
+    private final long nanosPerFile;
+    private final long minAgeMillis;
+    private final Counter deletedFiles;
+    private final Counter reclaimedBytes;
+    // Not synchronized: a sweep takes hours and would pin a virtual thread's carrier for all of them
+    private final ReentrantLock sweepLock = new ReentrantLock();
+    private final AtomicBoolean dryRunStarting = new AtomicBoolean();
+
+    private long nextSlot;
+    private volatile ImageGcReport lastReport;
+
+    private static final class Tally {
+        final boolean dryRun;
+        long scanned;
+        long blobs;
+        long variants;
+        long legacyFiles;
+        long tempFiles;
+        long bytes;
+
+        Tally(boolean dryRun) {
+            this.dryRun = dryRun;
+        }
+
+        ImageGcReport toReport() {
+            return new ImageGcReport(dryRun, scanned, blobs, variants, legacyFiles, tempFiles, bytes, Instant.now());
+        }
+    }
+
+    private record Candidate(Path path, long size) {}
+
+    public ImageGarbageCollector(BlobLayout layout,
+                                 ImageRepository imageRepository,
+                                 LegacyImageMigrator migrator,
+                                 @Value("${images.gc.enabled:true}") boolean enabled,
+                                 @Value("${images.gc.batch-size:500}") int batchSize,
+                                 @Value("${images.gc.max-files-per-second:200}") int maxFilesPerSecond,
+                                 @Value("${images.gc.min-age:1h}") Duration minAge,
+                                 MeterRegistry registry) {
+        this.layout = layout;
+        this.imageRepository = imageRepository;
+        this.migrator = migrator;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.nanosPerFile = maxFilesPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / maxFilesPerSecond : 0;
+        this.minAgeMillis = minAge.toMillis();
+        this.deletedFiles = registry.counter("blog.images.gc.deleted");
+        this.reclaimedBytes = registry.counter("blog.images.gc.reclaimed.bytes");
+    }
+
+    @Scheduled(fixedDelayString = "${images.gc.interval:1h}", initialDelayString = "${images.gc.interval:1h}")
+    public void run() {
+        if (!enabled) return;
+
+        try {
+            var swept = sweep(false);
+            if (swept.isEmpty()) {
+                log.info("Image GC skipped, another sweep is still running");
+                return;
+            }
+            var report = swept.get();
+            log.info("Image GC: scanned {} files, deleted {} blobs, {} variants, {} legacy and {} temp files ({} bytes)",
+                    report.getScannedFiles(), report.getOrphanBlobs(), report.getOrphanVariants(),
+                    report.getOrphanLegacyFiles(), report.getStaleTempFiles(), report.getReclaimableBytes());
+        } catch (IOException | RuntimeException e) {
+            log.warn("Image GC failed, will retry on the next run", e);
+        }
+    }
+
+    /**
+     * Finds unreferenced files and, unless {@code dryRun}, deletes them. Only one sweep runs at
+     * a time; empty when another one is running.
+     */
+    public Optional<ImageGcReport> sweep(boolean dryRun) throws IOException {
+        if (!sweepLock.tryLock()) return Optional.empty();
+        try {
+            Tally tally = new Tally(dryRun);
+            nextSlot = System.nanoTime();
+            long cutoff = System.currentTimeMillis() - minAgeMillis;
+
+            sweepHashed(layout.blobs(), name -> name, cutoff, tally, true);
+            sweepHashed(layout.variants(), ImageGarbageCollector::variantHash, cutoff, tally, false);
+            sweepLegacy(cutoff, tally);
+            sweepTemp(cutoff, tally);
+            lastReport = tally.toReport();
+            return Optional.of(lastReport);
+        } finally {
+            sweepLock.unlock();
+        }
+    }
+
+    /**
+     * Starts a dry run in the background; its report becomes {@link #getLastReport()} when it
+     * finishes. False when a sweep is already running or starting.
+     */
+    public boolean startDryRun() {
+        if (sweepLock.isLocked() || !dryRunStarting.compareAndSet(false, true)) return false;
+        Thread.ofVirtual().name("image-gc-dry-run").start(() -> {
+            try {
+                dryRunStarting.set(false);
+                sweep(true);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Image GC dry run failed", e);
+            }
+        });
+        return true;
+    }
+
+    // The last finished sweep, scheduled or dry run
+    public Optional<ImageGcReport> getLastReport() {
+        return Optional.ofNullable(lastReport);
+    }
+
+    // Shard directories stay even when empty: an upload may be about to move a file into one
+    private void sweepHashed(Path dir, Function<String, String> hashOf, long cutoff,
+                             Tally tally, boolean blobs) throws IOException {
+        if (!Files.isDirectory(dir)) return;
+
+        try (Stream<Path> files = Files.walk(dir)) {
+            Iterator<Path> it = files.filter(Files::isRegularFile).iterator();
+            while (it.hasNext()) {
+                Map<Path, String> batch = new LinkedHashMap<>();
+                while (it.hasNext() && batch.size() < batchSize) {
+                    Path file = it.next();
+                    batch.put(file, hashOf.apply(file.getFileName().toString()));
+                }
+                tally.scanned += batch.size();
+                pace(batch.size());
+
+                Set<String> referenced = imageRepository.findReferencedHashes(Set.copyOf(batch.values()));
+                List<Candidate> orphans = new ArrayList<>();
+                for (var entry : batch.entrySet()) {
+                    if (referenced.contains(entry.getValue())) continue;
+                    var orphan = candidate(entry.getKey(), cutoff);
+                    if (orphan != null) orphans.add(orphan);
+                }
+
+                for (Candidate orphan : orphans) {
+                    String hash = batch.get(orphan.path());
+                    if (!delete(orphan, cutoff, tally, () -> isHashReferenced(hash))) continue;
+                    if (blobs) tally.blobs++;
+                    else tally.variants++;
+                }
+            }
+        }
+    }
+
+    private void sweepLegacy(long cutoff, Tally tally) throws IOException {
+        if (!Files.isDirectory(layout.root())) return;
+
+        List<Path> dirs = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(layout.root(), Files::isDirectory)) {
+            for (Path dir : entries) {
+                if (!isPostId(dir.getFileName().toString())) continue;
+                dirs.add(dir);
+                if (dirs.size() == batchSize) {
+                    sweepLegacyBatch(dirs, cutoff, tally);
+                    dirs.clear();
+                }
+            }
+        }
+        if (!dirs.isEmpty()) sweepLegacyBatch(dirs, cutoff, tally);
+    }
+
+    private void sweepLegacyBatch(List<Path> dirs, long cutoff, Tally tally) throws IOException {
+        Set<Long> postIds = dirs.stream()
+                .map(dir -> Long.parseLong(dir.getFileName().toString()))
+                .collect(Collectors.toSet());
+        Set<String> referenced = imageRepository.findPathsByPostIds(postIds);
+
+        for (Path dir : dirs) {
+            long postId = Long.parseLong(dir.getFileName().toString());
+            List<Path> files;
+            try (Stream<Path> s = Files.list(dir)) {
+                files = s.filter(Files::isRegularFile).toList();
+            }
+            tally.scanned += files.size();
+            pace(files.size());
+
+            // The sidecar describes the post's image, so it goes when no file in the directory is live
+            boolean live = files.stream().anyMatch(file -> isLive(referenced, file));
+            for (Path file : files) {
+                if (isLive(referenced, file)) continue;
+                if (live && file.getFileName().toString().equals(LegacyImageImporter.METADATA_FILE)) continue;
+
+                var orphan = candidate(file, cutoff);
+                if (orphan != null && delete(orphan, cutoff, tally, () -> isPathReferenced(postId, file)))
+                    tally.legacyFiles++;
+            }
+            if (!tally.dryRun) deleteIfEmpty(dir);
+        }
+    }
+
+    private void sweepTemp(long cutoff, Tally tally) throws IOException {
+        if (!Files.isDirectory(layout.tmp())) return;
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(layout.tmp(), Files::isRegularFile)) {
+            for (Path file : files) {
+                tally.scanned++;
+                pace(1);
+                var stale = candidate(file, cutoff);
+                if (stale != null && deleteTemp(stale, tally)) tally.tempFiles++;
+            }
+        }
+    }
+
+    // Null when the file is too recent or already gone
+    private static Candidate candidate(Path file, long cutoff) throws IOException {
+        try {
+            var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (attributes.lastModifiedTime().toMillis() > cutoff) return null;
+            return new Candidate(file, attributes.size());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private boolean delete(Candidate candidate, long cutoff, Tally tally, BooleanSupplier referenced) throws IOException {
+        if (tally.dryRun) {
+            tally.bytes += candidate.size();
+            return true;
+        }
+
+        pace(1);
+        // The batch was checked before the pacing; an upload may have deduplicated onto the file since
+        if (candidate(candidate.path(), cutoff) == null || referenced.getAsBoolean()) return false;
+
+        Files.createDirectories(layout.tmp());
+        Path trash = layout.tmp().resolve(TRASH_PREFIX + candidate.path().getFileName());
+        try {
+            Files.move(candidate.path(), trash, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+
+        // Out of place now, so no upload can start using it without the checks below seeing that
+        Candidate current = candidate(trash, cutoff);
+        if (current == null || referenced.getAsBoolean()) {
+            restore(trash, candidate.path());
+            return false;
+        }
+        return deleteTemp(current, tally);
+    }
+
+    // Temp files belong to no post, so nothing can start using them
+    private boolean deleteTemp(Candidate candidate, Tally tally) throws IOException {
+        if (tally.dryRun) {
+            tally.bytes += candidate.size();
+            return true;
+        }
+        if (!Files.deleteIfExists(candidate.path())) return false;
+        deletedFiles.increment();
+        reclaimedBytes.increment(candidate.size());
+        tally.bytes += candidate.size();
+        return true;
+    }
+
+    private static void restore(Path trash, Path original) throws IOException {
+        try {
+            Files.move(trash, original, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // An upload published the same content again meanwhile
+            Files.deleteIfExists(trash);
+        }
+    }
+
+    private boolean isLive(Set<String> referenced, Path file) {
+        return referenced.contains(layout.relativize(file)) || migrator.isAwaitingDelete(file);
+    }
+
+    private boolean isHashReferenced(String hash) {
+        return !imageRepository.findReferencedHashes(Set.of(hash)).isEmpty();
+    }
+
+    private boolean isPathReferenced(long postId, Path file) {
+        return imageRepository.findPathsByPostIds(Set.of(postId)).contains(layout.relativize(file));
+    }
+
+    private static void deleteIfEmpty(Path dir) throws IOException {
+        try {
+            Files.deleteIfExists(dir);
+        } catch (DirectoryNotEmptyException e) {
+            // Still in use
+        }
+    }
+
+    // Spreads file operations evenly instead of letting a sweep burst through the disk
+    private void pace(int files) {
+        if (nanosPerFile == 0) return;
+
+        long now = System.nanoTime();
+        nextSlot = Math.max(nextSlot, now) + files * nanosPerFile;
+        long wait = nextSlot - now;
+        if (wait <= 0) return;
+        try {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // <hash>-<width>.<ext>
+    private static String variantHash(String fileName) {
+        int dash = fileName.indexOf('-');
+        return dash < 0 ? fileName : fileName.substring(0, dash);
+    }
+
+    private static boolean isPostId(String name) {
+        // Longer ones would not fit a long
+        if (name.isEmpty() || name.length() > 18) return false;
+        for (int i = 0; i < name.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,9 @@
+package com.kremnev.blog.service;
+
+import java.io.IOException;
+
+public class ImageTooLargeException extends IOException {
+    public ImageTooLargeException(long maxBytes) {
+        super("Image exceeds the " + maxBytes + " byte limit");
+    }
+}
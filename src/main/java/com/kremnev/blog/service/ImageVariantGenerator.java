@@ -0,0 +1,253 @@
+package com.kremnev.blog.service;
+
+import com.kremnev.blog.concurrency.SingleFlight;
+import com.kremnev.blog.model.StoredImage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Produces downscaled copies of stored images at a fixed set of widths. Variants are named
+ * after the original's content hash, so they never need invalidating: a new upload has a new hash.
+ * <p>
+ * Uploads queue every width on a small bounded pool. A request for a variant that is not there
+ * yet (queue overflow, restart, images uploaded earlier) generates it inline, once per key.
+ * <p>
+ * A small file can declare a huge canvas, so originals over {@code images.variants.max-pixels}
+ * are never decoded, and the rest are decoded subsampled to about the target width.
+ * <p>
+ * Once an original turns out to need no variant at some width (it is not wider, too large or
+ * undecodable), that answer is remembered per hash, so later requests serve it without probing
+ * the file again.
+ */
+@Component
+public class ImageVariantGenerator implements DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(ImageVariantGenerator.class);
+    private static final int MAX_NO_VARIANT_ENTRIES = 10_000;
+
+    private record VariantKey(String hash, int width) {}
+
+    private final BlobLayout layout;
+    private final int[] widths;
+    private final long maxPixels;
+    private final ThreadPoolExecutor executor;
+    private final SingleFlight singleFlight;
+    private final Counter generated;
+    private final Counter rejected;
+    private final Counter tooLarge;
+    // Content hash -> the width from which on the original is served as is; 0 for every width
+    private final Map<String, Integer> noVariantFrom = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                    return size() > MAX_NO_VARIANT_ENTRIES;
+                }
+            });
+
+    public ImageVariantGenerator(BlobLayout layout,
+                                 @Value("${images.variants.widths:160,320,640,1280}") int[] widths,
+                                 @Value("${images.variants.threads:2}") int threads,
+                                 @Value("${images.variants.queue-capacity:256}") int queueCapacity,
+                                 @Value("${images.variants.max-pixels:40000000}") long maxPixels,
+                                 SingleFlight singleFlight,
+                                 MeterRegistry registry) {
+        this.layout = layout;
+        this.widths = Arrays.stream(widths).filter(w -> w > 0).sorted().distinct().toArray();
+        this.maxPixels = maxPixels;
+        this.singleFlight = singleFlight;
+        this.generated = registry.counter("blog.images.variants.generated");
+        this.rejected = registry.counter("blog.images.variants.rejected");
+        this.tooLarge = registry.counter("blog.images.variants.too-large");
+        // Overflowing uploads are not retried here; the first request for the variant generates it
+        this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                Thread.ofPlatform().name("image-variants-", 0).daemon(true).factory(),
+                (task, pool) -> rejected.increment());
+        this.executor.allowCoreThreadTimeOut(true);
+        Gauge.builder("blog.images.variants.queue", executor, e -> e.getQueue().size())
+                .register(registry);
+    }
+
+    public void generateAll(StoredImage original) {
+        if (!isResizable(original)) return;
+        for (int width : widths) {
+            executor.execute(() -> {
+                try {
+                    variant(original, width);
+                } catch (RuntimeException e) {
+                    log.warn("Could not generate {}px variant of image {}", width, original.getHash(), e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the smallest variant at least {@code width} pixels wide, or the original when no
+     * variant is that wide, the original is not wider, is too large to decode, or cannot be decoded.
+     */
+    public StoredImage nearest(StoredImage original, int width) {
+        if (!isResizable(original)) return original;
+
+        for (int candidate : widths) {
+            if (candidate < width) continue;
+            Integer from = noVariantFrom.get(original.getHash());
+            if (from != null && candidate >= from) return original;
+            return variant(original, candidate).orElse(original);
+        }
+        return original;
+    }
+
+    private Optional<StoredImage> variant(StoredImage original, int width) {
+        String format = outputFormat(original);
+        Path path = variantPath(original.getHash(), width, format);
+        if (Files.isRegularFile(path)) return Optional.of(stored(original, width, format, path));
+
+        return singleFlight.execute(new VariantKey(original.getHash(), width), () -> {
+            try {
+                if (!Files.isRegularFile(path) && !generate(original, width, format, path))
+                    return Optional.empty();
+                return Optional.of(stored(original, width, format, path));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    // Returns false when the original is no wider than the variant, has too many pixels or cannot be decoded
+    private boolean generate(StoredImage original, int width, String format, Path target) throws IOException {
+        BufferedImage image;
+        try (ImageInputStream in = ImageIO.createImageInputStream(original.getPath().toFile())) {
+            var readers = in == null ? null : ImageIO.getImageReaders(in);
+            if (readers == null || !readers.hasNext()) return noVariant(original, 0);
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                // The header is enough to skip originals that are already small, or too large to decode
+                int sourceWidth = reader.getWidth(0);
+                if (sourceWidth <= width) return noVariant(original, sourceWidth);
+                if ((long) sourceWidth * reader.getHeight(0) > maxPixels) {
+                    tooLarge.increment();
+                    return noVariant(original, 0);
+                }
+                // Every step-th pixel, rounded so the decoded image is still at least the variant's width
+                int step = sourceWidth / width;
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                image = reader.read(0, param);
+            } catch (IOException | RuntimeException e) {
+                return noVariant(original, 0);
+            } finally {
+                reader.dispose();
+            }
+        }
+
+        int type = format.equals("jpeg") ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+        BufferedImage scaled = image.getWidth() == width ? convert(image, type) : scale(image, width, type);
+
+        Files.createDirectories(layout.tmp());
+        Path pending = Files.createTempFile(layout.tmp(), "variant-", ".tmp");
+        try {
+            if (!ImageIO.write(scaled, format, pending.toFile()))
+                throw new IOException("No ImageIO writer for " + format);
+            Files.createDirectories(target.getParent());
+            Files.move(pending, target, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(pending);
+        }
+        generated.increment();
+        return true;
+    }
+
+    private boolean noVariant(StoredImage original, int fromWidth) {
+        noVariantFrom.put(original.getHash(), fromWidth);
+        return false;
+    }
+
+    // Halving in steps keeps bilinear filtering from skipping source pixels on large reductions
+    private static BufferedImage scale(BufferedImage source, int width, int type) {
+        int height = Math.max(1, (int) Math.round((double) source.getHeight() * width / source.getWidth()));
+        BufferedImage current = source;
+        int w = source.getWidth();
+        int h = source.getHeight();
+        do {
+            w = Math.max(width, w / 2);
+            h = Math.max(height, h / 2);
+            BufferedImage next = new BufferedImage(w, h, type);
+            Graphics2D g = next.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.drawImage(current, 0, 0, w, h, null);
+            } finally {
+                g.dispose();
+            }
+            current = next;
+        } while (w != width || h != height);
+        return current;
+    }
+
+    private static BufferedImage convert(BufferedImage source, int type) {
+        if (source.getType() == type) return source;
+        BufferedImage converted = new BufferedImage(source.getWidth(), source.getHeight(), type);
+        Graphics2D g = converted.createGraphics();
+        try {
+            g.drawImage(source, 0, 0, null);
+        } finally {
+            g.dispose();
+        }
+        return converted;
+    }
+
+    private Path variantPath(String hash, int width, String format) {
+        return layout.variantPath(hash, hash + "-" + width + "." + (format.equals("jpeg") ? "jpg" : format));
+    }
+
+    private static StoredImage stored(StoredImage original, int width, String format, Path path) {
+        try {
+            return new StoredImage(path, "image/" + format, Files.size(path), original.getHash() + "-w" + width);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // JPEG stays JPEG; everything else becomes PNG so transparency survives
+    private static String outputFormat(StoredImage original) {
+        return original.getContentType().equals("image/jpeg") ? "jpeg" : "png";
+    }
+
+    private boolean isResizable(StoredImage original) {
+        return widths.length > 0 && ImageIO.getImageReadersByMIMEType(original.getContentType()).hasNext();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+}
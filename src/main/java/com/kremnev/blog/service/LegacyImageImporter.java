@@ -0,0 +1,111 @@
+package com.kremnev.blog.service;
+
+import com.kremnev.blog.model.ImageRef;
+import com.kremnev.blog.repository.ImageRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * Registers images stored in the pre-blob layout ({@code <postId>/image<ext>}, with an optional
+ * {@code image.meta} sidecar) in the {@code images} table, so reads never have to list
+ * directories. Runs once per upload root, before the server accepts requests.
+ */
+@Component
+public class LegacyImageImporter implements SmartInitializingSingleton {
+    private static final Logger log = LoggerFactory.getLogger(LegacyImageImporter.class);
+
+    static final String METADATA_FILE = "image.meta";
+    private static final String CONTENT_TYPE_KEY = "contentType";
+    private static final String HASH_KEY = "sha256";
+    private static final String DONE_MARKER = ".legacy-images-imported";
+
+    private final Path root;
+    private final ImageRepository imageRepository;
+
+    public LegacyImageImporter(BlobLayout layout, ImageRepository imageRepository) {
+        this.root = layout.root();
+        this.imageRepository = imageRepository;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!Files.isDirectory(root) || Files.exists(root.resolve(DONE_MARKER))) return;
+
+        try {
+            int imported = importAll();
+            Files.createFile(root.resolve(DONE_MARKER));
+            log.info("Registered {} legacy post images", imported);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not import legacy post images, will retry on next start", e);
+        }
+    }
+
+    /**
+     * Returns the number of images registered. Posts that already have an image row,
+     * or no longer exist, are skipped.
+     */
+    public int importAll() throws IOException {
+        int imported = 0;
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path dir : dirs) {
+                long postId;
+                try {
+                    postId = Long.parseLong(dir.getFileName().toString());
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+
+                var image = readLegacyImage(postId, dir);
+                if (image.isPresent() && imageRepository.insertIfAbsent(image.get())) imported++;
+            }
+        }
+        return imported;
+    }
+
+    private Optional<ImageRef> readLegacyImage(long postId, Path dir) throws IOException {
+        Optional<Path> pathOpt;
+        try (var s = Files.list(dir)) {
+            pathOpt = s.filter(Files::isRegularFile)
+                    .filter(p -> !p.getFileName().toString().startsWith(METADATA_FILE))
+                    .findFirst();
+        }
+        if (pathOpt.isEmpty()) return Optional.empty();
+
+        Path path = pathOpt.get();
+        Properties metadata = new Properties();
+        Path metadataFile = dir.resolve(METADATA_FILE);
+        if (Files.isRegularFile(metadataFile)) {
+            try (InputStream in = Files.newInputStream(metadataFile)) {
+                metadata.load(in);
+            }
+        }
+
+        String contentType = metadata.getProperty(CONTENT_TYPE_KEY);
+        if (contentType == null) {
+            contentType = MediaTypeFactory.getMediaType(path.getFileName().toString())
+                    .orElse(MediaType.APPLICATION_OCTET_STREAM)
+                    .toString();
+        }
+        String hash = metadata.getProperty(HASH_KEY);
+        if (hash == null) hash = ImageFiles.sha256(path);
+
+        var dimensions = ImageFiles.readDimensions(path);
+        return Optional.of(new ImageRef(postId, root.relativize(path).toString(), hash, contentType, Files.size(path),
+                dimensions.map(ImageFiles.Dimensions::width).orElse(null),
+                dimensions.map(ImageFiles.Dimensions::height).orElse(null),
+                ImageFiles.blurHash(path).orElse(null),
+                null));
+    }
+}
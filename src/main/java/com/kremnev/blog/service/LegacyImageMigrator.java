@@ -0,0 +1,182 @@
+package com.kremnev.blog.service;
+
+import com.kremnev.blog.cache.ImageBytesCache;
+import com.kremnev.blog.cache.ImageRefCache;
+import com.kremnev.blog.model.ImageRef;
+import com.kremnev.blog.repository.ImageRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Moves images registered at their pre-blob location ({@code <postId>/image<ext>}) into the
+ * sharded blob store while the server keeps serving them. Each scheduled run copies one batch,
+ * publishes the copies like uploads do and repoints the rows; a row replaced by an upload in
+ * the meantime is left alone.
+ * <p>
+ * Requests that resolved an image before its row moved still read the old file, so old files
+ * are deleted only after {@code uploads.migration.grace}. Files whose deletion was still pending
+ * at shutdown are left for garbage collection.
+ */
+@Component
+public class LegacyImageMigrator {
+    private static final Logger log = LoggerFactory.getLogger(LegacyImageMigrator.class);
+
+    private record PendingDelete(Path file, long deadline) {}
+
+    private final BlobLayout layout;
+    private final ImageRepository imageRepository;
+    private final ImageBytesCache imageBytesCache;
+    private final ImageRefCache imageRefCache;
+    private final boolean enabled;
+    private final int batchSize;
+    private final long graceNanos;
+    private final Queue<PendingDelete> pendingDeletes = new ConcurrentLinkedQueue<>();
+    private final Set<Path> pendingFiles = ConcurrentHashMap.newKeySet();
+    private final Counter migrated;
+    private final Counter failed;
+
+    private long cursor;
+    private volatile boolean finished;
+
+    public LegacyImageMigrator(BlobLayout layout,
+                               ImageRepository imageRepository,
+                               ImageBytesCache imageBytesCache,
+                               ImageRefCache imageRefCache,
+                               @Value("${uploads.migration.enabled:true}") boolean enabled,
+                               @Value("${uploads.migration.batch-size:100}") int batchSize,
+                               @Value("${uploads.migration.grace:1m}") Duration grace,
+                               MeterRegistry registry) {
+        this.layout = layout;
+        this.imageRepository = imageRepository;
+        this.imageBytesCache = imageBytesCache;
+        this.imageRefCache = imageRefCache;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.graceNanos = grace.toNanos();
+        this.migrated = registry.counter("blog.images.migration.migrated");
+        this.failed = registry.counter("blog.images.migration.failed");
+    }
+
+    @Scheduled(fixedDelayString = "${uploads.migration.interval:1s}")
+    public void run() {
+        if (!enabled) return;
+        deleteExpired(System.nanoTime());
+        if (finished) return;
+
+        try {
+            migrateBatch();
+        } catch (RuntimeException e) {
+            log.warn("Could not migrate legacy post images, will retry", e);
+        }
+    }
+
+    /**
+     * Migrates the next batch and returns the number of images moved. Images that fail are
+     * skipped until the next start.
+     */
+    public synchronized int migrateBatch() {
+        var batch = imageRepository.findOutside(BlobLayout.BLOBS_DIR + "/", cursor, batchSize);
+        if (batch.isEmpty()) {
+            if (!finished) log.info("Legacy post images migrated");
+            finished = true;
+            return 0;
+        }
+
+        int moved = 0;
+        for (ImageRef image : batch) {
+            cursor = image.getPostId();
+            try {
+                if (migrate(image)) moved++;
+            } catch (IOException | RuntimeException e) {
+                failed.increment();
+                log.warn("Could not migrate image of post {} from {}", image.getPostId(), image.getPath(), e);
+            }
+        }
+        return moved;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Whether {@code file} was migrated and is kept for readers of the old path until the grace
+     * period ends. The garbage collector leaves such files to the migrator.
+     */
+    public boolean isAwaitingDelete(Path file) {
+        return pendingFiles.contains(file);
+    }
+
+    private boolean migrate(ImageRef image) throws IOException {
+        Path source = layout.resolve(image.getPath());
+
+        // Copy rather than move: the original stays readable until the grace period ends
+        Files.createDirectories(layout.tmp());
+        Path copy = Files.createTempFile(layout.tmp(), "migrate-", ".tmp");
+        String hash;
+        try {
+            MessageDigest digest = ImageFiles.newSha256();
+            try (InputStream in = new DigestInputStream(Files.newInputStream(source), digest)) {
+                Files.copy(in, copy, StandardCopyOption.REPLACE_EXISTING);
+            }
+            hash = HexFormat.of().formatHex(digest.digest());
+
+            Path blob = layout.blobPath(hash);
+            try {
+                // Keeps the garbage collector off the blob until the row points at it
+                Files.setLastModifiedTime(blob, FileTime.from(Instant.now()));
+            } catch (NoSuchFileException e) {
+                Files.createDirectories(blob.getParent());
+                Files.move(copy, blob, StandardCopyOption.ATOMIC_MOVE);
+            }
+            if (!imageRepository.relocate(image.getPostId(), image.getPath(), layout.relativize(blob), hash))
+                return false;
+        } finally {
+            Files.deleteIfExists(copy);
+        }
+        imageRefCache.evict(image.getPostId());
+
+        // Sidecar hashes are trusted on import; a wrong one must not keep serving cached bytes
+        if (!hash.equals(image.getHash())) imageBytesCache.invalidate(image.getHash());
+        pendingFiles.add(source);
+        pendingDeletes.add(new PendingDelete(source, System.nanoTime() + graceNanos));
+        migrated.increment();
+        return true;
+    }
+
+    void deleteExpired(long now) {
+        PendingDelete next;
+        while ((next = pendingDeletes.peek()) != null && next.deadline() - now <= 0) {
+            pendingDeletes.poll();
+            try {
+                ImageFiles.deleteLegacy(next.file());
+            } catch (IOException e) {
+                log.warn("Could not delete migrated image {}", next.file(), e);
+            } finally {
+                pendingFiles.remove(next.file());
+            }
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package com.kremnev.blog.service;
+
+/**
+ * Published when a post's like or comment count may have changed, or the post was deleted.
+ */
+public record PostCountsChanged(long postId) {}
@@ -1,14 +1,20 @@
 package com.kremnev.blog.service;
 
 import com.kremnev.blog.model.Post;
+import com.kremnev.blog.model.PostField;
 import com.kremnev.blog.model.PostsResponse;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 public interface PostService {
-    PostsResponse getAll(String search, int pageNumber, int pageSize);
+    PostsResponse getAll(String search, int pageNumber, int pageSize, Set<PostField> fields);
     Optional<Post> getById(long postId);
+    Optional<Post> getById(long postId, Set<PostField> fields);
+    Map<Long, Post> getByIds(Collection<Long> postIds, Set<PostField> fields);
     Post create(String title, String text, List<String> tags);
     Optional<Post> update(Long postId, String title, String text, List<String> tags);
     boolean delete(Long postId);
@@ -1,37 +1,110 @@
 package com.kremnev.blog.service;
 
+import com.kremnev.blog.cache.CommentCache;
+import com.kremnev.blog.cache.ImageRefCache;
+import com.kremnev.blog.cache.NegativeLookupCache;
+import com.kremnev.blog.concurrency.SingleFlight;
 import com.kremnev.blog.model.Post;
+import com.kremnev.blog.model.PostField;
 import com.kremnev.blog.model.PostsResponse;
 import com.kremnev.blog.repository.PostRepository;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
+import java.util.Collection;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Service
 public class PostServiceImpl implements PostService {
     private final PostRepository postRepository;
+    private final CommentCache commentCache;
+    private final SingleFlight singleFlight;
+    private final NegativeLookupCache negativeLookupCache;
+    private final ImageRefCache imageRefCache;
+    private final ApplicationEventPublisher eventPublisher;
 
-    public PostServiceImpl(PostRepository postRepository) {
+    private record PageKey(String search, int pageNumber, int pageSize, Set<PostField> fields) {}
+    private record PostKey(long postId) {}
+    private record PostFieldsKey(long postId, Set<PostField> fields) {}
+
+    public PostServiceImpl(PostRepository postRepository, CommentCache commentCache, SingleFlight singleFlight,
+                           NegativeLookupCache negativeLookupCache, ImageRefCache imageRefCache,
+                           ApplicationEventPublisher eventPublisher) {
         this.postRepository = postRepository;
+        this.commentCache = commentCache;
+        this.singleFlight = singleFlight;
+        this.negativeLookupCache = negativeLookupCache;
+        this.imageRefCache = imageRefCache;
+        this.eventPublisher = eventPublisher;
     }
 
+    /**
+     * Loads only the given fields of each post on the page; the others are left null or zero.
+     */
     @Override
-    public PostsResponse getAll(String search, int pageNumber, int pageSize) {
-        var result = postRepository.findAll(search, pageNumber, pageSize);
-        var posts = result.getFirst();
-        var totalCount = result.getSecond();
-        return new PostsResponse(posts, pageNumber, pageSize, totalCount);
+    public PostsResponse getAll(String search, int pageNumber, int pageSize, Set<PostField> fields) {
+        return singleFlight.execute(new PageKey(search, pageNumber, pageSize, fields), () -> {
+            var result = postRepository.findAll(search, pageNumber, pageSize, fields);
+            var posts = result.getFirst();
+            var totalCount = result.getSecond();
+            return new PostsResponse(posts, pageNumber, pageSize, totalCount);
+        });
     }
 
     @Override
     public Optional<Post> getById(long postId) {
-        return postRepository.findById(postId);
+        if (negativeLookupCache.isKnownMissingPost(postId)) return Optional.empty();
+
+        long generation = negativeLookupCache.generation();
+        var post = singleFlight.execute(new PostKey(postId), () -> postRepository.findById(postId));
+        if (post.isEmpty()) negativeLookupCache.recordMissingPost(postId, generation);
+        return post;
+    }
+
+    /**
+     * Loads only the given fields of the post; the others are left null or zero.
+     */
+    @Override
+    public Optional<Post> getById(long postId, Set<PostField> fields) {
+        if (fields.containsAll(EnumSet.allOf(PostField.class))) return getById(postId);
+        if (negativeLookupCache.isKnownMissingPost(postId)) return Optional.empty();
+
+        long generation = negativeLookupCache.generation();
+        var post = singleFlight.execute(new PostFieldsKey(postId, fields),
+                () -> postRepository.findById(postId, fields));
+        if (post.isEmpty()) negativeLookupCache.recordMissingPost(postId, generation);
+        return post;
+    }
+
+    /**
+     * Loads the posts in one query, skipping ids already known to be missing. Posts that do
+     * not exist are absent from the result.
+     */
+    @Override
+    public Map<Long, Post> getByIds(Collection<Long> postIds, Set<PostField> fields) {
+        List<Long> candidates = postIds.stream()
+                .filter(id -> !negativeLookupCache.isKnownMissingPost(id))
+                .toList();
+
+        long generation = negativeLookupCache.generation();
+        Map<Long, Post> found = postRepository.findAllByIds(candidates, fields).stream()
+                .collect(Collectors.toMap(Post::getId, post -> post));
+        for (Long id : candidates) {
+            if (!found.containsKey(id)) negativeLookupCache.recordMissingPost(id, generation);
+        }
+        return found;
     }
 
     @Override
     public Post create(String title, String text, List<String> tags) {
-        return postRepository.create(title, text, tags);
+        var created = postRepository.create(title, text, tags);
+        negativeLookupCache.postCreated(created.getId());
+        return created;
     }
 
     @Override
@@ -41,11 +114,26 @@ public class PostServiceImpl implements PostService {
 
     @Override
     public boolean delete(Long postId) {
-        return postRepository.delete(postId);
+        var isDeleted = postRepository.delete(postId);
+        if (isDeleted) {
+            commentCache.evict(postId);
+            negativeLookupCache.postDeleted(postId);
+            // The image row went with the post
+            imageRefCache.evict(postId);
+            // The post is back, and comment lists read since the delete saw it gone
+            Transactions.onRollback(() -> {
+                negativeLookupCache.postCreated(postId);
+                commentCache.evict(postId);
+            });
+            eventPublisher.publishEvent(new PostCountsChanged(postId));
+        }
+        return isDeleted;
     }
 
     @Override
     public Optional<Post> addLike(Long postId) {
-        return postRepository.addLike(postId);
+        var updated = postRepository.addLike(postId);
+        if (updated.isPresent()) eventPublisher.publishEvent(new PostCountsChanged(postId));
+        return updated;
     }
 }
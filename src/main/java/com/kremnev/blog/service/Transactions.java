@@ -0,0 +1,29 @@
+package com.kremnev.blog.service;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Cache updates made inside a transaction describe rows that may never be committed; the
+ * services register how to undo them here.
+ */
+final class Transactions {
+
+    private Transactions() {
+    }
+
+    /**
+     * Runs {@code undo} once the current transaction has rolled back. Outside a transaction
+     * the write is already durable and nothing is registered.
+     */
+    static void onRollback(Runnable undo) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) return;
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) undo.run();
+            }
+        });
+    }
+}
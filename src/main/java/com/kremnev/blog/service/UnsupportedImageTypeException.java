@@ -0,0 +1,13 @@
+package com.kremnev.blog.service;
+
+import java.io.IOException;
+
+public class UnsupportedImageTypeException extends IOException {
+    public UnsupportedImageTypeException() {
+        super("Only image/* allowed");
+    }
+
+    public UnsupportedImageTypeException(Throwable cause) {
+        super("Only image/* allowed", cause);
+    }
+}
@@ -0,0 +1,16 @@
+package com.kremnev.blog.service;
+
+import java.io.IOException;
+
+public class UploadOffsetConflictException extends IOException {
+    private final long currentOffset;
+
+    public UploadOffsetConflictException(long currentOffset) {
+        super("Upload is at offset " + currentOffset);
+        this.currentOffset = currentOffset;
+    }
+
+    public long getCurrentOffset() {
+        return currentOffset;
+    }
+}
@@ -0,0 +1,15 @@
+package com.kremnev.blog.service;
+
+import com.kremnev.blog.model.UploadSession;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Optional;
+
+public interface UploadSessionService {
+    Optional<UploadSession> create(long postId, long length) throws IOException;
+    Optional<UploadSession> get(long postId, String sessionId);
+    Optional<UploadSession> append(long postId, String sessionId, long offset, ReadableByteChannel body) throws IOException;
+    boolean complete(long postId, String sessionId, String sha256) throws IOException;
+    boolean cancel(long postId, String sessionId) throws IOException;
+}
@@ -0,0 +1,251 @@
+package com.kremnev.blog.service;
+
+import com.kremnev.blog.model.UploadSession;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Resumable uploads: a session reserves a file under {@code uploads.root}, chunks are written
+ * at their offset as they arrive, and completing the session checks the SHA-256 and publishes
+ * the file through {@link BlobService} without copying it.
+ * <p>
+ * Progress is recorded per buffer, so a dropped connection keeps everything that reached
+ * the disk and the client resumes from {@link UploadSession#getOffset()}. Sessions live in
+ * memory and expire {@code uploads.sessions.ttl} after their last chunk; files left behind
+ * by a restart are removed once they are as old.
+ */
+@Service
+public class UploadSessionServiceImpl implements UploadSessionService {
+    private static final Logger log = LoggerFactory.getLogger(UploadSessionServiceImpl.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String SESSIONS_DIR = "sessions";
+
+    private static final class Session {
+        final String id;
+        final long postId;
+        final long length;
+        final Path file;
+        // Chunks are written by one request at a time; a second one is told where the first is
+        final ReentrantLock lock = new ReentrantLock();
+        volatile long offset;
+        volatile Instant expiresAt;
+        boolean closed;
+
+        Session(String id, long postId, long length, Path file, Instant expiresAt) {
+            this.id = id;
+            this.postId = postId;
+            this.length = length;
+            this.file = file;
+            this.expiresAt = expiresAt;
+        }
+
+        UploadSession snapshot() {
+            return new UploadSession(id, postId, length, offset, expiresAt);
+        }
+    }
+
+    private final Path dir;
+    private final long maxImageBytes;
+    private final Duration ttl;
+    private final BlobService blobService;
+    private final PostService postService;
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final Counter completed;
+    private final Counter expired;
+
+    public UploadSessionServiceImpl(BlobLayout layout,
+                                    @Value("${uploads.max-image-size:10MB}") DataSize maxImageSize,
+                                    @Value("${uploads.sessions.ttl:24h}") Duration ttl,
+                                    BlobService blobService,
+                                    PostService postService,
+                                    MeterRegistry registry) {
+        // Under tmp so completed files can be renamed into the blob store
+        this.dir = layout.tmp().resolve(SESSIONS_DIR);
+        this.maxImageBytes = maxImageSize.toBytes();
+        this.ttl = ttl;
+        this.blobService = blobService;
+        this.postService = postService;
+        this.completed = registry.counter("blog.uploads.sessions.completed");
+        this.expired = registry.counter("blog.uploads.sessions.expired");
+        Gauge.builder("blog.uploads.sessions.active", sessions, ConcurrentHashMap::size)
+                .register(registry);
+    }
+
+    /**
+     * Opens a session for an image of {@code length} bytes. Returns empty when the post does not exist.
+     */
+    @Override
+    public Optional<UploadSession> create(long postId, long length) throws IOException {
+        if (length <= 0) throw new IllegalArgumentException("Upload length must be positive");
+        if (length > maxImageBytes) throw new ImageTooLargeException(maxImageBytes);
+        if (postService.getById(postId).isEmpty()) return Optional.empty();
+
+        String id = UUID.randomUUID().toString();
+        Files.createDirectories(dir);
+        Path file = Files.createFile(dir.resolve(id));
+        Session session = new Session(id, postId, length, file, Instant.now().plus(ttl));
+        sessions.put(id, session);
+        return Optional.of(session.snapshot());
+    }
+
+    @Override
+    public Optional<UploadSession> get(long postId, String sessionId) {
+        return find(postId, sessionId).map(Session::snapshot);
+    }
+
+    /**
+     * Writes the body at {@code offset}, which must be where the session currently stands.
+     * Returns empty when there is no such session.
+     */
+    @Override
+    public Optional<UploadSession> append(long postId, String sessionId, long offset, ReadableByteChannel body)
+            throws IOException {
+        var found = find(postId, sessionId);
+        if (found.isEmpty()) return Optional.empty();
+
+        Session session = found.get();
+        if (!session.lock.tryLock()) throw new UploadOffsetConflictException(session.offset);
+        try {
+            if (session.closed) return Optional.empty();
+            if (offset != session.offset) throw new UploadOffsetConflictException(session.offset);
+
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            try (FileChannel out = FileChannel.open(session.file, StandardOpenOption.WRITE)) {
+                long position = offset;
+                while (body.read(buffer) != -1) {
+                    buffer.flip();
+                    if (position + buffer.remaining() > session.length) throw new ImageTooLargeException(session.length);
+                    while (buffer.hasRemaining()) position += out.write(buffer, position);
+                    session.offset = position;
+                    buffer.clear();
+                }
+            } finally {
+                session.expiresAt = Instant.now().plus(ttl);
+            }
+            return Optional.of(session.snapshot());
+        } finally {
+            session.lock.unlock();
+        }
+    }
+
+    /**
+     * Verifies the received bytes against {@code sha256} and publishes them as the post's image.
+     * The session ends once the image is stored or the post turns out to be gone; after a
+     * failed check it stays open, so the client can complete again with the right checksum or
+     * cancel. Returns false when there is no such session or the post no longer exists.
+     */
+    @Override
+    public boolean complete(long postId, String sessionId, String sha256) throws IOException {
+        var found = find(postId, sessionId);
+        if (found.isEmpty()) return false;
+
+        Session session = found.get();
+        // Held while publishing, so chunks and a second completion are turned away meanwhile
+        if (!session.lock.tryLock()) throw new UploadOffsetConflictException(session.offset);
+        try {
+            if (session.closed) return false;
+            if (session.offset != session.length) throw new UploadOffsetConflictException(session.offset);
+
+            boolean stored;
+            try {
+                stored = blobService.upsert(postId, session.file, sha256);
+            } catch (IOException | RuntimeException e) {
+                // Once the file has been moved into the blob store there is nothing left to retry
+                if (Files.notExists(session.file)) close(session);
+                throw e;
+            }
+            close(session);
+            Files.deleteIfExists(session.file);
+            if (stored) completed.increment();
+            return stored;
+        } finally {
+            session.expiresAt = Instant.now().plus(ttl);
+            session.lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean cancel(long postId, String sessionId) throws IOException {
+        var found = find(postId, sessionId);
+        if (found.isEmpty()) return false;
+
+        Session session = found.get();
+        session.lock.lock();
+        try {
+            if (session.closed) return false;
+            close(session);
+        } finally {
+            session.lock.unlock();
+        }
+        Files.deleteIfExists(session.file);
+        return true;
+    }
+
+    @Scheduled(fixedDelayString = "${uploads.sessions.cleanup-interval:5m}")
+    public void expireSessions() {
+        try {
+            expire(Instant.now());
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not clean up upload sessions, will retry", e);
+        }
+    }
+
+    void expire(Instant now) throws IOException {
+        for (Session session : sessions.values()) {
+            // A session busy with a chunk is not idle, whatever its deadline says
+            if (session.expiresAt.isAfter(now) || !session.lock.tryLock()) continue;
+            try {
+                if (session.closed) continue;
+                close(session);
+            } finally {
+                session.lock.unlock();
+            }
+            Files.deleteIfExists(session.file);
+            expired.increment();
+        }
+
+        if (!Files.isDirectory(dir)) return;
+        Instant staleBefore = now.minus(ttl);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                if (sessions.containsKey(file.getFileName().toString())) continue;
+                if (Files.getLastModifiedTime(file).toInstant().isBefore(staleBefore)) Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private Optional<Session> find(long postId, String sessionId) {
+        Session session = sessions.get(sessionId);
+        if (session == null || session.postId != postId) return Optional.empty();
+        return Optional.of(session);
+    }
+
+    // Must be called while holding the session's lock
+    private void close(Session session) {
+        session.closed = true;
+        sessions.remove(session.id);
+    }
+}
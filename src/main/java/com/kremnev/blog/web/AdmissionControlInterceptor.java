@@ -0,0 +1,146 @@
+package com.kremnev.blog.web;
+
+import com.kremnev.blog.concurrency.AdaptiveLimit;
+import com.kremnev.blog.concurrency.AdaptiveLimit.Priority;
+import com.kremnev.blog.controller.CommentsController;
+import com.kremnev.blog.controller.ImageController;
+import com.kremnev.blog.controller.ImageUploadController;
+import com.kremnev.blog.controller.PostController;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sheds load per route before it reaches the database: each route pattern of the post, comment,
+ * image and image upload controllers has its own {@link AdaptiveLimit}, and requests past it get
+ * an immediate 503 with {@code Retry-After} instead of waiting for a connection. Reads are high
+ * priority; writes and uploads may only use {@code admission.low-priority-share} of a route's limit.
+ */
+@Component
+public class AdmissionControlInterceptor implements HandlerInterceptor {
+    private static final String PERMIT_ATTR = AdmissionControlInterceptor.class.getName() + ".permit";
+    private static final String OUTCOME_ATTR = AdmissionControlInterceptor.class.getName() + ".outcome";
+    private static final String HANDLED_ATTR = AdmissionControlInterceptor.class.getName() + ".handled";
+    private static final Set<Class<?>> GUARDED = Set.of(PostController.class, CommentsController.class,
+            ImageController.class, ImageUploadController.class);
+
+    private record Permit(AdaptiveLimit limit, long startNanos) {}
+
+    private enum Outcome { DROPPED, UNSAMPLED }
+
+    private final boolean enabled;
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double lowPriorityShare;
+    private final MeterRegistry registry;
+    private final ConcurrentHashMap<String, AdaptiveLimit> limits = new ConcurrentHashMap<>();
+
+    public AdmissionControlInterceptor(@Value("${admission.enabled:true}") boolean enabled,
+                                       @Value("${admission.initial-limit:20}") int initialLimit,
+                                       @Value("${admission.min-limit:4}") int minLimit,
+                                       @Value("${admission.max-limit:200}") int maxLimit,
+                                       @Value("${admission.low-priority-share:0.5}") double lowPriorityShare,
+                                       MeterRegistry registry) {
+        this.enabled = enabled;
+        this.initialLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.lowPriorityShare = lowPriorityShare;
+        this.registry = registry;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws IOException {
+        if (!enabled || !(handler instanceof HandlerMethod method) || !GUARDED.contains(method.getBeanType()))
+            return true;
+
+        String route = (String) request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        AdaptiveLimit limit = limits.computeIfAbsent(route, this::newLimit);
+        Priority priority = isRead(request) ? Priority.HIGH : Priority.LOW;
+        if (!limit.tryAcquire(priority)) {
+            registry.counter("blog.admission.rejected", "route", route, "priority", priority.name().toLowerCase())
+                    .increment();
+            reject(response);
+            return false;
+        }
+        request.setAttribute(PERMIT_ATTR, new Permit(limit, System.nanoTime()));
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        if (!(request.getAttribute(PERMIT_ATTR) instanceof Permit permit)) return;
+        request.removeAttribute(PERMIT_ATTR);
+        Object outcome = request.getAttribute(OUTCOME_ATTR);
+        if (outcome == Outcome.DROPPED) permit.limit().release(0, true);
+        else if (outcome == Outcome.UNSAMPLED) permit.limit().release(0, false);
+        else permit.limit().release(handledNanos(request) - permit.startNanos(), false);
+    }
+
+    /**
+     * Ends the request's latency sample, for handlers that write a large body themselves: what
+     * follows is the client reading it, and a slow client says nothing about the backend's load.
+     */
+    static void markHandled(HttpServletRequest request) {
+        if (request.getAttribute(HANDLED_ATTR) == null) request.setAttribute(HANDLED_ATTR, System.nanoTime());
+    }
+
+    /**
+     * Marks the request as turned away further down (a full bulkhead): the backend is already
+     * past its limit, so the route's limit backs off.
+     */
+    static void markDropped(HttpServletRequest request) {
+        request.setAttribute(OUTCOME_ATTR, Outcome.DROPPED);
+    }
+
+    /**
+     * Keeps the request's latency out of the route's limit, for requests whose latency says
+     * nothing about the backend's load, such as one that ran out of its query budget.
+     */
+    static void markUnsampled(HttpServletRequest request) {
+        request.setAttribute(OUTCOME_ATTR, Outcome.UNSAMPLED);
+    }
+
+    AdaptiveLimit getLimit(String route) {
+        return limits.get(route);
+    }
+
+    private AdaptiveLimit newLimit(String route) {
+        AdaptiveLimit limit = new AdaptiveLimit(initialLimit, minLimit, maxLimit, lowPriorityShare);
+        Gauge.builder("blog.admission.limit", limit, AdaptiveLimit::getLimit)
+                .tag("route", route)
+                .register(registry);
+        Gauge.builder("blog.admission.in-flight", limit, AdaptiveLimit::getInFlight)
+                .tag("route", route)
+                .register(registry);
+        return limit;
+    }
+
+    private static long handledNanos(HttpServletRequest request) {
+        return request.getAttribute(HANDLED_ATTR) instanceof Long handled ? handled : System.nanoTime();
+    }
+
+    private static boolean isRead(HttpServletRequest request) {
+        return "GET".equals(request.getMethod()) || "HEAD".equals(request.getMethod());
+    }
+
+    private static void reject(HttpServletResponse response) throws IOException {
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.setHeader(HttpHeaders.RETRY_AFTER, OverloadExceptionHandler.RETRY_AFTER_SECONDS);
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.getWriter().write("{\"message\":\"" + OverloadExceptionHandler.BUSY_MESSAGE + "\"}");
+    }
+}
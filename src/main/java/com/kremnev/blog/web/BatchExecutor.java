@@ -0,0 +1,237 @@
+package com.kremnev.blog.web;
+
+import com.kremnev.blog.controller.CommentsController;
+import com.kremnev.blog.controller.PostController;
+import com.kremnev.blog.dto.BatchResultDto;
+import com.kremnev.blog.dto.Request.BatchRequest.Operation;
+import jakarta.servlet.ServletConfig;
+import jakarta.servlet.ServletContext;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.DispatcherServlet;
+import org.springframework.web.servlet.HandlerExecutionChain;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.util.ServletRequestPathUtils;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the requests of a batch through a dispatcher of their own, so each one goes through the
+ * same mappings, argument conversion, interceptors and exception handlers as if it had been sent
+ * on its own. Only post and comment routes may be batched.
+ *
+ * <p>Consecutive reads run concurrently on virtual threads; writes run one at a time in order,
+ * after every read before them. A transactional batch runs in order inside one transaction and
+ * stops at the first request that fails: the transaction is rolled back and the requests after
+ * it are answered with 424 without being run.
+ */
+@Component
+public class BatchExecutor implements SmartInitializingSingleton {
+    static final String SERVLET_NAME = "batch";
+    private static final Logger log = LoggerFactory.getLogger(BatchExecutor.class);
+    private static final Set<Class<?>> BATCHABLE = Set.of(PostController.class, CommentsController.class);
+    private static final Set<String> METHODS = Set.of("GET", "POST", "PUT", "PATCH", "DELETE");
+
+    private final WebApplicationContext context;
+    private final HandlerMapping handlerMapping;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final DispatcherServlet dispatcher;
+
+    public BatchExecutor(WebApplicationContext context,
+                         @Qualifier("requestMappingHandlerMapping") HandlerMapping handlerMapping,
+                         PlatformTransactionManager transactionManager,
+                         ObjectMapper objectMapper) {
+        this.context = context;
+        this.handlerMapping = handlerMapping;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.objectMapper = objectMapper;
+        this.dispatcher = new DispatcherServlet(context);
+        dispatcher.setPublishContext(false);
+    }
+
+    // The dispatcher collects its handler mappings and resolvers from the context, so it starts once they all exist
+    @Override
+    public void afterSingletonsInstantiated() {
+        try {
+            dispatcher.init(new ServletConfig() {
+                @Override
+                public String getServletName() {
+                    return SERVLET_NAME;
+                }
+
+                @Override
+                public ServletContext getServletContext() {
+                    return context.getServletContext();
+                }
+
+                @Override
+                public String getInitParameter(String name) {
+                    return null;
+                }
+
+                @Override
+                public Enumeration<String> getInitParameterNames() {
+                    return Collections.emptyEnumeration();
+                }
+            });
+        } catch (ServletException e) {
+            throw new IllegalStateException("Could not start the batch dispatcher", e);
+        }
+    }
+
+    /**
+     * Runs {@code operations} on behalf of the batch request and returns their results in the
+     * same order.
+     */
+    public List<BatchResultDto> execute(HttpServletRequest request, HttpServletResponse response,
+                                        List<Operation> operations, boolean transactional) {
+        var results = new BatchResultDto[operations.size()];
+        if (transactional) {
+            transactionTemplate.executeWithoutResult(status -> {
+                for (int i = 0; i < operations.size(); i++) {
+                    if (status.isRollbackOnly()) {
+                        results[i] = failure(operations.get(i), HttpStatus.FAILED_DEPENDENCY, "Not run: an earlier request failed");
+                        continue;
+                    }
+                    results[i] = dispatch(request, response, operations.get(i));
+                    if (results[i].status() >= 400) {
+                        status.setRollbackOnly();
+                        markRolledBack(operations, results, i);
+                    }
+                }
+            });
+        } else if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            // Other threads would not see this transaction's rows
+            for (int i = 0; i < operations.size(); i++) results[i] = dispatch(request, response, operations.get(i));
+        } else {
+            runReadsConcurrently(request, response, operations, results);
+        }
+        return List.of(results);
+    }
+
+    // What the requests before the failed one did is undone, so their results must not claim otherwise
+    private void markRolledBack(List<Operation> operations, BatchResultDto[] results, int failed) {
+        for (int i = 0; i < failed; i++) {
+            if (results[i].status() < 400)
+                results[i] = failure(operations.get(i), HttpStatus.FAILED_DEPENDENCY, "Rolled back: a later request failed");
+        }
+    }
+
+    private void runReadsConcurrently(HttpServletRequest request, HttpServletResponse response,
+                                      List<Operation> operations, BatchResultDto[] results) {
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> reads = new ArrayList<>();
+            for (int i = 0; i < operations.size(); i++) {
+                var operation = operations.get(i);
+                int index = i;
+                if (isRead(operation)) {
+                    reads.add(executor.submit(() -> results[index] = dispatch(request, response, operation)));
+                    continue;
+                }
+                awaitAll(reads);
+                results[i] = dispatch(request, response, operation);
+            }
+            awaitAll(reads);
+        }
+    }
+
+    private static void awaitAll(List<Future<?>> futures) {
+        try {
+            for (var future : futures) future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while running a batch", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Batch request failed", e.getCause());
+        }
+        futures.clear();
+    }
+
+    private BatchResultDto dispatch(HttpServletRequest batchRequest, HttpServletResponse batchResponse,
+                                    Operation operation) {
+        String method = operation.method() == null ? null : operation.method().toUpperCase(Locale.ROOT);
+        if (method == null || !METHODS.contains(method))
+            return failure(operation, HttpStatus.BAD_REQUEST, "Unsupported method: " + operation.method());
+        if (operation.path() == null || !operation.path().startsWith("/api/"))
+            return failure(operation, HttpStatus.BAD_REQUEST, "Path must start with /api/");
+
+        byte[] body = operation.body() == null ? null : objectMapper.writeValueAsBytes(operation.body());
+        if (!isBatchable(new BatchSubRequest(batchRequest, method, operation.path(), body)))
+            return failure(operation, HttpStatus.NOT_FOUND, "Not available in a batch: " + method + " " + operation.path());
+
+        var request = new BatchSubRequest(batchRequest, method, operation.path(), body);
+        var response = new BatchSubResponse(batchResponse);
+        try {
+            dispatcher.service(request, response);
+        } catch (ServletException | IOException | RuntimeException e) {
+            log.error("Batch request {} {} failed", method, operation.path(), e);
+            return failure(operation, HttpStatus.INTERNAL_SERVER_ERROR, "Internal server error");
+        }
+        return new BatchResultDto(operation.id(), response.getStatus(), response.getHeaderValues(), readBody(response));
+    }
+
+    private boolean isBatchable(HttpServletRequest request) {
+        ServletRequestPathUtils.parseAndCache(request);
+        try {
+            HandlerExecutionChain chain = handlerMapping.getHandler(request);
+            return chain != null && chain.getHandler() instanceof HandlerMethod method
+                    && BATCHABLE.contains(method.getBeanType());
+        } catch (Exception e) {
+            // No handler will run (wrong method, unreadable parameters): dispatching produces the usual error
+            return true;
+        }
+    }
+
+    private JsonNode readBody(BatchSubResponse response) {
+        byte[] content = response.getContent();
+        if (content.length == 0) {
+            if (response.getStatus() < 400) return null;
+            String message = response.getErrorMessage();
+            HttpStatus status = HttpStatus.resolve(response.getStatus());
+            return message(message != null ? message : status != null ? status.getReasonPhrase() : "Error");
+        }
+        String contentType = response.getContentType();
+        if (contentType != null && MediaType.parseMediaType(contentType).isCompatibleWith(MediaType.APPLICATION_JSON))
+            return objectMapper.readTree(content);
+        return objectMapper.valueToTree(new String(content, StandardCharsets.UTF_8));
+    }
+
+    private BatchResultDto failure(Operation operation, HttpStatus status, String message) {
+        return new BatchResultDto(operation.id(), status.value(), null, message(message));
+    }
+
+    private JsonNode message(String message) {
+        return objectMapper.valueToTree(Map.of("message", message));
+    }
+
+    private static boolean isRead(Operation operation) {
+        return "GET".equalsIgnoreCase(operation.method());
+    }
+}
@@ -0,0 +1,375 @@
+package com.kremnev.blog.web;
+
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletMapping;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpSession;
+import jakarta.servlet.http.MappingMatch;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+import org.springframework.web.util.UriComponents;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One request of a batch, as seen by the handler it is dispatched to. It has its own method,
+ * path, parameters, JSON body and attributes. The batch request's connection details (scheme,
+ * host, port, context path, locales, remote address) are copied when it is created: reads of
+ * a batch run concurrently, and the container's request is not safe to share between threads.
+ * Only session access still goes to the batch request, one thread at a time.
+ */
+final class BatchSubRequest extends HttpServletRequestWrapper {
+
+    private static final HttpServletMapping MAPPING = new HttpServletMapping() {
+        @Override
+        public String getMatchValue() {
+            return "";
+        }
+
+        @Override
+        public String getPattern() {
+            return "/";
+        }
+
+        @Override
+        public String getServletName() {
+            return BatchExecutor.SERVLET_NAME;
+        }
+
+        @Override
+        public MappingMatch getMappingMatch() {
+            return MappingMatch.DEFAULT;
+        }
+    };
+
+    private final String method;
+    private final String path;
+    private final String queryString;
+    private final Map<String, String[]> parameters = new LinkedHashMap<>();
+    private final Map<String, String> headers = new LinkedCaseInsensitiveMap<>();
+    private final byte[] body;
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+    private final String scheme;
+    private final String serverName;
+    private final int serverPort;
+    private final boolean secure;
+    private final String protocol;
+    private final String contextPath;
+    private final Locale locale;
+    private final List<Locale> locales;
+    private final String remoteAddr;
+    private final String remoteHost;
+    private final int remotePort;
+
+    BatchSubRequest(HttpServletRequest batch, String method, String uri, byte[] body) {
+        super(batch);
+        UriComponents components = UriComponentsBuilder.fromUriString(uri).build();
+        this.method = method;
+        this.path = components.getPath();
+        this.queryString = components.getQuery();
+        components.getQueryParams().forEach((name, values) -> parameters.put(decode(name),
+                values.stream().map(value -> value == null ? "" : decode(value)).toArray(String[]::new)));
+        this.body = body;
+        this.scheme = batch.getScheme();
+        this.serverName = batch.getServerName();
+        this.serverPort = batch.getServerPort();
+        this.secure = batch.isSecure();
+        this.protocol = batch.getProtocol();
+        this.contextPath = batch.getContextPath();
+        this.locale = batch.getLocale();
+        this.locales = Collections.list(batch.getLocales());
+        this.remoteAddr = batch.getRemoteAddr();
+        this.remoteHost = batch.getRemoteHost();
+        this.remotePort = batch.getRemotePort();
+
+        headers.put(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE);
+        if (body != null) {
+            headers.put(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
+            headers.put(HttpHeaders.CONTENT_LENGTH, String.valueOf(body.length));
+        }
+    }
+
+    @Override
+    public String getMethod() {
+        return method;
+    }
+
+    @Override
+    public String getRequestURI() {
+        return getContextPath() + path;
+    }
+
+    @Override
+    public StringBuffer getRequestURL() {
+        return new StringBuffer(getScheme()).append("://").append(getServerName()).append(':')
+                .append(getServerPort()).append(getRequestURI());
+    }
+
+    @Override
+    public String getScheme() {
+        return scheme;
+    }
+
+    @Override
+    public String getServerName() {
+        return serverName;
+    }
+
+    @Override
+    public int getServerPort() {
+        return serverPort;
+    }
+
+    @Override
+    public boolean isSecure() {
+        return secure;
+    }
+
+    @Override
+    public String getProtocol() {
+        return protocol;
+    }
+
+    @Override
+    public String getContextPath() {
+        return contextPath;
+    }
+
+    @Override
+    public Locale getLocale() {
+        return locale;
+    }
+
+    @Override
+    public Enumeration<Locale> getLocales() {
+        return Collections.enumeration(locales);
+    }
+
+    @Override
+    public String getRemoteAddr() {
+        return remoteAddr;
+    }
+
+    @Override
+    public String getRemoteHost() {
+        return remoteHost;
+    }
+
+    @Override
+    public int getRemotePort() {
+        return remotePort;
+    }
+
+    // The sub-request only carries its own headers, so no Cookie header either
+    @Override
+    public Cookie[] getCookies() {
+        return null;
+    }
+
+    @Override
+    public HttpSession getSession(boolean create) {
+        synchronized (getRequest()) {
+            return super.getSession(create);
+        }
+    }
+
+    @Override
+    public HttpSession getSession() {
+        return getSession(true);
+    }
+
+    @Override
+    public String getServletPath() {
+        return path;
+    }
+
+    @Override
+    public String getPathInfo() {
+        return null;
+    }
+
+    @Override
+    public String getPathTranslated() {
+        return null;
+    }
+
+    @Override
+    public String getQueryString() {
+        return queryString;
+    }
+
+    @Override
+    public HttpServletMapping getHttpServletMapping() {
+        return MAPPING;
+    }
+
+    @Override
+    public DispatcherType getDispatcherType() {
+        return DispatcherType.REQUEST;
+    }
+
+    @Override
+    public String getParameter(String name) {
+        String[] values = parameters.get(name);
+        return values == null || values.length == 0 ? null : values[0];
+    }
+
+    @Override
+    public Map<String, String[]> getParameterMap() {
+        return Collections.unmodifiableMap(parameters);
+    }
+
+    @Override
+    public Enumeration<String> getParameterNames() {
+        return Collections.enumeration(parameters.keySet());
+    }
+
+    @Override
+    public String[] getParameterValues(String name) {
+        return parameters.get(name);
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    @Override
+    public Enumeration<String> getAttributeNames() {
+        return Collections.enumeration(attributes.keySet());
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        if (value == null) attributes.remove(name);
+        else attributes.put(name, value);
+    }
+
+    @Override
+    public void removeAttribute(String name) {
+        attributes.remove(name);
+    }
+
+    @Override
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    @Override
+    public Enumeration<String> getHeaders(String name) {
+        String value = headers.get(name);
+        return value == null ? Collections.emptyEnumeration() : Collections.enumeration(List.of(value));
+    }
+
+    @Override
+    public Enumeration<String> getHeaderNames() {
+        return Collections.enumeration(headers.keySet());
+    }
+
+    @Override
+    public int getIntHeader(String name) {
+        String value = headers.get(name);
+        return value == null ? -1 : Integer.parseInt(value);
+    }
+
+    @Override
+    public long getDateHeader(String name) {
+        return -1;
+    }
+
+    @Override
+    public String getContentType() {
+        return headers.get(HttpHeaders.CONTENT_TYPE);
+    }
+
+    @Override
+    public int getContentLength() {
+        return body == null ? -1 : body.length;
+    }
+
+    @Override
+    public long getContentLengthLong() {
+        return getContentLength();
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+        return StandardCharsets.UTF_8.name();
+    }
+
+    @Override
+    public void setCharacterEncoding(String encoding) {
+    }
+
+    @Override
+    public void setCharacterEncoding(Charset encoding) {
+    }
+
+    @Override
+    public ServletInputStream getInputStream() {
+        var in = new ByteArrayInputStream(body == null ? new byte[0] : body);
+        return new ServletInputStream() {
+            @Override
+            public int read() {
+                return in.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                return in.read(b, off, len);
+            }
+
+            @Override
+            public boolean isFinished() {
+                return in.available() == 0;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener listener) {
+                throw new IllegalStateException("Sub-requests of a batch are not asynchronous");
+            }
+        };
+    }
+
+    @Override
+    public BufferedReader getReader() {
+        return new BufferedReader(new InputStreamReader(getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public boolean isAsyncSupported() {
+        return false;
+    }
+
+    @Override
+    public boolean isAsyncStarted() {
+        return false;
+    }
+
+    private static String decode(String value) {
+        return UriUtils.decode(value, StandardCharsets.UTF_8);
+    }
+}
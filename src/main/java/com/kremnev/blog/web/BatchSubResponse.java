@@ -0,0 +1,302 @@
+package com.kremnev.blog.web;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Collects the status, headers and body of one request of a batch in memory; nothing
+ * reaches the batch response it wraps.
+ */
+final class BatchSubResponse extends HttpServletResponseWrapper {
+
+    private final Map<String, List<String>> headers = new LinkedCaseInsensitiveMap<>();
+    private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+    private int status = SC_OK;
+    private String errorMessage;
+    private String contentType;
+    private Charset characterEncoding = StandardCharsets.UTF_8;
+    private ServletOutputStream outputStream;
+    private PrintWriter writer;
+    private boolean committed;
+    private Locale locale;
+
+    BatchSubResponse(HttpServletResponse batch) {
+        super(batch);
+        // Copied for the same reason as BatchSubRequest's connection details
+        this.locale = batch.getLocale();
+    }
+
+    byte[] getContent() {
+        if (writer != null) writer.flush();
+        return content.toByteArray();
+    }
+
+    // Set when the handler ended with sendError rather than writing a body
+    String getErrorMessage() {
+        return errorMessage;
+    }
+
+    // The first value of each header, Content-Type included
+    Map<String, String> getHeaderValues() {
+        var values = new LinkedHashMap<String, String>();
+        if (contentType != null) values.put(HttpHeaders.CONTENT_TYPE, contentType);
+        headers.forEach((name, list) -> values.put(name, list.getFirst()));
+        return values;
+    }
+
+    @Override
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    @Override
+    public int getStatus() {
+        return status;
+    }
+
+    @Override
+    public void sendError(int status) {
+        sendError(status, null);
+    }
+
+    @Override
+    public void sendError(int status, String message) {
+        this.status = status;
+        this.errorMessage = message;
+        committed = true;
+    }
+
+    @Override
+    public void sendRedirect(String location) {
+        sendRedirect(location, SC_FOUND, true);
+    }
+
+    @Override
+    public void sendRedirect(String location, int status) {
+        sendRedirect(location, status, true);
+    }
+
+    @Override
+    public void sendRedirect(String location, boolean clearBuffer) {
+        sendRedirect(location, SC_FOUND, clearBuffer);
+    }
+
+    @Override
+    public void sendRedirect(String location, int status, boolean clearBuffer) {
+        if (clearBuffer) resetBuffer();
+        this.status = status;
+        setHeader(HttpHeaders.LOCATION, location);
+        committed = true;
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        if (HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(name)) {
+            setContentType(value);
+            return;
+        }
+        if (value == null) headers.remove(name);
+        else headers.put(name, new ArrayList<>(List.of(value)));
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        if (HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(name)) {
+            setContentType(value);
+            return;
+        }
+        if (value != null) headers.computeIfAbsent(name, key -> new ArrayList<>()).add(value);
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+        setHeader(name, String.valueOf(value));
+    }
+
+    @Override
+    public void addIntHeader(String name, int value) {
+        addHeader(name, String.valueOf(value));
+    }
+
+    @Override
+    public void setDateHeader(String name, long date) {
+        setHeader(name, formatDate(date));
+    }
+
+    @Override
+    public void addDateHeader(String name, long date) {
+        addHeader(name, formatDate(date));
+    }
+
+    @Override
+    public boolean containsHeader(String name) {
+        return headers.containsKey(name) || (HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(name) && contentType != null);
+    }
+
+    @Override
+    public String getHeader(String name) {
+        if (HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(name)) return contentType;
+        List<String> values = headers.get(name);
+        return values == null ? null : values.getFirst();
+    }
+
+    @Override
+    public Collection<String> getHeaders(String name) {
+        if (HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(name)) return contentType == null ? List.of() : List.of(contentType);
+        return headers.getOrDefault(name, List.of());
+    }
+
+    @Override
+    public Collection<String> getHeaderNames() {
+        var names = new ArrayList<>(headers.keySet());
+        if (contentType != null) names.add(HttpHeaders.CONTENT_TYPE);
+        return names;
+    }
+
+    @Override
+    public void addCookie(Cookie cookie) {
+    }
+
+    @Override
+    public void setContentType(String type) {
+        if (type == null) {
+            contentType = null;
+            return;
+        }
+        MediaType mediaType = MediaType.parseMediaType(type);
+        if (mediaType.getCharset() != null) characterEncoding = mediaType.getCharset();
+        contentType = type;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public void setCharacterEncoding(String encoding) {
+        if (encoding != null) characterEncoding = Charset.forName(encoding);
+    }
+
+    @Override
+    public void setCharacterEncoding(Charset encoding) {
+        if (encoding != null) characterEncoding = encoding;
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+        return characterEncoding.name();
+    }
+
+    @Override
+    public void setContentLength(int length) {
+    }
+
+    @Override
+    public void setContentLengthLong(long length) {
+    }
+
+    @Override
+    public void setLocale(Locale locale) {
+        if (locale != null) this.locale = locale;
+    }
+
+    @Override
+    public Locale getLocale() {
+        return locale;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+        if (outputStream == null) {
+            outputStream = new ServletOutputStream() {
+                @Override
+                public void write(int b) {
+                    content.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    content.write(b, off, len);
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setWriteListener(WriteListener listener) {
+                    throw new IllegalStateException("Sub-requests of a batch are not asynchronous");
+                }
+            };
+        }
+        return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() {
+        if (writer == null) writer = new PrintWriter(new OutputStreamWriter(content, characterEncoding));
+        return writer;
+    }
+
+    @Override
+    public void setBufferSize(int size) {
+    }
+
+    @Override
+    public int getBufferSize() {
+        return content.size();
+    }
+
+    @Override
+    public void flushBuffer() {
+        if (writer != null) writer.flush();
+        committed = true;
+    }
+
+    @Override
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    @Override
+    public void reset() {
+        resetBuffer();
+        headers.clear();
+        contentType = null;
+        status = SC_OK;
+    }
+
+    @Override
+    public void resetBuffer() {
+        if (committed) throw new IllegalStateException("Response already committed");
+        if (writer != null) writer.flush();
+        content.reset();
+    }
+
+    private static String formatDate(long epochMillis) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(epochMillis).atOffset(ZoneOffset.UTC));
+    }
+}
@@ -0,0 +1,214 @@
+package com.kremnev.blog.web;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Writes a file to the response with conditional GET and byte range support (RFC 9110).
+ * Bodies go through {@link FileChannel#transferTo}; on Tomcat, large single-part bodies are
+ * handed to the connector's sendfile instead, so the bytes never enter the JVM. Payloads
+ * already held in a (direct) buffer are written with {@code ServletOutputStream#write(ByteBuffer)}.
+ */
+@Component
+public class FileResponseWriter {
+    private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    // Below this size a buffered write is cheaper than a sendfile round trip (Tomcat's default)
+    private static final long SENDFILE_THRESHOLD = 48 * 1024;
+
+    private record Part(long start, long end) {
+        long length() {
+            return end - start + 1;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Body {
+        void transfer(long start, long count, boolean sendfileAllowed) throws IOException;
+    }
+
+    public void write(HttpServletRequest request, HttpServletResponse response, Path file, long length,
+                      String contentType, String etag, CacheControl cacheControl) throws IOException {
+        write(request, response, length, contentType, etag, cacheControl,
+                (start, count, sendfileAllowed) -> transfer(request, response, file, start, count, sendfileAllowed));
+    }
+
+    public void write(HttpServletRequest request, HttpServletResponse response, ByteBuffer bytes,
+                      String contentType, String etag, CacheControl cacheControl) throws IOException {
+        write(request, response, bytes.remaining(), contentType, etag, cacheControl, (start, count, sendfileAllowed) -> {
+            ByteBuffer slice = bytes.slice((int) (bytes.position() + start), (int) count);
+            response.getOutputStream().write(slice);
+        });
+    }
+
+    private void write(HttpServletRequest request, HttpServletResponse response, long length,
+                       String contentType, String etag, CacheControl cacheControl, Body body) throws IOException {
+        AdmissionControlInterceptor.markHandled(request);
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl.getHeaderValue());
+
+        if (matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        boolean headOnly = "HEAD".equals(request.getMethod());
+        List<HttpRange> ranges = parseRanges(request.getHeader(HttpHeaders.RANGE));
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ranges == null || (ifRange != null && !ifRange.equals(etag))) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType(contentType);
+            response.setContentLengthLong(length);
+            if (!headOnly) body.transfer(0, length, true);
+            return;
+        }
+
+        List<Part> parts = parseParts(ranges, length);
+        if (parts.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        if (parts.size() == 1) {
+            Part part = parts.get(0);
+            response.setContentType(contentType);
+            response.setContentLengthLong(part.length());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, contentRange(part, length));
+            if (!headOnly) body.transfer(part.start, part.length(), true);
+            return;
+        }
+
+        String boundary = HexFormat.of().toHexDigits(ThreadLocalRandom.current().nextLong());
+        List<byte[]> partHeaders = new ArrayList<>(parts.size());
+        long contentLength = 0;
+        for (Part part : parts) {
+            byte[] header = ("\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": " + contentRange(part, length) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(header);
+            contentLength += header.length + part.length();
+        }
+        byte[] trailer = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength += trailer.length;
+
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+        if (headOnly) return;
+
+        OutputStream out = response.getOutputStream();
+        for (int i = 0; i < parts.size(); i++) {
+            out.write(partHeaders.get(i));
+            body.transfer(parts.get(i).start, parts.get(i).length(), false);
+        }
+        out.write(trailer);
+    }
+
+    private void transfer(HttpServletRequest request, HttpServletResponse response, Path file,
+                          long start, long count, boolean sendfileAllowed) throws IOException {
+        if (sendfileAllowed && count >= SENDFILE_THRESHOLD
+                && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR))) {
+            request.setAttribute(SENDFILE_FILENAME_ATTR, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START_ATTR, start);
+            request.setAttribute(SENDFILE_END_ATTR, start + count);
+            return;
+        }
+
+        WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = start;
+            long remaining = count;
+            while (remaining > 0) {
+                long sent = channel.transferTo(position, remaining, out);
+                if (sent <= 0) throw new IOException("File " + file + " shrank while it was being sent");
+                position += sent;
+                remaining -= sent;
+            }
+        }
+    }
+
+    // Null when there is no Range header or it cannot be parsed: RFC 9110 says to ignore an
+    // invalid one and send the whole file
+    private static List<HttpRange> parseRanges(String rangeHeader) {
+        if (rangeHeader == null) return null;
+        try {
+            List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
+            return ranges.isEmpty() ? null : ranges;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The satisfiable ranges in ascending order, with overlapping and adjacent ones merged, so
+     * the body is never longer than the file plus part headers. Like Spring's
+     * {@code HttpRange.toResourceRegions}, a request whose ranges add up to more than the file
+     * is refused outright (an empty list, answered with 416).
+     */
+    private static List<Part> parseParts(List<HttpRange> ranges, long length) {
+        List<Part> parts = new ArrayList<>(ranges.size());
+        long requested = 0;
+        for (HttpRange range : ranges) {
+            try {
+                long start = range.getRangeStart(length);
+                long end = range.getRangeEnd(length);
+                if (start < length && start <= end) {
+                    parts.add(new Part(start, end));
+                    requested += end - start + 1;
+                }
+            } catch (IllegalArgumentException e) {
+                // Unsatisfiable on its own; the request fails only if no range is satisfiable
+            }
+        }
+        if (requested > length) return List.of();
+
+        parts.sort(Comparator.comparingLong(Part::start));
+        List<Part> merged = new ArrayList<>(parts.size());
+        for (Part part : parts) {
+            Part last = merged.isEmpty() ? null : merged.getLast();
+            if (last != null && part.start <= last.end + 1)
+                merged.set(merged.size() - 1, new Part(last.start, Math.max(last.end, part.end)));
+            else
+                merged.add(part);
+        }
+        return merged;
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) return true;
+        }
+        return false;
+    }
+
+    private static String contentRange(Part part, long length) {
+        return "bytes " + part.start + "-" + part.end + "/" + length;
+    }
+}
@@ -0,0 +1,38 @@
+package com.kremnev.blog.web;
+
+import com.kremnev.blog.concurrency.BulkheadFullException;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import java.util.Map;
+
+// A full bulkhead is a transient overload, not a server bug: tell the client to come back shortly
+@RestControllerAdvice
+public class OverloadExceptionHandler {
+    static final String RETRY_AFTER_SECONDS = "1";
+    static final String BUSY_MESSAGE = "Server is busy, please retry";
+    static final String TOO_SLOW_MESSAGE = "The request took too long, please narrow it down";
+
+    @ExceptionHandler({BulkheadFullException.class, CannotGetJdbcConnectionException.class})
+    public ResponseEntity<Map<String, String>> handleOverload(RuntimeException ex, HttpServletRequest request) {
+        AdmissionControlInterceptor.markDropped(request);
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                .body(Map.of("message", BUSY_MESSAGE));
+    }
+
+    // Past its query budget, see QueryBudgetInterceptor. No Retry-After: the same search would likely run out again.
+    // One expensive request is no sign of overload, so it must not shrink the route's admission limit either
+    @ExceptionHandler(QueryTimeoutException.class)
+    public ResponseEntity<Map<String, String>> handleQueryTimeout(QueryTimeoutException ex, HttpServletRequest request) {
+        AdmissionControlInterceptor.markUnsampled(request);
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(Map.of("message", TOO_SLOW_MESSAGE));
+    }
+}
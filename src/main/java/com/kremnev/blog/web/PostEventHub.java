@@ -0,0 +1,277 @@
+package com.kremnev.blog.web;
+
+import com.kremnev.blog.concurrency.BulkheadFullException;
+import com.kremnev.blog.dto.PostDto;
+import com.kremnev.blog.model.Post;
+import com.kremnev.blog.model.PostField;
+import com.kremnev.blog.service.PostCountsChanged;
+import com.kremnev.blog.service.PostService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Fans post count updates out to the SSE subscribers of each post. Open streams are async
+ * requests, so an idle subscriber holds no thread, only its emitter.
+ *
+ * <p>Changes are coalesced per post: the first one schedules a push no sooner than
+ * {@code events.min-interval} after the previous push, later ones until then ride along, and
+ * the push reads the counts once and sends them to every subscriber. Nothing is read for
+ * posts nobody is watching.
+ *
+ * <p>Each subscriber is written on a virtual thread of its own. While a send to it is still in
+ * progress, newer counts replace the ones waiting behind it, so a stalled peer ties up one
+ * thread and delays nobody else.
+ *
+ * <p>Every open stream holds a server connection, so at most {@code events.max-subscribers} are
+ * open at once and the rest of {@code server.tomcat.max-connections} stays free for the API.
+ */
+@Component
+public class PostEventHub implements DisposableBean {
+    static final String COUNTS_EVENT = "counts";
+    static final String DELETED_EVENT = "deleted";
+    private static final Logger log = LoggerFactory.getLogger(PostEventHub.class);
+    private static final Set<PostField> COUNT_FIELDS = EnumSet.of(PostField.LIKES_COUNT, PostField.COMMENTS_COUNT);
+
+    // An event waiting to be sent; asOfNanos is when the counts in it were read
+    private record Outgoing(String name, String data, long asOfNanos, boolean last) {
+        static final Outgoing HEARTBEAT = new Outgoing(null, null, 0, false);
+
+        boolean isHeartbeat() {
+            return name == null;
+        }
+    }
+
+    private static final class Subscriber {
+        final SseEmitter emitter;
+        final AtomicReference<Outgoing> pending = new AtomicReference<>();
+        final AtomicBoolean sending = new AtomicBoolean();
+        // Only touched by the thread holding sending
+        boolean sentCounts;
+        long sentAsOfNanos;
+
+        Subscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+    }
+
+    private static final class Topic {
+        final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+        final AtomicBoolean pushScheduled = new AtomicBoolean();
+        volatile long lastPushNanos;
+
+        Topic(long minIntervalNanos) {
+            // The first change is pushed straight away
+            lastPushNanos = System.nanoTime() - minIntervalNanos;
+        }
+    }
+
+    private final PostService postService;
+    private final ObjectMapper objectMapper;
+    private final long minIntervalNanos;
+    private final long timeoutMillis;
+    private final int maxSubscribers;
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final ConcurrentHashMap<Long, Topic> topics = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService senders;
+    private final Counter pushes;
+    private final Counter coalesced;
+    private final Counter stalled;
+    private final Counter rejected;
+
+    public PostEventHub(PostService postService, ObjectMapper objectMapper,
+                        @Value("${events.min-interval:1s}") Duration minInterval,
+                        @Value("${events.timeout:30m}") Duration timeout,
+                        @Value("${events.max-subscribers:30000}") int maxSubscribers,
+                        MeterRegistry registry) {
+        this.postService = postService;
+        this.objectMapper = objectMapper;
+        this.minIntervalNanos = minInterval.toNanos();
+        this.timeoutMillis = timeout.toMillis();
+        this.maxSubscribers = maxSubscribers;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+                .name("post-events")
+                .daemon(true)
+                .factory());
+        this.senders = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("post-events-push-", 0).factory());
+        this.pushes = registry.counter("blog.events.pushes");
+        this.coalesced = registry.counter("blog.events.coalesced");
+        this.stalled = registry.counter("blog.events.stalled");
+        this.rejected = registry.counter("blog.events.rejected");
+        Gauge.builder("blog.events.subscribers", this, PostEventHub::subscriberCount).register(registry);
+    }
+
+    /**
+     * Opens a stream for the post, starting with its current counts; empty if there is no such
+     * post.
+     *
+     * @throws BulkheadFullException if {@code events.max-subscribers} streams are already open
+     */
+    public Optional<SseEmitter> subscribe(long postId) {
+        if (subscribers.incrementAndGet() > maxSubscribers) {
+            subscribers.decrementAndGet();
+            rejected.increment();
+            throw new BulkheadFullException("event stream");
+        }
+        var subscriber = new Subscriber(new SseEmitter(timeoutMillis));
+        topics.compute(postId, (id, topic) -> {
+            if (topic == null) topic = new Topic(minIntervalNanos);
+            topic.subscribers.add(subscriber);
+            return topic;
+        });
+        subscriber.emitter.onCompletion(() -> unsubscribe(postId, subscriber));
+        subscriber.emitter.onTimeout(() -> unsubscribe(postId, subscriber));
+        subscriber.emitter.onError(e -> unsubscribe(postId, subscriber));
+
+        // Read after registering, so a change committed in between is pushed rather than lost
+        long asOf = System.nanoTime();
+        Optional<Post> post = postService.getById(postId, COUNT_FIELDS);
+        if (post.isEmpty()) {
+            unsubscribe(postId, subscriber);
+            return Optional.empty();
+        }
+        // On this thread: the emitter is not handed to the container yet and only buffers it
+        deliver(postId, subscriber, new Outgoing(COUNTS_EVENT, countsJson(post.get()), asOf, false), Runnable::run);
+        return Optional.of(subscriber.emitter);
+    }
+
+    // After commit, so a rolled-back like or comment is never announced
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCountsChanged(PostCountsChanged event) {
+        Topic topic = topics.get(event.postId());
+        if (topic == null) return;
+        if (!topic.pushScheduled.compareAndSet(false, true)) {
+            coalesced.increment();
+            return;
+        }
+
+        long delay = Math.max(0, topic.lastPushNanos + minIntervalNanos - System.nanoTime());
+        scheduler.schedule(() -> senders.execute(() -> push(event.postId(), topic)), delay, TimeUnit.NANOSECONDS);
+    }
+
+    // Keeps proxies from closing quiet streams and finds subscribers that went away
+    @Scheduled(fixedDelayString = "${events.heartbeat:30s}", initialDelayString = "${events.heartbeat:30s}")
+    public void heartbeat() {
+        topics.forEach((postId, topic) -> topic.subscribers.forEach(subscriber ->
+                deliver(postId, subscriber, Outgoing.HEARTBEAT, senders)));
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+        senders.shutdown();
+        topics.values().forEach(topic -> topic.subscribers.forEach(subscriber -> subscriber.emitter.complete()));
+    }
+
+    int subscriberCount() {
+        return topics.values().stream().mapToInt(topic -> topic.subscribers.size()).sum();
+    }
+
+    private void push(long postId, Topic topic) {
+        // Cleared before the read, so a change arriving while it runs schedules the next push
+        topic.pushScheduled.set(false);
+        topic.lastPushNanos = System.nanoTime();
+        pushes.increment();
+
+        long asOf = System.nanoTime();
+        Optional<Post> post;
+        try {
+            post = postService.getById(postId, COUNT_FIELDS);
+        } catch (RuntimeException e) {
+            log.warn("Could not read counts of post {}", postId, e);
+            return;
+        }
+        Outgoing event = post.isEmpty()
+                ? new Outgoing(DELETED_EVENT, "{}", asOf, true)
+                : new Outgoing(COUNTS_EVENT, countsJson(post.get()), asOf, false);
+        topic.subscribers.forEach(subscriber -> deliver(postId, subscriber, event, senders));
+    }
+
+    // Queues the event and starts a sender unless one is still busy with this subscriber
+    private void deliver(long postId, Subscriber subscriber, Outgoing event, Executor executor) {
+        subscriber.pending.accumulateAndGet(event, PostEventHub::supersede);
+        if (subscriber.sending.compareAndSet(false, true)) executor.execute(() -> drain(postId, subscriber));
+        else stalled.increment();
+    }
+
+    // Deleted is final, and a heartbeat never displaces counts or counts older ones
+    private static Outgoing supersede(Outgoing waiting, Outgoing next) {
+        if (waiting == null) return next;
+        if (waiting.last() || next.isHeartbeat()) return waiting;
+        if (!waiting.isHeartbeat() && next.asOfNanos() - waiting.asOfNanos() < 0) return waiting;
+        return next;
+    }
+
+    private void drain(long postId, Subscriber subscriber) {
+        do {
+            Outgoing event;
+            while ((event = subscriber.pending.getAndSet(null)) != null) {
+                if (!event.isHeartbeat() && subscriber.sentCounts && event.asOfNanos() - subscriber.sentAsOfNanos < 0)
+                    continue;
+                // A failed subscriber keeps sending set, so nothing more is started for it
+                if (!send(postId, subscriber, event)) return;
+                if (!event.isHeartbeat()) {
+                    subscriber.sentCounts = true;
+                    subscriber.sentAsOfNanos = event.asOfNanos();
+                }
+                if (event.last()) {
+                    subscriber.emitter.complete();
+                    return;
+                }
+            }
+            subscriber.sending.set(false);
+            // An event queued after the loop emptied found the sender still busy
+        } while (subscriber.pending.get() != null && subscriber.sending.compareAndSet(false, true));
+    }
+
+    private boolean send(long postId, Subscriber subscriber, Outgoing event) {
+        try {
+            subscriber.emitter.send(event.isHeartbeat()
+                    ? SseEmitter.event().comment("")
+                    : SseEmitter.event().name(event.name()).data(event.data()));
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            unsubscribe(postId, subscriber);
+            return false;
+        }
+    }
+
+    // Completion, timeout and a failed send may all report the same subscriber; it is counted once
+    private void unsubscribe(long postId, Subscriber subscriber) {
+        var removed = new AtomicBoolean();
+        topics.computeIfPresent(postId, (id, topic) -> {
+            removed.set(topic.subscribers.remove(subscriber));
+            return topic.subscribers.isEmpty() ? null : topic;
+        });
+        if (removed.get()) subscribers.decrementAndGet();
+    }
+
+    private String countsJson(Post post) {
+        return objectMapper.writeValueAsString(PostDto.from(post, COUNT_FIELDS));
+    }
+}
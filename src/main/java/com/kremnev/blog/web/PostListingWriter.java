@@ -0,0 +1,123 @@
+package com.kremnev.blog.web;
+
+import com.kremnev.blog.model.Post;
+import com.kremnev.blog.model.PostField;
+import com.kremnev.blog.model.PostsResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.HttpMediaTypeNotAcceptableException;
+import org.springframework.web.accept.ContentNegotiationManager;
+import org.springframework.web.context.request.ServletWebRequest;
+import tools.jackson.core.JsonGenerator;
+import tools.jackson.core.SerializableString;
+import tools.jackson.core.StreamWriteFeature;
+import tools.jackson.core.io.SerializedString;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.ObjectWriter;
+import tools.jackson.dataformat.cbor.CBORMapper;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes a post listing in the {@link com.kremnev.blog.dto.PostsResponseDto} shape token by
+ * token from the loaded page, instead of building DTOs and a tree first. The tokens go to a
+ * JSON or a CBOR generator, whichever the request accepts.
+ */
+@Component
+public class PostListingWriter {
+    private static final SerializableString POSTS = new SerializedString("posts");
+    private static final SerializableString ID = new SerializedString("id");
+    private static final SerializableString TITLE = new SerializedString("title");
+    private static final SerializableString TEXT = new SerializedString("text");
+    private static final SerializableString TAGS = new SerializedString("tags");
+    private static final SerializableString LIKES_COUNT = new SerializedString("likesCount");
+    private static final SerializableString COMMENTS_COUNT = new SerializedString("commentsCount");
+
+    private static final List<MediaType> PRODUCIBLE = List.of(MediaType.APPLICATION_JSON, MediaType.APPLICATION_CBOR);
+
+    private final ObjectWriter jsonWriter;
+    private final ObjectWriter cborWriter;
+    private final ContentNegotiationManager contentNegotiationManager;
+
+    public PostListingWriter(ObjectMapper objectMapper, CBORMapper cborMapper,
+                             ContentNegotiationManager contentNegotiationManager) {
+        this.jsonWriter = streamingWriter(objectMapper);
+        this.cborWriter = streamingWriter(cborMapper);
+        this.contentNegotiationManager = contentNegotiationManager;
+    }
+
+    // The container owns the stream, and a failed listing must not be closed into a valid document
+    private static ObjectWriter streamingWriter(ObjectMapper mapper) {
+        return mapper.writer()
+                .without(StreamWriteFeature.AUTO_CLOSE_TARGET)
+                .without(StreamWriteFeature.AUTO_CLOSE_CONTENT);
+    }
+
+    /**
+     * Writes the page, with only {@code fields} for each post.
+     */
+    public void write(HttpServletRequest request, HttpServletResponse response, Set<PostField> fields,
+                      PostsResponse page)
+            throws IOException, HttpMediaTypeNotAcceptableException {
+        MediaType mediaType = negotiate(request);
+        AdmissionControlInterceptor.markHandled(request);
+        response.setContentType(mediaType.toString());
+        ObjectWriter writer = mediaType.equals(MediaType.APPLICATION_CBOR) ? cborWriter : jsonWriter;
+        JsonGenerator json = writer.createGenerator(response.getOutputStream());
+
+        json.writeStartObject();
+        json.writeName(POSTS);
+        json.writeStartArray();
+        for (Post post : page.getPosts()) writePost(json, post, fields);
+        json.writeEndArray();
+        json.writeBooleanProperty("hasPrev", page.getHasPrev());
+        json.writeBooleanProperty("hasNext", page.getHasNext());
+        json.writeNumberProperty("lastPage", page.getLastPage());
+        json.writeEndObject();
+        // Only on success: a listing that failed part way stays truncated, so clients cannot mistake it for a full one
+        json.close();
+    }
+
+    // The first accepted type we can produce, in the client's order of preference; JSON for */*
+    private MediaType negotiate(HttpServletRequest request) throws HttpMediaTypeNotAcceptableException {
+        for (MediaType accepted : contentNegotiationManager.resolveMediaTypes(new ServletWebRequest(request))) {
+            for (MediaType producible : PRODUCIBLE) {
+                if (accepted.includes(producible)) return producible;
+            }
+        }
+        throw new HttpMediaTypeNotAcceptableException(PRODUCIBLE);
+    }
+
+    private static void writePost(JsonGenerator json, Post post, Set<PostField> fields) {
+        json.writeStartObject();
+        json.writeName(ID);
+        json.writeNumber(post.getId());
+        if (fields.contains(PostField.TITLE)) {
+            json.writeName(TITLE);
+            json.writeString(post.getTitle());
+        }
+        if (fields.contains(PostField.TEXT)) {
+            json.writeName(TEXT);
+            json.writeString(post.getText());
+        }
+        if (fields.contains(PostField.TAGS)) {
+            json.writeName(TAGS);
+            json.writeStartArray();
+            for (String tag : post.getTags()) json.writeString(tag);
+            json.writeEndArray();
+        }
+        if (fields.contains(PostField.LIKES_COUNT)) {
+            json.writeName(LIKES_COUNT);
+            json.writeNumber(post.getLikesCount());
+        }
+        if (fields.contains(PostField.COMMENTS_COUNT)) {
+            json.writeName(COMMENTS_COUNT);
+            json.writeNumber(post.getCommentsCount());
+        }
+        json.writeEndObject();
+    }
+}
@@ -0,0 +1,73 @@
+package com.kremnev.blog.web;
+
+import com.kremnev.blog.concurrency.QueryBudget;
+import com.kremnev.blog.controller.CommentsController;
+import com.kremnev.blog.controller.PostController;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Opens a {@link QueryBudget} for each request to the post and comment controllers: how long
+ * after it reaches the handler its statements may still run. It is
+ * {@code queries.budget.default} unless {@code queries.budget.routes} has an entry for the
+ * route, keyed like {@code "GET /api/posts"}. A request past its budget gets a 503 from
+ * {@link OverloadExceptionHandler}. Image requests are left out: an upload spends most of its
+ * time reading the body before its one write.
+ */
+@Component
+public class QueryBudgetInterceptor implements AsyncHandlerInterceptor {
+    private static final String BUDGET_ATTR = QueryBudgetInterceptor.class.getName() + ".budget";
+    private static final Set<Class<?>> GUARDED = Set.of(PostController.class, CommentsController.class);
+
+    private final Duration defaultBudget;
+    private final Map<String, Duration> routeBudgets;
+
+    public QueryBudgetInterceptor(@Value("${queries.budget.default:5s}") Duration defaultBudget, Environment environment) {
+        this.defaultBudget = defaultBudget;
+        this.routeBudgets = Binder.get(environment)
+                .bind("queries.budget.routes", Bindable.mapOf(String.class, Duration.class))
+                .orElse(Map.of());
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (!(handler instanceof HandlerMethod method) || !GUARDED.contains(method.getBeanType())) return true;
+
+        String route = request.getMethod() + " " + request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        request.setAttribute(BUDGET_ATTR, QueryBudget.open(route, routeBudgets.getOrDefault(route, defaultBudget)));
+        return true;
+    }
+
+    // The thread goes back to the container; an async dispatch opens a budget of its own
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        close(request);
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        close(request);
+    }
+
+    Duration getBudget(String route) {
+        return routeBudgets.getOrDefault(route, defaultBudget);
+    }
+
+    private static void close(HttpServletRequest request) {
+        if (!(request.getAttribute(BUDGET_ATTR) instanceof QueryBudget budget)) return;
+        request.removeAttribute(BUDGET_ATTR);
+        budget.close();
+    }
+}
@@ -0,0 +1,75 @@
+package com.kremnev.blog.benchmark;
+
+import com.kremnev.blog.service.BlobLayout;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+/**
+ * Lookup latency of a flat blob directory against the sharded layout. Creates
+ * {@code benchmark.entries} empty files (1M by default) in each layout, so it is skipped
+ * unless run with {@code -Dbenchmarks=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmarks", matches = "true")
+@DisplayName("BlobLayout Benchmark")
+class BlobLayoutBenchmark {
+
+    private static final int ENTRIES = Integer.getInteger("benchmark.entries", 1_000_000);
+    private static final int LOOKUPS = Integer.getInteger("benchmark.lookups", 100_000);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("Lookup latency at benchmark.entries files, flat vs. sharded")
+    void lookupLatency() throws IOException {
+        String[] hashes = new String[ENTRIES];
+        for (int i = 0; i < ENTRIES; i++) {
+            hashes[i] = HexFormat.of().toHexDigits(ThreadLocalRandom.current().nextLong())
+                    + HexFormat.of().toHexDigits(ThreadLocalRandom.current().nextLong());
+        }
+
+        for (int depth : new int[]{0, 2}) {
+            BlobLayout layout = new BlobLayout(tempDir.resolve("depth-" + depth).toString(), depth);
+            for (String hash : hashes) {
+                Path blob = layout.blobPath(hash);
+                Files.createDirectories(blob.getParent());
+                Files.createFile(blob);
+            }
+            report(depth, layout, hashes);
+        }
+    }
+
+    private static void report(int depth, BlobLayout layout, String[] hashes) throws IOException {
+        long[] nanos = new long[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            Path blob = layout.blobPath(hashes[ThreadLocalRandom.current().nextInt(hashes.length)]);
+            long start = System.nanoTime();
+            Files.readAttributes(blob, BasicFileAttributes.class);
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+
+        // What a backup or `ls` of the root pays
+        long listStart = System.nanoTime();
+        long listed;
+        try (Stream<Path> top = Files.list(layout.root().resolve("blobs"))) {
+            listed = top.count();
+        }
+        long listMillis = (System.nanoTime() - listStart) / 1_000_000;
+
+        System.out.printf("depth=%d entries=%d lookup p50=%dus p99=%dus max=%dus; top-level list: %d entries in %dms%n",
+                depth, hashes.length, nanos[LOOKUPS / 2] / 1000, nanos[LOOKUPS * 99 / 100] / 1000,
+                nanos[LOOKUPS - 1] / 1000, listed, listMillis);
+    }
+}
@@ -0,0 +1,143 @@
+package com.kremnev.blog.benchmark;
+
+import com.kremnev.blog.dto.PostDto;
+import com.kremnev.blog.dto.PostsResponseDto;
+import com.kremnev.blog.model.PostField;
+import com.kremnev.blog.model.PostsResponse;
+import com.kremnev.blog.service.PostService;
+import com.kremnev.blog.web.PostListingWriter;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.ActiveProfiles;
+import tools.jackson.databind.ObjectMapper;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Allocation and time per listing page: DTOs and a Jackson tree against {@link PostListingWriter}
+ * writing the loaded page token by token. Both write into a discarding stream, so only the
+ * listing's own allocations are counted. Seeds {@code benchmark.posts} posts, so it is skipped
+ * unless run with {@code -Dbenchmarks=true}.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@EnabledIfSystemProperty(named = "benchmarks", matches = "true")
+@DisplayName("Post Listing Benchmark")
+class PostListingBenchmark {
+
+    private static final int POSTS = Integer.getInteger("benchmark.posts", 2_000);
+    private static final int PAGE_SIZE = Integer.getInteger("benchmark.page-size", 100);
+    private static final int ITERATIONS = Integer.getInteger("benchmark.iterations", 2_000);
+    private static final Set<PostField> ALL_FIELDS = EnumSet.allOf(PostField.class);
+
+    @Autowired
+    private PostService postService;
+
+    @Autowired
+    private PostListingWriter postListingWriter;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @FunctionalInterface
+    private interface Listing {
+        void write(int pageNumber) throws Exception;
+    }
+
+    @Test
+    @DisplayName("Bytes allocated and time per page, DTOs vs. token by token")
+    void allocationPerPage() throws Exception {
+        seed();
+        int pages = POSTS / PAGE_SIZE;
+        var discarding = new DiscardingResponse();
+
+        Listing dtos = pageNumber -> {
+            PostsResponse result = postService.getAll(null, pageNumber, PAGE_SIZE, ALL_FIELDS);
+            List<PostDto> dtoList = result.getPosts().stream().map(PostDto::from).toList();
+            objectMapper.writeValue(discarding.getOutputStream(),
+                    new PostsResponseDto(dtoList, result.getHasPrev(), result.getHasNext(), result.getLastPage()));
+        };
+        var request = new MockHttpServletRequest();
+        Listing tokens = pageNumber -> postListingWriter.write(request, discarding, ALL_FIELDS,
+                postService.getAll(null, pageNumber, PAGE_SIZE, ALL_FIELDS));
+        // H2 runs in this JVM, so its query work shows up in the totals; this isolates it
+        Listing queries = pageNumber -> postService.getAll(null, pageNumber, PAGE_SIZE, ALL_FIELDS);
+
+        for (int round = 0; round < 2; round++) {
+            // The first round is warm-up
+            report(round == 0 ? null : "dtos", dtos, pages);
+            report(round == 0 ? null : "tokens", tokens, pages);
+            report(round == 0 ? null : "queries", queries, pages);
+        }
+    }
+
+    private void seed() {
+        String text = "Lorem ipsum dolor sit amet. ".repeat(80);
+        List<Object[]> posts = new ArrayList<>();
+        for (int i = 0; i < POSTS; i++) posts.add(new Object[]{"Post " + i, text});
+        jdbcTemplate.batchUpdate("INSERT INTO posts (title, text) VALUES (?, ?)", posts);
+        for (String tag : List.of("java", "spring", "jdbc"))
+            jdbcTemplate.update("INSERT INTO tags (name) VALUES (?)", tag);
+        jdbcTemplate.update("INSERT INTO post_tags (post_id, tag_id) SELECT p.id, t.id FROM posts p CROSS JOIN tags t");
+    }
+
+    private static void report(String name, Listing listing, int pages) throws Exception {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().threadId();
+        long bytesBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) listing.write(i % pages + 1);
+        long nanos = System.nanoTime() - start;
+        long bytes = threads.getThreadAllocatedBytes(thread) - bytesBefore;
+
+        if (name != null)
+            System.out.printf("%-12s page of %d: %,d bytes allocated, %.1f us per page%n",
+                    name, PAGE_SIZE, bytes / ITERATIONS, nanos / 1e3 / ITERATIONS);
+    }
+
+    private static final class DiscardingResponse extends HttpServletResponseWrapper {
+        private final ServletOutputStream out = new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener listener) {
+            }
+        };
+
+        DiscardingResponse() {
+            super(new MockHttpServletResponse());
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return out;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.kremnev.blog.benchmark;
+
+import com.kremnev.blog.BlogApplication;
+import com.kremnev.blog.service.BlobService;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.server.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.mock.web.MockMultipartFile;
+
+import javax.imageio.ImageIO;
+import javax.sql.DataSource;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Throughput and latency of a mixed post/image workload on platform request threads against
+ * virtual threads. Every JDBC connection is held {@code benchmark.query-delay} longer than the
+ * query needs, standing in for slow queries, so the run shows whether image requests keep
+ * flowing while the database is saturated. Starts the application twice, so it is skipped
+ * unless run with {@code -Dbenchmarks=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmarks", matches = "true")
+@DisplayName("Request Execution Load Benchmark")
+class RequestExecutionLoadBenchmark {
+
+    private static final int CLIENTS = Integer.getInteger("benchmark.clients", 400);
+    private static final Duration RUN_TIME = Duration.ofSeconds(Long.getLong("benchmark.seconds", 15));
+    private static final long QUERY_DELAY_MILLIS = Long.getLong("benchmark.query-delay", 50);
+
+    @Test
+    @DisplayName("Mixed post and image requests, platform vs. virtual request threads")
+    void mixedWorkload() throws Exception {
+        for (boolean virtual : new boolean[]{false, true}) {
+            try (ConfigurableApplicationContext context = start(virtual)) {
+                int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+                long postId = seed(context);
+                run(virtual ? "virtual" : "platform", "http://localhost:" + port + "/api/posts/" + postId);
+            }
+        }
+    }
+
+    private static ConfigurableApplicationContext start(boolean virtual) {
+        String mode = virtual ? "virtual" : "platform";
+        return new SpringApplicationBuilder(BlogApplication.class)
+                .profiles("test")
+                .properties(
+                        "server.port=0",
+                        "spring.threads.virtual.enabled=" + virtual,
+                        "spring.datasource.url=jdbc:h2:mem:bench-" + mode + ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE",
+                        "uploads.root=target/benchmark-uploads/" + mode + "/")
+                .initializers(context -> context.getBeanFactory().addBeanPostProcessor(new SlowConnections()))
+                .run();
+    }
+
+    private static long seed(ConfigurableApplicationContext context) throws Exception {
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        jdbcTemplate.update("INSERT INTO posts (title, text) VALUES ('Benchmark', 'Content')");
+        long postId = jdbcTemplate.queryForObject("SELECT MAX(id) FROM posts", Long.class);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB), "png", out);
+        context.getBean(BlobService.class)
+                .upsert(postId, new MockMultipartFile("image", "image.png", "image/png", out.toByteArray()));
+        return postId;
+    }
+
+    private static void run(String mode, String postUrl) throws InterruptedException {
+        HttpClient client = HttpClient.newBuilder().executor(Executors.newVirtualThreadPerTaskExecutor()).build();
+        ConcurrentHashMap<String, ConcurrentLinkedQueue<Long>> latencies = new ConcurrentHashMap<>();
+        ConcurrentHashMap<Integer, Integer> statuses = new ConcurrentHashMap<>();
+        long deadline = System.nanoTime() + RUN_TIME.toNanos();
+
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < CLIENTS; i++) {
+                clients.submit(() -> {
+                    while (System.nanoTime() < deadline) {
+                        boolean image = ThreadLocalRandom.current().nextInt(4) != 0;
+                        String kind = image ? "image" : "post";
+                        HttpRequest request = HttpRequest.newBuilder(URI.create(image ? postUrl + "/image" : postUrl))
+                                .timeout(Duration.ofSeconds(30))
+                                .build();
+                        long start = System.nanoTime();
+                        try {
+                            int status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                            statuses.merge(status, 1, Integer::sum);
+                        } catch (Exception e) {
+                            statuses.merge(-1, 1, Integer::sum);
+                        }
+                        latencies.computeIfAbsent(kind, k -> new ConcurrentLinkedQueue<>()).add(System.nanoTime() - start);
+                    }
+                    return null;
+                });
+            }
+        }
+
+        System.out.printf("%s threads, %d clients, statuses %s%n", mode, CLIENTS, statuses);
+        latencies.forEach((kind, nanos) -> {
+            long[] sorted = nanos.stream().mapToLong(Long::longValue).sorted().toArray();
+            System.out.printf("  %-5s %8.0f req/s  p50 %6.1f ms  p99 %6.1f ms%n", kind,
+                    sorted.length / (double) RUN_TIME.toSeconds(),
+                    sorted[sorted.length / 2] / 1e6,
+                    sorted[(int) (sorted.length * 0.99)] / 1e6);
+        });
+    }
+
+    // Registered ahead of the application's post-processors, so the delay is spent inside the JDBC bulkhead
+    private static final class SlowConnections implements BeanPostProcessor {
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) {
+            if (!(bean instanceof DataSource dataSource)) return bean;
+            return new DelegatingDataSource(dataSource) {
+                @Override
+                public Connection getConnection() throws SQLException {
+                    Connection connection = super.getConnection();
+                    try {
+                        Thread.sleep(QUERY_DELAY_MILLIS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return connection;
+                }
+            };
+        }
+    }
+}
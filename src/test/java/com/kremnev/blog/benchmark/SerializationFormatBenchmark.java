@@ -0,0 +1,100 @@
+package com.kremnev.blog.benchmark;
+
+import com.kremnev.blog.dto.CommentDto;
+import com.kremnev.blog.dto.PostDto;
+import com.kremnev.blog.dto.PostsResponseDto;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import tools.jackson.core.type.TypeReference;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.dataformat.cbor.CBORMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encode and decode time and payload size of the JSON and CBOR representations, using the
+ * application's own mappers, for a listing page of long posts and a long comment list.
+ * Skipped unless run with {@code -Dbenchmarks=true}.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@EnabledIfSystemProperty(named = "benchmarks", matches = "true")
+@DisplayName("Serialization Format Benchmark")
+class SerializationFormatBenchmark {
+
+    private static final int ITERATIONS = Integer.getInteger("benchmark.iterations", 5_000);
+    private static final int PAGE_SIZE = Integer.getInteger("benchmark.page-size", 20);
+    private static final int COMMENTS = Integer.getInteger("benchmark.comments", 500);
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private CBORMapper cborMapper;
+
+    private record Payload(String name, Object value, TypeReference<?> type) {}
+
+    @Test
+    @DisplayName("JSON vs. CBOR: size, encode and decode time")
+    void compareFormats() throws Exception {
+        List<Payload> payloads = List.of(
+                new Payload("listing page", listingPage(), new TypeReference<PostsResponseDto>() {}),
+                new Payload("comments", comments(), new TypeReference<List<CommentDto>>() {}));
+
+        for (int round = 0; round < 2; round++) {
+            // The first round is warm-up
+            for (Payload payload : payloads) {
+                report(round == 0 ? null : payload.name() + " json", objectMapper, payload);
+                report(round == 0 ? null : payload.name() + " cbor", cborMapper, payload);
+            }
+        }
+    }
+
+    private static PostsResponseDto listingPage() {
+        String text = "Lorem ipsum dolor sit amet, consectetur adipiscing elit. ".repeat(70);
+        List<PostDto> posts = new ArrayList<>();
+        for (long i = 0; i < PAGE_SIZE; i++)
+            posts.add(new PostDto(1_000 + i, "Post title " + i, text, List.of("java", "spring", "jdbc"),
+                    (int) (i * 37), (int) (i * 3)));
+        return new PostsResponseDto(posts, true, true, 250);
+    }
+
+    private static List<CommentDto> comments() {
+        List<CommentDto> comments = new ArrayList<>();
+        for (long i = 0; i < COMMENTS; i++)
+            comments.add(new CommentDto(50_000 + i, "A comment that says a little more than thanks, #" + i, 1_000L));
+        return comments;
+    }
+
+    private static void report(String name, ObjectMapper mapper, Payload payload) throws Exception {
+        byte[] encoded = mapper.writeValueAsBytes(payload.value());
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) mapper.writeValueAsBytes(payload.value());
+        long encodeNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) mapper.readValue(encoded, payload.type());
+        long decodeNanos = System.nanoTime() - start;
+
+        if (name != null)
+            System.out.printf("%-18s %,8d bytes (%,7d gzipped), encode %7.1f us, decode %7.1f us%n",
+                    name, encoded.length, gzippedSize(encoded),
+                    encodeNanos / 1e3 / ITERATIONS, decodeNanos / 1e3 / ITERATIONS);
+    }
+
+    private static int gzippedSize(byte[] bytes) throws Exception {
+        var out = new ByteArrayOutputStream();
+        try (var gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        }
+        return out.size();
+    }
+}
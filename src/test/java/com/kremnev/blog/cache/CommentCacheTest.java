@@ -0,0 +1,103 @@
+package com.kremnev.blog.cache;
+
+import com.kremnev.blog.model.Comment;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.util.unit.DataSize;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@DisplayName("CommentCache Tests")
+class CommentCacheTest {
+
+    private SimpleMeterRegistry registry;
+    private OffsetDateTime now;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        now = OffsetDateTime.now();
+    }
+
+    @Test
+    @DisplayName("Should return cached comments as an unmodifiable list")
+    void testPutAndGet() {
+        CommentCache cache = new CommentCache(DataSize.ofKilobytes(64), registry);
+        cache.put(1L, List.of(comment(1L, 1L, "a")), cache.version());
+
+        Optional<List<Comment>> result = cache.get(1L);
+
+        assertTrue(result.isPresent());
+        assertEquals(1, result.get().size());
+        assertThrows(UnsupportedOperationException.class, () -> result.get().set(0, comment(2L, 1L, "b")));
+    }
+
+    @Test
+    @DisplayName("Should drop a load that raced with a write")
+    void testStaleLoadIsDropped() {
+        CommentCache cache = new CommentCache(DataSize.ofKilobytes(64), registry);
+        long version = cache.version();
+        cache.added(comment(5L, 1L, "written meanwhile"));
+
+        cache.put(1L, List.of(comment(1L, 1L, "a")), version);
+
+        assertTrue(cache.get(1L).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Should evict least recently used posts when over the byte budget")
+    void testEvictsByBytes() {
+        String text = "x".repeat(1000);
+        long entryBytes = CommentCache.estimateBytes(new Comment[]{comment(1L, 1L, text)});
+        CommentCache cache = new CommentCache(DataSize.ofBytes(entryBytes * 2), registry);
+
+        cache.put(1L, List.of(comment(1L, 1L, text)), cache.version());
+        cache.put(2L, List.of(comment(2L, 2L, text)), cache.version());
+        cache.get(1L);
+        cache.put(3L, List.of(comment(3L, 3L, text)), cache.version());
+
+        assertTrue(cache.get(1L).isPresent());
+        assertTrue(cache.get(2L).isEmpty());
+        assertTrue(cache.get(3L).isPresent());
+        assertTrue(cache.footprintBytes() <= entryBytes * 2);
+    }
+
+    @Test
+    @DisplayName("Should not cache a list larger than the whole budget")
+    void testOversizedListIsNotCached() {
+        CommentCache cache = new CommentCache(DataSize.ofBytes(512), registry);
+
+        cache.put(1L, List.of(comment(1L, 1L, "x".repeat(1000))), cache.version());
+
+        assertTrue(cache.get(1L).isEmpty());
+        assertEquals(0, cache.footprintBytes());
+    }
+
+    @Test
+    @DisplayName("Should report footprint and entries as gauges")
+    void testGauges() {
+        CommentCache cache = new CommentCache(DataSize.ofKilobytes(64), registry);
+        cache.put(1L, List.of(comment(1L, 1L, "a"), comment(2L, 1L, "b")), cache.version());
+
+        assertEquals(cache.footprintBytes(), registry.get("blog.cache.comments.size").gauge().value());
+        assertEquals(1, registry.get("blog.cache.comments.entries").gauge().value());
+
+        cache.evict(1L);
+
+        assertEquals(0, registry.get("blog.cache.comments.size").gauge().value());
+    }
+
+    private Comment comment(Long id, Long postId, String text) {
+        return new Comment(id, postId, text, now, now);
+    }
+}
@@ -0,0 +1,121 @@
+package com.kremnev.blog.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@DisplayName("ImageBytesCache Tests")
+class ImageBytesCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    @DisplayName("Should serve a cached payload from a read-only direct buffer")
+    void testHitAfterLoad() throws IOException {
+        ImageBytesCache cache = new ImageBytesCache(true, DataSize.ofKilobytes(4), DataSize.ofKilobytes(1), registry);
+        Path file = file("a", "hello");
+
+        ByteBuffer loaded = cache.get("a", file, 5).orElseThrow();
+        Files.delete(file);
+        ByteBuffer cached = cache.get("a", file, 5).orElseThrow();
+
+        assertTrue(cached.isDirect());
+        assertTrue(cached.isReadOnly());
+        assertEquals("hello", StandardCharsets.UTF_8.decode(cached).toString());
+        assertEquals(5, loaded.remaining());
+        assertEquals(5, cache.residentBytes());
+        assertEquals(0.5, registry.get("blog.cache.images.hit.ratio").gauge().value());
+    }
+
+    @Test
+    @DisplayName("Should not cache anything when disabled or when the image is too large")
+    void testDisabledAndOversized() throws IOException {
+        Path file = file("a", "x".repeat(2048));
+
+        ImageBytesCache disabled = new ImageBytesCache(false, DataSize.ofKilobytes(4), DataSize.ofKilobytes(4), registry);
+        assertTrue(disabled.get("a", file, 2048).isEmpty());
+
+        ImageBytesCache cache = new ImageBytesCache(true, DataSize.ofKilobytes(4), DataSize.ofKilobytes(1), new SimpleMeterRegistry());
+        assertTrue(cache.get("a", file, 2048).isEmpty());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    @DisplayName("Should keep frequently requested images over a stream of one-off requests")
+    void testFrequencyBasedAdmission() throws IOException {
+        ImageBytesCache cache = new ImageBytesCache(true, DataSize.ofBytes(2048), DataSize.ofBytes(1024), registry);
+        Path hot = file("hot", "h".repeat(1024));
+        Path warm = file("warm", "w".repeat(1024));
+        for (int i = 0; i < 5; i++) {
+            cache.get("hot", hot, 1024);
+            cache.get("warm", warm, 1024);
+        }
+
+        for (int i = 0; i < 20; i++) {
+            Path oneOff = file("cold" + i, "c".repeat(1024));
+            assertTrue(cache.get("cold" + i, oneOff, 1024).isEmpty());
+        }
+
+        assertEquals(2, cache.size());
+        assertEquals(2048, cache.residentBytes());
+        assertTrue(cache.get("hot", hot, 1024).isPresent());
+        assertTrue(cache.get("warm", warm, 1024).isPresent());
+        assertEquals(0.0, registry.counter("blog.cache.images.evictions").count());
+    }
+
+    @Test
+    @DisplayName("Should evict a less frequent entry for a more frequent newcomer")
+    void testEvictsLeastFrequent() throws IOException {
+        ImageBytesCache cache = new ImageBytesCache(true, DataSize.ofBytes(1024), DataSize.ofBytes(1024), registry);
+        Path old = file("old", "o".repeat(1024));
+        Path rising = file("rising", "r".repeat(1024));
+        cache.get("old", old, 1024);
+
+        for (int i = 0; i < 3; i++) cache.get("rising", rising, 1024);
+
+        assertEquals(1, cache.size());
+        assertTrue(cache.get("rising", rising, 1024).isPresent());
+        assertEquals(1.0, registry.counter("blog.cache.images.evictions").count());
+    }
+
+    @Test
+    @DisplayName("Should invalidate a hash together with its derived variants")
+    void testInvalidate() throws IOException {
+        ImageBytesCache cache = new ImageBytesCache(true, DataSize.ofKilobytes(4), DataSize.ofKilobytes(1), registry);
+        cache.get("abc", file("abc", "1"), 1);
+        cache.get("abc-w320", file("abc-w320", "2"), 1);
+        cache.get("abcd", file("abcd", "3"), 1);
+
+        cache.invalidate("abc");
+
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.residentBytes());
+    }
+
+    private Path file(String name, String content) throws IOException {
+        return Files.writeString(tempDir.resolve(name), content);
+    }
+}
@@ -0,0 +1,69 @@
+package com.kremnev.blog.cache;
+
+import com.kremnev.blog.model.ImageRef;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@DisplayName("ImageRefCache Tests")
+class ImageRefCacheTest {
+
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    @DisplayName("Should return a cached row until it is evicted")
+    void testPutGetEvict() {
+        ImageRefCache cache = new ImageRefCache(Duration.ofMinutes(1), 10, registry);
+        cache.put(image(1L), cache.version());
+
+        assertEquals("hash-1", cache.get(1L).orElseThrow().getHash());
+
+        cache.evict(1L);
+        assertTrue(cache.get(1L).isEmpty());
+        assertEquals(1, registry.get("blog.cache.image-refs.requests").tag("result", "hit").counter().count());
+    }
+
+    @Test
+    @DisplayName("Should drop a load that raced with an eviction")
+    void testStaleLoadIsDropped() {
+        ImageRefCache cache = new ImageRefCache(Duration.ofMinutes(1), 10, registry);
+        long version = cache.version();
+        cache.evict(1L);
+
+        cache.put(image(1L), version);
+
+        assertTrue(cache.get(1L).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Should expire rows after the TTL and keep at most max-entries")
+    void testTtlAndBound() throws InterruptedException {
+        ImageRefCache expiring = new ImageRefCache(Duration.ofMillis(20), 10, registry);
+        expiring.put(image(1L), expiring.version());
+        Thread.sleep(50);
+        assertTrue(expiring.get(1L).isEmpty());
+
+        ImageRefCache bounded = new ImageRefCache(Duration.ofMinutes(1), 2, registry);
+        for (long postId = 1; postId <= 3; postId++) bounded.put(image(postId), bounded.version());
+        assertEquals(2, bounded.size());
+        assertTrue(bounded.get(1L).isEmpty());
+    }
+
+    private static ImageRef image(long postId) {
+        return new ImageRef(postId, "blobs/" + postId, "hash-" + postId, "image/png", 3, null, null, null, null);
+    }
+}
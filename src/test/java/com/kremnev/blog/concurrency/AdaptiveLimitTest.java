@@ -0,0 +1,74 @@
+package com.kremnev.blog.concurrency;
+
+import com.kremnev.blog.concurrency.AdaptiveLimit.Priority;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@DisplayName("AdaptiveLimit Tests")
+class AdaptiveLimitTest {
+
+    @Test
+    @DisplayName("Should grow while latency holds steady and shrink once it rises")
+    void testFollowsLatency() {
+        AdaptiveLimit limit = new AdaptiveLimit(20, 4, 200, 0.5);
+
+        for (int i = 0; i < 10; i++) saturate(limit, TimeUnit.MILLISECONDS.toNanos(10));
+        int grown = limit.getLimit();
+        assertTrue(grown > 20, "limit should grow, was " + grown);
+
+        saturate(limit, TimeUnit.MILLISECONDS.toNanos(200));
+        assertTrue(limit.getLimit() < grown, "limit should shrink, was " + limit.getLimit());
+        assertTrue(limit.getLimit() >= 4);
+    }
+
+    @Test
+    @DisplayName("Should not grow while mostly idle")
+    void testIgnoresIdleSamples() {
+        AdaptiveLimit limit = new AdaptiveLimit(20, 4, 200, 0.5);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limit.tryAcquire(Priority.HIGH));
+            limit.release(TimeUnit.MILLISECONDS.toNanos(10), false);
+        }
+
+        assertEquals(20, limit.getLimit());
+    }
+
+    @Test
+    @DisplayName("Should back off when a request was dropped downstream")
+    void testBacksOffOnDrop() {
+        AdaptiveLimit limit = new AdaptiveLimit(20, 4, 200, 0.5);
+
+        assertTrue(limit.tryAcquire(Priority.HIGH));
+        limit.release(TimeUnit.MILLISECONDS.toNanos(10), true);
+
+        assertEquals(18, limit.getLimit());
+    }
+
+    @Test
+    @DisplayName("Should shed low priority callers first")
+    void testPriority() {
+        AdaptiveLimit limit = new AdaptiveLimit(10, 4, 200, 0.5);
+
+        for (int i = 0; i < 5; i++) assertTrue(limit.tryAcquire(Priority.LOW));
+        assertFalse(limit.tryAcquire(Priority.LOW));
+
+        for (int i = 0; i < 5; i++) assertTrue(limit.tryAcquire(Priority.HIGH));
+        assertFalse(limit.tryAcquire(Priority.HIGH));
+        assertEquals(10, limit.getInFlight());
+    }
+
+    private static void saturate(AdaptiveLimit limit, long rttNanos) {
+        int acquired = 0;
+        while (limit.tryAcquire(Priority.HIGH)) acquired++;
+        for (int i = 0; i < acquired; i++) limit.release(rttNanos, false);
+    }
+}
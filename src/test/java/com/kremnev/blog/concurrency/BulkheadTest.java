@@ -0,0 +1,81 @@
+package com.kremnev.blog.concurrency;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@DisplayName("Bulkhead Tests")
+class BulkheadTest {
+
+    @Autowired
+    private DataSource dataSource;
+
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    @DisplayName("Should reject callers past the limit once the acquire timeout passes, and admit them after a release")
+    void testLimit() {
+        Bulkhead bulkhead = new Bulkhead("test", 1, Duration.ofMillis(20), registry);
+        bulkhead.acquire();
+
+        assertThrows(BulkheadFullException.class, () -> bulkhead.execute(() -> "never"));
+        assertEquals(1.0, registry.get("blog.bulkhead.rejected").tag("name", "test").counter().count());
+
+        bulkhead.release();
+        assertEquals("ran", bulkhead.execute(() -> "ran"));
+        assertEquals(0.0, registry.get("blog.bulkhead.active").tag("name", "test").gauge().value());
+    }
+
+    @Test
+    @DisplayName("Should release the permit even when the task fails")
+    void testReleaseOnFailure() {
+        Bulkhead bulkhead = new Bulkhead("test", 1, Duration.ofMillis(20), registry);
+
+        assertThrows(IllegalStateException.class, () -> bulkhead.execute(() -> {
+            throw new IllegalStateException("boom");
+        }));
+
+        assertEquals("ran", bulkhead.execute(() -> "ran"));
+    }
+
+    @Test
+    @DisplayName("Should hold a JDBC permit for as long as the connection is open")
+    void testDataSourceBulkhead() throws Exception {
+        Bulkhead bulkhead = new Bulkhead("jdbc-test", 1, Duration.ofMillis(20), registry);
+        BulkheadDataSource guarded = new BulkheadDataSource(dataSource, bulkhead);
+
+        Connection first = guarded.getConnection();
+        assertThrows(SQLTransientConnectionException.class, guarded::getConnection);
+
+        first.close();
+        first.close();
+        try (Connection second = guarded.getConnection()) {
+            assertTrue(second.isValid(1));
+        }
+        assertEquals(0.0, registry.get("blog.bulkhead.active").tag("name", "jdbc-test").gauge().value());
+    }
+
+    @Test
+    @DisplayName("Should put the application DataSource behind a bulkhead")
+    void testApplicationDataSourceIsGuarded() {
+        assertInstanceOf(BulkheadDataSource.class, dataSource);
+    }
+}
@@ -0,0 +1,70 @@
+package com.kremnev.blog.concurrency;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.sql.Connection;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("QueryBudget Tests")
+class QueryBudgetTest {
+    private static final String ROUTE = "GET /test";
+    // Ten billion rows, far more than any test waits for
+    private static final String SLOW_QUERY = "SELECT SUM(a.x + b.x) FROM SYSTEM_RANGE(1, 100000) a, SYSTEM_RANGE(1, 100000) b";
+
+    private SimpleMeterRegistry registry;
+    private QueryBudgetDataSource dataSource;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        dataSource = new QueryBudgetDataSource(new DriverManagerDataSource("jdbc:h2:mem:query-budget"), registry);
+    }
+
+    @Test
+    @DisplayName("Should time out a statement once the request's budget runs out")
+    void testTimeout() throws Exception {
+        try (QueryBudget ignored = QueryBudget.open(ROUTE, Duration.ofSeconds(1));
+             Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            long start = System.nanoTime();
+            assertThrows(SQLTimeoutException.class, () -> statement.executeQuery(SLOW_QUERY));
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+            assertEquals(0, statement.getQueryTimeout());
+        }
+        assertEquals(1.0, registry.get("blog.queries.budget.exceeded").tag("route", ROUTE).counter().count());
+    }
+
+    @Test
+    @DisplayName("Should fail statements without running them once the budget is spent, also in a nested budget")
+    void testSpentBudget() throws Exception {
+        try (QueryBudget ignored = QueryBudget.open(ROUTE, Duration.ofNanos(1));
+             QueryBudget nested = QueryBudget.open("GET /nested", Duration.ofMinutes(1));
+             Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            assertTrue(nested.remainingNanos() <= 0);
+            assertThrows(SQLTimeoutException.class, () -> statement.executeQuery("SELECT 1"));
+        }
+        assertEquals(1.0, registry.get("blog.queries.budget.exceeded").tag("route", "GET /nested").counter().count());
+        assertNull(QueryBudget.current());
+    }
+
+    @Test
+    @DisplayName("Should leave statements outside a budget alone")
+    void testNoBudget() throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            assertTrue(statement.execute("SELECT 1"));
+            assertEquals(0, statement.getQueryTimeout());
+        }
+        assertTrue(registry.find("blog.queries.budget.exceeded").counters().isEmpty());
+    }
+}
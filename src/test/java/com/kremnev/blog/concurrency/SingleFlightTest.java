@@ -0,0 +1,173 @@
+package com.kremnev.blog.concurrency;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@DisplayName("SingleFlight Tests")
+class SingleFlightTest {
+
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    @DisplayName("Should run the loader again once the previous call has finished")
+    void testSequentialCallsAreNotShared() {
+        SingleFlight singleFlight = new SingleFlight(Duration.ofSeconds(1), registry);
+        AtomicInteger calls = new AtomicInteger();
+
+        singleFlight.execute("key", calls::incrementAndGet);
+        singleFlight.execute("key", calls::incrementAndGet);
+
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    @DisplayName("Should share the leader failure with waiting callers")
+    void testFailureIsShared() throws Exception {
+        SingleFlight singleFlight = new SingleFlight(Duration.ofSeconds(5), registry);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<Object> leader = pool.submit(() -> singleFlight.execute("key", () -> {
+                await(release);
+                throw new DataAccessResourceFailureException("down");
+            }));
+            waitForLeader();
+            Future<Object> follower = pool.submit(() -> singleFlight.execute("key", () -> "unused"));
+            waitForFollowers(1);
+            release.countDown();
+
+            assertInstanceOf(DataAccessResourceFailureException.class,
+                    assertThrows(Exception.class, leader::get).getCause());
+            assertInstanceOf(DataAccessResourceFailureException.class,
+                    assertThrows(Exception.class, follower::get).getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Should give up waiting after the timeout")
+    void testFollowerTimeout() throws Exception {
+        SingleFlight singleFlight = new SingleFlight(Duration.ofMillis(50), registry);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            pool.submit(() -> singleFlight.execute("key", () -> {
+                await(release);
+                return "late";
+            }));
+            waitForLeader();
+
+            assertThrows(QueryTimeoutException.class, () -> singleFlight.execute("key", () -> "unused"));
+            assertEquals(1, registry.get("blog.reads.single-flight.timeouts").counter().count());
+        } finally {
+            release.countDown();
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Should give up waiting when the caller's budget runs out")
+    void testFollowerBudget() throws Exception {
+        SingleFlight singleFlight = new SingleFlight(Duration.ofSeconds(30), registry);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            pool.submit(() -> singleFlight.execute("key", () -> {
+                await(release);
+                return "late";
+            }));
+            waitForLeader();
+
+            try (var ignored = QueryBudget.open("GET /test", Duration.ofMillis(50))) {
+                long start = System.nanoTime();
+                assertThrows(QueryTimeoutException.class, () -> singleFlight.execute("key", () -> "unused"));
+                assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+            }
+        } finally {
+            release.countDown();
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Should load for itself when the leader ran out of budget")
+    void testLeaderTimeoutIsNotShared() throws Exception {
+        SingleFlight singleFlight = new SingleFlight(Duration.ofSeconds(5), registry);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<Object> leader = pool.submit(() -> singleFlight.execute("key", () -> {
+                await(release);
+                throw new QueryTimeoutException("budget spent");
+            }));
+            waitForLeader();
+            Future<Object> follower = pool.submit(() -> singleFlight.execute("key", () -> "own"));
+            waitForFollowers(1);
+            release.countDown();
+
+            assertInstanceOf(QueryTimeoutException.class, assertThrows(Exception.class, leader::get).getCause());
+            assertEquals("own", follower.get());
+            assertEquals(1, registry.get("blog.reads.single-flight.leader-timeouts").counter().count());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Should not share reads made inside a transaction")
+    void testTransactionBypass() {
+        SingleFlight singleFlight = new SingleFlight(Duration.ofSeconds(1), registry);
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+        try {
+            assertEquals("value", singleFlight.execute("key", () -> "value"));
+        } finally {
+            TransactionSynchronizationManager.setActualTransactionActive(false);
+        }
+        assertEquals(0, registry.counter("blog.reads.single-flight.calls", "role", "leader").count());
+    }
+
+    private void waitForLeader() throws InterruptedException {
+        while (registry.counter("blog.reads.single-flight.calls", "role", "leader").count() < 1) {
+            Thread.sleep(5);
+        }
+    }
+
+    private void waitForFollowers(int followers) throws InterruptedException {
+        while (registry.counter("blog.reads.single-flight.calls", "role", "follower").count() < followers) {
+            Thread.sleep(5);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.kremnev.blog.controller;
+
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+// Not @Transactional: reads of a batch run on other threads and must see the test data
+@SpringBootTest
+@ActiveProfiles("test")
+@DisplayName("BatchController Integration Tests")
+class BatchControllerIntegrationTest {
+
+    private MockMvc mockMvc;
+
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private Long testPostId;
+
+    @BeforeEach
+    void setUp() {
+        mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+        cleanUp();
+
+        org.springframework.jdbc.support.KeyHolder keyHolder = new org.springframework.jdbc.support.GeneratedKeyHolder();
+        jdbcTemplate.update(connection -> connection.prepareStatement(
+                "INSERT INTO posts (title, text, likes_count) VALUES ('Test Post', 'Content', 0)",
+                java.sql.Statement.RETURN_GENERATED_KEYS), keyHolder);
+        testPostId = ((Number) keyHolder.getKeys().get("id")).longValue();
+    }
+
+    @AfterEach
+    void cleanUp() {
+        jdbcTemplate.execute("DELETE FROM post_tags");
+        jdbcTemplate.execute("DELETE FROM comments");
+        jdbcTemplate.execute("DELETE FROM tags");
+        jdbcTemplate.execute("DELETE FROM posts");
+    }
+
+    @Test
+    @DisplayName("Should run reads and writes in order and return every result")
+    void testBatch() throws Exception {
+        String batch = """
+                {"requests": [
+                  {"id": "post", "method": "GET", "path": "/api/posts/%1$d?fields=title"},
+                  {"id": "comment", "method": "POST", "path": "/api/posts/%1$d/comments", "body": {"postId": %1$d, "text": "First"}},
+                  {"id": "comments", "method": "GET", "path": "/api/posts/%1$d/comments"},
+                  {"id": "like", "method": "post", "path": "/api/posts/%1$d/likes"},
+                  {"id": "missing", "method": "GET", "path": "/api/posts/%2$d"}
+                ]}
+                """.formatted(testPostId, testPostId + 1000);
+
+        mockMvc.perform(post("/api/batch").contentType(MediaType.APPLICATION_JSON).content(batch))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.responses", hasSize(5)))
+                .andExpect(jsonPath("$.responses[0].id").value("post"))
+                .andExpect(jsonPath("$.responses[0].status").value(200))
+                .andExpect(jsonPath("$.responses[0].body.title").value("Test Post"))
+                .andExpect(jsonPath("$.responses[0].body.text").doesNotExist())
+                .andExpect(jsonPath("$.responses[1].status").value(201))
+                .andExpect(jsonPath("$.responses[1].body.text").value("First"))
+                .andExpect(jsonPath("$.responses[2].body", hasSize(1)))
+                .andExpect(jsonPath("$.responses[2].body[0].text").value("First"))
+                .andExpect(jsonPath("$.responses[3].body.likesCount").value(1))
+                .andExpect(jsonPath("$.responses[4].status").value(404));
+    }
+
+    @Test
+    @DisplayName("Should roll back a transactional batch at the first failure and report every request as failed")
+    void testTransactionalBatchRollsBack() throws Exception {
+        // Puts the post's comments in the cache, which the rolled-back write must not leave changed
+        mockMvc.perform(get("/api/posts/" + testPostId + "/comments"))
+                .andExpect(jsonPath("$", hasSize(0)));
+
+        String batch = """
+                {"transactional": true, "requests": [
+                  {"method": "POST", "path": "/api/posts/%1$d/comments", "body": {"postId": %1$d, "text": "Rolled back"}},
+                  {"method": "DELETE", "path": "/api/posts/%1$d/comments/999999"},
+                  {"method": "POST", "path": "/api/posts/%1$d/likes"}
+                ]}
+                """.formatted(testPostId);
+
+        mockMvc.perform(post("/api/batch").contentType(MediaType.APPLICATION_JSON).content(batch))
+                .andExpect(status().isOk())
+                // The comment was created, then rolled back with the rest
+                .andExpect(jsonPath("$.responses[0].status").value(424))
+                .andExpect(jsonPath("$.responses[0].body.message").value(containsString("Rolled back")))
+                .andExpect(jsonPath("$.responses[0].headers").doesNotExist())
+                .andExpect(jsonPath("$.responses[1].status").value(404))
+                .andExpect(jsonPath("$.responses[2].status").value(424))
+                .andExpect(jsonPath("$.responses[2].body.message").value(containsString("Not run")));
+
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT count(*) FROM comments", Integer.class));
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT likes_count FROM posts WHERE id = ?", Integer.class, testPostId));
+        mockMvc.perform(get("/api/posts/" + testPostId + "/comments"))
+                .andExpect(jsonPath("$", hasSize(0)));
+    }
+
+    @Test
+    @DisplayName("Should refuse routes outside posts and comments, and oversized batches")
+    void testRejectedRequests() throws Exception {
+        String batch = """
+                {"requests": [
+                  {"method": "GET", "path": "/api/images?postIds=%1$d"},
+                  {"method": "POST", "path": "/api/batch", "body": {"requests": []}},
+                  {"method": "TRACE", "path": "/api/posts/%1$d"}
+                ]}
+                """.formatted(testPostId);
+
+        mockMvc.perform(post("/api/batch").contentType(MediaType.APPLICATION_JSON).content(batch))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.responses[0].status").value(404))
+                .andExpect(jsonPath("$.responses[1].status").value(404))
+                .andExpect(jsonPath("$.responses[2].status").value(400));
+
+        String tooMany = IntStream.range(0, 21)
+                .mapToObj(i -> "{\"method\": \"GET\", \"path\": \"/api/posts/" + testPostId + "\"}")
+                .collect(Collectors.joining(",", "{\"requests\": [", "]}"));
+        mockMvc.perform(post("/api/batch").contentType(MediaType.APPLICATION_JSON).content(tooMany))
+                .andExpect(status().isBadRequest());
+    }
+}
@@ -0,0 +1,148 @@
+package com.kremnev.blog.controller;
+
+import com.kremnev.blog.repository.ChangeLogRepository;
+import com.kremnev.blog.service.CommentService;
+import com.kremnev.blog.service.PostService;
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+// Not @Transactional: the feed only shows committed writes, and the long poll waits on another thread
+@SpringBootTest(properties = "changes.poll-timeout=500ms")
+@ActiveProfiles("test")
+@DisplayName("ChangesController Integration Tests")
+class ChangesControllerIntegrationTest {
+
+    private MockMvc mockMvc;
+
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PostService postService;
+
+    @Autowired
+    private CommentService commentService;
+
+    @Autowired
+    private ChangeLogRepository changeLogRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private long start;
+
+    @BeforeEach
+    void setUp() {
+        mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+        cleanUp();
+        start = changeLogRepository.latestSeq();
+    }
+
+    @AfterEach
+    void cleanUp() {
+        jdbcTemplate.execute("DELETE FROM post_tags");
+        jdbcTemplate.execute("DELETE FROM comments");
+        jdbcTemplate.execute("DELETE FROM tags");
+        jdbcTemplate.execute("DELETE FROM posts");
+    }
+
+    @Test
+    @DisplayName("Should list post and comment writes in order, with comments deleted along with their post")
+    void testChanges() throws Exception {
+        long postId = postService.create("Post", "Content", List.of("java")).getId();
+        long commentId = commentService.create(postId, "Comment").getId();
+        long keptId = commentService.create(postId, "Kept").getId();
+        postService.addLike(postId);
+        commentService.delete(commentId, postId);
+        postService.delete(postId);
+
+        String content = mockMvc.perform(get("/api/changes").param("since", String.valueOf(start)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.changes", hasSize(7)))
+                .andExpect(jsonPath("$.changes[*].entity", contains(
+                        "post", "comment", "comment", "post", "comment", "comment", "post")))
+                .andExpect(jsonPath("$.changes[*].operation", contains(
+                        "created", "created", "created", "liked", "deleted", "deleted", "deleted")))
+                .andExpect(jsonPath("$.changes[1].entityId").value(commentId))
+                .andExpect(jsonPath("$.changes[1].postId").value(postId))
+                .andExpect(jsonPath("$.changes[5].entityId").value(keptId))
+                .andReturn().getResponse().getContentAsString();
+        List<Long> seqs = JsonPath.<List<Number>>read(content, "$.changes[*].seq").stream()
+                .map(Number::longValue).toList();
+        assertEquals(seqs.getLast(), JsonPath.<Number>read(content, "$.next").longValue());
+
+        mockMvc.perform(get("/api/changes").param("since", String.valueOf(start)).param("limit", "2"))
+                .andExpect(jsonPath("$.changes", hasSize(2)))
+                .andExpect(jsonPath("$.next").value(seqs.get(1)));
+        mockMvc.perform(get("/api/changes").param("since", String.valueOf(seqs.get(1))))
+                .andExpect(jsonPath("$.changes", hasSize(5)))
+                .andExpect(jsonPath("$.changes[0].seq").value(seqs.get(2)));
+    }
+
+    @Test
+    @DisplayName("Should hold the poll open until a change is committed")
+    void testLongPoll() throws Exception {
+        long postId = postService.create("Post", "Content", List.of()).getId();
+        long since = changeLogRepository.latestSeq();
+
+        CompletableFuture<MvcResult> poll = CompletableFuture.supplyAsync(() -> {
+            try {
+                return mockMvc.perform(get("/api/changes").param("since", String.valueOf(since))).andReturn();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(100);
+        assertFalse(poll.isDone());
+        postService.addLike(postId);
+
+        String content = poll.get(5, TimeUnit.SECONDS).getResponse().getContentAsString();
+        assertTrue(content.contains("\"operation\":\"liked\""), content);
+    }
+
+    @Test
+    @DisplayName("Should not log writes that were rolled back")
+    void testRolledBackWrite() throws Exception {
+        long postId = postService.create("Post", "Content", List.of()).getId();
+        long since = changeLogRepository.latestSeq();
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            postService.addLike(postId);
+            status.setRollbackOnly();
+        });
+
+        mockMvc.perform(get("/api/changes").param("since", String.valueOf(since)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.changes", hasSize(0)))
+                .andExpect(jsonPath("$.next").value(since));
+    }
+
+    @Test
+    @DisplayName("Should reject an out of range limit")
+    void testInvalidLimit() throws Exception {
+        mockMvc.perform(get("/api/changes").param("limit", "501"))
+                .andExpect(status().isBadRequest());
+    }
+}
@@ -1,5 +1,6 @@
 package com.kremnev.blog.controller;
 
+import com.kremnev.blog.dto.CommentDto;
 import com.kremnev.blog.dto.Request.CreateCommentRequest;
 import com.kremnev.blog.dto.Request.UpdateCommentRequest;
 import org.junit.jupiter.api.*;
@@ -13,8 +14,10 @@ import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.context.WebApplicationContext;
 import tools.jackson.databind.ObjectMapper;
+import tools.jackson.dataformat.cbor.CBORMapper;
 
 import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -33,6 +36,9 @@ class CommentsControllerIntegrationTest {
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private CBORMapper cborMapper;
+
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
@@ -71,6 +77,42 @@ class CommentsControllerIntegrationTest {
                 .andExpect(jsonPath("$[*].text", containsInAnyOrder("Comment 1", "Comment 2", "Comment 3")));
     }
 
+    @Test
+    @DisplayName("Should answer Accept: application/cbor with CBOR comments")
+    void testGetAllCommentsCbor() throws Exception {
+        createTestComment(testPostId, "Comment 1");
+
+        byte[] body = mockMvc.perform(get("/api/posts/" + testPostId + "/comments").accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        CommentDto[] comments = cborMapper.readValue(body, CommentDto[].class);
+        assertEquals(1, comments.length);
+        assertEquals("Comment 1", comments[0].text());
+        assertEquals(testPostId, comments[0].postId());
+    }
+
+    @Test
+    @DisplayName("Should return only the requested comment fields")
+    void testSparseFieldsets() throws Exception {
+        Long commentId = createTestComment(testPostId, "Comment 1");
+
+        mockMvc.perform(get("/api/posts/" + testPostId + "/comments").param("fields", "postId"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id").value(commentId))
+                .andExpect(jsonPath("$[0].postId").value(testPostId))
+                .andExpect(jsonPath("$[0].text").doesNotExist());
+
+        mockMvc.perform(get("/api/posts/" + testPostId + "/comments/" + commentId).param("fields", "text"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.text").value("Comment 1"))
+                .andExpect(jsonPath("$.postId").doesNotExist());
+
+        mockMvc.perform(get("/api/posts/" + testPostId + "/comments").param("fields", "author"))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     @DisplayName("Should return empty list when post has no comments")
     void testGetAllCommentsEmpty() throws Exception {
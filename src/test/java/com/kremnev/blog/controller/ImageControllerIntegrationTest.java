@@ -0,0 +1,292 @@
+package com.kremnev.blog.controller;
+
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@Transactional
+@DisplayName("ImageController Integration Tests")
+class ImageControllerIntegrationTest {
+
+    private static final String CONTENT = "0123456789abcdefghij";
+
+    private MockMvc mockMvc;
+
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private Long testPostId;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+
+        org.springframework.jdbc.support.KeyHolder keyHolder = new org.springframework.jdbc.support.GeneratedKeyHolder();
+        jdbcTemplate.update(connection -> {
+            java.sql.PreparedStatement ps = connection.prepareStatement(
+                "INSERT INTO posts (title, text, likes_count) VALUES ('Test Post', 'Content', 0)",
+                java.sql.Statement.RETURN_GENERATED_KEYS
+            );
+            return ps;
+        }, keyHolder);
+        testPostId = ((Number) keyHolder.getKeys().get("id")).longValue();
+
+        mockMvc.perform(multipart("/api/posts/" + testPostId + "/image")
+                        .file(new MockMultipartFile("image", "cover.png", "image/png", CONTENT.getBytes()))
+                        .with(request -> {
+                            request.setMethod("PUT");
+                            return request;
+                        }))
+                .andExpect(status().isNoContent());
+    }
+
+    @Test
+    @DisplayName("Should serve the whole image with its upload content type, length and validators")
+    void testDownloadFullImage() throws Exception {
+        mockMvc.perform(get("/api/posts/" + testPostId + "/image"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("image/png"))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, CONTENT.length()))
+                .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+                .andExpect(header().string(HttpHeaders.ETAG, matchesPattern("\"[0-9a-f]{64}\"")))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-cache"))
+                .andExpect(content().string(CONTENT));
+    }
+
+    @Test
+    @DisplayName("Should return 404 when post has no image")
+    void testDownloadMissingImage() throws Exception {
+        mockMvc.perform(get("/api/posts/" + (testPostId + 100_000) + "/image"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    @DisplayName("Should accept a raw image body and serve it with the sniffed content type")
+    void testRawUpload() throws Exception {
+        byte[] gif = "GIF89a\1\0\1\0\0\0\0;".getBytes(StandardCharsets.ISO_8859_1);
+
+        mockMvc.perform(put("/api/posts/" + testPostId + "/image")
+                        .contentType("image/png")
+                        .content(gif))
+                .andExpect(status().isNoContent());
+
+        mockMvc.perform(get("/api/posts/" + testPostId + "/image"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("image/gif"))
+                .andExpect(content().bytes(gif));
+    }
+
+    @Test
+    @DisplayName("Should reject raw bodies that are not images or exceed the size cap")
+    void testRawUploadRejected() throws Exception {
+        mockMvc.perform(put("/api/posts/" + testPostId + "/image")
+                        .contentType("image/jpeg")
+                        .content("plain text"))
+                .andExpect(status().isUnsupportedMediaType());
+
+        mockMvc.perform(put("/api/posts/" + testPostId + "/image")
+                        .contentType("image/jpeg")
+                        .content(new byte[64 * 1024 + 1]))
+                .andExpect(status().isPayloadTooLarge());
+
+        mockMvc.perform(put("/api/posts/" + (testPostId + 100_000) + "/image")
+                        .contentType("image/gif")
+                        .content("GIF89a\1\0\1\0\0\0\0;".getBytes(StandardCharsets.ISO_8859_1)))
+                .andExpect(status().isNotFound());
+
+        mockMvc.perform(get("/api/posts/" + testPostId + "/image"))
+                .andExpect(content().string(CONTENT));
+    }
+
+    @Test
+    @DisplayName("Should reject a non-positive variant width")
+    void testDownloadWithInvalidWidth() throws Exception {
+        mockMvc.perform(get("/api/posts/" + testPostId + "/image").param("w", "0"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @DisplayName("Should serve the original when it has no variants")
+    void testDownloadVariantFallsBackToOriginal() throws Exception {
+        mockMvc.perform(get("/api/posts/" + testPostId + "/image").param("w", "320"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("image/png"))
+                .andExpect(content().string(CONTENT));
+    }
+
+    @Test
+    @DisplayName("Should return 404 when uploading an image for a missing post")
+    void testUploadForMissingPost() throws Exception {
+        mockMvc.perform(multipart("/api/posts/" + (testPostId + 100_000) + "/image")
+                        .file(new MockMultipartFile("image", "cover.png", "image/png", CONTENT.getBytes()))
+                        .with(request -> {
+                            request.setMethod("PUT");
+                            return request;
+                        }))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    @DisplayName("Should answer a matching If-None-Match with 304")
+    void testNotModified() throws Exception {
+        String etag = etag();
+
+        mockMvc.perform(get("/api/posts/" + testPostId + "/image").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+    }
+
+    @Test
+    @DisplayName("Should mark the response immutable when the content version is pinned")
+    void testVersionedUrlIsImmutable() throws Exception {
+        String etag = etag();
+        String version = etag.substring(1, etag.length() - 1);
+
+        mockMvc.perform(get("/api/posts/" + testPostId + "/image").param("v", version))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, containsString("immutable")));
+    }
+
+    @Test
+    @DisplayName("Should serve a single byte range with 206")
+    void testSingleRange() throws Exception {
+        mockMvc.perform(get("/api/posts/" + testPostId + "/image").header(HttpHeaders.RANGE, "bytes=2-5"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 2-5/20"))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 4))
+                .andExpect(content().string("2345"));
+
+        mockMvc.perform(get("/api/posts/" + testPostId + "/image").header(HttpHeaders.RANGE, "bytes=-3"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 17-19/20"))
+                .andExpect(content().string("hij"));
+    }
+
+    @Test
+    @DisplayName("Should serve several byte ranges as multipart/byteranges")
+    void testMultipleRanges() throws Exception {
+        MvcResult result = mockMvc.perform(get("/api/posts/" + testPostId + "/image")
+                        .header(HttpHeaders.RANGE, "bytes=0-1,10-12"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, startsWith("multipart/byteranges; boundary=")))
+                .andReturn();
+
+        byte[] body = result.getResponse().getContentAsByteArray();
+        String text = new String(body, StandardCharsets.US_ASCII);
+        assertEquals(result.getResponse().getHeaderValue(HttpHeaders.CONTENT_LENGTH), (long) body.length);
+        assertTrue(text.contains("Content-Range: bytes 0-1/20\r\n\r\n01\r\n"));
+        assertTrue(text.contains("Content-Range: bytes 10-12/20\r\n\r\nabc\r\n"));
+        assertTrue(text.endsWith("--\r\n"));
+    }
+
+    @Test
+    @DisplayName("Should merge overlapping and adjacent ranges into one part")
+    void testOverlappingRanges() throws Exception {
+        mockMvc.perform(get("/api/posts/" + testPostId + "/image").header(HttpHeaders.RANGE, "bytes=6-7,0-3,2-5"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 0-7/20"))
+                .andExpect(content().string("01234567"));
+    }
+
+    @Test
+    @DisplayName("Should refuse ranges that add up to more than the file")
+    void testRangesLongerThanFile() throws Exception {
+        mockMvc.perform(get("/api/posts/" + testPostId + "/image").header(HttpHeaders.RANGE, "bytes=0-,0-,0-"))
+                .andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */20"));
+    }
+
+    @Test
+    @DisplayName("Should reject an unsatisfiable range with 416")
+    void testUnsatisfiableRange() throws Exception {
+        mockMvc.perform(get("/api/posts/" + testPostId + "/image").header(HttpHeaders.RANGE, "bytes=50-60"))
+                .andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */20"));
+    }
+
+    @Test
+    @DisplayName("Should ignore a malformed range and send the whole image")
+    void testMalformedRange() throws Exception {
+        for (String range : List.of("bytes=5-2", "bytes=abc", "items=0-1")) {
+            mockMvc.perform(get("/api/posts/" + testPostId + "/image").header(HttpHeaders.RANGE, range))
+                    .andExpect(status().isOk())
+                    .andExpect(header().doesNotExist(HttpHeaders.CONTENT_RANGE))
+                    .andExpect(content().string(CONTENT));
+        }
+    }
+
+    @Test
+    @DisplayName("Should ignore the range when If-Range does not match the current version")
+    void testStaleIfRange() throws Exception {
+        mockMvc.perform(get("/api/posts/" + testPostId + "/image")
+                        .header(HttpHeaders.RANGE, "bytes=0-1")
+                        .header(HttpHeaders.IF_RANGE, "\"stale\""))
+                .andExpect(status().isOk())
+                .andExpect(content().string(CONTENT));
+    }
+
+    private String etag() throws Exception {
+        return mockMvc.perform(get("/api/posts/" + testPostId + "/image"))
+                .andReturn()
+                .getResponse()
+                .getHeader(HttpHeaders.ETAG);
+    }
+
+    @Test
+    @DisplayName("Should run a dry run in the background and report it without deleting anything")
+    void testGarbageCollectionReport() throws Exception {
+        mockMvc.perform(post("/api/admin/image-gc/dry-run"))
+                .andExpect(status().isAccepted());
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (mockMvc.perform(get("/api/admin/image-gc/report")).andReturn().getResponse().getStatus() == 404
+                && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        mockMvc.perform(get("/api/admin/image-gc/report"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.dryRun").value(true))
+                .andExpect(jsonPath("$.scannedFiles").value(greaterThanOrEqualTo(1)))
+                .andExpect(jsonPath("$.finishedAt").exists());
+
+        mockMvc.perform(get("/api/posts/" + testPostId + "/image"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(CONTENT));
+    }
+
+    @Test
+    @DisplayName("Should list image presence for many posts in one request")
+    void testImageManifest() throws Exception {
+        long missing = testPostId + 100_000;
+        mockMvc.perform(get("/api/images").param("postIds", testPostId + "," + missing))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$['" + testPostId + "'].present").value(true))
+                .andExpect(jsonPath("$['" + testPostId + "'].size").value(CONTENT.length()))
+                .andExpect(jsonPath("$['" + testPostId + "'].version").value(matchesPattern("[0-9a-f]{64}")))
+                .andExpect(jsonPath("$['" + missing + "'].present").value(false));
+    }
+}
@@ -0,0 +1,167 @@
+package com.kremnev.blog.controller;
+
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.context.WebApplicationContext;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+import static org.hamcrest.Matchers.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@Transactional
+@DisplayName("ImageUploadController Integration Tests")
+class ImageUploadControllerIntegrationTest {
+
+    private MockMvc mockMvc;
+
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private Long testPostId;
+    private byte[] image;
+    private String imageHash;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+
+        org.springframework.jdbc.support.KeyHolder keyHolder = new org.springframework.jdbc.support.GeneratedKeyHolder();
+        jdbcTemplate.update(connection -> {
+            java.sql.PreparedStatement ps = connection.prepareStatement(
+                "INSERT INTO posts (title, text, likes_count) VALUES ('Test Post', 'Content', 0)",
+                java.sql.Statement.RETURN_GENERATED_KEYS
+            );
+            return ps;
+        }, keyHolder);
+        testPostId = ((Number) keyHolder.getKeys().get("id")).longValue();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB), "png", out);
+        image = out.toByteArray();
+        imageHash = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(image));
+    }
+
+    @Test
+    @DisplayName("Should assemble an image from chunks and publish it on completion")
+    void testChunkedUpload() throws Exception {
+        String location = createUpload(image.length);
+        int half = image.length / 2;
+
+        mockMvc.perform(patch(location).header("Upload-Offset", 0).content(Arrays.copyOfRange(image, 0, half)))
+                .andExpect(status().isNoContent())
+                .andExpect(header().longValue("Upload-Offset", half));
+        mockMvc.perform(head(location))
+                .andExpect(status().isOk())
+                .andExpect(header().longValue("Upload-Offset", half))
+                .andExpect(header().longValue("Upload-Length", image.length));
+        mockMvc.perform(patch(location).header("Upload-Offset", half)
+                        .content(Arrays.copyOfRange(image, half, image.length)))
+                .andExpect(status().isNoContent())
+                .andExpect(header().longValue("Upload-Offset", image.length));
+
+        mockMvc.perform(post(location + "/complete").param("sha256", imageHash))
+                .andExpect(status().isNoContent());
+
+        mockMvc.perform(get("/api/posts/" + testPostId + "/image"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("image/png"))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + imageHash + "\""))
+                .andExpect(content().bytes(image));
+        mockMvc.perform(head(location)).andExpect(status().isNotFound());
+    }
+
+    @Test
+    @DisplayName("Should reject chunks and completion that do not match the received offset")
+    void testOffsetConflict() throws Exception {
+        String location = createUpload(image.length);
+
+        mockMvc.perform(patch(location).header("Upload-Offset", 10).content(image))
+                .andExpect(status().isConflict())
+                .andExpect(header().longValue("Upload-Offset", 0));
+        mockMvc.perform(patch(location).header("Upload-Offset", 0).content(Arrays.copyOfRange(image, 0, 10)))
+                .andExpect(status().isNoContent());
+        mockMvc.perform(post(location + "/complete").param("sha256", imageHash))
+                .andExpect(status().isConflict())
+                .andExpect(header().longValue("Upload-Offset", 10));
+    }
+
+    @Test
+    @DisplayName("Should refuse to publish an upload whose checksum does not match, keeping it for a retry")
+    void testChecksumMismatch() throws Exception {
+        String location = createUpload(image.length);
+        mockMvc.perform(patch(location).header("Upload-Offset", 0).content(image))
+                .andExpect(status().isNoContent());
+
+        mockMvc.perform(post(location + "/complete").param("sha256", "0".repeat(64)))
+                .andExpect(status().isUnprocessableContent());
+
+        mockMvc.perform(get("/api/posts/" + testPostId + "/image"))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(head(location))
+                .andExpect(status().isOk())
+                .andExpect(header().longValue("Upload-Offset", image.length));
+
+        mockMvc.perform(post(location + "/complete").param("sha256", imageHash))
+                .andExpect(status().isNoContent());
+        mockMvc.perform(get("/api/posts/" + testPostId + "/image"))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(image));
+    }
+
+    @Test
+    @DisplayName("Should refuse to publish an upload that is not an image")
+    void testNotAnImage() throws Exception {
+        byte[] text = "not an image".getBytes();
+        String location = createUpload(text.length);
+        mockMvc.perform(patch(location).header("Upload-Offset", 0).content(text))
+                .andExpect(status().isNoContent());
+
+        mockMvc.perform(post(location + "/complete")
+                        .param("sha256", HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(text))))
+                .andExpect(status().isUnsupportedMediaType())
+                .andExpect(jsonPath("$.message").value("Only image/* allowed"));
+    }
+
+    @Test
+    @DisplayName("Should reject sessions for missing posts, oversized images and chunks past the declared length")
+    void testLimits() throws Exception {
+        mockMvc.perform(post("/api/posts/" + (testPostId + 100_000) + "/image/uploads").header("Upload-Length", 10))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(post("/api/posts/" + testPostId + "/image/uploads").header("Upload-Length", 1024 * 1024))
+                .andExpect(status().isContentTooLarge());
+
+        String location = createUpload(10);
+        mockMvc.perform(patch(location).header("Upload-Offset", 0).content(image))
+                .andExpect(status().isContentTooLarge());
+        mockMvc.perform(delete(location)).andExpect(status().isNoContent());
+        mockMvc.perform(head(location)).andExpect(status().isNotFound());
+    }
+
+    private String createUpload(long length) throws Exception {
+        return mockMvc.perform(post("/api/posts/" + testPostId + "/image/uploads").header("Upload-Length", length))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.offset").value(0))
+                .andExpect(jsonPath("$.length").value(length))
+                .andExpect(header().string(HttpHeaders.LOCATION, startsWith("/api/posts/" + testPostId + "/image/uploads/")))
+                .andReturn().getResponse().getHeader(HttpHeaders.LOCATION);
+    }
+}
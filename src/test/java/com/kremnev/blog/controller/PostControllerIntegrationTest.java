@@ -1,22 +1,31 @@
 package com.kremnev.blog.controller;
 
+import com.kremnev.blog.dto.PostsResponseDto;
 import com.kremnev.blog.dto.Request.CreatePostRequest;
 import com.kremnev.blog.dto.Request.UpdatePostRequest;
+import com.kremnev.blog.service.BlobService;
 import org.junit.jupiter.api.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.context.WebApplicationContext;
 import tools.jackson.databind.ObjectMapper;
+import tools.jackson.dataformat.cbor.CBORMapper;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.util.List;
+import java.util.stream.LongStream;
 
 import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -35,9 +44,15 @@ class PostControllerIntegrationTest {
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private CBORMapper cborMapper;
+
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private BlobService blobService;
+
     @BeforeEach
     void setUp() {
         mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
@@ -87,6 +102,125 @@ class PostControllerIntegrationTest {
                 .andExpect(jsonPath("$.hasPrev").value(false));
     }
 
+    @Test
+    @DisplayName("Should list posts with their tags and counters")
+    void testGetAllPostsContent() throws Exception {
+        createTestPost("Post 1", "Content \"quoted\"", List.of("java", "spring"));
+
+        mockMvc.perform(get("/api/posts"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/json"))
+                .andExpect(jsonPath("$.posts[0].title").value("Post 1"))
+                .andExpect(jsonPath("$.posts[0].text").value("Content \"quoted\""))
+                .andExpect(jsonPath("$.posts[0].tags", containsInAnyOrder("java", "spring")))
+                .andExpect(jsonPath("$.posts[0].likesCount").value(0))
+                .andExpect(jsonPath("$.posts[0].commentsCount").value(0))
+                .andExpect(jsonPath("$.lastPage").value(1));
+    }
+
+    @Test
+    @DisplayName("Should answer Accept: application/cbor with CBOR listings and posts")
+    void testCbor() throws Exception {
+        Long postId = createTestPost("Post 1", "Content", List.of("java"));
+
+        byte[] listing = mockMvc.perform(get("/api/posts").accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andReturn().getResponse().getContentAsByteArray();
+        PostsResponseDto posts = cborMapper.readValue(listing, PostsResponseDto.class);
+        assertEquals(postId, posts.posts().getFirst().id());
+        assertEquals("Content", posts.posts().getFirst().text());
+        assertEquals(List.of("java"), posts.posts().getFirst().tags());
+        assertEquals(1, posts.lastPage());
+
+        byte[] post = mockMvc.perform(get("/api/posts/" + postId).accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andReturn().getResponse().getContentAsByteArray();
+        assertEquals("Post 1", cborMapper.readTree(post).get("title").asString());
+
+        mockMvc.perform(get("/api/posts").accept(MediaType.APPLICATION_XML))
+                .andExpect(status().isNotAcceptable());
+    }
+
+    @Test
+    @DisplayName("Should return only the requested fields in listings and single posts")
+    void testSparseFieldsets() throws Exception {
+        Long postId = createTestPost("Post 1", "Long content", List.of("java"));
+
+        mockMvc.perform(get("/api/posts").param("fields", "title,likesCount"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.posts[0].id").value(postId))
+                .andExpect(jsonPath("$.posts[0].title").value("Post 1"))
+                .andExpect(jsonPath("$.posts[0].likesCount").value(0))
+                .andExpect(jsonPath("$.posts[0].text").doesNotExist())
+                .andExpect(jsonPath("$.posts[0].tags").doesNotExist())
+                .andExpect(jsonPath("$.posts[0].commentsCount").doesNotExist())
+                .andExpect(jsonPath("$.hasNext").exists());
+
+        mockMvc.perform(get("/api/posts/" + postId).param("fields", "tags"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value(postId))
+                .andExpect(jsonPath("$.tags[0]").value("java"))
+                .andExpect(jsonPath("$.title").doesNotExist())
+                .andExpect(jsonPath("$.text").doesNotExist())
+                .andExpect(jsonPath("$.likesCount").doesNotExist());
+    }
+
+    @Test
+    @DisplayName("Should reject unknown fields")
+    void testUnknownField() throws Exception {
+        Long postId = createTestPost("Post 1", "Content", List.of());
+
+        mockMvc.perform(get("/api/posts").param("fields", "title,secret"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/posts/" + postId).param("fields", "password"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @DisplayName("Should get several posts by id in the requested order with not-found markers")
+    void testGetPostsByIds() throws Exception {
+        Long first = createTestPost("Post 1", "Content 1", List.of("java"));
+        Long second = createTestPost("Post 2", "Content 2", List.of());
+        long missing = second + 1000;
+
+        mockMvc.perform(get("/api/posts").param("ids", second + "," + missing + "," + first + "," + second))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(3)))
+                .andExpect(jsonPath("$[0].id").value(second))
+                .andExpect(jsonPath("$[0].found").value(true))
+                .andExpect(jsonPath("$[0].post.title").value("Post 2"))
+                .andExpect(jsonPath("$[1].id").value(missing))
+                .andExpect(jsonPath("$[1].found").value(false))
+                .andExpect(jsonPath("$[1].post").doesNotExist())
+                .andExpect(jsonPath("$[2].id").value(first))
+                .andExpect(jsonPath("$[2].post.tags[0]").value("java"));
+
+        mockMvc.perform(get("/api/posts").param("ids", String.valueOf(first)).param("fields", "title"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].post.title").value("Post 1"))
+                .andExpect(jsonPath("$[0].post.text").doesNotExist());
+    }
+
+    @Test
+    @DisplayName("Should reject a multi-get of more than 100 posts")
+    void testGetPostsByIdsLimit() throws Exception {
+        String ids = String.join(",", LongStream.rangeClosed(1, 101).mapToObj(String::valueOf).toList());
+
+        mockMvc.perform(get("/api/posts").param("ids", ids))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").exists());
+    }
+
+    @Test
+    @DisplayName("Should reject a multi-get with an empty id")
+    void testGetPostsByIdsEmptyId() throws Exception {
+        mockMvc.perform(get("/api/posts").param("ids", "1,,2"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").exists());
+    }
+
     @Test
     @DisplayName("Should search posts by title")
     void testSearchPostsByTitle() throws Exception {
@@ -169,6 +303,77 @@ class PostControllerIntegrationTest {
                 .andExpect(jsonPath("$.commentsCount").value(2));
     }
 
+    @Test
+    @DisplayName("Should embed first page of comments and image metadata when requested")
+    void testGetPostByIdWithIncludes() throws Exception {
+        Long postId = createTestPost("Test Post", "Content", List.of("java"));
+        for (int i = 1; i <= 3; i++) {
+            jdbcTemplate.update("INSERT INTO comments (post_id, text) VALUES (?, ?)", postId, "Comment " + i);
+        }
+
+        BufferedImage img = new BufferedImage(4, 3, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(img, "png", png);
+        blobService.upsert(postId, new MockMultipartFile("image", "cover.png", "image/png", png.toByteArray()));
+
+        mockMvc.perform(get("/api/posts/" + postId)
+                        .param("include", "comments,image")
+                        .param("commentsPageSize", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value(postId))
+                .andExpect(jsonPath("$.tags", hasItems("java")))
+                .andExpect(jsonPath("$.commentsCount").value(3))
+                .andExpect(jsonPath("$.comments", hasSize(2)))
+                .andExpect(jsonPath("$.comments[0].text").value("Comment 1"))
+                .andExpect(jsonPath("$.image.present").value(true))
+                .andExpect(jsonPath("$.image.contentType").value("image/png"))
+                .andExpect(jsonPath("$.image.width").value(4))
+                .andExpect(jsonPath("$.image.height").value(3));
+    }
+
+    @Test
+    @DisplayName("Should reject a comments page size below 1 or above 100")
+    void testCommentsPageSizeBounds() throws Exception {
+        Long postId = createTestPost("Test Post", "Content", List.of());
+
+        for (String size : List.of("0", "-1", "101")) {
+            mockMvc.perform(get("/api/posts/" + postId).param("include", "comments").param("commentsPageSize", size))
+                    .andExpect(status().isBadRequest())
+                    .andExpect(jsonPath("$.message").exists());
+        }
+        mockMvc.perform(get("/api/posts/" + postId).param("include", "comments").param("commentsPageSize", "100"))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    @DisplayName("Should reject a listing page size below 1 and accept large ones")
+    void testPageSizeBounds() throws Exception {
+        for (String size : List.of("0", "-1")) {
+            mockMvc.perform(get("/api/posts").param("pageSize", size))
+                    .andExpect(status().isBadRequest());
+        }
+        for (String size : List.of("100", "101")) {
+            mockMvc.perform(get("/api/posts").param("pageSize", size))
+                    .andExpect(status().isOk());
+        }
+    }
+
+    @Test
+    @DisplayName("Should omit embedded sections unless requested and report a missing image")
+    void testGetPostByIdIncludesAbsentImage() throws Exception {
+        Long postId = createTestPost("Test Post", "Content", List.of());
+
+        mockMvc.perform(get("/api/posts/" + postId))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.comments").doesNotExist())
+                .andExpect(jsonPath("$.image").doesNotExist());
+
+        mockMvc.perform(get("/api/posts/" + postId).param("include", "image"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.comments").doesNotExist())
+                .andExpect(jsonPath("$.image.present").value(false));
+    }
+
     @Test
     @DisplayName("Should handle pagination boundaries")
     void testPaginationBoundaries() throws Exception {
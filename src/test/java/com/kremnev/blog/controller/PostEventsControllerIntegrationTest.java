@@ -0,0 +1,232 @@
+package com.kremnev.blog.controller;
+
+import com.kremnev.blog.concurrency.BulkheadFullException;
+import com.kremnev.blog.service.CommentService;
+import com.kremnev.blog.service.PostService;
+import com.kremnev.blog.web.PostEventHub;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.Filter;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+// Not @Transactional: updates are pushed after commit, from another thread
+@SpringBootTest(properties = "events.min-interval=300ms")
+@ActiveProfiles("test")
+@DisplayName("PostEventsController Integration Tests")
+class PostEventsControllerIntegrationTest {
+
+    private static final String STALL_HEADER = "X-Stall";
+
+    private MockMvc mockMvc;
+
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PostService postService;
+
+    @Autowired
+    private CommentService commentService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private Long testPostId;
+
+    @BeforeEach
+    void setUp() {
+        mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+        cleanUp();
+        testPostId = postService.create("Test Post", "Content", List.of()).getId();
+    }
+
+    @AfterEach
+    void cleanUp() {
+        jdbcTemplate.execute("DELETE FROM post_tags");
+        jdbcTemplate.execute("DELETE FROM comments");
+        jdbcTemplate.execute("DELETE FROM tags");
+        jdbcTemplate.execute("DELETE FROM posts");
+    }
+
+    @Test
+    @DisplayName("Should start the stream with the current counts")
+    void testInitialCounts() throws Exception {
+        MvcResult result = mockMvc.perform(get("/api/posts/" + testPostId + "/events"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        String content = result.getResponse().getContentAsString();
+        assertTrue(content.startsWith("event:counts\ndata:{\"id\":" + testPostId + ",\"likesCount\":0,\"commentsCount\":0}"),
+                content);
+    }
+
+    @Test
+    @DisplayName("Should push coalesced count updates")
+    void testCoalescedUpdates() throws Exception {
+        MockHttpServletResponse response = mockMvc.perform(get("/api/posts/" + testPostId + "/events"))
+                .andExpect(request().asyncStarted())
+                .andReturn()
+                .getResponse();
+        double coalescedBefore = meterRegistry.counter("blog.events.coalesced").count();
+
+        postService.addLike(testPostId);
+        awaitContent(response, content -> content.contains("\"likesCount\":1"));
+        for (int i = 0; i < 5; i++) postService.addLike(testPostId);
+        commentService.create(testPostId, "Comment");
+        awaitContent(response, content -> content.contains("\"likesCount\":6,\"commentsCount\":1"));
+
+        // One push for the first like, then at most two more for the burst that followed within the interval
+        String content = response.getContentAsString();
+        int pushes = content.split("event:counts", -1).length - 2;
+        assertTrue(pushes <= 3, content);
+        assertTrue(meterRegistry.counter("blog.events.coalesced").count() - coalescedBefore >= 4);
+    }
+
+    @Test
+    @DisplayName("Should close the stream when the post is deleted")
+    void testDeletedPost() throws Exception {
+        MockHttpServletResponse response = mockMvc.perform(get("/api/posts/" + testPostId + "/events"))
+                .andExpect(request().asyncStarted())
+                .andReturn()
+                .getResponse();
+
+        postService.delete(testPostId);
+        awaitContent(response, content -> content.contains("event:deleted"));
+    }
+
+    @Test
+    @DisplayName("Should return 404 for a missing post")
+    void testMissingPost() throws Exception {
+        mockMvc.perform(get("/api/posts/" + (testPostId + 1000) + "/events"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    @DisplayName("Should turn subscribers past events.max-subscribers away")
+    void testSubscriberLimit() {
+        var hub = new PostEventHub(postService, objectMapper, Duration.ofSeconds(1), Duration.ofMinutes(30), 1,
+                new SimpleMeterRegistry());
+        try {
+            // A missing post gives its slot back
+            assertTrue(hub.subscribe(testPostId + 1000).isEmpty());
+            assertTrue(hub.subscribe(testPostId).isPresent());
+            assertThrows(BulkheadFullException.class, () -> hub.subscribe(testPostId));
+        } finally {
+            hub.destroy();
+        }
+    }
+
+    @Test
+    @DisplayName("Should keep pushing to other subscribers while one has stopped reading")
+    void testStalledSubscriber() throws Exception {
+        var stall = new AtomicBoolean();
+        var unstall = new CountDownLatch(1);
+        MockMvc stallable = MockMvcBuilders.webAppContextSetup(webApplicationContext)
+                .addFilter(stallingFilter(stall, unstall))
+                .build();
+        stallable.perform(get("/api/posts/" + testPostId + "/events").header(STALL_HEADER, "true"))
+                .andExpect(request().asyncStarted());
+        MockHttpServletResponse response = stallable.perform(get("/api/posts/" + testPostId + "/events"))
+                .andExpect(request().asyncStarted())
+                .andReturn()
+                .getResponse();
+
+        stall.set(true);
+        try {
+            postService.addLike(testPostId);
+            awaitContent(response, content -> content.contains("\"likesCount\":1"));
+            postService.addLike(testPostId);
+            awaitContent(response, content -> content.contains("\"likesCount\":2"));
+        } finally {
+            unstall.countDown();
+        }
+    }
+
+    // Once stall is set, writes to requests carrying the header block like a peer that stopped reading
+    private static Filter stallingFilter(AtomicBoolean stall, CountDownLatch unstall) {
+        return (request, response, chain) -> {
+            if (((HttpServletRequest) request).getHeader(STALL_HEADER) == null) {
+                chain.doFilter(request, response);
+                return;
+            }
+            ServletOutputStream out = response.getOutputStream();
+            chain.doFilter(request, new HttpServletResponseWrapper((HttpServletResponse) response) {
+                @Override
+                public ServletOutputStream getOutputStream() {
+                    return new ServletOutputStream() {
+                        @Override
+                        public void write(int b) throws IOException {
+                            awaitUnstalled();
+                            out.write(b);
+                        }
+
+                        @Override
+                        public void write(byte[] b, int off, int len) throws IOException {
+                            awaitUnstalled();
+                            out.write(b, off, len);
+                        }
+
+                        @Override
+                        public boolean isReady() {
+                            return true;
+                        }
+
+                        @Override
+                        public void setWriteListener(WriteListener listener) {
+                        }
+
+                        private void awaitUnstalled() throws IOException {
+                            if (!stall.get()) return;
+                            try {
+                                unstall.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                throw new IOException(e);
+                            }
+                        }
+                    };
+                }
+            });
+        };
+    }
+
+    private static void awaitContent(MockHttpServletResponse response, Predicate<String> condition) throws Exception {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!condition.test(response.getContentAsString())) {
+            if (System.nanoTime() > deadline) fail("Not pushed: " + response.getContentAsString());
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.kremnev.blog.repository;
+
+import com.kremnev.blog.concurrency.QueryBudget;
+import com.kremnev.blog.model.Post;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@DisplayName("BatchingPostRepository Tests")
+class BatchingPostRepositoryTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private PostRepositoryImpl delegate;
+    private SimpleMeterRegistry registry;
+    private BatchingPostRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        delegate = mock(PostRepositoryImpl.class);
+        registry = new SimpleMeterRegistry();
+        when(delegate.findAllByIds(anyCollection())).thenAnswer(invocation -> {
+            Collection<Long> ids = invocation.getArgument(0);
+            return ids.stream()
+                    .filter(id -> id < 100)
+                    .map(id -> new Post(id, "Post " + id, "Text", new ArrayList<>(), 0, 0))
+                    .toList();
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        repository.destroy();
+    }
+
+    @Test
+    @DisplayName("Should merge concurrent lookups into one batch query")
+    void testConcurrentLookupsAreBatched() throws Exception {
+        repository = new BatchingPostRepository(delegate, Duration.ofMillis(200), 64, TIMEOUT, registry);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<Optional<Post>>> calls = new ArrayList<>();
+            for (long id = 1; id <= 8; id++) {
+                long postId = id;
+                calls.add(() -> repository.findById(postId));
+            }
+
+            List<Future<Optional<Post>>> results = pool.invokeAll(calls);
+
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals(i + 1L, results.get(i).get().orElseThrow().getId());
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        verify(delegate, times(1)).findAllByIds(anyCollection());
+        verify(delegate, never()).findById(anyLong());
+        assertEquals(1, registry.get("blog.posts.loader.batch.size").summary().count());
+        assertEquals(8, registry.get("blog.posts.loader.batch.size").summary().totalAmount());
+    }
+
+    @Test
+    @DisplayName("Should dispatch as soon as the batch is full")
+    void testFullBatchIsDispatchedImmediately() throws Exception {
+        repository = new BatchingPostRepository(delegate, Duration.ofMinutes(1), 1, TIMEOUT, registry);
+
+        assertTrue(repository.findById(5L).isPresent());
+
+        verify(delegate, times(1)).findAllByIds(argThat(ids -> ids.size() == 1 && ids.contains(5L)));
+    }
+
+    @Test
+    @DisplayName("Should answer missing ids with an empty optional")
+    void testMissingId() {
+        repository = new BatchingPostRepository(delegate, Duration.ofMillis(1), 64, TIMEOUT, registry);
+
+        assertTrue(repository.findById(500L).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Should propagate batch failures to every waiting caller")
+    void testFailureIsPropagated() {
+        repository = new BatchingPostRepository(delegate, Duration.ofMillis(1), 64, TIMEOUT, registry);
+        when(delegate.findAllByIds(anyCollection())).thenThrow(new DataAccessResourceFailureException("down"));
+
+        assertThrows(DataAccessResourceFailureException.class, () -> repository.findById(1L));
+    }
+
+    @Test
+    @DisplayName("Should bypass batching inside a transaction")
+    void testBypassInTransaction() {
+        repository = new BatchingPostRepository(delegate, Duration.ofMillis(1), 64, TIMEOUT, registry);
+        when(delegate.findById(1L)).thenReturn(Optional.empty());
+
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+        try {
+            repository.findById(1L);
+        } finally {
+            TransactionSynchronizationManager.setActualTransactionActive(false);
+        }
+
+        verify(delegate, times(1)).findById(1L);
+        verify(delegate, never()).findAllByIds(anyCollection());
+    }
+
+    @Test
+    @DisplayName("Should stop waiting for the batch when the caller's budget runs out")
+    void testWaitBoundedByBudget() {
+        repository = new BatchingPostRepository(delegate, Duration.ofMillis(1), 64, TIMEOUT, registry);
+        CountDownLatch release = new CountDownLatch(1);
+        when(delegate.findAllByIds(anyCollection())).thenAnswer(invocation -> {
+            release.await();
+            return List.of();
+        });
+
+        try (var ignored = QueryBudget.open("GET /api/posts/{id}", Duration.ofMillis(100))) {
+            long start = System.nanoTime();
+            assertThrows(QueryTimeoutException.class, () -> repository.findById(1L));
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        } finally {
+            release.countDown();
+        }
+
+        assertEquals(1, registry.get("blog.posts.loader.timeouts").counter().count());
+    }
+
+    @Test
+    @DisplayName("Should run the batch until its last caller stops waiting, timing out short budgets alone")
+    void testBatchRunsUnderLatestBudget() throws Exception {
+        repository = new BatchingPostRepository(delegate, Duration.ofMillis(200), 64, TIMEOUT, registry);
+        AtomicReference<String> route = new AtomicReference<>();
+        AtomicLong remaining = new AtomicLong();
+        when(delegate.findAllByIds(anyCollection())).thenAnswer(invocation -> {
+            QueryBudget budget = QueryBudget.current();
+            route.set(budget.getRoute());
+            remaining.set(budget.remainingNanos());
+            Thread.sleep(500);
+            return List.of(new Post(1L, "Post 1", "Text", new ArrayList<>(), 0, 0));
+        });
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<Optional<Post>> loose = pool.submit(() -> {
+                try (var ignored = QueryBudget.open("loose", Duration.ofSeconds(30))) {
+                    return repository.findById(1L);
+                }
+            });
+            Future<Optional<Post>> tight = pool.submit(() -> {
+                try (var ignored = QueryBudget.open("tight", Duration.ofMillis(300))) {
+                    return repository.findById(2L);
+                }
+            });
+
+            var failure = assertThrows(ExecutionException.class, tight::get);
+            assertInstanceOf(QueryTimeoutException.class, failure.getCause());
+            assertEquals(1L, loose.get().orElseThrow().getId());
+        } finally {
+            pool.shutdown();
+        }
+
+        verify(delegate, times(1)).findAllByIds(anyCollection());
+        assertEquals("post-loader", route.get());
+        assertTrue(remaining.get() > TimeUnit.SECONDS.toNanos(10));
+        assertNull(QueryBudget.current());
+    }
+}
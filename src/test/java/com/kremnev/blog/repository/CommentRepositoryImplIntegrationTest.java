@@ -59,6 +59,20 @@ class CommentRepositoryImplIntegrationTest {
         assertNotNull(created.getUpdatedAt());
     }
 
+    @Test
+    @DisplayName("Should find first page of comments in creation order")
+    void testFindFirstPageByPostId() {
+        Comment first = commentRepository.create(testPostId, "First");
+        Comment second = commentRepository.create(testPostId, "Second");
+        commentRepository.create(testPostId, "Third");
+
+        List<Comment> page = commentRepository.findFirstPageByPostId(testPostId, 2);
+
+        assertEquals(2, page.size());
+        assertEquals(first.getId(), page.get(0).getId());
+        assertEquals(second.getId(), page.get(1).getId());
+    }
+
     @Test
     @DisplayName("Should find comment by id")
     void testFindById() {
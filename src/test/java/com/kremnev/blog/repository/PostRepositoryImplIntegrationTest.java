@@ -1,6 +1,7 @@
 package com.kremnev.blog.repository;
 
 import com.kremnev.blog.model.Post;
+import com.kremnev.blog.model.PostField;
 import org.junit.jupiter.api.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -9,8 +10,10 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -84,6 +87,34 @@ class PostRepositoryImplIntegrationTest {
         assertFalse(found.isPresent());
     }
 
+    @Test
+    @DisplayName("Should find several posts with tags in one call and skip missing ids")
+    void testFindAllByIds() {
+        Post first = postRepository.create("First", "Content", List.of("java"));
+        Post second = postRepository.create("Second", "Content", List.of("spring", "testing"));
+
+        List<Post> found = postRepository.findAllByIds(List.of(first.getId(), second.getId(), 999L));
+
+        assertEquals(2, found.size());
+        Post foundSecond = found.stream().filter(p -> p.getId().equals(second.getId())).findFirst().orElseThrow();
+        assertEquals(2, foundSecond.getTags().size());
+        assertTrue(postRepository.findAllByIds(List.of()).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Should count and scan all post ids")
+    void testCountAndScanIds() {
+        Post first = postRepository.create("First", "Content", List.of());
+        Post second = postRepository.create("Second", "Content", List.of());
+
+        List<Long> ids = new java.util.ArrayList<>();
+        postRepository.forEachId(ids::add);
+
+        assertEquals(2, postRepository.countAll());
+        assertEquals(2, ids.size());
+        assertTrue(ids.containsAll(List.of(first.getId(), second.getId())));
+    }
+
     @Test
     @DisplayName("Should find all posts with pagination")
     void testFindAllWithPagination() {
@@ -91,13 +122,52 @@ class PostRepositoryImplIntegrationTest {
         postRepository.create("Post 2", "Content 2", List.of("spring"));
         postRepository.create("Post 3", "Content 3", List.of("testing"));
 
-        Pair<List<Post>, Integer> result = postRepository.findAll(null, 1, 2);
+        Pair<List<Post>, Integer> result = postRepository.findAll(null, 1, 2, EnumSet.allOf(PostField.class));
 
         assertNotNull(result);
         assertEquals(2, result.getFirst().size());
         assertEquals(3, result.getSecond());
     }
 
+    @Test
+    @DisplayName("Should read a page with each post's tags merged in from the tag cursor")
+    void testFindAllWithFields() {
+        Post oldest = postRepository.create("Post 1", "Content 1", List.of("java", "spring"));
+        Post untagged = postRepository.create("Post 2", "Content 2", List.of());
+        Post newest = postRepository.create("Post 3", "Content 3", List.of("testing"));
+        jdbcTemplate.update("UPDATE posts SET created_at = TIMESTAMP '2024-01-01 00:00:00' WHERE id IN (?, ?, ?)",
+                oldest.getId(), untagged.getId(), newest.getId());
+
+        Pair<List<Post>, Integer> result = postRepository.findAll(null, 1, 10, EnumSet.allOf(PostField.class));
+        Pair<List<Post>, Integer> sparse = postRepository.findAll(null, 1, 10, EnumSet.of(PostField.ID, PostField.TITLE));
+
+        assertEquals(3, result.getSecond());
+        // Same timestamp everywhere, so the id decides
+        List<Post> page = result.getFirst();
+        assertEquals(List.of(newest.getId(), untagged.getId(), oldest.getId()), page.stream().map(Post::getId).toList());
+        assertEquals(List.of("testing"), page.get(0).getTags());
+        assertEquals(List.of(), page.get(1).getTags());
+        assertEquals(Set.of("java", "spring"), Set.copyOf(page.get(2).getTags()));
+        assertEquals("Content 3", page.get(0).getText());
+
+        assertEquals("Post 3", sparse.getFirst().get(0).getTitle());
+        assertNull(sparse.getFirst().get(0).getText());
+        assertTrue(sparse.getFirst().get(0).getTags().isEmpty());
+    }
+
+    @Test
+    @DisplayName("Should load only the requested fields of a post")
+    void testFindByIdWithFields() {
+        Post created = postRepository.create("Title", "Content", List.of("java"));
+
+        Post sparse = postRepository.findById(created.getId(), EnumSet.of(PostField.ID, PostField.TITLE)).orElseThrow();
+
+        assertEquals("Title", sparse.getTitle());
+        assertNull(sparse.getText());
+        assertTrue(sparse.getTags().isEmpty());
+        assertTrue(postRepository.findById(999_999L, EnumSet.of(PostField.ID)).isEmpty());
+    }
+
     @Test
     @DisplayName("Should search posts by title")
     void testSearchByTitle() {
@@ -105,7 +175,7 @@ class PostRepositoryImplIntegrationTest {
         postRepository.create("Spring Boot Guide", "Content 2", List.of());
         postRepository.create("Testing Guide", "Content 3", List.of());
 
-        Pair<List<Post>, Integer> result = postRepository.findAll("java", 1, 10);
+        Pair<List<Post>, Integer> result = postRepository.findAll("java", 1, 10, EnumSet.allOf(PostField.class));
 
         assertEquals(1, result.getFirst().size());
         assertEquals(1, result.getSecond());
@@ -220,7 +290,7 @@ class PostRepositoryImplIntegrationTest {
         jdbcTemplate.update("INSERT INTO comments (post_id, text) VALUES (?, ?)", post2.getId(), "Comment 1");
         jdbcTemplate.update("INSERT INTO comments (post_id, text) VALUES (?, ?)", post2.getId(), "Comment 2");
 
-        Pair<List<Post>, Integer> result = postRepository.findAll(null, 1, 10);
+        Pair<List<Post>, Integer> result = postRepository.findAll(null, 1, 10, EnumSet.allOf(PostField.class));
 
         Post foundPost1 = result.getFirst().stream()
                 .filter(p -> p.getId().equals(post1.getId()))
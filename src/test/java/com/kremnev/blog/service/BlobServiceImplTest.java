@@ -1,40 +1,90 @@
 package com.kremnev.blog.service;
 
+import com.kremnev.blog.cache.ImageBytesCache;
+import com.kremnev.blog.cache.ImageRefCache;
+import com.kremnev.blog.cache.NegativeLookupCache;
+import com.kremnev.blog.concurrency.Bulkhead;
+import com.kremnev.blog.concurrency.SingleFlight;
+import com.kremnev.blog.model.ImageMetadata;
+import com.kremnev.blog.model.StoredImage;
+import com.kremnev.blog.repository.ImageRepositoryImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.core.io.Resource;
 import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 @SpringBootTest
 @ActiveProfiles("test")
+@Transactional
 @DisplayName("BlobServiceImpl Tests")
 class BlobServiceImplTest {
 
     @TempDir
     Path tempDir;
 
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private NegativeLookupCache negativeLookupCache;
+    private ImageVariantGenerator variantGenerator;
+    private LegacyImageImporter legacyImporter;
+    private ImageBytesCache imageBytesCache;
+    private ImageRefCache imageRefCache;
     private BlobServiceImpl blobService;
 
     @BeforeEach
     void setUp() {
-        blobService = new BlobServiceImpl(tempDir.toString());
+        // Image references require the post to exist
+        for (long postId : List.of(1L, 2L, 3L, 4L, 5L, 100L)) {
+            jdbcTemplate.update("INSERT INTO posts (id, title, text) VALUES (?, 'Post', 'Content')", postId);
+        }
+
+        negativeLookupCache = new NegativeLookupCache(Duration.ofSeconds(30), 1000, 1000, new SimpleMeterRegistry());
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        variantGenerator = new ImageVariantGenerator(new BlobLayout(tempDir.toString(), 2), new int[]{160, 320}, 1, 16, 40_000_000,
+                new SingleFlight(Duration.ofSeconds(5), registry), registry);
+        ImageRepositoryImpl imageRepository = new ImageRepositoryImpl(jdbcTemplate);
+        legacyImporter = new LegacyImageImporter(new BlobLayout(tempDir.toString(), 2), imageRepository);
+        imageBytesCache = new ImageBytesCache(true, DataSize.ofKilobytes(64), DataSize.ofKilobytes(16), registry);
+        imageRefCache = new ImageRefCache(Duration.ofSeconds(10), 100, registry);
+        blobService = new BlobServiceImpl(new BlobLayout(tempDir.toString(), 2), DataSize.ofKilobytes(64), imageRepository,
+                variantGenerator, imageBytesCache, imageRefCache, negativeLookupCache,
+                new Bulkhead("image-io", 4, Duration.ofSeconds(1), registry));
     }
 
     @AfterEach
-    void tearDown() throws IOException {
+    void tearDown() throws Exception {
+        variantGenerator.destroy();
         if (Files.exists(tempDir)) {
             Files.walk(tempDir)
                     .sorted((a, b) -> -a.compareTo(b))
@@ -60,15 +110,12 @@ class BlobServiceImplTest {
                 "test image content".getBytes()
         );
 
-        assertDoesNotThrow(() -> blobService.upsert(1L, file));
+        assertTrue(blobService.upsert(1L, file));
 
-        Path postDir = tempDir.resolve("1");
-        assertTrue(Files.exists(postDir));
-        assertTrue(Files.isDirectory(postDir));
-
-        Path imagePath = postDir.resolve("image.jpg");
-        assertTrue(Files.exists(imagePath));
+        Path imagePath = storedPath(1L);
+        assertTrue(imagePath.startsWith(tempDir.resolve("blobs")));
         assertTrue(Files.isRegularFile(imagePath));
+        assertFalse(Files.exists(tempDir.resolve("1")));
 
         String content = Files.readString(imagePath);
         assertEquals("test image content", content);
@@ -86,9 +133,9 @@ class BlobServiceImplTest {
 
         blobService.upsert(2L, file);
 
-        Path imagePath = tempDir.resolve("2").resolve("image.png");
-        assertTrue(Files.exists(imagePath));
-        assertEquals("png content", Files.readString(imagePath));
+        StoredImage image = blobService.getImage(2L).orElseThrow();
+        assertEquals("image/png", image.getContentType());
+        assertEquals("png content", Files.readString(image.getPath()));
     }
 
     @Test
@@ -103,8 +150,7 @@ class BlobServiceImplTest {
 
         blobService.upsert(3L, file);
 
-        Path imagePath = tempDir.resolve("3").resolve("image");
-        assertTrue(Files.exists(imagePath));
+        assertTrue(Files.exists(storedPath(3L)));
     }
 
     @Test
@@ -142,7 +188,7 @@ class BlobServiceImplTest {
     }
 
     @Test
-    @DisplayName("Should replace existing image when upserting to same post id")
+    @DisplayName("Should replace existing image by swapping the post's blob reference")
     void testUpsertReplaceExisting() throws IOException {
         MultipartFile file1 = new MockMultipartFile(
                 "image",
@@ -151,6 +197,7 @@ class BlobServiceImplTest {
                 "old content".getBytes()
         );
         blobService.upsert(1L, file1);
+        Path oldPath = storedPath(1L);
 
         MultipartFile file2 = new MockMultipartFile(
                 "image",
@@ -160,9 +207,11 @@ class BlobServiceImplTest {
         );
         blobService.upsert(1L, file2);
 
-        Path imagePath = tempDir.resolve("1").resolve("image.jpg");
-        assertTrue(Files.exists(imagePath));
+        Path imagePath = storedPath(1L);
+        assertNotEquals(oldPath, imagePath);
         assertEquals("new content", Files.readString(imagePath));
+        // The previous blob is left for garbage collection
+        assertEquals("old content", Files.readString(oldPath));
     }
 
     @Test
@@ -177,8 +226,7 @@ class BlobServiceImplTest {
 
         assertDoesNotThrow(() -> blobService.upsert(1L, file));
 
-        Path imagePath = tempDir.resolve("1").resolve("image.jpg");
-        assertTrue(Files.exists(imagePath));
+        assertTrue(Files.exists(storedPath(1L)));
     }
 
     @Test
@@ -209,10 +257,26 @@ class BlobServiceImplTest {
     }
 
     @Test
-    @DisplayName("Should return empty optional when post directory exists but has no files")
+    @DisplayName("Should serve a recently read image without the database and see its own replacements")
+    void testImageRowIsCached() throws IOException {
+        blobService.upsert(1L, new MockMultipartFile("image", "a.jpg", "image/jpeg", "first".getBytes()));
+        String firstHash = blobService.getImage(1L).orElseThrow().getHash();
+
+        blobService.upsert(1L, new MockMultipartFile("image", "b.jpg", "image/jpeg", "second".getBytes()));
+        String secondHash = blobService.getImage(1L).orElseThrow().getHash();
+        assertNotEquals(firstHash, secondHash);
+
+        // Gone from the database, as if written by another instance; still served until the TTL ends
+        jdbcTemplate.update("DELETE FROM images WHERE post_id = 1");
+        assertEquals(secondHash, blobService.getImage(1L).orElseThrow().getHash());
+    }
+
+    @Test
+    @DisplayName("Should return empty optional when legacy post directory exists but has no files")
     void testGetEmptyDirectory() throws IOException {
         Path postDir = tempDir.resolve("1");
         Files.createDirectories(postDir);
+        assertEquals(0, legacyImporter.importAll());
 
         Optional<Resource> result = blobService.get(1L);
 
@@ -220,12 +284,13 @@ class BlobServiceImplTest {
     }
 
     @Test
-    @DisplayName("Should get first file when multiple files exist in directory")
+    @DisplayName("Should get first file when multiple files exist in legacy directory")
     void testGetWithMultipleFiles() throws IOException {
         Path postDir = tempDir.resolve("1");
         Files.createDirectories(postDir);
         Files.writeString(postDir.resolve("image1.jpg"), "content1");
         Files.writeString(postDir.resolve("image2.jpg"), "content2");
+        assertEquals(1, legacyImporter.importAll());
 
         Optional<Resource> result = blobService.get(1L);
 
@@ -234,9 +299,9 @@ class BlobServiceImplTest {
     }
 
     @Test
-    @DisplayName("Should create nested directory structure when upserting")
+    @DisplayName("Should publish the blob under directories sharded by its hash")
     void testUpsertCreatesDirectories() throws IOException {
-        assertFalse(Files.exists(tempDir.resolve("100")));
+        assertFalse(Files.exists(tempDir.resolve("blobs")));
 
         MultipartFile file = new MockMultipartFile(
                 "image",
@@ -246,8 +311,10 @@ class BlobServiceImplTest {
         );
         blobService.upsert(100L, file);
 
-        assertTrue(Files.exists(tempDir.resolve("100")));
-        assertTrue(Files.exists(tempDir.resolve("100").resolve("image.jpg")));
+        String hash = blobService.getImage(100L).orElseThrow().getHash();
+        Path expected = tempDir.resolve("blobs").resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+        assertEquals(expected, storedPath(100L));
+        assertTrue(Files.isRegularFile(expected));
     }
 
     @Test
@@ -262,8 +329,7 @@ class BlobServiceImplTest {
 
         blobService.upsert(1L, file);
 
-        Path imagePath = tempDir.resolve("1").resolve("image.jpg");
-        assertTrue(Files.exists(imagePath));
+        assertTrue(Files.exists(storedPath(1L)));
     }
 
     @Test
@@ -278,10 +344,7 @@ class BlobServiceImplTest {
 
         blobService.upsert(1L, file);
 
-        Path postDir = tempDir.resolve("1");
-        assertTrue(Files.exists(postDir));
-        Path imagePath = postDir.resolve("image");
-        assertTrue(Files.exists(imagePath));
+        assertTrue(Files.exists(storedPath(1L)));
     }
 
     @Test
@@ -297,8 +360,7 @@ class BlobServiceImplTest {
 
         blobService.upsert(1L, file);
 
-        Path imagePath = tempDir.resolve("1").resolve("image.jpg");
-        byte[] savedContent = Files.readAllBytes(imagePath);
+        byte[] savedContent = Files.readAllBytes(storedPath(1L));
         assertArrayEquals(originalContent, savedContent);
     }
 
@@ -319,8 +381,241 @@ class BlobServiceImplTest {
             long postId = i + 1;
             assertDoesNotThrow(() -> blobService.upsert(postId, file));
 
-            Path imagePath = tempDir.resolve(String.valueOf(postId)).resolve("image" + extensions[i]);
-            assertTrue(Files.exists(imagePath), "Image with format " + formats[i] + " should exist");
+            StoredImage image = blobService.getImage(postId).orElseThrow();
+            assertEquals(formats[i], image.getContentType(), "Image with format " + formats[i] + " should exist");
+            assertTrue(Files.exists(image.getPath()));
+        }
+    }
+
+    @Test
+    @DisplayName("Should remember a missing image until one is uploaded")
+    void testMissingImageIsCachedUntilUpload() throws IOException {
+        assertFalse(blobService.get(1L).isPresent());
+
+        // Written behind the service's back, so the cached miss still answers
+        Path postDir = tempDir.resolve("1");
+        Files.createDirectories(postDir);
+        Files.writeString(postDir.resolve("image.jpg"), "content");
+        assertFalse(blobService.get(1L).isPresent());
+
+        blobService.upsert(1L, new MockMultipartFile("image", "test.jpg", "image/jpeg", "content".getBytes()));
+
+        assertTrue(blobService.get(1L).isPresent());
+    }
+
+    @Test
+    @DisplayName("Should record content type and content hash at upload")
+    void testGetImageMetadataFromUpload() throws IOException {
+        blobService.upsert(1L, new MockMultipartFile("image", "photo.bin", "IMAGE/PNG; q=1", "abc".getBytes()));
+
+        StoredImage image = blobService.getImage(1L).orElseThrow();
+
+        assertEquals("image/png", image.getContentType());
+        assertEquals(3, image.getSize());
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", image.getHash());
+        assertEquals(tempDir.resolve("blobs/ba/78/" + image.getHash()), image.getPath());
+    }
+
+    @Test
+    @DisplayName("Should store identical uploads once")
+    void testIdenticalUploadsAreDeduplicated() throws IOException {
+        blobService.upsert(1L, new MockMultipartFile("image", "a.jpg", "image/jpeg", "stock photo".getBytes()));
+        blobService.upsert(2L, new MockMultipartFile("image", "b.jpg", "image/jpeg", "stock photo".getBytes()));
+
+        assertEquals(storedPath(1L), storedPath(2L));
+        try (var files = Files.walk(tempDir.resolve("blobs"))) {
+            assertEquals(1, files.filter(Files::isRegularFile).count());
+        }
+        try (var files = Files.list(tempDir.resolve("tmp"))) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    @DisplayName("Should not reference an image from a post that does not exist")
+    void testUpsertForNonExistentPost() throws IOException {
+        MultipartFile file = new MockMultipartFile("image", "test.jpg", "image/jpeg", "content".getBytes());
+
+        assertFalse(blobService.upsert(999L, file));
+        assertFalse(blobService.get(999L).isPresent());
+    }
+
+    @Test
+    @DisplayName("Should serve a legacy per-post image until the post gets a new one")
+    void testLegacyImageIsReplacedOnUpload() throws IOException {
+        Path postDir = tempDir.resolve("1");
+        Files.createDirectories(postDir);
+        Files.writeString(postDir.resolve("image.png"), "legacy");
+        legacyImporter.importAll();
+
+        StoredImage legacy = blobService.getImage(1L).orElseThrow();
+        assertEquals(postDir.resolve("image.png"), legacy.getPath());
+        assertEquals("image/png", legacy.getContentType());
+
+        blobService.upsert(1L, new MockMultipartFile("image", "new.png", "image/png", "fresh".getBytes()));
+
+        assertEquals("fresh", Files.readString(storedPath(1L)));
+        assertFalse(Files.exists(postDir));
+    }
+
+    @Test
+    @DisplayName("Should resolve images from the images table without listing directories")
+    void testUnregisteredFileIsNotServed() throws IOException {
+        Path postDir = tempDir.resolve("1");
+        Files.createDirectories(postDir);
+        Files.writeString(postDir.resolve("image.png"), "never imported");
+
+        assertFalse(blobService.getImage(1L).isPresent());
+    }
+
+    @Test
+    @DisplayName("Should record image dimensions at upload")
+    void testGetMetadataFromUpload() throws IOException {
+        blobService.upsert(1L, new MockMultipartFile("image", "wide.png", "image/png", png(800, 400)));
+
+        ImageMetadata metadata = blobService.getMetadata(1L).orElseThrow();
+
+        assertEquals("image/png", metadata.getContentType());
+        assertEquals(800, (int) metadata.getWidth());
+        assertEquals(400, (int) metadata.getHeight());
+        assertEquals(blobService.getImage(1L).orElseThrow().getHash(), metadata.getHash());
+    }
+
+    @Test
+    @DisplayName("Should compute a BlurHash placeholder at upload")
+    void testGetMetadataBlurHash() throws IOException {
+        blobService.upsert(1L, new MockMultipartFile("image", "black.png", "image/png", png(800, 400)));
+
+        // Uniform black: zero DC, all AC components at the midpoint
+        assertEquals("L00000" + "fQ".repeat(11), blobService.getMetadata(1L).orElseThrow().getBlurHash());
+    }
+
+    @Test
+    @DisplayName("Should return metadata for many posts at once, leaving out posts without an image")
+    void testGetMetadataBatch() throws IOException {
+        blobService.upsert(1L, new MockMultipartFile("image", "wide.png", "image/png", png(800, 400)));
+        blobService.upsert(2L, new MockMultipartFile("image", "small.png", "image/png", png(100, 50)));
+
+        Map<Long, ImageMetadata> metadata = blobService.getMetadata(List.of(1L, 2L, 3L, 999L));
+
+        assertEquals(Set.of(1L, 2L), metadata.keySet());
+        assertEquals(800, (int) metadata.get(1L).getWidth());
+        assertEquals(50, (int) metadata.get(2L).getHeight());
+    }
+
+    @Test
+    @DisplayName("Should serve the smallest variant at least as wide as requested")
+    void testGetVariantPicksNearestWidth() throws IOException {
+        blobService.upsert(1L, new MockMultipartFile("image", "wide.png", "image/png", png(800, 400)));
+        StoredImage original = blobService.getImage(1L).orElseThrow();
+
+        StoredImage variant = blobService.getVariant(original, 200);
+
+        assertEquals("image/png", variant.getContentType());
+        assertEquals(original.getHash() + "-w320", variant.getHash());
+        BufferedImage decoded = ImageIO.read(variant.getPath().toFile());
+        assertEquals(320, decoded.getWidth());
+        assertEquals(160, decoded.getHeight());
+        assertEquals(Files.size(variant.getPath()), variant.getSize());
+    }
+
+    @Test
+    @DisplayName("Should serve the original when no variant is wide enough or it is already small")
+    void testGetVariantFallsBackToOriginal() throws IOException {
+        blobService.upsert(1L, new MockMultipartFile("image", "wide.png", "image/png", png(800, 400)));
+        blobService.upsert(2L, new MockMultipartFile("image", "small.png", "image/png", png(100, 50)));
+        StoredImage wide = blobService.getImage(1L).orElseThrow();
+        StoredImage small = blobService.getImage(2L).orElseThrow();
+
+        assertSame(wide, blobService.getVariant(wide, 1000));
+        assertSame(small, blobService.getVariant(small, 160));
+    }
+
+    @Test
+    @DisplayName("Should serve the original when it cannot be decoded")
+    void testGetVariantOfUndecodableImage() throws IOException {
+        blobService.upsert(1L, new MockMultipartFile("image", "broken.jpg", "image/jpeg", "not a jpeg".getBytes()));
+        StoredImage original = blobService.getImage(1L).orElseThrow();
+
+        assertSame(original, blobService.getVariant(original, 160));
+    }
+
+    @Test
+    @DisplayName("Should stream a raw body and take the content type from its magic bytes")
+    void testUpsertRawBodySniffsContentType() throws IOException {
+        byte[] content = png(40, 10);
+
+        assertTrue(blobService.upsert(1L, channel(content), content.length));
+
+        StoredImage image = blobService.getImage(1L).orElseThrow();
+        assertEquals("image/png", image.getContentType());
+        assertEquals(content.length, image.getSize());
+        assertArrayEquals(content, Files.readAllBytes(image.getPath()));
+        assertEquals(40, (int) blobService.getMetadata(1L).orElseThrow().getWidth());
+    }
+
+    @Test
+    @DisplayName("Should hash a raw body the same way as a multipart upload")
+    void testUpsertRawBodyDeduplicatesWithMultipart() throws IOException {
+        byte[] content = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0, 0x10, 'J', 'F', 'I', 'F', 0, 1, 1};
+        blobService.upsert(1L, new MockMultipartFile("image", "a.jpg", "image/jpeg", content));
+
+        blobService.upsert(2L, channel(content), -1);
+
+        assertEquals(storedPath(1L), storedPath(2L));
+        assertEquals("image/jpeg", blobService.getImage(2L).orElseThrow().getContentType());
+    }
+
+    @Test
+    @DisplayName("Should reject a raw body that is not a recognised image")
+    void testUpsertRawBodyRejectsUnknownFormat() throws IOException {
+        IOException exception = assertThrows(IOException.class,
+                () -> blobService.upsert(1L, channel("<svg></svg>".getBytes()), -1));
+
+        assertEquals("Only image/* allowed", exception.getMessage());
+        assertFalse(blobService.getImage(1L).isPresent());
+    }
+
+    @Test
+    @DisplayName("Should reject a raw body over the size cap, declared or not")
+    void testUpsertRawBodyRejectsOversizedImage() throws IOException {
+        byte[] content = new byte[64 * 1024 + 1];
+        System.arraycopy(png(1, 1), 0, content, 0, 16);
+
+        assertThrows(ImageTooLargeException.class, () -> blobService.upsert(1L, channel(content), content.length));
+        assertThrows(ImageTooLargeException.class, () -> blobService.upsert(1L, channel(content), -1));
+
+        assertFalse(blobService.getImage(1L).isPresent());
+        try (var files = Files.list(tempDir.resolve("tmp"))) {
+            assertEquals(0, files.count());
         }
     }
+
+    @Test
+    @DisplayName("Should serve the new bytes once an image is replaced, since they have a new hash")
+    void testReplacedImageIsNotServedFromCache() throws IOException {
+        blobService.upsert(1L, new MockMultipartFile("image", "a.png", "image/png", "first".getBytes()));
+        StoredImage first = blobService.getImage(1L).orElseThrow();
+        assertTrue(blobService.getCachedBytes(first).isPresent());
+
+        blobService.upsert(1L, new MockMultipartFile("image", "b.png", "image/png", "second".getBytes()));
+
+        StoredImage second = blobService.getImage(1L).orElseThrow();
+        ByteBuffer bytes = blobService.getCachedBytes(second).orElseThrow();
+        assertEquals("second", StandardCharsets.UTF_8.decode(bytes).toString());
+    }
+
+    private static ReadableByteChannel channel(byte[] content) {
+        return Channels.newChannel(new ByteArrayInputStream(content));
+    }
+
+    private static byte[] png(int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", out);
+        return out.toByteArray();
+    }
+
+    private Path storedPath(long postId) throws IOException {
+        return blobService.getImage(postId).orElseThrow().getPath();
+    }
 }
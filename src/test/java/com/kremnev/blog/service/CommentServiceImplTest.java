@@ -1,17 +1,24 @@
 package com.kremnev.blog.service;
 
+import com.kremnev.blog.cache.CommentCache;
+import com.kremnev.blog.concurrency.SingleFlight;
 import com.kremnev.blog.model.Comment;
 import com.kremnev.blog.repository.CommentRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.util.unit.DataSize;
 
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.util.List;
 import java.util.Optional;
@@ -29,6 +36,17 @@ class CommentServiceImplTest {
     @Mock
     private CommentRepository commentRepository;
 
+    @Spy
+    private CommentCache commentCache = new CommentCache(DataSize.ofMegabytes(1), new SimpleMeterRegistry());
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Spy
+    private SingleFlight singleFlight = new SingleFlight(Duration.ofSeconds(5), registry);
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
     @InjectMocks
     private CommentServiceImpl commentService;
 
@@ -108,6 +126,7 @@ class CommentServiceImplTest {
         assertEquals(10L, result.getPostId());
         assertEquals("Test comment text", result.getText());
         verify(commentRepository, times(1)).create(10L, "Test comment text");
+        verify(eventPublisher).publishEvent(new PostCountsChanged(10L));
     }
 
     @Test
@@ -231,4 +250,39 @@ class CommentServiceImplTest {
         assertEquals(10L, result.get(2).getPostId());
         verify(commentRepository, times(1)).findAllByPostId(10L);
     }
+
+    @Test
+    @DisplayName("Should serve repeated reads for a post from the cache")
+    void testGetAllByPostIdCached() {
+        when(commentRepository.findAllByPostId(10L)).thenReturn(List.of(testComment));
+
+        commentService.getAllByPostId(10L);
+        List<Comment> result = commentService.getAllByPostId(10L);
+
+        assertEquals(List.of(testComment), result);
+        verify(commentRepository, times(1)).findAllByPostId(10L);
+    }
+
+    @Test
+    @DisplayName("Should write created, updated and deleted comments through to the cache")
+    void testWriteThrough() {
+        Comment second = new Comment(2L, 10L, "Second", now, now);
+        Comment updated = new Comment(1L, 10L, "Updated text", now, now);
+        when(commentRepository.findAllByPostId(10L)).thenReturn(List.of(testComment));
+        when(commentRepository.create(10L, "Second")).thenReturn(second);
+        when(commentRepository.update(1L, 10L, "Updated text")).thenReturn(Optional.of(updated));
+        when(commentRepository.delete(2L, 10L)).thenReturn(true);
+
+        commentService.getAllByPostId(10L);
+        commentService.create(10L, "Second");
+        assertEquals(List.of(testComment, second), commentService.getAllByPostId(10L));
+
+        commentService.update(1L, 10L, "Updated text");
+        assertEquals("Updated text", commentService.getAllByPostId(10L).get(0).getText());
+
+        commentService.delete(2L, 10L);
+        assertEquals(List.of(updated), commentService.getAllByPostId(10L));
+
+        verify(commentRepository, times(1)).findAllByPostId(10L);
+    }
 }
@@ -0,0 +1,221 @@
+package com.kremnev.blog.service;
+
+import com.kremnev.blog.cache.ImageBytesCache;
+import com.kremnev.blog.cache.ImageRefCache;
+import com.kremnev.blog.model.ImageGcReport;
+import com.kremnev.blog.model.ImageRef;
+import com.kremnev.blog.repository.ImageRepositoryImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@Transactional
+@DisplayName("ImageGarbageCollector Tests")
+class ImageGarbageCollectorTest {
+
+    private static final String LIVE = "a".repeat(64);
+    private static final String ORPHAN = "b".repeat(64);
+
+    @TempDir
+    Path tempDir;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private BlobLayout layout;
+    private ImageRepositoryImpl imageRepository;
+    private LegacyImageMigrator migrator;
+    private ImageGarbageCollector collector;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("INSERT INTO posts (id, title, text) VALUES (1, 'Post', 'Content')");
+        jdbcTemplate.update("INSERT INTO posts (id, title, text) VALUES (2, 'Post', 'Content')");
+        layout = new BlobLayout(tempDir.toString(), 2);
+        imageRepository = new ImageRepositoryImpl(jdbcTemplate);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        migrator = new LegacyImageMigrator(layout, imageRepository,
+                new ImageBytesCache(false, DataSize.ofKilobytes(64), DataSize.ofKilobytes(16), registry),
+                new ImageRefCache(Duration.ofSeconds(10), 100, registry),
+                false, 10, Duration.ofMinutes(1), registry);
+        collector = new ImageGarbageCollector(layout, imageRepository, migrator, true, 2, 0, Duration.ofHours(1),
+                registry);
+    }
+
+    @Test
+    @DisplayName("Should delete blobs and variants no post references and keep referenced ones")
+    void testSweepBlobsAndVariants() throws IOException {
+        Path liveBlob = file(layout.blobPath(LIVE), "live");
+        Path liveVariant = file(layout.variantPath(LIVE, LIVE + "-160.png"), "v");
+        Path orphanBlob = file(layout.blobPath(ORPHAN), "orphan");
+        Path orphanVariant = file(layout.variantPath(ORPHAN, ORPHAN + "-160.png"), "v");
+        imageRepository.upsert(new ImageRef(1L, layout.relativize(liveBlob), LIVE, "image/png", 4, null, null, null, null));
+
+        ImageGcReport report = collector.sweep(false).orElseThrow();
+
+        assertEquals(4, report.getScannedFiles());
+        assertEquals(1, report.getOrphanBlobs());
+        assertEquals(1, report.getOrphanVariants());
+        assertEquals(7, report.getReclaimableBytes());
+        assertTrue(Files.exists(liveBlob));
+        assertTrue(Files.exists(liveVariant));
+        assertFalse(Files.exists(orphanBlob));
+        assertFalse(Files.exists(orphanVariant));
+    }
+
+    @Test
+    @DisplayName("Should keep a blob that an upload starts referencing after its batch was checked")
+    void testRecheckBeforeDelete() throws IOException {
+        Path blob = file(layout.blobPath(ORPHAN), "orphan");
+        // Deduplicates onto the blob as soon as the sweep has read the batch's references
+        var racing = new ImageRepositoryImpl(jdbcTemplate) {
+            boolean uploaded;
+
+            @Override
+            public Set<String> findReferencedHashes(Collection<String> hashes) {
+                Set<String> referenced = super.findReferencedHashes(hashes);
+                if (!uploaded) {
+                    uploaded = true;
+                    upsert(new ImageRef(2L, layout.relativize(blob), ORPHAN, "image/png", 6, null, null, null, null));
+                }
+                return referenced;
+            }
+        };
+        var racingCollector = new ImageGarbageCollector(layout, racing, migrator, true, 2, 0, Duration.ofHours(1),
+                new SimpleMeterRegistry());
+
+        ImageGcReport report = racingCollector.sweep(false).orElseThrow();
+
+        assertEquals(0, report.getOrphanBlobs());
+        assertTrue(Files.exists(blob));
+    }
+
+    @Test
+    @DisplayName("Should put back a blob that an upload touched and referenced during the final check")
+    void testUploadDuringFinalCheck() throws IOException {
+        Path blob = file(layout.blobPath(ORPHAN), "orphan");
+        // The batch and the first re-check see no reference; right after that an upload
+        // deduplicates onto the blob, touching it and then writing its row
+        var racing = new ImageRepositoryImpl(jdbcTemplate) {
+            int calls;
+
+            @Override
+            public Set<String> findReferencedHashes(Collection<String> hashes) {
+                Set<String> referenced = super.findReferencedHashes(hashes);
+                if (++calls == 2) {
+                    try {
+                        Files.setLastModifiedTime(blob, FileTime.from(Instant.now()));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    upsert(new ImageRef(2L, layout.relativize(blob), ORPHAN, "image/png", 6, null, null, null, null));
+                }
+                return referenced;
+            }
+        };
+        var racingCollector = new ImageGarbageCollector(layout, racing, migrator, true, 2, 0, Duration.ofHours(1),
+                new SimpleMeterRegistry());
+
+        ImageGcReport report = racingCollector.sweep(false).orElseThrow();
+
+        assertEquals(0, report.getOrphanBlobs());
+        assertEquals("orphan", Files.readString(blob));
+        try (var leftovers = Files.list(layout.tmp())) {
+            assertEquals(0, leftovers.count());
+        }
+    }
+
+    @Test
+    @DisplayName("Should leave migrated legacy files to the migrator until its grace period ends")
+    void testMigratedLegacyFileIsKept() throws IOException {
+        Path legacy = file(tempDir.resolve("1/image.png"), "png");
+        Path sidecar = file(tempDir.resolve("1/image.meta"), "contentType=image/png");
+        imageRepository.upsert(new ImageRef(1L, "1/image.png", LIVE, "image/png", 3, null, null, null, null));
+        assertEquals(1, migrator.migrateBatch());
+
+        ImageGcReport report = collector.sweep(false).orElseThrow();
+
+        assertEquals(0, report.getOrphanLegacyFiles());
+        assertTrue(Files.exists(legacy));
+        assertTrue(Files.exists(sidecar));
+    }
+
+    @Test
+    @DisplayName("Should only report in a dry run")
+    void testDryRun() throws IOException {
+        Path orphanBlob = file(layout.blobPath(ORPHAN), "orphan");
+
+        ImageGcReport report = collector.sweep(true).orElseThrow();
+
+        assertTrue(report.isDryRun());
+        assertEquals(1, report.getOrphanBlobs());
+        assertEquals(6, report.getReclaimableBytes());
+        assertTrue(Files.exists(orphanBlob));
+    }
+
+    @Test
+    @DisplayName("Should delete legacy directories of deleted posts and replaced files of live ones")
+    void testSweepLegacy() throws IOException {
+        Path current = file(tempDir.resolve("1/image.png"), "png");
+        Path sidecar = file(tempDir.resolve("1/image.meta"), "contentType=image/png");
+        Path replaced = file(tempDir.resolve("1/image.jpg"), "jpg");
+        file(tempDir.resolve("999/image.png"), "gone");
+        file(tempDir.resolve("999/image.meta"), "contentType=image/png");
+        imageRepository.upsert(new ImageRef(1L, "1/image.png", LIVE, "image/png", 3, null, null, null, null));
+
+        ImageGcReport report = collector.sweep(false).orElseThrow();
+
+        assertEquals(3, report.getOrphanLegacyFiles());
+        assertTrue(Files.exists(current));
+        assertTrue(Files.exists(sidecar));
+        assertFalse(Files.exists(replaced));
+        assertFalse(Files.exists(tempDir.resolve("999")));
+    }
+
+    @Test
+    @DisplayName("Should keep recently modified files and delete stale temp files")
+    void testMinAge() throws IOException {
+        Path fresh = Files.createDirectories(layout.blobPath(ORPHAN).getParent()).resolve(ORPHAN);
+        Files.writeString(fresh, "fresh");
+        Path staleTemp = file(layout.tmp().resolve("upload-1.tmp"), "partial");
+        Path freshTemp = Files.writeString(layout.tmp().resolve("upload-2.tmp"), "partial");
+
+        ImageGcReport report = collector.sweep(false).orElseThrow();
+
+        assertEquals(0, report.getOrphanBlobs());
+        assertEquals(1, report.getStaleTempFiles());
+        assertTrue(Files.exists(fresh));
+        assertFalse(Files.exists(staleTemp));
+        assertTrue(Files.exists(freshTemp));
+    }
+
+    // Written two hours ago, past the collector's minimum age
+    private static Path file(Path path, String content) throws IOException {
+        Files.createDirectories(path.getParent());
+        Files.writeString(path, content);
+        Files.setLastModifiedTime(path, FileTime.from(Instant.now().minus(Duration.ofHours(2))));
+        return path;
+    }
+}
@@ -0,0 +1,145 @@
+package com.kremnev.blog.service;
+
+import com.kremnev.blog.concurrency.SingleFlight;
+import com.kremnev.blog.model.StoredImage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@DisplayName("ImageVariantGenerator Tests")
+class ImageVariantGeneratorTest {
+
+    private static final String HASH = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+
+    @TempDir
+    Path tempDir;
+
+    private SimpleMeterRegistry registry;
+    private ImageVariantGenerator generator;
+    private StoredImage original;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        registry = new SimpleMeterRegistry();
+        generator = new ImageVariantGenerator(new BlobLayout(tempDir.toString(), 2), new int[]{640, 160, 320}, 2, 16, 40_000_000,
+                new SingleFlight(Duration.ofSeconds(30), registry), registry);
+
+        Path source = tempDir.resolve("original.jpg");
+        ImageIO.write(new BufferedImage(1000, 500, BufferedImage.TYPE_INT_RGB), "jpeg", source.toFile());
+        original = new StoredImage(source, "image/jpeg", Files.size(source), HASH);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        generator.destroy();
+    }
+
+    @Test
+    @DisplayName("Should generate a missing variant once for concurrent requests")
+    void testConcurrentRequestsGenerateOnce() throws Exception {
+        int callers = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<StoredImage>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                results.add(pool.submit(() -> {
+                    start.await();
+                    return generator.nearest(original, 300);
+                }));
+            }
+            start.countDown();
+
+            for (Future<StoredImage> result : results) {
+                StoredImage variant = result.get(30, TimeUnit.SECONDS);
+                assertEquals(HASH + "-w320", variant.getHash());
+                assertEquals("image/jpeg", variant.getContentType());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(1.0, registry.counter("blog.images.variants.generated").count());
+    }
+
+    @Test
+    @DisplayName("Should precompute every configured width in the background")
+    void testGenerateAll() throws Exception {
+        generator.generateAll(original);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (registry.counter("blog.images.variants.generated").count() < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(3.0, registry.counter("blog.images.variants.generated").count());
+        for (int width : new int[]{160, 320, 640}) {
+            StoredImage variant = generator.nearest(original, width);
+            assertEquals(width, ImageIO.read(variant.getPath().toFile()).getWidth());
+        }
+        assertEquals(3.0, registry.counter("blog.images.variants.generated").count());
+    }
+
+    @Test
+    @DisplayName("Should serve the original instead of decoding one with more pixels than allowed")
+    void testTooManyPixels() throws Exception {
+        var smallRegistry = new SimpleMeterRegistry();
+        var small = new ImageVariantGenerator(new BlobLayout(tempDir.toString(), 2), new int[]{320}, 1, 1, 100_000,
+                new SingleFlight(Duration.ofSeconds(30), smallRegistry), smallRegistry);
+        try {
+            assertSame(original, small.nearest(original, 300));
+            assertSame(original, small.nearest(original, 300));
+            assertEquals(1.0, smallRegistry.counter("blog.images.variants.too-large").count());
+            assertEquals(0.0, smallRegistry.counter("blog.images.variants.generated").count());
+        } finally {
+            small.destroy();
+        }
+    }
+
+    @Test
+    @DisplayName("Should remember that an original is too narrow instead of probing it on every request")
+    void testNarrowOriginalProbedOnce() throws Exception {
+        Path source = tempDir.resolve("narrow.png");
+        ImageIO.write(new BufferedImage(200, 100, BufferedImage.TYPE_INT_RGB), "png", source.toFile());
+        var narrow = new StoredImage(source, "image/png", Files.size(source), "0".repeat(64));
+
+        assertSame(narrow, generator.nearest(narrow, 320));
+        // Were the file read again, it would now be wide enough for a variant
+        ImageIO.write(new BufferedImage(1000, 500, BufferedImage.TYPE_INT_RGB), "png", source.toFile());
+        assertSame(narrow, generator.nearest(narrow, 320));
+        assertSame(narrow, generator.nearest(narrow, 640));
+        assertEquals(0.0, registry.counter("blog.images.variants.generated").count());
+    }
+
+    @Test
+    @DisplayName("Should decode subsampled and still produce the exact width")
+    void testSubsampledDecode() throws Exception {
+        StoredImage variant = generator.nearest(original, 160);
+
+        BufferedImage image = ImageIO.read(variant.getPath().toFile());
+        assertEquals(160, image.getWidth());
+        assertEquals(80, image.getHeight());
+    }
+}
@@ -0,0 +1,102 @@
+package com.kremnev.blog.service;
+
+import com.kremnev.blog.model.ImageRef;
+import com.kremnev.blog.repository.ImageRepositoryImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@Transactional
+@DisplayName("LegacyImageImporter Tests")
+class LegacyImageImporterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private ImageRepositoryImpl imageRepository;
+    private LegacyImageImporter importer;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("INSERT INTO posts (id, title, text) VALUES (1, 'Post', 'Content')");
+        jdbcTemplate.update("INSERT INTO posts (id, title, text) VALUES (2, 'Post', 'Content')");
+        imageRepository = new ImageRepositoryImpl(jdbcTemplate);
+        importer = new LegacyImageImporter(new BlobLayout(tempDir.toString(), 2), imageRepository);
+    }
+
+    @Test
+    @DisplayName("Should register legacy images with their sidecar metadata and dimensions")
+    void testImportWithSidecar() throws IOException {
+        Path postDir = Files.createDirectories(tempDir.resolve("1"));
+        ImageIO.write(new BufferedImage(30, 20, BufferedImage.TYPE_INT_RGB), "png", postDir.resolve("image.bin").toFile());
+        Files.writeString(postDir.resolve("image.meta"), "contentType=image/png\nsha256=" + "a".repeat(64) + "\n");
+
+        assertEquals(1, importer.importAll());
+
+        ImageRef image = imageRepository.findByPostId(1L).orElseThrow();
+        assertEquals("1/image.bin", image.getPath());
+        assertEquals("image/png", image.getContentType());
+        assertEquals("a".repeat(64), image.getHash());
+        assertEquals(Files.size(postDir.resolve("image.bin")), image.getSize());
+        assertEquals(30, (int) image.getWidth());
+        assertEquals(20, (int) image.getHeight());
+    }
+
+    @Test
+    @DisplayName("Should derive metadata for legacy images without a sidecar")
+    void testImportWithoutSidecar() throws IOException {
+        Path postDir = Files.createDirectories(tempDir.resolve("1"));
+        Files.writeString(postDir.resolve("image.jpg"), "abc");
+
+        importer.importAll();
+
+        ImageRef image = imageRepository.findByPostId(1L).orElseThrow();
+        assertEquals("image/jpeg", image.getContentType());
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", image.getHash());
+        assertNull(image.getWidth());
+    }
+
+    @Test
+    @DisplayName("Should skip posts that already have an image, missing posts and other directories")
+    void testImportSkips() throws IOException {
+        imageRepository.upsert(new ImageRef(2L, "blobs/x", "b".repeat(64), "image/png", 1, null, null, null, null));
+        Files.writeString(Files.createDirectories(tempDir.resolve("2")).resolve("image.png"), "old");
+        Files.writeString(Files.createDirectories(tempDir.resolve("999")).resolve("image.png"), "orphan");
+        Files.writeString(Files.createDirectories(tempDir.resolve("blobs")).resolve("image.png"), "blob");
+
+        assertEquals(0, importer.importAll());
+        assertEquals("blobs/x", imageRepository.findByPostId(2L).orElseThrow().getPath());
+    }
+
+    @Test
+    @DisplayName("Should import only once per upload root")
+    void testImportRunsOnce() throws IOException {
+        Path postDir = Files.createDirectories(tempDir.resolve("1"));
+        Files.writeString(postDir.resolve("image.jpg"), "abc");
+        importer.afterSingletonsInstantiated();
+        jdbcTemplate.update("DELETE FROM images");
+
+        importer.afterSingletonsInstantiated();
+
+        assertTrue(imageRepository.findByPostId(1L).isEmpty());
+    }
+}
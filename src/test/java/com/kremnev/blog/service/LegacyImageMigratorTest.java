@@ -0,0 +1,126 @@
+package com.kremnev.blog.service;
+
+import com.kremnev.blog.cache.ImageBytesCache;
+import com.kremnev.blog.cache.ImageRefCache;
+import com.kremnev.blog.model.ImageRef;
+import com.kremnev.blog.repository.ImageRepositoryImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@Transactional
+@DisplayName("LegacyImageMigrator Tests")
+class LegacyImageMigratorTest {
+
+    // sha256("abc")
+    private static final String ABC_HASH = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+
+    @TempDir
+    Path tempDir;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private BlobLayout layout;
+    private ImageRepositoryImpl imageRepository;
+    private LegacyImageMigrator migrator;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("INSERT INTO posts (id, title, text) VALUES (1, 'Post', 'Content')");
+        jdbcTemplate.update("INSERT INTO posts (id, title, text) VALUES (2, 'Post', 'Content')");
+        jdbcTemplate.update("INSERT INTO posts (id, title, text) VALUES (3, 'Post', 'Content')");
+        layout = new BlobLayout(tempDir.toString(), 2);
+        imageRepository = new ImageRepositoryImpl(jdbcTemplate);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        migrator = new LegacyImageMigrator(layout, imageRepository,
+                new ImageBytesCache(false, DataSize.ofKilobytes(64), DataSize.ofKilobytes(16), registry),
+                new ImageRefCache(Duration.ofSeconds(10), 100, registry),
+                true, 2, Duration.ofMinutes(1), registry);
+    }
+
+    @Test
+    @DisplayName("Should move legacy images into the sharded blob store and keep the old file until the grace period ends")
+    void testMigrate() throws IOException {
+        Path legacy = legacyImage(1L, "abc");
+
+        assertEquals(1, migrator.migrateBatch());
+
+        ImageRef image = imageRepository.findByPostId(1L).orElseThrow();
+        assertEquals("blobs/ba/78/" + ABC_HASH, image.getPath());
+        assertEquals(ABC_HASH, image.getHash());
+        assertEquals("abc", Files.readString(layout.resolve(image.getPath())));
+        assertTrue(Files.exists(legacy));
+
+        migrator.deleteExpired(System.nanoTime());
+        assertTrue(Files.exists(legacy));
+
+        migrator.deleteExpired(System.nanoTime() + Duration.ofMinutes(2).toNanos());
+        assertFalse(Files.exists(legacy.getParent()));
+    }
+
+    @Test
+    @DisplayName("Should migrate in batches and finish after a pass that finds nothing")
+    void testMigrateInBatches() throws IOException {
+        legacyImage(1L, "one");
+        legacyImage(2L, "two");
+        legacyImage(3L, "three");
+
+        assertEquals(2, migrator.migrateBatch());
+        assertEquals(1, migrator.migrateBatch());
+        assertFalse(migrator.isFinished());
+
+        assertEquals(0, migrator.migrateBatch());
+        assertTrue(migrator.isFinished());
+        for (long postId = 1; postId <= 3; postId++) {
+            assertTrue(layout.isBlob(layout.resolve(imageRepository.findByPostId(postId).orElseThrow().getPath())));
+        }
+    }
+
+    @Test
+    @DisplayName("Should skip images whose file is missing and carry on with the rest")
+    void testMigrateSkipsMissingFiles() throws IOException {
+        imageRepository.upsert(new ImageRef(1L, "1/image.png", "a".repeat(64), "image/png", 3, null, null, null, null));
+        legacyImage(2L, "abc");
+
+        assertEquals(1, migrator.migrateBatch());
+
+        assertEquals("1/image.png", imageRepository.findByPostId(1L).orElseThrow().getPath());
+        assertTrue(layout.isBlob(layout.resolve(imageRepository.findByPostId(2L).orElseThrow().getPath())));
+    }
+
+    @Test
+    @DisplayName("Should not overwrite an image replaced after it was read")
+    void testRelocateIsConditional() throws IOException {
+        legacyImage(1L, "abc");
+        imageRepository.upsert(new ImageRef(1L, "blobs/new", "b".repeat(64), "image/png", 1, null, null, null, null));
+
+        assertFalse(imageRepository.relocate(1L, "1/image.png", "blobs/other", ABC_HASH));
+        assertEquals("blobs/new", imageRepository.findByPostId(1L).orElseThrow().getPath());
+    }
+
+    private Path legacyImage(long postId, String content) throws IOException {
+        Path file = Files.createDirectories(tempDir.resolve(String.valueOf(postId))).resolve("image.png");
+        Files.writeString(file, content);
+        imageRepository.upsert(new ImageRef(postId, postId + "/image.png", ImageFiles.sha256(file), "image/png",
+                Files.size(file), null, null, null, null));
+        return file;
+    }
+}
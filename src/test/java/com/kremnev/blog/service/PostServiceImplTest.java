@@ -1,21 +1,38 @@
 package com.kremnev.blog.service;
 
+import com.kremnev.blog.cache.CommentCache;
+import com.kremnev.blog.cache.ImageRefCache;
+import com.kremnev.blog.cache.NegativeLookupCache;
+import com.kremnev.blog.concurrency.SingleFlight;
 import com.kremnev.blog.model.Post;
+import com.kremnev.blog.model.PostField;
 import com.kremnev.blog.model.PostsResponse;
 import com.kremnev.blog.repository.PostRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.util.Pair;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.util.unit.DataSize;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -27,9 +44,28 @@ import static org.mockito.Mockito.*;
 @DisplayName("PostServiceImpl Tests")
 class PostServiceImplTest {
 
+    private static final Set<PostField> ALL_FIELDS = EnumSet.allOf(PostField.class);
+
     @Mock
     private PostRepository postRepository;
 
+    @Spy
+    private CommentCache commentCache = new CommentCache(DataSize.ofMegabytes(1), new SimpleMeterRegistry());
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Spy
+    private SingleFlight singleFlight = new SingleFlight(Duration.ofSeconds(5), registry);
+
+    @Spy
+    private NegativeLookupCache negativeLookupCache = new NegativeLookupCache(Duration.ofSeconds(30), 1000, 0, registry);
+
+    @Spy
+    private ImageRefCache imageRefCache = new ImageRefCache(Duration.ofSeconds(10), 100, registry);
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
     @InjectMocks
     private PostServiceImpl postService;
 
@@ -47,42 +83,42 @@ class PostServiceImplTest {
     void testGetAll() {
         List<Post> posts = List.of(testPost);
         int totalCount = 10;
-        when(postRepository.findAll(anyString(), anyInt(), anyInt()))
+        when(postRepository.findAll(anyString(), anyInt(), anyInt(), eq(ALL_FIELDS)))
                 .thenReturn(Pair.of(posts, totalCount));
 
-        PostsResponse result = postService.getAll("test", 1, 5);
+        PostsResponse result = postService.getAll("test", 1, 5, ALL_FIELDS);
 
         assertNotNull(result);
         assertEquals(1, result.getPosts().size());
         assertEquals(testPost, result.getPosts().get(0));
-        verify(postRepository, times(1)).findAll("test", 1, 5);
+        verify(postRepository, times(1)).findAll("test", 1, 5, ALL_FIELDS);
     }
 
     @Test
     @DisplayName("Should return posts response with empty list when no posts found")
     void testGetAllWithNoPosts() {
-        when(postRepository.findAll(anyString(), anyInt(), anyInt()))
+        when(postRepository.findAll(anyString(), anyInt(), anyInt(), eq(ALL_FIELDS)))
                 .thenReturn(Pair.of(List.of(), 0));
 
-        PostsResponse result = postService.getAll("nonexistent", 1, 5);
+        PostsResponse result = postService.getAll("nonexistent", 1, 5, ALL_FIELDS);
 
         assertNotNull(result);
         assertTrue(result.getPosts().isEmpty());
-        verify(postRepository, times(1)).findAll("nonexistent", 1, 5);
+        verify(postRepository, times(1)).findAll("nonexistent", 1, 5, ALL_FIELDS);
     }
 
     @Test
     @DisplayName("Should return posts response with null search parameter")
     void testGetAllWithNullSearch() {
         List<Post> posts = List.of(testPost);
-        when(postRepository.findAll(isNull(), anyInt(), anyInt()))
+        when(postRepository.findAll(isNull(), anyInt(), anyInt(), eq(ALL_FIELDS)))
                 .thenReturn(Pair.of(posts, 1));
 
-        PostsResponse result = postService.getAll(null, 1, 10);
+        PostsResponse result = postService.getAll(null, 1, 10, ALL_FIELDS);
 
         assertNotNull(result);
         assertEquals(1, result.getPosts().size());
-        verify(postRepository, times(1)).findAll(null, 1, 10);
+        verify(postRepository, times(1)).findAll(null, 1, 10, ALL_FIELDS);
     }
 
     @Test
@@ -177,6 +213,8 @@ class PostServiceImplTest {
 
         assertTrue(result);
         verify(postRepository, times(1)).delete(1L);
+        verify(commentCache, times(1)).evict(1L);
+        verify(imageRefCache, times(1)).evict(1L);
     }
 
     @Test
@@ -201,6 +239,7 @@ class PostServiceImplTest {
         assertTrue(result.isPresent());
         assertEquals(6, result.get().getLikesCount());
         verify(postRepository, times(1)).addLike(1L);
+        verify(eventPublisher).publishEvent(new PostCountsChanged(1L));
     }
 
     @Test
@@ -212,6 +251,7 @@ class PostServiceImplTest {
 
         assertFalse(result.isPresent());
         verify(postRepository, times(1)).addLike(999L);
+        verifyNoInteractions(eventPublisher);
     }
 
     @Test
@@ -230,4 +270,124 @@ class PostServiceImplTest {
         verify(postRepository, times(1)).delete(1L);
         verifyNoMoreInteractions(postRepository);
     }
+
+    @Test
+    @DisplayName("Should run one repository query for many concurrent reads of the same page")
+    void testConcurrentGetAllSharesOneQuery() throws Exception {
+        int callers = 16;
+        CountDownLatch release = new CountDownLatch(1);
+        when(postRepository.findAll(null, 1, 5, ALL_FIELDS)).thenAnswer(invocation -> {
+            release.await();
+            return Pair.of(List.of(testPost), 1);
+        });
+
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<PostsResponse>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                results.add(pool.submit(() -> postService.getAll(null, 1, 5, ALL_FIELDS)));
+            }
+
+            while (registry.counter("blog.reads.single-flight.calls", "role", "follower").count() < callers - 1) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+
+            for (Future<PostsResponse> result : results) {
+                assertEquals(List.of(testPost), result.get().getPosts());
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        verify(postRepository, times(1)).findAll(null, 1, 5, ALL_FIELDS);
+    }
+
+    @Test
+    @DisplayName("Should run one repository query for many concurrent identical reads")
+    void testConcurrentGetByIdSharesOneQuery() throws Exception {
+        int callers = 16;
+        CountDownLatch release = new CountDownLatch(1);
+        when(postRepository.findById(1L)).thenAnswer(invocation -> {
+            release.await();
+            return Optional.of(testPost);
+        });
+
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<Optional<Post>>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                results.add(pool.submit(() -> postService.getById(1L)));
+            }
+
+            // Release the leader only once every other caller is waiting on it
+            while (registry.counter("blog.reads.single-flight.calls", "role", "follower").count() < callers - 1) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+
+            for (Future<Optional<Post>> result : results) {
+                assertEquals(testPost, result.get().orElseThrow());
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        verify(postRepository, times(1)).findById(1L);
+    }
+
+    @Test
+    @DisplayName("Should answer repeated lookups of a missing post without the repository")
+    void testMissingPostIsCached() {
+        when(postRepository.findById(999L)).thenReturn(Optional.empty());
+
+        assertFalse(postService.getById(999L).isPresent());
+        assertFalse(postService.getById(999L).isPresent());
+
+        verify(postRepository, times(1)).findById(999L);
+    }
+
+    @Test
+    @DisplayName("Should forget a cached miss when the post is created")
+    void testCreateClearsCachedMiss() {
+        when(postRepository.findById(1L)).thenReturn(Optional.empty(), Optional.of(testPost));
+        when(postRepository.create(anyString(), anyString(), anyList())).thenReturn(testPost);
+
+        assertFalse(postService.getById(1L).isPresent());
+        postService.create("Test Title", "Test Content", testTags);
+
+        assertTrue(postService.getById(1L).isPresent());
+        verify(postRepository, times(2)).findById(1L);
+    }
+
+    @Test
+    @DisplayName("Should not cache a miss whose query raced with the post being created")
+    void testMissRacingCreateIsDropped() {
+        when(postRepository.create(anyString(), anyString(), anyList())).thenReturn(testPost);
+        // The insert commits while the lookup is running, after its snapshot was taken
+        when(postRepository.findById(1L)).thenAnswer(invocation -> {
+            postService.create("Test Title", "Test Content", testTags);
+            return Optional.empty();
+        }).thenReturn(Optional.of(testPost));
+
+        assertFalse(postService.getById(1L).isPresent());
+
+        assertFalse(negativeLookupCache.isKnownMissingPost(1L));
+        assertTrue(postService.getById(1L).isPresent());
+    }
+
+    @Test
+    @DisplayName("Should reject ids below the watermark that the known-id filter rules out")
+    void testKnownIdFilter() {
+        negativeLookupCache.rebuild(3, ids -> {
+            ids.accept(1L);
+            ids.accept(2L);
+            ids.accept(100L);
+        });
+
+        assertFalse(postService.getById(50L).isPresent());
+        assertTrue(negativeLookupCache.isKnownMissingPost(50L));
+        assertFalse(negativeLookupCache.isKnownMissingPost(101L));
+        verify(postRepository, never()).findById(50L);
+    }
 }
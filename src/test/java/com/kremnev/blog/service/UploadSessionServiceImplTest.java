@@ -0,0 +1,116 @@
+package com.kremnev.blog.service;
+
+import com.kremnev.blog.model.UploadSession;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@Transactional
+@DisplayName("UploadSessionServiceImpl Tests")
+class UploadSessionServiceImplTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private BlobService blobService;
+
+    @Autowired
+    private PostService postService;
+
+    private BlobLayout layout;
+    private UploadSessionServiceImpl uploadSessionService;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("INSERT INTO posts (id, title, text) VALUES (1, 'Post', 'Content')");
+        layout = new BlobLayout(tempDir.toString(), 2);
+        uploadSessionService = new UploadSessionServiceImpl(layout, DataSize.ofKilobytes(64), Duration.ofHours(1),
+                blobService, postService, new SimpleMeterRegistry());
+    }
+
+    @Test
+    @DisplayName("Should keep the bytes that arrived before a connection dropped")
+    void testAppendKeepsPartialChunk() throws IOException {
+        UploadSession session = uploadSessionService.create(1L, 100).orElseThrow();
+        InputStream dropped = new InputStream() {
+            private final InputStream data = new ByteArrayInputStream(new byte[30]);
+
+            @Override
+            public int read() throws IOException {
+                int b = data.read();
+                if (b == -1) throw new IOException("Connection reset");
+                return b;
+            }
+        };
+
+        assertThrows(IOException.class,
+                () -> uploadSessionService.append(1L, session.getId(), 0, Channels.newChannel(dropped)));
+
+        assertEquals(30, uploadSessionService.get(1L, session.getId()).orElseThrow().getOffset());
+        assertTrue(uploadSessionService.get(2L, session.getId()).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Should keep a fully received upload when publishing it fails")
+    void testCompleteFailureKeepsSession() throws IOException {
+        BlobService failing = mock(BlobService.class);
+        when(failing.upsert(eq(1L), any(Path.class), anyString())).thenThrow(new IOException("No space left on device"));
+        var service = new UploadSessionServiceImpl(layout, DataSize.ofKilobytes(64), Duration.ofHours(1),
+                failing, postService, new SimpleMeterRegistry());
+        UploadSession session = service.create(1L, 10).orElseThrow();
+        service.append(1L, session.getId(), 0, Channels.newChannel(new ByteArrayInputStream(new byte[10])));
+
+        assertThrows(IOException.class, () -> service.complete(1L, session.getId(), "0".repeat(64)));
+
+        assertEquals(10, service.get(1L, session.getId()).orElseThrow().getOffset());
+        assertTrue(Files.exists(layout.tmp().resolve("sessions").resolve(session.getId())));
+    }
+
+    @Test
+    @DisplayName("Should expire idle sessions and remove files left by earlier runs")
+    void testExpire() throws IOException {
+        UploadSession session = uploadSessionService.create(1L, 100).orElseThrow();
+        Path sessions = layout.tmp().resolve("sessions");
+        Path leftover = Files.writeString(sessions.resolve("leftover"), "partial");
+        Files.setLastModifiedTime(leftover, FileTime.from(Instant.now().minus(Duration.ofHours(2))));
+
+        uploadSessionService.expire(Instant.now());
+        assertTrue(uploadSessionService.get(1L, session.getId()).isPresent());
+        assertFalse(Files.exists(leftover));
+
+        uploadSessionService.expire(Instant.now().plus(Duration.ofHours(2)));
+        assertTrue(uploadSessionService.get(1L, session.getId()).isEmpty());
+        assertFalse(Files.exists(sessions.resolve(session.getId())));
+    }
+}
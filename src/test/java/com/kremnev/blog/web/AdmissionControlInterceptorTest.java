@@ -0,0 +1,187 @@
+package com.kremnev.blog.web;
+
+import com.kremnev.blog.concurrency.AdaptiveLimit;
+import com.kremnev.blog.concurrency.AdaptiveLimit.Priority;
+import com.kremnev.blog.controller.PostController;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@Transactional
+@DisplayName("AdmissionControlInterceptor Tests")
+class AdmissionControlInterceptorTest {
+    private static final String ROUTE = "/api/posts/{postId}";
+
+    private MockMvc mockMvc;
+
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+
+    @Autowired
+    private AdmissionControlInterceptor interceptor;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PostController postController;
+
+    @BeforeEach
+    void setUp() {
+        mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+        jdbcTemplate.update("INSERT INTO posts (id, title, text) VALUES (1, 'Post', 'Content')");
+    }
+
+    @Test
+    @DisplayName("Should turn requests past the route's limit away with 503 and Retry-After")
+    void testRejectsPastLimit() throws Exception {
+        mockMvc.perform(get("/api/posts/1")).andExpect(status().isOk());
+        AdaptiveLimit limit = interceptor.getLimit(ROUTE);
+        assertNotNull(limit);
+        assertEquals(0, limit.getInFlight());
+
+        int held = 0;
+        try {
+            while (limit.tryAcquire(Priority.HIGH)) held++;
+
+            mockMvc.perform(get("/api/posts/1"))
+                    .andExpect(status().isServiceUnavailable())
+                    .andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"))
+                    .andExpect(jsonPath("$.message").exists());
+            // Other routes have limits of their own
+            mockMvc.perform(get("/api/posts/1/comments")).andExpect(status().isOk());
+        } finally {
+            for (int i = 0; i < held; i++) limit.release(0, false);
+        }
+    }
+
+    @Test
+    @DisplayName("Should shed writes before reads")
+    void testWritesShedFirst() throws Exception {
+        mockMvc.perform(get("/api/posts/1")).andExpect(status().isOk());
+        AdaptiveLimit limit = interceptor.getLimit(ROUTE);
+
+        int held = 0;
+        try {
+            while (limit.tryAcquire(Priority.LOW)) held++;
+
+            mockMvc.perform(put("/api/posts/1")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content("{\"id\":1,\"title\":\"New\",\"text\":\"Text\",\"tags\":[]}"))
+                    .andExpect(status().isServiceUnavailable());
+            mockMvc.perform(get("/api/posts/1")).andExpect(status().isOk());
+        } finally {
+            for (int i = 0; i < held; i++) limit.release(0, false);
+        }
+    }
+
+    @Test
+    @DisplayName("Should shed resumable upload requests like other writes")
+    void testUploadsGuarded() throws Exception {
+        String route = "/api/posts/{postId}/image/uploads";
+        mockMvc.perform(post("/api/posts/1/image/uploads").header("Upload-Length", "4"))
+                .andExpect(status().isCreated());
+        AdaptiveLimit limit = interceptor.getLimit(route);
+        assertNotNull(limit);
+
+        int held = 0;
+        try {
+            while (limit.tryAcquire(Priority.LOW)) held++;
+
+            mockMvc.perform(post("/api/posts/1/image/uploads").header("Upload-Length", "4"))
+                    .andExpect(status().isServiceUnavailable())
+                    .andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"));
+        } finally {
+            for (int i = 0; i < held; i++) limit.release(0, false);
+        }
+    }
+
+    @Test
+    @DisplayName("Should back off only for requests dropped further down, not for every 503")
+    void testBacksOffOnDrops() throws Exception {
+        var handler = new HandlerMethod(postController, PostController.class.getMethod("addLike", long.class));
+        var request = new MockHttpServletRequest("POST", "/api/posts/1/likes");
+        request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, "/api/posts/{postId}/likes");
+        var response = new MockHttpServletResponse();
+
+        assertTrue(interceptor.preHandle(request, response, handler));
+        AdaptiveLimit limit = interceptor.getLimit("/api/posts/{postId}/likes");
+        int initial = limit.getLimit();
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        interceptor.afterCompletion(request, response, handler, null);
+        assertEquals(initial, limit.getLimit());
+
+        assertTrue(interceptor.preHandle(request, response, handler));
+        AdmissionControlInterceptor.markDropped(request);
+        interceptor.afterCompletion(request, response, handler, null);
+        assertTrue(limit.getLimit() < initial);
+        assertEquals(0, limit.getInFlight());
+    }
+
+    @Test
+    @DisplayName("Should not count the time a client takes to read a written body as latency")
+    void testBodyWriteNotSampled() throws Exception {
+        var handler = new HandlerMethod(postController, PostController.class.getMethod("getAllPosts",
+                String.class, int.class, int.class, Set.class, HttpServletRequest.class, HttpServletResponse.class));
+        String route = "/api/posts";
+        var response = new MockHttpServletResponse();
+        // Keeps the route busy, so every sample counts
+        assertTrue(interceptor.preHandle(listingRequest(route), response, handler));
+        AdaptiveLimit limit = interceptor.getLimit(route);
+        int held = 0;
+        try {
+            while (limit.getInFlight() < limit.getLimit() - 1 && limit.tryAcquire(Priority.HIGH)) held++;
+
+            for (int i = 0; i < 10; i++) {
+                var request = listingRequest(route);
+                assertTrue(interceptor.preHandle(request, response, handler));
+                Thread.sleep(2);
+                AdmissionControlInterceptor.markHandled(request);
+                interceptor.afterCompletion(request, response, handler, null);
+            }
+            int settled = limit.getLimit();
+
+            var slowReader = listingRequest(route);
+            assertTrue(interceptor.preHandle(slowReader, response, handler));
+            Thread.sleep(2);
+            AdmissionControlInterceptor.markHandled(slowReader);
+            Thread.sleep(50);
+            interceptor.afterCompletion(slowReader, response, handler, null);
+
+            assertTrue(limit.getLimit() >= settled);
+        } finally {
+            for (int i = 0; i < held; i++) limit.release(0, false);
+            limit.release(0, false);
+        }
+    }
+
+    private static MockHttpServletRequest listingRequest(String route) {
+        var request = new MockHttpServletRequest("GET", route);
+        request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, route);
+        return request;
+    }
+}
@@ -0,0 +1,102 @@
+package com.kremnev.blog.web;
+
+import com.kremnev.blog.concurrency.AdaptiveLimit;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest(properties = "queries.budget.routes[GET\\ /api/posts]=1ns")
+@ActiveProfiles("test")
+@Transactional
+@DisplayName("QueryBudgetInterceptor Tests")
+class QueryBudgetInterceptorTest {
+    private static final String LISTING = "GET /api/posts";
+
+    private MockMvc mockMvc;
+
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+
+    @Autowired
+    private QueryBudgetInterceptor interceptor;
+
+    @Autowired
+    private AdmissionControlInterceptor admissionControlInterceptor;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+        jdbcTemplate.update("INSERT INTO posts (id, title, text) VALUES (1, 'Post', 'Content')");
+    }
+
+    @Test
+    @DisplayName("Should read per-route budgets, falling back to the default")
+    void testBudgets() {
+        assertEquals(Duration.ofNanos(1), interceptor.getBudget(LISTING));
+        assertEquals(Duration.ofSeconds(5), interceptor.getBudget("GET /api/posts/{postId}"));
+    }
+
+    @Test
+    @DisplayName("Should answer 503 once the route's budget is spent and count the violation")
+    void testBudgetExceeded() throws Exception {
+        double before = exceeded(LISTING);
+
+        mockMvc.perform(get("/api/posts").param("search", "post #java #spring"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(jsonPath("$.message").value(OverloadExceptionHandler.TOO_SLOW_MESSAGE));
+
+        assertEquals(before + 1, exceeded(LISTING));
+    }
+
+    @Test
+    @DisplayName("Should leave the route's admission limit alone when requests run out of budget")
+    void testTimeoutsDoNotShrinkAdmissionLimit() throws Exception {
+        mockMvc.perform(get("/api/posts")).andExpect(status().isServiceUnavailable());
+        AdaptiveLimit limit = admissionControlInterceptor.getLimit("/api/posts");
+        int before = limit.getLimit();
+
+        for (int i = 0; i < 5; i++) {
+            mockMvc.perform(get("/api/posts")).andExpect(status().isServiceUnavailable());
+        }
+
+        assertEquals(before, limit.getLimit());
+        assertEquals(0, limit.getInFlight());
+    }
+
+    @Test
+    @DisplayName("Should run other routes under the default budget")
+    void testDefaultBudget() throws Exception {
+        mockMvc.perform(get("/api/posts/1"))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/api/posts/1/comments"))
+                .andExpect(status().isOk());
+
+        assertEquals(0.0, exceeded("GET /api/posts/{postId}/comments"));
+    }
+
+    private double exceeded(String route) {
+        var counter = meterRegistry.find("blog.queries.budget.exceeded").tag("route", route).counter();
+        return counter == null ? 0 : counter.count();
+    }
+}
@@ -1,5 +1,8 @@
 -- Schema for H2 test database (PostgreSQL-compatible mode)
 
+DROP TABLE IF EXISTS change_log;
+DROP SEQUENCE IF EXISTS change_log_seq;
+DROP TABLE IF EXISTS images;
 DROP TABLE IF EXISTS post_tags;
 DROP TABLE IF EXISTS comments;
 DROP TABLE IF EXISTS tags;
@@ -36,9 +39,38 @@ CREATE TABLE post_tags (
     FOREIGN KEY (tag_id) REFERENCES tags(id) ON DELETE CASCADE
 );
 
+CREATE TABLE images (
+    post_id BIGINT PRIMARY KEY,
+    path VARCHAR(1024) NOT NULL,
+    hash CHAR(64) NOT NULL,
+    content_type VARCHAR(100) NOT NULL,
+    size BIGINT NOT NULL,
+    width INT,
+    height INT,
+    blur_hash VARCHAR(128),
+    updated_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP NOT NULL,
+    FOREIGN KEY (post_id) REFERENCES posts(id) ON DELETE CASCADE
+);
+
+CREATE SEQUENCE change_log_seq;
+
+-- No transaction ids on H2: every row records 0, see ChangeLogRepositoryImpl
+CREATE TABLE change_log (
+    seq BIGINT DEFAULT nextval('change_log_seq') PRIMARY KEY,
+    txid BIGINT DEFAULT 0 NOT NULL,
+    entity VARCHAR(16) NOT NULL,
+    entity_id BIGINT NOT NULL,
+    post_id BIGINT NOT NULL,
+    operation VARCHAR(16) NOT NULL,
+    created_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP NOT NULL
+);
+
 -- Indexes for better performance
-CREATE INDEX idx_posts_created_at ON posts(created_at DESC);
+CREATE INDEX idx_posts_created_at_id ON posts(created_at DESC, id DESC);
 CREATE INDEX idx_comments_post_id ON comments(post_id);
 CREATE INDEX idx_tags_name ON tags(name);
 CREATE INDEX idx_post_tags_post_id ON post_tags(post_id);
 CREATE INDEX idx_post_tags_tag_id ON post_tags(tag_id);
+CREATE INDEX idx_images_hash ON images(hash);
+CREATE INDEX idx_change_log_created_at ON change_log(created_at);
+CREATE INDEX idx_change_log_txid_seq ON change_log(txid, seq);